@@ -11,22 +11,43 @@
 
 package com.trollworks.toolkit.collections;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 
+/**
+ * A node of an {@link AreaTree}.
+ * <p>
+ * Nodes are shared between a tree and its snapshots. Each node records the epoch of the tree in
+ * which it was created and only nodes of the current epoch, which is that of the root, are ever
+ * modified. Any other node is copied, along with the path leading to it, before it is changed.
+ * Since snapshots only ever search downwards, the parent of a shared node may be pointed at a
+ * node of a later epoch, but the parent of a node of the current epoch is always correct.
+ */
 class AreaNode implements AreaObject {
-	private static final int	MAX_PER_NODE	= 4;
+	private static final int	INDEX_BITS	= 30;
+	private static final long	INDEX_MASK	= (1L << INDEX_BITS) - 1;
 	private AreaNode			mParent;
 	private boolean				mLeafNode;
 	private Rectangle			mBounds;
+	private int					mCapacity;
+	private int					mEpoch;
 	private int					mStorageCount;
 	private AreaObject[]		mStorage;
 
-	/** Creates a leaf node with no parent and a default bounds of (0,0,0,0). */
-	public AreaNode() {
-		this(null, true);
+	/**
+	 * Creates a leaf node with no parent and a default bounds of (0,0,0,0).
+	 *
+	 * @param capacity The maximum number of objects or nodes each node may hold.
+	 * @param epoch The epoch of the tree the node is being created in.
+	 */
+	public AreaNode(int capacity, int epoch) {
+		this(null, true, capacity, epoch);
 	}
 
 	/**
@@ -34,13 +55,128 @@ class AreaNode implements AreaObject {
 	 *
 	 * @param parent The parent of this node.
 	 * @param leafNode <code>true</code> if this should be a leaf node, <code>false</code> if not.
+	 * @param capacity The maximum number of objects or nodes each node may hold.
+	 * @param epoch The epoch of the tree the node is being created in.
 	 */
-	protected AreaNode(AreaNode parent, boolean leafNode) {
+	protected AreaNode(AreaNode parent, boolean leafNode, int capacity, int epoch) {
 		mParent = parent;
 		mLeafNode = leafNode;
 		mBounds = new Rectangle(0, 0, 0, 0);
+		mCapacity = capacity;
+		mEpoch = epoch;
 		mStorageCount = 0;
-		mStorage = new AreaObject[MAX_PER_NODE + 1];
+		mStorage = new AreaObject[capacity + 1];
+	}
+
+	/**
+	 * Builds a tree using the Sort-Tile-Recursive algorithm, which packs the objects into as few,
+	 * as full and as little overlapping nodes as possible.
+	 *
+	 * @param objs The objects to place into the tree. At most 2<sup>30</sup> are supported.
+	 * @param capacity The maximum number of objects or nodes each node may hold.
+	 * @param epoch The epoch of the tree the nodes are being created in.
+	 * @return The root node of the new tree.
+	 */
+	static AreaNode bulkLoad(Collection<? extends AreaObject> objs, int capacity, int epoch) {
+		AreaObject[] entries = objs.toArray(new AreaObject[objs.size()]);
+		int count = entries.length;
+		boolean leafNode = true;
+		while (count > capacity) {
+			int nodeCount = (count + capacity - 1) / capacity;
+			int slabCount = (int) Math.ceil(Math.sqrt(nodeCount));
+			int slabSize = (nodeCount + slabCount - 1) / slabCount * capacity;
+			AreaObject[] nodes = new AreaObject[nodeCount];
+			int nodeIndex = 0;
+			sortByCenter(entries, 0, count, false);
+			for (int start = 0; start < count; start += slabSize) {
+				int end = Math.min(start + slabSize, count);
+				sortByCenter(entries, start, end, true);
+				for (int i = start; i < end; i += capacity) {
+					AreaNode node = new AreaNode(null, leafNode, capacity, epoch);
+					node.fill(entries, i, Math.min(i + capacity, end));
+					nodes[nodeIndex++] = node;
+				}
+			}
+			entries = nodes;
+			count = nodeIndex;
+			leafNode = false;
+		}
+		AreaNode root = new AreaNode(null, leafNode, capacity, epoch);
+		root.fill(entries, 0, count);
+		return root;
+	}
+
+	private void fill(AreaObject[] entries, int start, int end) {
+		mStorageCount = end - start;
+		System.arraycopy(entries, start, mStorage, 0, mStorageCount);
+		if (!mLeafNode) {
+			for (int i = 0; i < mStorageCount; i++) {
+				((AreaNode) mStorage[i]).mParent = this;
+			}
+		}
+		adjustBounds();
+	}
+
+	/**
+	 * Sorts a range of objects by the horizontal or vertical center of their bounds. Each center is
+	 * packed together with its original position into a single long, so that a primitive sort can
+	 * be used and the bounds of each object are only retrieved once.
+	 */
+	private static void sortByCenter(AreaObject[] entries, int start, int end, boolean vertical) {
+		int count = end - start;
+		long[] keys = new long[count];
+		for (int i = 0; i < count; i++) {
+			Rectangle bounds = entries[start + i].getBounds();
+			long center = vertical ? bounds.y + (long) (bounds.height >> 1) : bounds.x + (long) (bounds.width >> 1);
+			keys[i] = center << INDEX_BITS | i;
+		}
+		Arrays.sort(keys);
+		AreaObject[] sorted = new AreaObject[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = entries[start + (int) (keys[i] & INDEX_MASK)];
+		}
+		System.arraycopy(sorted, 0, entries, start, count);
+	}
+
+	/**
+	 * @param epoch The current epoch of the tree.
+	 * @return This node, if it belongs to the current epoch, or a copy of it that does. Only used
+	 *         on the root, as the copy is given no parent.
+	 */
+	protected AreaNode modifiable(int epoch) {
+		return mEpoch == epoch ? this : copy(null, epoch);
+	}
+
+	/**
+	 * @param index The index of the child node within this node, which must be modifiable.
+	 * @return The child node, copied and put in place of the original first if it does not belong
+	 *         to the same epoch as this node.
+	 */
+	private AreaNode modifiableChild(int index) {
+		AreaNode child = (AreaNode) mStorage[index];
+		if (child.mEpoch != mEpoch) {
+			child = child.copy(this, mEpoch);
+			mStorage[index] = child;
+		}
+		return child;
+	}
+
+	/**
+	 * @param parent The parent to give the copy.
+	 * @param epoch The epoch to give the copy.
+	 * @return A copy of this node alone. Its children, whether nodes or objects, are shared.
+	 */
+	private AreaNode copy(AreaNode parent, int epoch) {
+		AreaNode node = new AreaNode(parent, mLeafNode, mCapacity, epoch);
+		node.mBounds.setBounds(mBounds);
+		node.mStorageCount = mStorageCount;
+		System.arraycopy(mStorage, 0, node.mStorage, 0, mStorageCount);
+		return node;
+	}
+
+	/** @return <code>true</code> if the tree from this point down contains nothing. */
+	protected boolean isEmpty() {
+		return mStorageCount == 0;
 	}
 
 	private void addLeavesToList(ArrayList<AreaObject> list) {
@@ -48,7 +184,13 @@ class AreaNode implements AreaObject {
 			if (mLeafNode) {
 				list.add(mStorage[i]);
 			} else {
-				((AreaNode) mStorage[i]).addLeavesToList(list);
+				AreaNode child = (AreaNode) mStorage[i];
+				if (child.mEpoch == mEpoch) {
+					child.addLeavesToList(list);
+				} else {
+					// Shared with a snapshot, so must be left as it is.
+					child.collectLeaves(list);
+				}
 			}
 			mStorage[i] = null;
 		}
@@ -56,6 +198,16 @@ class AreaNode implements AreaObject {
 		mLeafNode = true;
 	}
 
+	private void collectLeaves(ArrayList<AreaObject> list) {
+		for (int i = 0; i < mStorageCount; i++) {
+			if (mLeafNode) {
+				list.add(mStorage[i]);
+			} else {
+				((AreaNode) mStorage[i]).collectLeaves(list);
+			}
+		}
+	}
+
 	private void adjustBounds() {
 		if (mStorageCount > 0) {
 			Rectangle bounds = mStorage[0].getBounds();
@@ -83,6 +235,42 @@ class AreaNode implements AreaObject {
 		return findLeaf(obj) != null;
 	}
 
+	/**
+	 * Finds the leaf node containing an object, making it and the nodes leading to it modifiable.
+	 *
+	 * @param objToFind The object to look for.
+	 * @return The leaf node containing the object, or <code>null</code> if it isn't present.
+	 */
+	private AreaNode findModifiableLeaf(AreaObject objToFind) {
+		TIntArrayList path = new TIntArrayList();
+		if (!findPath(objToFind, objToFind.getBounds(), path)) {
+			return null;
+		}
+		AreaNode node = this;
+		int depth = path.size();
+		for (int i = 0; i < depth; i++) {
+			node = node.modifiableChild(path.getQuick(i));
+		}
+		return node;
+	}
+
+	private boolean findPath(AreaObject objToFind, Rectangle bounds, TIntArrayList path) {
+		for (int i = 0; i < mStorageCount; i++) {
+			if (bounds.intersects(mStorage[i].getBounds())) {
+				if (!mLeafNode) {
+					path.add(i);
+					if (((AreaNode) mStorage[i]).findPath(objToFind, bounds, path)) {
+						return true;
+					}
+					path.removeAt(path.size() - 1);
+				} else if (mStorage[i] == objToFind) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	private AreaNode findLeaf(AreaObject objToFind) {
 		Rectangle bounds = objToFind.getBounds();
 
@@ -132,6 +320,7 @@ class AreaNode implements AreaObject {
 			growth = Long.MAX_VALUE;
 			oldNode = leaf;
 
+			int choice = 0;
 			for (int i = 0; i < oldNode.mStorageCount; i++) {
 				AreaNode tmpNode = (AreaNode) oldNode.mStorage[i];
 				Rectangle rectToGrow = tmpNode.getBounds();
@@ -140,14 +329,15 @@ class AreaNode implements AreaObject {
 
 				if (growthAmt <= growth) {
 					growth = growthAmt;
-					leaf = tmpNode;
+					choice = i;
 				}
 			}
+			leaf = oldNode.modifiableChild(choice);
 		}
 
 		// Add the new object in
 		leaf.mStorage[leaf.mStorageCount++] = obj;
-		if (leaf.mStorageCount > MAX_PER_NODE) {
+		if (leaf.mStorageCount > mCapacity) {
 			split = splitNode(leaf);
 		}
 
@@ -160,7 +350,7 @@ class AreaNode implements AreaObject {
 				if (leaf != null) {
 					leaf.mStorage[leaf.mStorageCount++] = split;
 					split.mParent = leaf;
-					if (leaf.mStorageCount > MAX_PER_NODE) {
+					if (leaf.mStorageCount > mCapacity) {
 						split = splitNode(leaf);
 					} else {
 						split = null;
@@ -170,7 +360,7 @@ class AreaNode implements AreaObject {
 		}
 
 		if (split != null) {
-			root = new AreaNode(null, false);
+			root = new AreaNode(null, false, mCapacity, mEpoch);
 			mParent = root;
 			split.mParent = root;
 			root.mStorage[root.mStorageCount++] = this;
@@ -189,7 +379,7 @@ class AreaNode implements AreaObject {
 	 * @return The root node for where the change occurred.
 	 */
 	protected AreaNode remove(AreaObject obj) {
-		AreaNode leafNode = findLeaf(obj);
+		AreaNode leafNode = findModifiableLeaf(obj);
 		AreaNode root = this;
 
 		if (leafNode != null) {
@@ -202,7 +392,7 @@ class AreaNode implements AreaObject {
 			while (leafNode.mParent != null) {
 				AreaNode parentNode = leafNode.mParent;
 
-				if (leafNode.mStorageCount < MAX_PER_NODE / 2) {
+				if (leafNode.mStorageCount < mCapacity / 2) {
 					leafNode.addLeavesToList(savedLeaves);
 					parentNode.mStorageCount = removeFromArray(parentNode.mStorageCount, parentNode.mStorage, leafNode);
 					if (parentNode.mStorageCount == 0) {
@@ -243,7 +433,7 @@ class AreaNode implements AreaObject {
 		// Remove all the objects in the list from the tree, making a note
 		// of which leaf nodes are affected by this.
 		for (AreaObject bounds : list) {
-			AreaNode leafNode = findLeaf(bounds);
+			AreaNode leafNode = findModifiableLeaf(bounds);
 
 			if (leafNode != null) {
 				leavesVisited.add(leafNode);
@@ -257,7 +447,7 @@ class AreaNode implements AreaObject {
 			while (leaf.mParent != null) {
 				AreaNode parentNode = leaf.mParent;
 
-				if (leaf.mStorageCount < MAX_PER_NODE / 2) {
+				if (leaf.mStorageCount < mCapacity / 2) {
 					leaf.addLeavesToList(savedLeaves);
 					parentNode.mStorageCount = removeFromArray(parentNode.mStorageCount, parentNode.mStorage, leaf);
 					if (parentNode.mStorageCount == 0) {
@@ -379,6 +569,66 @@ class AreaNode implements AreaObject {
 		}
 	}
 
+	/**
+	 * Appends all objects that are within the specified distance of a point to
+	 * <code>result</code>.
+	 *
+	 * @param x The horizontal coordinate of the point.
+	 * @param y The vertical coordinate of the point.
+	 * @param maxDistanceSquared The square of the maximum distance.
+	 * @param result The list to add matches to. May not be <code>null</code>.
+	 */
+	protected void search(double x, double y, double maxDistanceSquared, ArrayList<AreaObject> result) {
+		for (int i = 0; i < mStorageCount; i++) {
+			if (DistanceQueue.distanceSquared(x, y, mStorage[i].getBounds()) <= maxDistanceSquared) {
+				if (!mLeafNode) {
+					((AreaNode) mStorage[i]).search(x, y, maxDistanceSquared, result);
+				} else {
+					result.add(mStorage[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Appends up to <code>count</code> objects to <code>result</code>, ordered from nearest to
+	 * furthest from a point. Nodes and objects are visited best-first, so only the nodes nearer
+	 * than the last object found are ever opened.
+	 *
+	 * @param x The horizontal coordinate of the point.
+	 * @param y The vertical coordinate of the point.
+	 * @param count The maximum number of objects to add.
+	 * @param maxDistanceSquared The square of the maximum distance.
+	 * @param targetClass The class of object for which we're looking, or <code>null</code>.
+	 * @param result The list to add matches to. May not be <code>null</code>.
+	 */
+	protected void searchNearest(double x, double y, int count, double maxDistanceSquared, Class<? extends AreaObject> targetClass, ArrayList<AreaObject> result) {
+		if (count > 0) {
+			DistanceQueue queue = new DistanceQueue();
+			queue.add(0, 0, this);
+			while (queue.poll()) {
+				if (queue.getCode() != 0) {
+					AreaObject obj = (AreaObject) queue.getItem();
+					if (targetClass == null || targetClass.isInstance(obj)) {
+						result.add(obj);
+						if (result.size() >= count) {
+							break;
+						}
+					}
+				} else {
+					AreaNode node = (AreaNode) queue.getItem();
+					int code = node.mLeafNode ? 1 : 0;
+					for (int i = 0; i < node.mStorageCount; i++) {
+						double distance = DistanceQueue.distanceSquared(x, y, node.mStorage[i].getBounds());
+						if (distance <= maxDistanceSquared) {
+							queue.add(distance, code, node.mStorage[i]);
+						}
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * @param location The location to search with. May not be <code>null</code>.
 	 * @return <code>true</code> if there are any objects that intersect with <code>location</code>.
@@ -474,7 +724,7 @@ class AreaNode implements AreaObject {
 
 	@SuppressWarnings("null")
 	private static AreaNode splitNode(AreaNode node) {
-		AreaObject oldStorage[] = new AreaObject[MAX_PER_NODE + 1];
+		AreaObject oldStorage[] = new AreaObject[node.mCapacity + 1];
 		int oldStorageCount = node.mStorageCount;
 		int largestWasted = -1;
 		AreaObject firstShape = null;
@@ -488,7 +738,7 @@ class AreaNode implements AreaObject {
 			System.arraycopy(node.mStorage, 0, oldStorage, 0, node.mStorageCount);
 		}
 
-		split = new AreaNode(node.mParent, node.mLeafNode);
+		split = new AreaNode(node.mParent, node.mLeafNode, node.mCapacity, node.mEpoch);
 
 		// Find the two rectangles that are the most wasteful when paired together
 		for (i = 0; i < oldStorageCount - 1; i++) {
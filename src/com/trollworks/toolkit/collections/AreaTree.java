@@ -14,6 +14,8 @@ package com.trollworks.toolkit.collections;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Provides storage and quick retrieval of 2D spatially-oriented objects.
@@ -22,19 +24,141 @@ import java.util.ArrayList;
  * remove it from the tree, then re-insert it once the change has been made.
  * <p>
  * This class must be synchronized externally if multiple threads intend to access it at the same
- * time.
+ * time. Alternatively, the thread that modifies it may call {@link #publish()} after each batch of
+ * changes, and any number of other threads may then search the result of {@link #getSnapshot()}
+ * without locking.
  */
 public class AreaTree {
-	private AreaNode	mRoot;
+	/** The default maximum number of objects or nodes each node may hold. */
+	public static final int		DEFAULT_CAPACITY	= 4;
+	private AreaNode			mRoot;
+	private int					mCapacity;
+	private int					mEpoch;
+	private boolean				mReadOnly;
+	private volatile AreaTree	mSnapshot;
 
-	/** Creates an new, empty tree. */
+	/** Creates an new, empty tree with the {@link #DEFAULT_CAPACITY}. */
 	public AreaTree() {
-		mRoot = new AreaNode();
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an new, empty tree. Larger capacities produce shallower trees, which are generally
+	 * faster to search when holding many objects, at the cost of more comparisons per node.
+	 *
+	 * @param capacity The maximum number of objects or nodes each node may hold. Will be forced to
+	 *            a minimum of 2.
+	 */
+	public AreaTree(int capacity) {
+		mCapacity = Math.max(capacity, 2);
+		clear();
+		mSnapshot = snapshot();
+	}
+
+	/**
+	 * Creates a tree with the {@link #DEFAULT_CAPACITY} and bulk loads it.
+	 *
+	 * @param objs The objects to place into the tree. May not be <code>null</code>.
+	 * @see #AreaTree(Collection, int)
+	 */
+	public AreaTree(Collection<? extends AreaObject> objs) {
+		this(objs, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a tree and bulk loads it using the Sort-Tile-Recursive algorithm. This is much
+	 * faster than inserting the objects one at a time and results in a shallower, better packed
+	 * tree.
+	 *
+	 * @param objs The objects to place into the tree. May not be <code>null</code>.
+	 * @param capacity The maximum number of objects or nodes each node may hold. Will be forced to
+	 *            a minimum of 2.
+	 */
+	public AreaTree(Collection<? extends AreaObject> objs, int capacity) {
+		mCapacity = Math.max(capacity, 2);
+		mRoot = AreaNode.bulkLoad(objs, mCapacity, mEpoch);
+		mSnapshot = snapshot();
+	}
+
+	private AreaTree(AreaTree other) {
+		mRoot = other.mRoot;
+		mCapacity = other.mCapacity;
+		mReadOnly = true;
+		mSnapshot = this;
+	}
+
+	/**
+	 * Creates a read-only copy of this tree in constant time. The copy shares all of its nodes
+	 * with this tree, which from then on copies each node, and the path leading to it, before it
+	 * first modifies it. Only the thread that modifies this tree should call this. Any attempt to
+	 * modify the copy will result in an {@link UnsupportedOperationException}.
+	 *
+	 * @return The snapshot. If this tree is already a snapshot, it is returned as-is.
+	 */
+	public AreaTree snapshot() {
+		if (mReadOnly) {
+			return this;
+		}
+		AreaTree snapshot = new AreaTree(this);
+		mEpoch++;
+		return snapshot;
+	}
+
+	/**
+	 * Takes a snapshot of the current contents and makes it available to other threads through
+	 * {@link #getSnapshot()}. Only the thread that modifies this tree should call this.
+	 */
+	public void publish() {
+		checkWritable();
+		mSnapshot = snapshot();
+	}
+
+	/**
+	 * May be called from any thread.
+	 *
+	 * @return The snapshot from the last call to {@link #publish()}, or an empty snapshot if it has
+	 *         never been called.
+	 */
+	public AreaTree getSnapshot() {
+		return mSnapshot;
+	}
+
+	/** @return Whether this tree is a read-only snapshot. */
+	public boolean isSnapshot() {
+		return mReadOnly;
+	}
+
+	private void checkWritable() {
+		if (mReadOnly) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Prepares the root for modification, copying it if it is shared with a snapshot. */
+	private void prepareRoot() {
+		checkWritable();
+		mRoot = mRoot.modifiable(mEpoch);
+	}
+
+	/** @return The maximum number of objects or nodes each node may hold. */
+	public int getCapacity() {
+		return mCapacity;
 	}
 
 	/** Removes all nodes. */
 	public void clear() {
-		mRoot = new AreaNode();
+		checkWritable();
+		mRoot = new AreaNode(mCapacity, mEpoch);
+	}
+
+	/**
+	 * Rebuilds the tree from its current contents using the same bulk loading as
+	 * {@link #AreaTree(Collection, int)}. Useful after many insertions and removals have left the
+	 * tree deeper or more overlapping than necessary.
+	 */
+	public void rebuild() {
+		checkWritable();
+		mRoot = AreaNode.bulkLoad(getAllData(), mCapacity, mEpoch);
 	}
 
 	/**
@@ -66,28 +190,39 @@ public class AreaTree {
 	 * @param obj The object to add. May not be <code>null</code>.
 	 */
 	public void insert(AreaObject obj) {
+		prepareRoot();
 		mRoot = mRoot.insert(obj);
 	}
 
 	/**
-	 * Inserts a list of objects into the tree.
+	 * Inserts a list of objects into the tree. If the tree is empty, the objects are bulk loaded.
 	 *
 	 * @param list The list of objects to add. May not be <code>null</code>.
 	 */
 	public void insert(ArrayList<AreaObject> list) {
-		for (AreaObject bounds : list) {
-			insert(bounds);
+		checkWritable();
+		if (mRoot.isEmpty()) {
+			mRoot = AreaNode.bulkLoad(list, mCapacity, mEpoch);
+		} else {
+			for (AreaObject bounds : list) {
+				insert(bounds);
+			}
 		}
 	}
 
 	/**
-	 * Inserts an array of objects into the tree.
+	 * Inserts an array of objects into the tree. If the tree is empty, the objects are bulk loaded.
 	 *
 	 * @param array The array of objects to add. May not be <code>null</code>.
 	 */
 	public void insert(AreaObject[] array) {
-		for (AreaObject bounds : array) {
-			insert(bounds);
+		checkWritable();
+		if (mRoot.isEmpty()) {
+			mRoot = AreaNode.bulkLoad(Arrays.asList(array), mCapacity, mEpoch);
+		} else {
+			for (AreaObject bounds : array) {
+				insert(bounds);
+			}
 		}
 	}
 
@@ -97,6 +232,7 @@ public class AreaTree {
 	 * @param obj The object to remove. May not be <code>null</code>.
 	 */
 	public void remove(AreaObject obj) {
+		prepareRoot();
 		mRoot = mRoot.remove(obj);
 	}
 
@@ -107,6 +243,7 @@ public class AreaTree {
 	 * @param list The list of objects to remove. May not be <code>null</code>.
 	 */
 	public void remove(ArrayList<AreaObject> list) {
+		prepareRoot();
 		mRoot = mRoot.remove(list);
 	}
 
@@ -228,6 +365,56 @@ public class AreaTree {
 		return !result.isEmpty();
 	}
 
+	/**
+	 * @param circle The {@link Circle} to search with.
+	 * @return All objects that are at least partially within the <code>circle</code>.
+	 */
+	public ArrayList<AreaObject> search(Circle circle) {
+		ArrayList<AreaObject> list = new ArrayList<>();
+		double radius = circle.getRadius();
+		mRoot.search(circle.getCenterX(), circle.getCenterY(), radius * radius, list);
+		return list;
+	}
+
+	/**
+	 * @param x The x coordinate to search with.
+	 * @param y The y coordinate to search with.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects, ordered from nearest to furthest from the
+	 *         coordinates x &amp; y.
+	 */
+	public ArrayList<AreaObject> searchNearest(double x, double y, int count) {
+		return searchNearest(x, y, count, null);
+	}
+
+	/**
+	 * @param x The x coordinate to search with.
+	 * @param y The y coordinate to search with.
+	 * @param count The maximum number of objects to return.
+	 * @param targetClass The class of object for which we're looking, or <code>null</code> for
+	 *            any.
+	 * @return Up to <code>count</code> objects that are instances of the target class, ordered
+	 *         from nearest to furthest from the coordinates x &amp; y.
+	 */
+	public ArrayList<AreaObject> searchNearest(double x, double y, int count, Class<? extends AreaObject> targetClass) {
+		ArrayList<AreaObject> list = new ArrayList<>();
+		mRoot.searchNearest(x, y, count, Double.POSITIVE_INFINITY, targetClass, list);
+		return list;
+	}
+
+	/**
+	 * @param circle The {@link Circle} to search with.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects that are at least partially within the
+	 *         <code>circle</code>, ordered from nearest to furthest from its center.
+	 */
+	public ArrayList<AreaObject> searchNearest(Circle circle, int count) {
+		ArrayList<AreaObject> list = new ArrayList<>();
+		double radius = circle.getRadius();
+		mRoot.searchNearest(circle.getCenterX(), circle.getCenterY(), count, radius * radius, null, list);
+		return list;
+	}
+
 	/**
 	 * @param x The x coordinate to search with.
 	 * @param y The y coordinate to search with.
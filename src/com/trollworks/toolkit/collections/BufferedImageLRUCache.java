@@ -12,10 +12,9 @@
 package com.trollworks.toolkit.collections;
 
 import java.awt.image.BufferedImage;
-import java.util.Map;
 
 /**
- * Provides a {@link LRUCache} for {@link BufferedImage}s, flushing their contents when removed from
+ * Provides a {@link LRUCache} for {@link BufferedImage}s, flushing their contents when evicted from
  * the cache.
  */
 public class BufferedImageLRUCache<K> extends LRUCache<K, BufferedImage> {
@@ -30,11 +29,9 @@ public class BufferedImageLRUCache<K> extends LRUCache<K, BufferedImage> {
 	}
 
 	@Override
-	protected boolean removeEldestEntry(Map.Entry<K, BufferedImage> eldest) {
-		if (super.removeEldestEntry(eldest)) {
-			eldest.getValue().flush();
-			return true;
+	protected void entryRemoved(K key, BufferedImage value, boolean evicted) {
+		if (evicted) {
+			value.flush();
 		}
-		return false;
 	}
 }
@@ -0,0 +1,817 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * A thread-safe, bounded cache using the W-TinyLFU policy. New entries enter a small LRU window.
+ * Entries leaving the window must then compete for admission to the main space, where they are
+ * only kept if they have been used more frequently than the entry they would displace, as
+ * estimated by a compact count-min sketch. The main space is a segmented LRU, split between
+ * entries seen once (probation) and entries seen more than once (protected).
+ * <p>
+ * Reads never block: {@link #get(Object)} looks the entry up in a {@link ConcurrentHashMap} and
+ * records the access in one of several lossy, striped ring buffers, which are replayed against
+ * the policy later. Writes and the policy's upkeep are serialized by a single lock.
+ * <p>
+ * Capacity is measured either as a number of entries or, when a weigher is supplied, as a total
+ * weight. Entries may also be set to expire a fixed time after they were last accessed or
+ * written. Neither keys nor values may be <code>null</code>.
+ */
+public class ConcurrentCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+	private static final int								NONE		= -1;
+	private static final int								WINDOW		= 0;
+	private static final int								PROBATION	= 1;
+	private static final int								PROTECTED	= 2;
+	private static final int								STRIPES		= Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+	private final ConcurrentHashMap<K, Node<K, V>>			mData		= new ConcurrentHashMap<>();
+	private final ReentrantLock								mLock		= new ReentrantLock();
+	private final ReadBuffer<K, V>[]						mReadBuffers;
+	private final FrequencySketch							mSketch;
+	private final ToIntBiFunction<? super K, ? super V>	mWeigher;
+	private final long										mMaximumWeight;
+	private final long										mWindowMaximum;
+	private final long										mProtectedMaximum;
+	private final Node<K, V>[]								mQueues;
+	private final Node<K, V>								mWriteOrder;
+	private long											mWindowWeight;
+	private long											mProtectedWeight;
+	private volatile long									mWeightedSize;
+	private volatile long									mExpireAfterAccess;
+	private volatile long									mExpireAfterWrite;
+	private final LongAdder									mHits		= new LongAdder();
+	private final LongAdder									mMisses		= new LongAdder();
+	private final LongAdder									mEvictions	= new LongAdder();
+
+	/**
+	 * Creates a new {@link ConcurrentCache}.
+	 *
+	 * @param maxEntries The maximum number of entries to be in the cache.
+	 */
+	public ConcurrentCache(int maxEntries) {
+		this(maxEntries, null);
+	}
+
+	/**
+	 * Creates a new {@link ConcurrentCache}.
+	 *
+	 * @param maximumWeight The maximum total weight of the entries in the cache.
+	 * @param weigher Returns the weight of an entry, which must not be negative and must not
+	 *            change while the entry is in the cache. Pass in <code>null</code> to give each
+	 *            entry a weight of 1.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ConcurrentCache(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+		mMaximumWeight = Math.max(maximumWeight, 0);
+		mWeigher = weigher;
+		// Small caches still need room in the window for the latest entry
+		mWindowMaximum = Math.min(Math.max(mMaximumWeight / 100, 1), mMaximumWeight);
+		long main = mMaximumWeight - mWindowMaximum;
+		mProtectedMaximum = main - main / 5;
+		// Grown to suit the number of entries as they are added, so that large maximums cost
+		// nothing up front
+		mSketch = new FrequencySketch(16);
+		mReadBuffers = new ReadBuffer[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			mReadBuffers[i] = new ReadBuffer<>();
+		}
+		mQueues = new Node[3];
+		for (int i = 0; i < mQueues.length; i++) {
+			mQueues[i] = new Node<>(null, null, 0, 0);
+		}
+		mWriteOrder = new Node<>(null, null, 0, 0);
+	}
+
+	/**
+	 * @param duration The amount of time after an entry was last read or written that it should
+	 *            be discarded. Pass in zero to never expire entries due to a lack of access.
+	 * @param unit The {@link TimeUnit} of the duration.
+	 */
+	public void setExpireAfterAccess(long duration, TimeUnit unit) {
+		mLock.lock();
+		try {
+			long expireAfterAccess = unit.toNanos(Math.max(duration, 0));
+			startTiming(expireAfterAccess);
+			mExpireAfterAccess = expireAfterAccess;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * @param duration The amount of time after an entry was last written that it should be
+	 *            discarded. Pass in zero to never expire entries due to their age.
+	 * @param unit The {@link TimeUnit} of the duration.
+	 */
+	public void setExpireAfterWrite(long duration, TimeUnit unit) {
+		mLock.lock();
+		try {
+			long expireAfterWrite = unit.toNanos(Math.max(duration, 0));
+			startTiming(expireAfterWrite);
+			boolean link = mExpireAfterWrite == 0 && expireAfterWrite != 0;
+			mExpireAfterWrite = expireAfterWrite;
+			if (link) {
+				// Entries were not kept in write order while this was off
+				ArrayList<Node<K, V>> nodes = new ArrayList<>(mData.values());
+				nodes.sort((one, two) -> Long.compare(one.mWriteTime - two.mWriteTime, 0));
+				mWriteOrder.mWriteNext = mWriteOrder;
+				mWriteOrder.mWritePrevious = mWriteOrder;
+				for (Node<K, V> node : nodes) {
+					node.mWriteNext = null;
+					linkWrite(node);
+				}
+			}
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Entries are not timed while neither kind of expiration is on, so when one is turned on,
+	 * the existing entries are treated as having been written and accessed just now.
+	 *
+	 * @param duration The new expiration duration about to be set.
+	 */
+	private void startTiming(long duration) {
+		if (duration != 0 && mExpireAfterAccess == 0 && mExpireAfterWrite == 0) {
+			long now = System.nanoTime();
+			for (Node<K, V> node : mData.values()) {
+				node.mAccessTime = now;
+				node.mWriteTime = now;
+			}
+		}
+	}
+
+	/** @return The maximum total weight of the entries in the cache. */
+	public long getMaximumWeight() {
+		return mMaximumWeight;
+	}
+
+	/** @return The current total weight of the entries in the cache. */
+	public long getWeightedSize() {
+		return mWeightedSize;
+	}
+
+	/** @return The number of times a lookup found a live entry. */
+	public long getHitCount() {
+		return mHits.sum();
+	}
+
+	/** @return The number of times a lookup did not find a live entry. */
+	public long getMissCount() {
+		return mMisses.sum();
+	}
+
+	/** @return The fraction of lookups that found a live entry, or 1 if there have been none. */
+	public double getHitRate() {
+		long hits = mHits.sum();
+		long total = hits + mMisses.sum();
+		return total == 0 ? 1.0 : (double) hits / total;
+	}
+
+	/** @return The number of entries that have been discarded due to size or expiration. */
+	public long getEvictionCount() {
+		return mEvictions.sum();
+	}
+
+	/**
+	 * Called whenever an entry leaves the cache. Calls are made while holding the cache's internal
+	 * lock, so implementations should be brief and must not call back into the cache. The default
+	 * implementation does nothing.
+	 *
+	 * @param key The key of the entry.
+	 * @param value The value of the entry.
+	 * @param evicted <code>true</code> if the entry was discarded due to size or expiration,
+	 *            <code>false</code> if it was explicitly removed or replaced.
+	 */
+	protected void entryRemoved(K key, V value, boolean evicted) {
+		// Does nothing by default.
+	}
+
+	/** Performs any pending upkeep, such as discarding expired entries, immediately. */
+	public void cleanUp() {
+		mLock.lock();
+		try {
+			maintenance(now());
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		return mData.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mData.isEmpty();
+	}
+
+	/** Does not count as an access of the entry. */
+	@Override
+	public boolean containsKey(Object key) {
+		Node<K, V> node = mData.get(key);
+		return node != null && !isExpired(node, now());
+	}
+
+	@Override
+	public V get(Object key) {
+		Node<K, V> node = mData.get(key);
+		if (node == null) {
+			mMisses.increment();
+			return null;
+		}
+		long now = now();
+		if (isExpired(node, now)) {
+			mMisses.increment();
+			if (mLock.tryLock()) {
+				try {
+					maintenance(now);
+				} finally {
+					mLock.unlock();
+				}
+			}
+			return null;
+		}
+		if (now != 0) {
+			node.mAccessTime = now;
+		}
+		mHits.increment();
+		ReadBuffer<K, V> buffer = mReadBuffers[(int) Thread.currentThread().getId() * 0x9E3779B9 >>> 16 & STRIPES - 1];
+		if (buffer.offer(node) && mLock.tryLock()) {
+			try {
+				maintenance(now);
+			} finally {
+				mLock.unlock();
+			}
+		}
+		return node.mValue;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return put(key, value, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		return put(key, value, true);
+	}
+
+	private V put(K key, V value, boolean onlyIfAbsent) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		int weight = weigh(key, value);
+		mLock.lock();
+		try {
+			// Determined while holding the lock, so that expiration can't be turned on in between
+			long now = now();
+			// Replay pending reads first, so they can't move older entries ahead of this one
+			drainReadBuffers();
+			Node<K, V> node = mData.get(key);
+			if (node != null && isExpired(node, now)) {
+				evict(node);
+				node = null;
+			}
+			V old = null;
+			if (node == null) {
+				node = new Node<>(key, value, weight, now);
+				mData.put(key, node);
+				mSketch.increment(key);
+				add(node);
+			} else {
+				old = node.mValue;
+				if (onlyIfAbsent) {
+					access(node);
+				} else {
+					update(node, value, weight, now);
+					entryRemoved(key, old, false);
+				}
+			}
+			maintenance(now);
+			return old;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		mLock.lock();
+		try {
+			Node<K, V> node = mData.get(key);
+			if (node != null) {
+				if (isExpired(node, now())) {
+					evict(node);
+					return null;
+				}
+				discard(node, false);
+				return node.mValue;
+			}
+			return null;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		mLock.lock();
+		try {
+			Node<K, V> node = mData.get(key);
+			if (node != null && !isExpired(node, now()) && node.mValue.equals(value)) {
+				discard(node, false);
+				return true;
+			}
+			return false;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (oldValue == null || newValue == null) {
+			throw new NullPointerException();
+		}
+		int weight = weigh(key, newValue);
+		long now = now();
+		mLock.lock();
+		try {
+			Node<K, V> node = mData.get(key);
+			if (node != null && !isExpired(node, now) && node.mValue.equals(oldValue)) {
+				V old = node.mValue;
+				update(node, newValue, weight, now);
+				entryRemoved(key, old, false);
+				maintenance(now);
+				return true;
+			}
+			return false;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int weight = weigh(key, value);
+		long now = now();
+		mLock.lock();
+		try {
+			Node<K, V> node = mData.get(key);
+			if (node != null && !isExpired(node, now)) {
+				V old = node.mValue;
+				update(node, value, weight, now);
+				entryRemoved(key, old, false);
+				maintenance(now);
+				return old;
+			}
+			return null;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		mLock.lock();
+		try {
+			for (Node<K, V> node : mData.values()) {
+				discard(node, false);
+			}
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			@Override
+			public int size() {
+				return mData.size();
+			}
+
+			@Override
+			public void clear() {
+				ConcurrentCache.this.clear();
+			}
+
+			@Override
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+		};
+	}
+
+	private int weigh(K key, V value) {
+		if (mWeigher == null) {
+			return 1;
+		}
+		int weight = mWeigher.applyAsInt(key, value);
+		if (weight < 0) {
+			throw new IllegalArgumentException();
+		}
+		return weight;
+	}
+
+	private long now() {
+		return mExpireAfterAccess != 0 || mExpireAfterWrite != 0 ? System.nanoTime() : 0;
+	}
+
+	private boolean isExpired(Node<K, V> node, long now) {
+		long expireAfterAccess = mExpireAfterAccess;
+		if (expireAfterAccess != 0 && now - node.mAccessTime >= expireAfterAccess) {
+			return true;
+		}
+		long expireAfterWrite = mExpireAfterWrite;
+		return expireAfterWrite != 0 && now - node.mWriteTime >= expireAfterWrite;
+	}
+
+	// Everything below here must only be called while holding mLock.
+
+	private void add(Node<K, V> node) {
+		node.mQueue = WINDOW;
+		link(mQueues[WINDOW], node);
+		linkWrite(node);
+		mWindowWeight += node.mWeight;
+		mWeightedSize += node.mWeight;
+	}
+
+	private void update(Node<K, V> node, V value, int weight, long now) {
+		int delta = weight - node.mWeight;
+		node.mValue = value;
+		node.mWeight = weight;
+		node.mAccessTime = now;
+		node.mWriteTime = now;
+		if (node.mQueue == WINDOW) {
+			mWindowWeight += delta;
+		} else if (node.mQueue == PROTECTED) {
+			mProtectedWeight += delta;
+		}
+		mWeightedSize += delta;
+		unlinkWrite(node);
+		linkWrite(node);
+		access(node);
+	}
+
+	private void access(Node<K, V> node) {
+		switch (node.mQueue) {
+			case WINDOW:
+				unlink(node);
+				link(mQueues[WINDOW], node);
+				break;
+			case PROBATION:
+				unlink(node);
+				node.mQueue = PROTECTED;
+				link(mQueues[PROTECTED], node);
+				mProtectedWeight += node.mWeight;
+				while (mProtectedWeight > mProtectedMaximum) {
+					Node<K, V> demoted = mQueues[PROTECTED].mNext;
+					unlink(demoted);
+					mProtectedWeight -= demoted.mWeight;
+					demoted.mQueue = PROBATION;
+					link(mQueues[PROBATION], demoted);
+				}
+				break;
+			case PROTECTED:
+				unlink(node);
+				link(mQueues[PROTECTED], node);
+				break;
+			default:
+				// Already gone from the cache
+				return;
+		}
+		mSketch.increment(node.mKey);
+	}
+
+	private void maintenance(long now) {
+		drainReadBuffers();
+		mSketch.ensureCapacity(mData.size());
+		if (now != 0) {
+			expire(now);
+		}
+		evictToFit();
+	}
+
+	private void drainReadBuffers() {
+		for (ReadBuffer<K, V> buffer : mReadBuffers) {
+			buffer.drain(this);
+		}
+	}
+
+	private void expire(long now) {
+		if (mExpireAfterAccess != 0) {
+			for (Node<K, V> queue : mQueues) {
+				Node<K, V> node;
+				while ((node = queue.mNext) != queue && isExpired(node, now)) {
+					evict(node);
+				}
+			}
+		}
+		if (mExpireAfterWrite != 0) {
+			Node<K, V> node;
+			while ((node = mWriteOrder.mWriteNext) != mWriteOrder && isExpired(node, now)) {
+				evict(node);
+			}
+		}
+	}
+
+	private void evictToFit() {
+		// Entries pushed out of the window become candidates at the end of probation. The most
+		// recent entry always stays, so that it can't be turned away before it is ever read.
+		Node<K, V> window = mQueues[WINDOW];
+		while (mWindowWeight > mWindowMaximum && window.mNext != window.mPrevious) {
+			Node<K, V> node = window.mNext;
+			unlink(node);
+			mWindowWeight -= node.mWeight;
+			node.mQueue = PROBATION;
+			link(mQueues[PROBATION], node);
+		}
+		// Each candidate must be used more often than the probation victim to displace it
+		Node<K, V> probation = mQueues[PROBATION];
+		while (mWeightedSize > mMaximumWeight) {
+			Node<K, V> victim = probation.mNext;
+			if (victim == probation) {
+				victim = mQueues[PROTECTED].mNext;
+				if (victim == mQueues[PROTECTED]) {
+					victim = window.mNext;
+				}
+			} else {
+				Node<K, V> candidate = probation.mPrevious;
+				if (candidate != victim && mSketch.frequency(candidate.mKey) <= mSketch.frequency(victim.mKey)) {
+					victim = candidate;
+				}
+			}
+			evict(victim);
+		}
+	}
+
+	private void evict(Node<K, V> node) {
+		mEvictions.increment();
+		discard(node, true);
+	}
+
+	private void discard(Node<K, V> node, boolean evicted) {
+		mData.remove(node.mKey, node);
+		if (node.mQueue == WINDOW) {
+			mWindowWeight -= node.mWeight;
+		} else if (node.mQueue == PROTECTED) {
+			mProtectedWeight -= node.mWeight;
+		}
+		mWeightedSize -= node.mWeight;
+		node.mQueue = NONE;
+		unlink(node);
+		unlinkWrite(node);
+		entryRemoved(node.mKey, node.mValue, evicted);
+	}
+
+	private static <K, V> void link(Node<K, V> queue, Node<K, V> node) {
+		Node<K, V> last = queue.mPrevious;
+		node.mPrevious = last;
+		node.mNext = queue;
+		last.mNext = node;
+		queue.mPrevious = node;
+	}
+
+	private static <K, V> void unlink(Node<K, V> node) {
+		if (node.mNext != null) {
+			node.mPrevious.mNext = node.mNext;
+			node.mNext.mPrevious = node.mPrevious;
+			node.mPrevious = null;
+			node.mNext = null;
+		}
+	}
+
+	private void linkWrite(Node<K, V> node) {
+		if (mExpireAfterWrite != 0) {
+			Node<K, V> last = mWriteOrder.mWritePrevious;
+			node.mWritePrevious = last;
+			node.mWriteNext = mWriteOrder;
+			last.mWriteNext = node;
+			mWriteOrder.mWritePrevious = node;
+		}
+	}
+
+	private static <K, V> void unlinkWrite(Node<K, V> node) {
+		if (node.mWriteNext != null) {
+			node.mWritePrevious.mWriteNext = node.mWriteNext;
+			node.mWriteNext.mWritePrevious = node.mWritePrevious;
+			node.mWritePrevious = null;
+			node.mWriteNext = null;
+		}
+	}
+
+	private static final class Node<K, V> {
+		final K				mKey;
+		volatile V			mValue;
+		volatile long		mAccessTime;
+		volatile long		mWriteTime;
+		// Guarded by the cache's lock
+		int					mWeight;
+		int					mQueue;
+		Node<K, V>			mPrevious;
+		Node<K, V>			mNext;
+		Node<K, V>			mWritePrevious;
+		Node<K, V>			mWriteNext;
+
+		Node(K key, V value, int weight, long now) {
+			mKey = key;
+			mValue = value;
+			mWeight = weight;
+			mAccessTime = now;
+			mWriteTime = now;
+			if (key == null) {
+				// A queue's sentinel
+				mQueue = NONE;
+				mPrevious = this;
+				mNext = this;
+				mWritePrevious = this;
+				mWriteNext = this;
+			}
+		}
+	}
+
+	/**
+	 * A lossy ring buffer of recent reads. Readers claim a slot with a single compare-and-set and
+	 * simply drop the record when the buffer is full or they lose a race, since an approximate
+	 * access order is all the policy needs.
+	 */
+	private static final class ReadBuffer<K, V> {
+		private static final int						SIZE	= 16;
+		private final AtomicLong						mWrites	= new AtomicLong();
+		private volatile long							mReads;
+		private final AtomicReferenceArray<Node<K, V>>	mBuffer	= new AtomicReferenceArray<>(SIZE);
+
+		/**
+		 * @param node The node that was read.
+		 * @return <code>true</code> if the buffer is full and should be drained.
+		 */
+		boolean offer(Node<K, V> node) {
+			long tail = mWrites.get();
+			long size = tail - mReads;
+			if (size >= SIZE) {
+				return true;
+			}
+			if (mWrites.compareAndSet(tail, tail + 1)) {
+				mBuffer.lazySet((int) (tail & SIZE - 1), node);
+				return size + 1 >= SIZE;
+			}
+			return false;
+		}
+
+		void drain(ConcurrentCache<K, V> cache) {
+			long head = mReads;
+			long tail = mWrites.get();
+			for (; head < tail; head++) {
+				int index = (int) (head & SIZE - 1);
+				Node<K, V> node = mBuffer.get(index);
+				if (node == null) {
+					// The reader hasn't finished publishing it yet
+					break;
+				}
+				mBuffer.lazySet(index, null);
+				cache.access(node);
+			}
+			mReads = head;
+		}
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters, four per key, used to estimate how often keys have been
+	 * seen recently. All counters are halved periodically so that old popularity fades.
+	 */
+	private static final class FrequencySketch {
+		private static final long[]	SEEDS	= { 0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L };
+		private long[]				mTable;
+		private int					mSampleSize;
+		private int					mSize;
+
+		FrequencySketch(long maximumSize) {
+			mTable = new long[0];
+			ensureCapacity(maximumSize);
+		}
+
+		void ensureCapacity(long maximumSize) {
+			int capacity = (int) Math.min(Math.max(maximumSize, 16), 1 << 30);
+			if (mTable.length < capacity) {
+				capacity = Integer.highestOneBit(capacity - 1) << 1;
+				mTable = new long[capacity];
+				mSampleSize = capacity <= Integer.MAX_VALUE / 10 ? capacity * 10 : Integer.MAX_VALUE;
+				mSize = 0;
+			}
+		}
+
+		int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			int frequency = 15;
+			for (int i = 0; i < 4; i++) {
+				int shift = start + i << 2;
+				frequency = Math.min(frequency, (int) (mTable[indexOf(hash, i)] >>> shift & 0xF));
+			}
+			return frequency;
+		}
+
+		void increment(Object key) {
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int shift = start + i << 2;
+				long mask = 0xFL << shift;
+				if ((mTable[index] & mask) != mask) {
+					mTable[index] += 1L << shift;
+					added = true;
+				}
+			}
+			if (added && ++mSize >= mSampleSize) {
+				for (int i = 0; i < mTable.length; i++) {
+					mTable[i] = mTable[i] >>> 1 & 0x7777777777777777L;
+				}
+				mSize >>>= 1;
+			}
+		}
+
+		private int indexOf(int hash, int i) {
+			long value = (hash + SEEDS[i]) * SEEDS[i];
+			value += value >>> 32;
+			return (int) value & mTable.length - 1;
+		}
+
+		private static int spread(int hash) {
+			hash = (hash >>> 16 ^ hash) * 0x45D9F3B;
+			return hash >>> 16 ^ hash;
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private Iterator<Node<K, V>>	mIterator	= mData.values().iterator();
+		private Node<K, V>				mNext;
+		private Node<K, V>				mLast;
+
+		@Override
+		public boolean hasNext() {
+			if (mNext == null) {
+				long now = now();
+				while (mIterator.hasNext()) {
+					Node<K, V> node = mIterator.next();
+					if (!isExpired(node, now)) {
+						mNext = node;
+						break;
+					}
+				}
+			}
+			return mNext != null;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			mLast = mNext;
+			mNext = null;
+			return new SimpleImmutableEntry<>(mLast.mKey, mLast.mValue);
+		}
+
+		@Override
+		public void remove() {
+			if (mLast == null) {
+				throw new IllegalStateException();
+			}
+			ConcurrentCache.this.remove(mLast.mKey, mLast.mValue);
+			mLast = null;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of items keyed by distance, used for best-first nearest neighbor searches
+ * through the spatial trees. Each item carries an int code and an optional object.
+ */
+final class DistanceQueue {
+	private double[]	mDistances	= new double[16];
+	private int[]		mCodes		= new int[16];
+	private Object[]	mItems		= new Object[16];
+	private int			mSize;
+	private int			mCode;
+	private Object		mItem;
+
+	/**
+	 * @param x The horizontal coordinate of the point.
+	 * @param y The vertical coordinate of the point.
+	 * @param bounds The bounds.
+	 * @return The square of the distance between the point and the nearest edge of the bounds, or
+	 *         zero if the point lies within them.
+	 */
+	static double distanceSquared(double x, double y, Rectangle bounds) {
+		return distanceSquared(x, y, bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+
+	/**
+	 * @param x The horizontal coordinate of the point.
+	 * @param y The vertical coordinate of the point.
+	 * @param left The left edge of the bounds.
+	 * @param top The top edge of the bounds.
+	 * @param width The width of the bounds.
+	 * @param height The height of the bounds.
+	 * @return The square of the distance between the point and the nearest edge of the bounds, or
+	 *         zero if the point lies within them.
+	 */
+	static double distanceSquared(double x, double y, int left, int top, int width, int height) {
+		double dx = x < left ? left - x : Math.max(x - ((double) left + width), 0);
+		double dy = y < top ? top - y : Math.max(y - ((double) top + height), 0);
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * @param distance The distance of the item.
+	 * @param code The item's code.
+	 * @param item The item's object, if any.
+	 */
+	void add(double distance, int code, Object item) {
+		if (mSize == mDistances.length) {
+			int capacity = mSize * 2;
+			mDistances = Arrays.copyOf(mDistances, capacity);
+			mCodes = Arrays.copyOf(mCodes, capacity);
+			mItems = Arrays.copyOf(mItems, capacity);
+		}
+		int i = mSize++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (mDistances[parent] <= distance) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		mDistances[i] = distance;
+		mCodes[i] = code;
+		mItems[i] = item;
+	}
+
+	/**
+	 * Removes the nearest item, making it available through {@link #getCode()} and
+	 * {@link #getItem()}.
+	 *
+	 * @return <code>false</code> if the queue was empty.
+	 */
+	boolean poll() {
+		if (mSize == 0) {
+			return false;
+		}
+		mCode = mCodes[0];
+		mItem = mItems[0];
+		int last = --mSize;
+		double distance = mDistances[last];
+		int i = 0;
+		int half = last >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < last && mDistances[child + 1] < mDistances[child]) {
+				child++;
+			}
+			if (distance <= mDistances[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		mDistances[i] = distance;
+		mCodes[i] = mCodes[last];
+		mItems[i] = mItems[last];
+		mItems[last] = null;
+		return true;
+	}
+
+	private void move(int from, int to) {
+		mDistances[to] = mDistances[from];
+		mCodes[to] = mCodes[from];
+		mItems[to] = mItems[from];
+	}
+
+	/** @return The code of the item most recently removed by {@link #poll()}. */
+	int getCode() {
+		return mCode;
+	}
+
+	/** @return The object of the item most recently removed by {@link #poll()}. */
+	Object getItem() {
+		return mItem;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.collections;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A stable, multi-criteria sorter that extracts the keys of each element at most once per sort,
+ * rather than once per comparison. Keys for a criterion are only extracted for elements left tied
+ * by the criteria before it. Where keys could be extracted, sorting is done in parallel when there
+ * is enough work to make it worthwhile, since comparing keys touches nothing but the keys
+ * themselves. Keys must therefore be immutable and their {@link Comparable#compareTo(Object)}
+ * methods must be safe to call from any thread.
+ *
+ * @param <T> The type of element being sorted.
+ */
+public abstract class KeyedSorter<T> {
+	private static final int	PARALLEL_SORT_MINIMUM	= 4096;
+
+	/**
+	 * Creates a check for whether a class inherits a method from a base class, rather than
+	 * overriding it. Classes that supply keys mirroring one of their comparison methods can use
+	 * this to stop supplying them for sub-classes that change how that comparison is done. Results
+	 * are cached per class.
+	 *
+	 * @param base The class that declares the method.
+	 * @param name The name of the method.
+	 * @param parameterTypes The parameter types of the method.
+	 * @return The check, to be queried with the class of the object in question.
+	 */
+	public static ClassValue<Boolean> createInheritanceCheck(Class<?> base, String name, Class<?>... parameterTypes) {
+		return new ClassValue<Boolean>() {
+			@Override
+			protected Boolean computeValue(Class<?> type) {
+				try {
+					return Boolean.valueOf(type.getMethod(name, parameterTypes).getDeclaringClass() == base);
+				} catch (NoSuchMethodException exception) {
+					return Boolean.FALSE;
+				}
+			}
+		};
+	}
+
+	/** @return The number of sort criteria, in order of precedence. */
+	protected abstract int getCriteriaCount();
+
+	/**
+	 * Called only on the thread that requested the sort.
+	 *
+	 * @param criterion The index of the sort criterion.
+	 * @param element The element to extract the key from.
+	 * @return The key for the element, or <code>null</code> if one cannot be extracted. All keys
+	 *         returned for a criterion must be mutually comparable.
+	 */
+	protected abstract Comparable<?> getKey(int criterion, T element);
+
+	/**
+	 * Compares two elements directly. Used for a criterion when some of the elements being ordered
+	 * by it could not supply a key. Called only on the thread that requested the sort.
+	 *
+	 * @param criterion The index of the sort criterion.
+	 * @param one The first element.
+	 * @param two The second element.
+	 * @return <code>&lt; 0</code> if element one is less than element two, <code>0</code> if they
+	 *         are equal, and <code>&gt; 0</code> if element one is greater than element two.
+	 */
+	protected abstract int compare(int criterion, T one, T two);
+
+	/**
+	 * @param criterion The index of the sort criterion.
+	 * @return Whether the sort criterion should be applied in ascending order.
+	 */
+	protected abstract boolean isAscending(int criterion);
+
+	/**
+	 * Sorts a list.
+	 *
+	 * @param list The list to sort.
+	 */
+	public void sort(List<T> list) {
+		sort(Collections.singletonList(list));
+	}
+
+	/**
+	 * Sorts a number of independent lists, in parallel where possible.
+	 *
+	 * @param lists The lists to sort.
+	 */
+	public void sort(Collection<? extends List<T>> lists) {
+		List<Group<T>> groups = new ArrayList<>();
+		List<Range<T>> ranges = new ArrayList<>();
+		for (List<T> list : lists) {
+			if (list.size() > 1) {
+				Group<T> group = new Group<>(list);
+				groups.add(group);
+				ranges.add(new Range<>(group, 0, group.mEntries.length));
+			}
+		}
+		// Each pass orders the runs left tied by the previous criteria using the next criterion,
+		// so keys for the lesser criteria are only extracted where they are actually needed.
+		int criteria = getCriteriaCount();
+		for (int criterion = 0; criterion < criteria && !ranges.isEmpty(); criterion++) {
+			boolean ascending = isAscending(criterion);
+			List<Range<T>> keyed = new ArrayList<>();
+			int keyedCount = 0;
+			for (Range<T> range : ranges) {
+				if (range.extractKeys(this, criterion)) {
+					keyed.add(range);
+					keyedCount += range.size();
+				} else {
+					range.sort(this, criterion, ascending, false);
+				}
+			}
+			if (keyedCount >= PARALLEL_SORT_MINIMUM) {
+				sortInParallel(keyed, keyedCount, criterion, ascending);
+			} else {
+				for (Range<T> range : keyed) {
+					range.sort(this, criterion, ascending, false);
+				}
+			}
+			List<Range<T>> ties = new ArrayList<>();
+			for (Range<T> range : ranges) {
+				range.collectTies(this, criterion, ties);
+			}
+			ranges = ties;
+		}
+		for (Group<T> group : groups) {
+			group.store();
+		}
+	}
+
+	private void sortInParallel(List<Range<T>> ranges, int total, int criterion, boolean ascending) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int chunk = Math.max(total / (pool.getParallelism() * 4), PARALLEL_SORT_MINIMUM / 4);
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		int start = 0;
+		int count = 0;
+		int size = ranges.size();
+		for (int i = 0; i < size; i++) {
+			count += ranges.get(i).size();
+			if (count >= chunk || i == size - 1) {
+				List<Range<T>> batch = ranges.subList(start, i + 1);
+				tasks.add(pool.submit(() -> {
+					for (Range<T> range : batch) {
+						range.sort(this, criterion, ascending, range.size() >= PARALLEL_SORT_MINIMUM);
+					}
+				}));
+				start = i + 1;
+				count = 0;
+			}
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+	}
+
+	/**
+	 * Locates the position an element should be inserted at within an already sorted list. If the
+	 * list contains elements equal to it, the position will be after them, keeping the sort
+	 * stable. Only a logarithmic number of keys are extracted.
+	 *
+	 * @param list The sorted list. It should not contain the element.
+	 * @param element The element to locate the position for.
+	 * @return The insertion index.
+	 */
+	public int findInsertionIndex(List<T> list, T element) {
+		int criteria = getCriteriaCount();
+		Comparable<?>[] keys = new Comparable<?>[criteria];
+		boolean[] extracted = new boolean[criteria];
+		int low = 0;
+		int high = list.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(element, keys, extracted, list.get(middle), criteria) < 0) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(T element, Comparable<?>[] keys, boolean[] extracted, T other, int criteria) {
+		for (int i = 0; i < criteria; i++) {
+			if (!extracted[i]) {
+				keys[i] = getKey(i, element);
+				extracted[i] = true;
+			}
+			Comparable<?> otherKey = keys[i] != null ? getKey(i, other) : null;
+			int result = otherKey != null ? ((Comparable<Object>) keys[i]).compareTo(otherKey) : compare(i, element, other);
+			if (result != 0) {
+				return isAscending(i) ? result : -result;
+			}
+		}
+		return 0;
+	}
+
+	private static final class Entry<T> {
+		T				mElement;
+		Comparable<?>	mKey;
+
+		Entry(T element) {
+			mElement = element;
+		}
+	}
+
+	private static final class Group<T> {
+		List<T>		mList;
+		Entry<T>[]	mEntries;
+
+		@SuppressWarnings("unchecked")
+		Group(List<T> list) {
+			mList = list;
+			mEntries = (Entry<T>[]) new Entry<?>[list.size()];
+			int i = 0;
+			for (T element : list) {
+				mEntries[i++] = new Entry<>(element);
+			}
+		}
+
+		void store() {
+			ListIterator<T> iterator = mList.listIterator();
+			for (Entry<T> entry : mEntries) {
+				iterator.next();
+				iterator.set(entry.mElement);
+			}
+		}
+	}
+
+	/** A range within a {@link Group} whose elements are equal under all criteria applied so far. */
+	private static final class Range<T> {
+		private Entry<T>[]	mEntries;
+		private int			mFrom;
+		private int			mTo;
+		private boolean		mKeyed;
+
+		Range(Group<T> group, int from, int to) {
+			mEntries = group.mEntries;
+			mFrom = from;
+			mTo = to;
+		}
+
+		private Range(Range<T> range, int from, int to) {
+			mEntries = range.mEntries;
+			mFrom = from;
+			mTo = to;
+		}
+
+		int size() {
+			return mTo - mFrom;
+		}
+
+		boolean extractKeys(KeyedSorter<T> sorter, int criterion) {
+			for (int i = mFrom; i < mTo; i++) {
+				Entry<T> entry = mEntries[i];
+				entry.mKey = sorter.getKey(criterion, entry.mElement);
+				if (entry.mKey == null) {
+					mKeyed = false;
+					return false;
+				}
+			}
+			mKeyed = true;
+			return true;
+		}
+
+		void sort(KeyedSorter<T> sorter, int criterion, boolean ascending, boolean parallel) {
+			Comparator<Entry<T>> comparator = ascending ? (one, two) -> compare(sorter, criterion, one, two) : (one, two) -> compare(sorter, criterion, two, one);
+			if (parallel) {
+				Arrays.parallelSort(mEntries, mFrom, mTo, comparator);
+			} else {
+				Arrays.sort(mEntries, mFrom, mTo, comparator);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private int compare(KeyedSorter<T> sorter, int criterion, Entry<T> one, Entry<T> two) {
+			return mKeyed ? ((Comparable<Object>) one.mKey).compareTo(two.mKey) : sorter.compare(criterion, one.mElement, two.mElement);
+		}
+
+		void collectTies(KeyedSorter<T> sorter, int criterion, List<Range<T>> ties) {
+			int start = mFrom;
+			for (int i = mFrom + 1; i <= mTo; i++) {
+				if (i == mTo || compare(sorter, criterion, mEntries[i - 1], mEntries[i]) != 0) {
+					if (i - start > 1) {
+						ties.add(new Range<>(this, start, i));
+					}
+					start = i;
+				}
+			}
+		}
+	}
+}
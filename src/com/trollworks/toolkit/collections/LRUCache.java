@@ -11,16 +11,13 @@
 
 package com.trollworks.toolkit.collections;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
-
 /**
- * Implementation of a least recently used cache. As new entries are added older entries are
- * removed. Calling get() or put() will refresh the entry. Calling containsKey() will not.
+ * A bounded cache. As new entries are added, entries that have been used the least are removed.
+ * Calling get() or put() will refresh the entry. Calling containsKey() will not. The cache is
+ * thread-safe and uses the frequency-aware policy of {@link ConcurrentCache}, so neither keys nor
+ * values may be <code>null</code>.
  */
-public class LRUCache<K, V> extends LinkedHashMap<K, V> {
-	private final int	mMaxEntries;
-
+public class LRUCache<K, V> extends ConcurrentCache<K, V> {
 	/**
 	 * Creates a new {@link LRUCache}.
 	 *
@@ -28,12 +25,6 @@ public class LRUCache<K, V> extends LinkedHashMap<K, V> {
 	 *            first.
 	 */
 	public LRUCache(int maxEntries) {
-		super(16, 0.75f, true);
-		mMaxEntries = maxEntries;
-	}
-
-	@Override
-	protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-		return size() > mMaxEntries;
+		super(maxEntries);
 	}
 }
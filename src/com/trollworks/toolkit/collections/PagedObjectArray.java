@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+
+package com.trollworks.toolkit.collections;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of objects kept in fixed-size pages, so that a copy made with {@link #share()}
+ * can share every page that neither side modifies afterwards. Only the owner of the array modifies
+ * it, cloning each shared page the first time it writes to it.
+ */
+final class PagedObjectArray {
+	private static final int	PAGE_SHIFT	= 10;
+	private static final int	PAGE_SIZE	= 1 << PAGE_SHIFT;
+	private static final int	PAGE_MASK	= PAGE_SIZE - 1;
+	private Object[][]			mPages;
+	private int[]				mPageEpochs;
+	private int					mEpoch;
+
+	/** @param capacity The initial capacity. */
+	PagedObjectArray(int capacity) {
+		mPages = new Object[1][];
+		mPageEpochs = new int[1];
+		mPages[0] = new Object[Math.min(Math.max(capacity, 1), PAGE_SIZE)];
+		ensureCapacity(capacity);
+	}
+
+	private PagedObjectArray(PagedObjectArray other) {
+		mPages = other.mPages.clone();
+		mPageEpochs = new int[mPages.length];
+		mEpoch = 1;
+	}
+
+	/**
+	 * @return A copy of this array that shares its pages. Pages are cloned as either side writes to
+	 *         them, so the copy is not affected by later changes to this array.
+	 */
+	PagedObjectArray share() {
+		mEpoch++;
+		return new PagedObjectArray(this);
+	}
+
+	/** @return The number of elements the array can hold without growing. */
+	int capacity() {
+		return mPages.length == 1 ? mPages[0].length : mPages.length << PAGE_SHIFT;
+	}
+
+	/** @param capacity The number of elements the array must be able to hold. */
+	void ensureCapacity(int capacity) {
+		if (capacity > capacity()) {
+			if (mPages.length == 1 && mPages[0].length < PAGE_SIZE) {
+				// Small arrays only have a single, partial page.
+				mPages[0] = Arrays.copyOf(mPages[0], Math.min(Math.max(capacity, mPages[0].length * 2), PAGE_SIZE));
+				mPageEpochs[0] = mEpoch;
+			}
+			int count = (capacity + PAGE_MASK) >>> PAGE_SHIFT;
+			if (count > mPages.length) {
+				int start = mPages.length;
+				mPages = Arrays.copyOf(mPages, count);
+				mPageEpochs = Arrays.copyOf(mPageEpochs, count);
+				for (int i = start; i < count; i++) {
+					mPages[i] = new Object[PAGE_SIZE];
+					mPageEpochs[i] = mEpoch;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param index The index of the element.
+	 * @return The element.
+	 */
+	Object get(int index) {
+		return mPages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+	}
+
+	/**
+	 * @param index The index of the element.
+	 * @param value The value to set.
+	 */
+	void set(int index, Object value) {
+		int page = index >>> PAGE_SHIFT;
+		if (mPageEpochs[page] != mEpoch) {
+			mPages[page] = mPages[page].clone();
+			mPageEpochs[page] = mEpoch;
+		}
+		mPages[page][index & PAGE_MASK] = value;
+	}
+}
@@ -14,15 +14,72 @@ package com.trollworks.toolkit.collections;
 import com.trollworks.toolkit.annotation.Localize;
 import com.trollworks.toolkit.utility.Localization;
 
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-
-/** Provides a {@link QuadTree} which contains rectangular areas. */
+import java.util.function.Consumer;
+
+/**
+ * Provides a {@link QuadTree} which contains rectangular areas.
+ * <p>
+ * Nodes, the bounds of the objects and the lists of objects held by each node are all kept in
+ * paged primitive arrays. The <code>visit...</code> queries hand each matching object to a
+ * {@link Consumer} exactly once and allocate nothing, so they are preferred over the
+ * <code>find...</code> queries, which return a new {@link Set}, on hot paths.
+ * <p>
+ * A {@link QuadTree} is not thread-safe. However, the thread that modifies it may call
+ * {@link #publish()} after each batch of changes, and any number of other threads may then query
+ * the result of {@link #getSnapshot()} without locking.
+ */
 public class QuadTree<T extends Bounds> {
-	private Node<T>	mRoot;
-	private Set<T>	mOutside;
-	private int		mThreshold;
+	@Localize("Objects must have a width and height greater than zero.")
+	@Localize(locale = "ru", value = "Объекты должны иметь ширину и высоту больше нуля.")
+	@Localize(locale = "de", value = "Objekte müssen eine Höhe und Breite größer als Null haben.")
+	@Localize(locale = "es", value = "El objeto debe tener anchura y altura mayor que cero.")
+	private static String			MUST_HAVE_SIZE_GREATER_THAN_ZERO;
+
+	static {
+		Localization.initialize();
+	}
+
+	private static final int		NONE	= -1;
+	private static final int		ROOT	= 0;
+	private int						mThreshold;
+	// Nodes. The four children of a node, if any, are stored consecutively.
+	private int						mNodeCount;
+	private PagedIntArray			mNodeX;
+	private PagedIntArray			mNodeY;
+	private PagedIntArray			mNodeWidth;
+	private PagedIntArray			mNodeHeight;
+	private PagedIntArray			mNodeChildren;
+	private PagedIntArray			mNodeHead;
+	private PagedIntArray			mNodeSize;
+	// Entries, which form the singly-linked list of objects held by each node.
+	private int						mEntryCount;
+	private PagedIntArray			mEntryObject;
+	private PagedIntArray			mEntryNext;
+	private int						mFreeEntry;
+	private int						mOutsideHead;
+	private int						mOutsideSize;
+	// Objects and their bounds, as of the time they were added.
+	private int						mObjectCount;
+	private PagedObjectArray		mObjects;
+	private PagedIntArray			mObjectX;
+	private PagedIntArray			mObjectY;
+	private PagedIntArray			mObjectWidth;
+	private PagedIntArray			mObjectHeight;
+	private int[]					mFreeObjects;
+	private int						mFreeObjectCount;
+	private TObjectIntHashMap<T>	mIndex;
+	private int						mSize;
+	private boolean					mReadOnly;
+	private volatile QuadTree<T>	mSnapshot;
 
 	/** Creates a new, empty {@link QuadTree} with a threshold of 64. */
 	public QuadTree() {
@@ -38,6 +95,78 @@ public class QuadTree<T extends Bounds> {
 	public QuadTree(int threshold) {
 		mThreshold = threshold;
 		clear();
+		mSnapshot = snapshot();
+	}
+
+	private QuadTree(QuadTree<T> other) {
+		mThreshold = other.mThreshold;
+		mNodeCount = other.mNodeCount;
+		mNodeX = other.mNodeX.share();
+		mNodeY = other.mNodeY.share();
+		mNodeWidth = other.mNodeWidth.share();
+		mNodeHeight = other.mNodeHeight.share();
+		mNodeChildren = other.mNodeChildren.share();
+		mNodeHead = other.mNodeHead.share();
+		mNodeSize = other.mNodeSize.share();
+		mEntryCount = other.mEntryCount;
+		mEntryObject = other.mEntryObject.share();
+		mEntryNext = other.mEntryNext.share();
+		mFreeEntry = NONE;
+		mOutsideHead = other.mOutsideHead;
+		mOutsideSize = other.mOutsideSize;
+		mObjectCount = other.mObjectCount;
+		mObjects = other.mObjects.share();
+		mObjectX = other.mObjectX.share();
+		mObjectY = other.mObjectY.share();
+		mObjectWidth = other.mObjectWidth.share();
+		mObjectHeight = other.mObjectHeight.share();
+		mSize = other.mSize;
+		mReadOnly = true;
+		mSnapshot = this;
+	}
+
+	/**
+	 * Creates a read-only copy of this {@link QuadTree}. The copy shares the pages of its internal
+	 * arrays with this {@link QuadTree}, which clones each page only when it first modifies it
+	 * afterwards, so the cost of a snapshot is proportional to the number of pages rather than the
+	 * number of objects. Only the thread that modifies this {@link QuadTree} should call this. Any
+	 * attempt to modify the copy will result in an {@link UnsupportedOperationException}.
+	 *
+	 * @return The snapshot. If this {@link QuadTree} is already a snapshot, it is returned as-is.
+	 */
+	public final QuadTree<T> snapshot() {
+		return mReadOnly ? this : new QuadTree<>(this);
+	}
+
+	/**
+	 * Takes a snapshot of the current contents and makes it available to other threads through
+	 * {@link #getSnapshot()}. Only the thread that modifies this {@link QuadTree} should call
+	 * this.
+	 */
+	public final void publish() {
+		checkWritable();
+		mSnapshot = snapshot();
+	}
+
+	/**
+	 * May be called from any thread.
+	 *
+	 * @return The snapshot from the last call to {@link #publish()}, or an empty snapshot if it has
+	 *         never been called.
+	 */
+	public final QuadTree<T> getSnapshot() {
+		return mSnapshot;
+	}
+
+	/** @return Whether this {@link QuadTree} is a read-only snapshot. */
+	public final boolean isSnapshot() {
+		return mReadOnly;
+	}
+
+	private void checkWritable() {
+		if (mReadOnly) {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	/**
@@ -52,67 +181,143 @@ public class QuadTree<T extends Bounds> {
 	 * @param obj The object to add to the tree.
 	 */
 	public final void add(T obj) {
-		if (mRoot.containsBounds(obj)) {
-			mRoot.add(obj);
-		} else {
-			mOutside.add(obj);
-			if (mOutside.size() > mThreshold) {
-				reorganize();
+		checkWritable();
+		int slot = addObject(obj);
+		if (slot != NONE) {
+			if (containsBounds(ROOT, slot)) {
+				insert(ROOT, slot);
+			} else {
+				addOutside(slot);
+				if (mOutsideSize > mThreshold) {
+					reorganize();
+				}
 			}
 		}
 	}
 
+	/**
+	 * Adds a collection of objects to the {@link QuadTree}. Storage is sized for all of them up
+	 * front and any needed reorganization is done just once, at the end.
+	 *
+	 * @param objs The objects to add to the tree.
+	 * @see #add(Bounds)
+	 */
+	public final void addAll(Collection<? extends T> objs) {
+		checkWritable();
+		int count = objs.size();
+		ensureObjectCapacity(mObjectCount + count);
+		mIndex.ensureCapacity(mIndex.size() + count);
+		for (T obj : objs) {
+			int slot = addObject(obj);
+			if (slot != NONE) {
+				if (containsBounds(ROOT, slot)) {
+					insert(ROOT, slot);
+				} else {
+					addOutside(slot);
+				}
+			}
+		}
+		if (mOutsideSize > mThreshold) {
+			reorganize();
+		}
+	}
+
 	/** Forces the {@link QuadTree} to reorganize itself to optimally fit its contents. */
 	public final void reorganize() {
-		mRoot.all(mOutside);
-
+		checkWritable();
 		// Determine the union of all contained bounds
 		int x = 0;
 		int y = 0;
 		int width = 0;
 		int height = 0;
-		for (T one : mOutside) {
-			int otherWidth = one.getWidth();
-			if (otherWidth > 0) {
-				int otherHeight = one.getHeight();
-				if (otherHeight > 0) {
-					int otherX = one.getX();
-					int otherY = one.getY();
-					if (width <= 0 || height <= 0) {
-						x = otherX;
-						y = otherY;
-						width = otherWidth;
-						height = otherHeight;
-					} else {
-						int x1 = Math.min(x, otherX);
-						int y1 = Math.min(y, otherY);
-						width = Math.max(x + width, otherX + otherWidth) - x1;
-						height = Math.max(y + height, otherY + otherHeight) - y1;
-						x = x1;
-						y = y1;
-					}
+		for (int slot = 0; slot < mObjectCount; slot++) {
+			if (mObjects.get(slot) != null) {
+				int otherX = mObjectX.get(slot);
+				int otherY = mObjectY.get(slot);
+				int otherWidth = mObjectWidth.get(slot);
+				int otherHeight = mObjectHeight.get(slot);
+				if (width <= 0 || height <= 0) {
+					x = otherX;
+					y = otherY;
+					width = otherWidth;
+					height = otherHeight;
+				} else {
+					int x1 = Math.min(x, otherX);
+					int y1 = Math.min(y, otherY);
+					width = Math.max(x + width, otherX + otherWidth) - x1;
+					height = Math.max(y + height, otherY + otherHeight) - y1;
+					x = x1;
+					y = y1;
 				}
 			}
 		}
 
-		mRoot = new Node<>(x, y, width, height, mThreshold);
-		for (T one : mOutside) {
-			mRoot.add(one);
+		clearNodes(x, y, width, height);
+		for (int slot = 0; slot < mObjectCount; slot++) {
+			if (mObjects.get(slot) != null) {
+				insert(ROOT, slot);
+			}
 		}
-		mOutside = new HashSet<>();
 	}
 
 	/** @param obj The object to remove. */
 	public final void remove(T obj) {
-		if (!mOutside.remove(obj)) {
-			mRoot.remove(obj);
+		checkWritable();
+		int slot = mIndex.remove(obj);
+		if (slot != NONE) {
+			removeObject(slot);
+		}
+	}
+
+	/**
+	 * Removes a collection of objects from the {@link QuadTree}. The internal index is compacted
+	 * at most once, at the end.
+	 *
+	 * @param objs The objects to remove.
+	 */
+	public final void removeAll(Collection<? extends T> objs) {
+		checkWritable();
+		mIndex.tempDisableAutoCompaction();
+		try {
+			for (T obj : objs) {
+				int slot = mIndex.remove(obj);
+				if (slot != NONE) {
+					removeObject(slot);
+				}
+			}
+		} finally {
+			mIndex.reenableAutoCompaction(true);
 		}
 	}
 
 	/** Removes all objects from the {@link QuadTree}. */
 	public final void clear() {
-		mRoot = new Node<>(0, 0, 0, 0, mThreshold);
-		mOutside = new HashSet<>();
+		checkWritable();
+		mObjectCount = 0;
+		mObjects = new PagedObjectArray(16);
+		mObjectX = new PagedIntArray(16);
+		mObjectY = new PagedIntArray(16);
+		mObjectWidth = new PagedIntArray(16);
+		mObjectHeight = new PagedIntArray(16);
+		mFreeObjects = new int[16];
+		mFreeObjectCount = 0;
+		mIndex = new TObjectIntHashMap<>(16, 0.5f, NONE);
+		mSize = 0;
+		mNodeX = new PagedIntArray(8);
+		mNodeY = new PagedIntArray(8);
+		mNodeWidth = new PagedIntArray(8);
+		mNodeHeight = new PagedIntArray(8);
+		mNodeChildren = new PagedIntArray(8);
+		mNodeHead = new PagedIntArray(8);
+		mNodeSize = new PagedIntArray(8);
+		mEntryObject = new PagedIntArray(16);
+		mEntryNext = new PagedIntArray(16);
+		clearNodes(0, 0, 0, 0);
+	}
+
+	/** @return The number of objects in this {@link QuadTree}. */
+	public final int size() {
+		return mSize;
 	}
 
 	/**
@@ -122,15 +327,7 @@ public class QuadTree<T extends Bounds> {
 	 *         specified coordinates.
 	 */
 	public final boolean contains(int x, int y) {
-		if (mRoot.contains(x, y)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.containsLocation(x, y)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, 1, 1, false, null, null);
 	}
 
 	/**
@@ -141,15 +338,7 @@ public class QuadTree<T extends Bounds> {
 	 *         specified coordinates and passes the {@link Matcher}'s test.
 	 */
 	public final boolean contains(int x, int y, Matcher<T> matcher) {
-		if (mRoot.contains(x, y, matcher)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.containsLocation(x, y) && matcher.matches(one)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, 1, 1, false, matcher, null);
 	}
 
 	/**
@@ -179,15 +368,7 @@ public class QuadTree<T extends Bounds> {
 	 *         with the specified bounds.
 	 */
 	public final boolean intersects(int x, int y, int width, int height) {
-		if (mRoot.intersects(x, y, width, height)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, width, height, false, null, null);
 	}
 
 	/**
@@ -220,15 +401,7 @@ public class QuadTree<T extends Bounds> {
 	 *         with the specified bounds and passes the {@link Matcher}'s test.
 	 */
 	public final boolean intersects(int x, int y, int width, int height, Matcher<T> matcher) {
-		if (mRoot.intersects(x, y, width, height, matcher)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, width, height, false, matcher, null);
 	}
 
 	/**
@@ -258,15 +431,7 @@ public class QuadTree<T extends Bounds> {
 	 *         contained by the specified bounds.
 	 */
 	public final boolean containedBy(int x, int y, int width, int height) {
-		if (mRoot.inside(x, y, width, height)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, width, height, true, null, null);
 	}
 
 	/**
@@ -299,22 +464,13 @@ public class QuadTree<T extends Bounds> {
 	 *         contained by the specified bounds and passes the {@link Matcher}'s test.
 	 */
 	public final boolean containedBy(int x, int y, int width, int height, Matcher<T> matcher) {
-		if (mRoot.inside(x, y, width, height, matcher)) {
-			return true;
-		}
-		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-				return true;
-			}
-		}
-		return false;
+		return search(x, y, width, height, true, matcher, null);
 	}
 
 	/** @return All objects that have been added to this {@link QuadTree}. */
 	public final Set<T> all() {
 		Set<T> result = new HashSet<>();
-		mRoot.all(result);
-		result.addAll(mOutside);
+		visitAll(result::add);
 		return result;
 	}
 
@@ -325,15 +481,26 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> all(Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.all(result, matcher);
-		for (T one : mOutside) {
-			if (matcher.matches(one)) {
-				result.add(one);
+		for (int slot = 0; slot < mObjectCount; slot++) {
+			if (mObjects.get(slot) != null) {
+				T one = getObject(slot);
+				if (matcher.matches(one)) {
+					result.add(one);
+				}
 			}
 		}
 		return result;
 	}
 
+	/** @param visitor The {@link Consumer} to call with each object in this {@link QuadTree}. */
+	public final void visitAll(Consumer<? super T> visitor) {
+		for (int slot = 0; slot < mObjectCount; slot++) {
+			if (mObjects.get(slot) != null) {
+				visitor.accept(getObject(slot));
+			}
+		}
+	}
+
 	/**
 	 * @param x The horizontal coordinate to check.
 	 * @param y The vertical coordinate to check.
@@ -341,12 +508,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContains(int x, int y) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContains(x, y, result);
-		for (T one : mOutside) {
-			if (one.containsLocation(x, y)) {
-				result.add(one);
-			}
-		}
+		search(x, y, 1, 1, false, null, result::add);
 		return result;
 	}
 
@@ -359,15 +521,20 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContains(int x, int y, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContains(x, y, result, matcher);
-		for (T one : mOutside) {
-			if (one.containsLocation(x, y) && matcher.matches(one)) {
-				result.add(one);
-			}
-		}
+		search(x, y, 1, 1, false, matcher, result::add);
 		return result;
 	}
 
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            contains the specified coordinates.
+	 */
+	public final void visitContains(int x, int y, Consumer<? super T> visitor) {
+		search(x, y, 1, 1, false, null, visitor);
+	}
+
 	/**
 	 * @param bounds The bounds to check.
 	 * @return All objects in this {@link QuadTree} that intersect with the specified bounds.
@@ -393,12 +560,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findIntersects(int x, int y, int width, int height) {
 		Set<T> result = new HashSet<>();
-		mRoot.findIntersects(x, y, width, height, result);
-		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height)) {
-				result.add(one);
-			}
-		}
+		search(x, y, width, height, false, null, result::add);
 		return result;
 	}
 
@@ -433,15 +595,40 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findIntersects(int x, int y, int width, int height, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findIntersects(x, y, width, height, result, matcher);
-		for (T one : mOutside) {
-			if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-				result.add(one);
-			}
-		}
+		search(x, y, width, height, false, matcher, result::add);
 		return result;
 	}
 
+	/**
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            intersects with the specified bounds.
+	 */
+	public final void visitIntersects(Rectangle bounds, Consumer<? super T> visitor) {
+		visitIntersects(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
+
+	/**
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            intersects with the specified bounds.
+	 */
+	public final void visitIntersects(Bounds bounds, Consumer<? super T> visitor) {
+		visitIntersects(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            intersects with the specified bounds.
+	 */
+	public final void visitIntersects(int x, int y, int width, int height, Consumer<? super T> visitor) {
+		search(x, y, width, height, false, null, visitor);
+	}
+
 	/**
 	 * @param bounds The bounds to check.
 	 * @return All objects in this {@link QuadTree} that would be contained by the specified bounds.
@@ -467,12 +654,7 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContainedBy(int x, int y, int width, int height) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContainedBy(x, y, width, height, result);
-		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height)) {
-				result.add(one);
-			}
-		}
+		search(x, y, width, height, true, null, result::add);
 		return result;
 	}
 
@@ -507,335 +689,506 @@ public class QuadTree<T extends Bounds> {
 	 */
 	public final Set<T> findContainedBy(int x, int y, int width, int height, Matcher<T> matcher) {
 		Set<T> result = new HashSet<>();
-		mRoot.findContainedBy(x, y, width, height, result, matcher);
-		for (T one : mOutside) {
-			if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-				result.add(one);
-			}
-		}
+		search(x, y, width, height, true, matcher, result::add);
 		return result;
 	}
 
-	static class Node<T extends Bounds> implements Bounds {
-		@Localize("Objects must have a width and height greater than zero.")
-		@Localize(locale = "ru", value = "Объекты должны иметь ширину и высоту больше нуля.")
-		@Localize(locale = "de", value = "Objekte müssen eine Höhe und Breite größer als Null haben.")
-		@Localize(locale = "es", value = "El objeto debe tener anchura y altura mayor que cero.")
-		private static String	MUST_HAVE_SIZE_GREATER_THAN_ZERO;
-		private int				mX;
-		private int				mY;
-		private int				mWidth;
-		private int				mHeight;
-		protected Set<T>		mContents;
-		private int				mMaxCapacity;
-		private Node<T>			mNorthEast;
-		private Node<T>			mNorthWest;
-		private Node<T>			mSouthEast;
-		private Node<T>			mSouthWest;
-
-		static {
-			Localization.initialize();
-		}
+	/**
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            would be contained by the specified bounds.
+	 */
+	public final void visitContainedBy(Rectangle bounds, Consumer<? super T> visitor) {
+		visitContainedBy(bounds.x, bounds.y, bounds.width, bounds.height, visitor);
+	}
 
-		Node(int x, int y, int width, int height, int maxCapacity) {
-			mX = x;
-			mY = y;
-			mWidth = width;
-			mHeight = height;
-			mMaxCapacity = maxCapacity;
-			mContents = new HashSet<>();
-		}
+	/**
+	 * @param bounds The bounds to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            would be contained by the specified bounds.
+	 */
+	public final void visitContainedBy(Bounds bounds, Consumer<? super T> visitor) {
+		visitContainedBy(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(), visitor);
+	}
 
-		final void zeroBounds() {
-			mX = 0;
-			mY = 0;
-			mWidth = 0;
-			mHeight = 0;
-		}
+	/**
+	 * @param x The horizontal coordinate to check.
+	 * @param y The vertical coordinate to check.
+	 * @param width The width of the space to check.
+	 * @param height The height of the space to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that
+	 *            would be contained by the specified bounds.
+	 */
+	public final void visitContainedBy(int x, int y, int width, int height, Consumer<? super T> visitor) {
+		search(x, y, width, height, true, null, visitor);
+	}
 
-		@Override
-		public final int getX() {
-			return mX;
-		}
+	/**
+	 * @param circle The {@link Circle} to check.
+	 * @return All objects in this {@link QuadTree} that are at least partially within the
+	 *         specified {@link Circle}.
+	 */
+	public final Set<T> findWithin(Circle circle) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, null, result::add);
+		return result;
+	}
 
-		@Override
-		public final int getY() {
-			return mY;
-		}
+	/**
+	 * @param circle The {@link Circle} to check.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return All objects in this {@link QuadTree} that are at least partially within the
+	 *         specified {@link Circle} and pass the {@link Matcher}'s test.
+	 */
+	public final Set<T> findWithin(Circle circle, Matcher<T> matcher) {
+		Set<T> result = new HashSet<>();
+		visitWithin(circle, matcher, result::add);
+		return result;
+	}
 
-		@Override
-		public final int getWidth() {
-			return mWidth;
-		}
+	/**
+	 * @param circle The {@link Circle} to check.
+	 * @param visitor The {@link Consumer} to call with each object in this {@link QuadTree} that is
+	 *            at least partially within the specified {@link Circle}.
+	 */
+	public final void visitWithin(Circle circle, Consumer<? super T> visitor) {
+		visitWithin(circle, null, visitor);
+	}
 
-		@Override
-		public final int getHeight() {
-			return mHeight;
+	private void visitWithin(Circle circle, Matcher<T> matcher, Consumer<? super T> visitor) {
+		double x = circle.getCenterX();
+		double y = circle.getCenterY();
+		double radius = circle.getRadius();
+		double maxDistanceSquared = radius * radius;
+		if (mNodeWidth.get(ROOT) > 0 && mNodeHeight.get(ROOT) > 0) {
+			within(ROOT, x, y, maxDistanceSquared, matcher, visitor);
 		}
+		within(NONE, mOutsideHead, x, y, maxDistanceSquared, matcher, visitor);
+	}
 
-		private final boolean isLeaf() {
-			return mNorthEast == null;
+	private void within(int node, double x, double y, double maxDistanceSquared, Matcher<T> matcher, Consumer<? super T> visitor) {
+		if (DistanceQueue.distanceSquared(x, y, mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node)) <= maxDistanceSquared) {
+			within(node, mNodeHead.get(node), x, y, maxDistanceSquared, matcher, visitor);
+			int children = mNodeChildren.get(node);
+			if (children != NONE) {
+				for (int child = children; child < children + 4; child++) {
+					within(child, x, y, maxDistanceSquared, matcher, visitor);
+				}
+			}
 		}
+	}
 
-		final void remove(T obj) {
-			if (!mContents.remove(obj) && !isLeaf() && intersectsBounds(obj)) {
-				mNorthEast.remove(obj);
-				mNorthWest.remove(obj);
-				mSouthEast.remove(obj);
-				mSouthWest.remove(obj);
+	private void within(int node, int entry, double x, double y, double maxDistanceSquared, Matcher<T> matcher, Consumer<? super T> visitor) {
+		for (; entry != NONE; entry = mEntryNext.get(entry)) {
+			int slot = mEntryObject.get(entry);
+			if ((node == NONE || isRepresentedBy(node, slot, x, y)) && distanceSquared(slot, x, y) <= maxDistanceSquared) {
+				T one = getObject(slot);
+				if (matcher == null || matcher.matches(one)) {
+					visitor.accept(one);
+				}
 			}
 		}
+	}
+
+	/**
+	 * @param x The horizontal coordinate to measure from.
+	 * @param y The vertical coordinate to measure from.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree}, ordered from nearest to
+	 *         furthest from the specified coordinates.
+	 */
+	public final List<T> findNearest(double x, double y, int count) {
+		return nearest(x, y, count, Double.POSITIVE_INFINITY, null);
+	}
+
+	/**
+	 * @param x The horizontal coordinate to measure from.
+	 * @param y The vertical coordinate to measure from.
+	 * @param count The maximum number of objects to return.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree} that pass the
+	 *         {@link Matcher}'s test, ordered from nearest to furthest from the specified
+	 *         coordinates.
+	 */
+	public final List<T> findNearest(double x, double y, int count, Matcher<T> matcher) {
+		return nearest(x, y, count, Double.POSITIVE_INFINITY, matcher);
+	}
+
+	/**
+	 * @param circle The {@link Circle} to check.
+	 * @param count The maximum number of objects to return.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree} that are at least partially
+	 *         within the specified {@link Circle}, ordered from nearest to furthest from its
+	 *         center.
+	 */
+	public final List<T> findNearest(Circle circle, int count) {
+		double radius = circle.getRadius();
+		return nearest(circle.getCenterX(), circle.getCenterY(), count, radius * radius, null);
+	}
 
-		final void add(T obj) {
-			if (obj.getWidth() < 1 || obj.getHeight() < 1) {
-				throw new IllegalArgumentException(MUST_HAVE_SIZE_GREATER_THAN_ZERO);
+	/**
+	 * @param circle The {@link Circle} to check.
+	 * @param count The maximum number of objects to return.
+	 * @param matcher A {@link Matcher} to use to verify any potential matches.
+	 * @return Up to <code>count</code> objects in this {@link QuadTree} that are at least partially
+	 *         within the specified {@link Circle} and pass the {@link Matcher}'s test, ordered
+	 *         from nearest to furthest from its center.
+	 */
+	public final List<T> findNearest(Circle circle, int count, Matcher<T> matcher) {
+		double radius = circle.getRadius();
+		return nearest(circle.getCenterX(), circle.getCenterY(), count, radius * radius, matcher);
+	}
+
+	/**
+	 * A best-first search: nodes and objects are visited in order of their distance from the
+	 * coordinates, so only the nodes nearer than the last object returned are ever opened.
+	 * Objects are coded as the complement of their slot, nodes by their index.
+	 */
+	private List<T> nearest(double x, double y, int count, double maxDistanceSquared, Matcher<T> matcher) {
+		List<T> result = new ArrayList<>(Math.max(Math.min(count, size()), 0));
+		if (count > 0) {
+			DistanceQueue queue = new DistanceQueue();
+			for (int entry = mOutsideHead; entry != NONE; entry = mEntryNext.get(entry)) {
+				enqueue(queue, mEntryObject.get(entry), x, y, maxDistanceSquared);
 			}
-			// Do we have to split?
-			if (isLeaf() && mContents.size() >= mMaxCapacity && mWidth > 1 && mHeight > 1) {
-				split();
+			if (mNodeWidth.get(ROOT) > 0 && mNodeHeight.get(ROOT) > 0) {
+				enqueueNode(queue, ROOT, x, y, maxDistanceSquared);
 			}
-			if (isLeaf() || obj.containsBounds(this)) {
-				mContents.add(obj);
-			} else {
-				if (mNorthEast.intersectsBounds(obj)) {
-					mNorthEast.add(obj);
-				}
-				if (mNorthWest.intersectsBounds(obj)) {
-					mNorthWest.add(obj);
-				}
-				if (mSouthEast.intersectsBounds(obj)) {
-					mSouthEast.add(obj);
-				}
-				if (mSouthWest.intersectsBounds(obj)) {
-					mSouthWest.add(obj);
+			while (queue.poll()) {
+				int code = queue.getCode();
+				if (code < 0) {
+					T one = getObject(~code);
+					if (matcher == null || matcher.matches(one)) {
+						result.add(one);
+						if (result.size() == count) {
+							break;
+						}
+					}
+				} else {
+					for (int entry = mNodeHead.get(code); entry != NONE; entry = mEntryNext.get(entry)) {
+						int slot = mEntryObject.get(entry);
+						if (isRepresentedBy(code, slot, x, y)) {
+							enqueue(queue, slot, x, y, maxDistanceSquared);
+						}
+					}
+					int children = mNodeChildren.get(code);
+					if (children != NONE) {
+						for (int child = children; child < children + 4; child++) {
+							enqueueNode(queue, child, x, y, maxDistanceSquared);
+						}
+					}
 				}
 			}
 		}
+		return result;
+	}
 
-		final void all(Set<T> result) {
-			result.addAll(mContents);
-			if (!isLeaf()) {
-				mNorthEast.all(result);
-				mNorthWest.all(result);
-				mSouthEast.all(result);
-				mSouthWest.all(result);
-			}
+	private void enqueue(DistanceQueue queue, int slot, double x, double y, double maxDistanceSquared) {
+		double distance = distanceSquared(slot, x, y);
+		if (distance <= maxDistanceSquared) {
+			queue.add(distance, ~slot, null);
 		}
+	}
 
-		final void all(Set<T> result, Matcher<T> matcher) {
-			for (T one : mContents) {
-				if (matcher.matches(one)) {
-					result.add(one);
-				}
-			}
-			if (!isLeaf()) {
-				mNorthEast.all(result, matcher);
-				mNorthWest.all(result, matcher);
-				mSouthEast.all(result, matcher);
-				mSouthWest.all(result, matcher);
-			}
+	private void enqueueNode(DistanceQueue queue, int node, double x, double y, double maxDistanceSquared) {
+		double distance = DistanceQueue.distanceSquared(x, y, mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node));
+		if (distance <= maxDistanceSquared) {
+			queue.add(distance, node, null);
 		}
+	}
 
-		private final void split() {
-			if (isLeaf()) {
-				int hw = mWidth / 2;
-				int hh = mHeight / 2;
-				mNorthWest = new Node<>(mX, mY, hw, hh, mMaxCapacity);
-				mNorthEast = new Node<>(mX + hw, mY, mWidth - hw, hh, mMaxCapacity);
-				mSouthWest = new Node<>(mX, mY + hh, hw, mHeight - hh, mMaxCapacity);
-				mSouthEast = new Node<>(mX + hw, mY + hh, mWidth - hw, mHeight - hh, mMaxCapacity);
-				Set<T> temp = mContents;
-				mContents = new HashSet<>();
-				for (T one : temp) {
-					add(one);
-				}
-			}
+	private double distanceSquared(int slot, double x, double y) {
+		return DistanceQueue.distanceSquared(x, y, mObjectX.get(slot), mObjectY.get(slot), mObjectWidth.get(slot), mObjectHeight.get(slot));
+	}
+
+	/**
+	 * An object that spans several nodes is only considered by the one containing the point of
+	 * the object nearest to the specified coordinates.
+	 */
+	private boolean isRepresentedBy(int node, int slot, double x, double y) {
+		int left = mObjectX.get(slot);
+		int top = mObjectY.get(slot);
+		int px = (int) Math.min(Math.max(Math.floor(x), left), left + mObjectWidth.get(slot) - 1);
+		int py = (int) Math.min(Math.max(Math.floor(y), top), top + mObjectHeight.get(slot) - 1);
+		return containsLocation(node, px, py);
+	}
+
+	@SuppressWarnings("unchecked")
+	private T getObject(int slot) {
+		return (T) mObjects.get(slot);
+	}
+
+	private int addObject(T obj) {
+		int width = obj.getWidth();
+		int height = obj.getHeight();
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException(MUST_HAVE_SIZE_GREATER_THAN_ZERO);
+		}
+		if (mIndex.containsKey(obj)) {
+			return NONE;
 		}
+		int slot;
+		if (mFreeObjectCount > 0) {
+			slot = mFreeObjects[--mFreeObjectCount];
+		} else {
+			ensureObjectCapacity(mObjectCount + 1);
+			slot = mObjectCount++;
+		}
+		mObjects.set(slot, obj);
+		mObjectX.set(slot, obj.getX());
+		mObjectY.set(slot, obj.getY());
+		mObjectWidth.set(slot, width);
+		mObjectHeight.set(slot, height);
+		mIndex.put(obj, slot);
+		mSize++;
+		return slot;
+	}
 
-		final boolean contains(int x, int y) {
-			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.contains(x, y) || mNorthEast.contains(x, y) || mSouthWest.contains(x, y) || mSouthEast.contains(x, y);
-				}
-			}
-			return false;
+	private void removeObject(int slot) {
+		if (!removeOutside(slot)) {
+			remove(ROOT, slot);
 		}
+		mObjects.set(slot, null);
+		mSize--;
+		if (mFreeObjectCount == mFreeObjects.length) {
+			mFreeObjects = Arrays.copyOf(mFreeObjects, mFreeObjectCount * 2);
+		}
+		mFreeObjects[mFreeObjectCount++] = slot;
+	}
 
-		final boolean contains(int x, int y, Matcher<T> matcher) {
-			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y) && matcher.matches(one)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.contains(x, y, matcher) || mNorthEast.contains(x, y, matcher) || mSouthWest.contains(x, y, matcher) || mSouthEast.contains(x, y, matcher);
+	private boolean removeOutside(int slot) {
+		int previous = NONE;
+		for (int entry = mOutsideHead; entry != NONE; entry = mEntryNext.get(entry)) {
+			if (mEntryObject.get(entry) == slot) {
+				if (previous == NONE) {
+					mOutsideHead = mEntryNext.get(entry);
+				} else {
+					mEntryNext.set(previous, mEntryNext.get(entry));
 				}
+				freeEntry(entry);
+				mOutsideSize--;
+				return true;
 			}
-			return false;
+			previous = entry;
 		}
+		return false;
+	}
 
-		final boolean intersects(int x, int y, int width, int height) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.intersects(x, y, width, height) || mNorthEast.intersects(x, y, width, height) || mSouthWest.intersects(x, y, width, height) || mSouthEast.intersects(x, y, width, height);
-				}
-			}
-			return false;
+	private void ensureObjectCapacity(int capacity) {
+		if (capacity > mObjects.capacity()) {
+			capacity = Math.max(capacity, mObjects.capacity() * 2);
+			mObjects.ensureCapacity(capacity);
+			mObjectX.ensureCapacity(capacity);
+			mObjectY.ensureCapacity(capacity);
+			mObjectWidth.ensureCapacity(capacity);
+			mObjectHeight.ensureCapacity(capacity);
 		}
+	}
 
-		final boolean intersects(int x, int y, int width, int height, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.intersects(x, y, width, height, matcher) || mNorthEast.intersects(x, y, width, height, matcher) || mSouthWest.intersects(x, y, width, height, matcher) || mSouthEast.intersects(x, y, width, height, matcher);
-				}
-			}
-			return false;
+	private void clearNodes(int x, int y, int width, int height) {
+		mNodeCount = 0;
+		mEntryCount = 0;
+		mFreeEntry = NONE;
+		mOutsideHead = NONE;
+		mOutsideSize = 0;
+		addNode(x, y, width, height);
+	}
+
+	private int addNode(int x, int y, int width, int height) {
+		if (mNodeCount == mNodeX.capacity()) {
+			int capacity = mNodeCount * 2;
+			mNodeX.ensureCapacity(capacity);
+			mNodeY.ensureCapacity(capacity);
+			mNodeWidth.ensureCapacity(capacity);
+			mNodeHeight.ensureCapacity(capacity);
+			mNodeChildren.ensureCapacity(capacity);
+			mNodeHead.ensureCapacity(capacity);
+			mNodeSize.ensureCapacity(capacity);
 		}
+		int node = mNodeCount++;
+		mNodeX.set(node, x);
+		mNodeY.set(node, y);
+		mNodeWidth.set(node, width);
+		mNodeHeight.set(node, height);
+		mNodeChildren.set(node, NONE);
+		mNodeHead.set(node, NONE);
+		mNodeSize.set(node, 0);
+		return node;
+	}
 
-		final boolean inside(int x, int y, int width, int height) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.inside(x, y, width, height) || mNorthEast.inside(x, y, width, height) || mSouthWest.inside(x, y, width, height) || mSouthEast.inside(x, y, width, height);
-				}
+	private int addEntry(int slot, int next) {
+		int entry = mFreeEntry;
+		if (entry != NONE) {
+			mFreeEntry = mEntryNext.get(entry);
+		} else {
+			if (mEntryCount == mEntryObject.capacity()) {
+				mEntryObject.ensureCapacity(mEntryCount * 2);
+				mEntryNext.ensureCapacity(mEntryCount * 2);
 			}
-			return false;
+			entry = mEntryCount++;
 		}
+		mEntryObject.set(entry, slot);
+		mEntryNext.set(entry, next);
+		return entry;
+	}
 
-		final boolean inside(int x, int y, int width, int height, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-						return true;
-					}
-				}
-				if (!isLeaf()) {
-					return mNorthWest.inside(x, y, width, height, matcher) || mNorthEast.inside(x, y, width, height, matcher) || mSouthWest.inside(x, y, width, height, matcher) || mSouthEast.inside(x, y, width, height, matcher);
+	private void freeEntry(int entry) {
+		mEntryNext.set(entry, mFreeEntry);
+		mFreeEntry = entry;
+	}
+
+	private void addOutside(int slot) {
+		mOutsideHead = addEntry(slot, mOutsideHead);
+		mOutsideSize++;
+	}
+
+	private void insert(int node, int slot) {
+		// Do we have to split?
+		if (mNodeChildren.get(node) == NONE && mNodeSize.get(node) >= mThreshold && mNodeWidth.get(node) > 1 && mNodeHeight.get(node) > 1) {
+			split(node);
+		}
+		int children = mNodeChildren.get(node);
+		if (children == NONE || containsBounds(mObjectX.get(slot), mObjectY.get(slot), mObjectWidth.get(slot), mObjectHeight.get(slot), mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node))) {
+			mNodeHead.set(node, addEntry(slot, mNodeHead.get(node)));
+			mNodeSize.set(node, mNodeSize.get(node) + 1);
+		} else {
+			for (int child = children; child < children + 4; child++) {
+				if (intersects(child, slot)) {
+					insert(child, slot);
 				}
 			}
-			return false;
 		}
+	}
 
-		final void findContains(int x, int y, Set<T> result) {
-			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findContains(x, y, result);
-					mNorthEast.findContains(x, y, result);
-					mSouthWest.findContains(x, y, result);
-					mSouthEast.findContains(x, y, result);
-				}
-			}
+	private void split(int node) {
+		int x = mNodeX.get(node);
+		int y = mNodeY.get(node);
+		int width = mNodeWidth.get(node);
+		int height = mNodeHeight.get(node);
+		int hw = width / 2;
+		int hh = height / 2;
+		mNodeChildren.set(node, addNode(x, y, hw, hh));
+		addNode(x + hw, y, width - hw, hh);
+		addNode(x, y + hh, hw, height - hh);
+		addNode(x + hw, y + hh, width - hw, height - hh);
+		int entry = mNodeHead.get(node);
+		mNodeHead.set(node, NONE);
+		mNodeSize.set(node, 0);
+		while (entry != NONE) {
+			int next = mEntryNext.get(entry);
+			int slot = mEntryObject.get(entry);
+			freeEntry(entry);
+			insert(node, slot);
+			entry = next;
 		}
+	}
 
-		final void findContains(int x, int y, Set<T> result, Matcher<T> matcher) {
-			if (containsLocation(x, y)) {
-				for (T one : mContents) {
-					if (one.containsLocation(x, y) && matcher.matches(one)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findContains(x, y, result, matcher);
-					mNorthEast.findContains(x, y, result, matcher);
-					mSouthWest.findContains(x, y, result, matcher);
-					mSouthEast.findContains(x, y, result, matcher);
+	private void remove(int node, int slot) {
+		int previous = NONE;
+		for (int entry = mNodeHead.get(node); entry != NONE; entry = mEntryNext.get(entry)) {
+			if (mEntryObject.get(entry) == slot) {
+				if (previous == NONE) {
+					mNodeHead.set(node, mEntryNext.get(entry));
+				} else {
+					mEntryNext.set(previous, mEntryNext.get(entry));
 				}
+				freeEntry(entry);
+				mNodeSize.set(node, mNodeSize.get(node) - 1);
+				return;
 			}
+			previous = entry;
 		}
-
-		final void findIntersects(int x, int y, int width, int height, Set<T> result) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findIntersects(x, y, width, height, result);
-					mNorthEast.findIntersects(x, y, width, height, result);
-					mSouthWest.findIntersects(x, y, width, height, result);
-					mSouthEast.findIntersects(x, y, width, height, result);
+		int children = mNodeChildren.get(node);
+		if (children != NONE) {
+			for (int child = children; child < children + 4; child++) {
+				if (intersects(child, slot)) {
+					remove(child, slot);
 				}
 			}
 		}
+	}
 
-		final void findIntersects(int x, int y, int width, int height, Set<T> result, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.intersectsBounds(x, y, width, height) && matcher.matches(one)) {
-						result.add(one);
+	private boolean search(int x, int y, int width, int height, boolean containedBy, Matcher<T> matcher, Consumer<? super T> visitor) {
+		return search(ROOT, x, y, width, height, containedBy, matcher, visitor) || scan(NONE, mOutsideHead, x, y, width, height, containedBy, matcher, visitor);
+	}
+
+	private boolean search(int node, int x, int y, int width, int height, boolean containedBy, Matcher<T> matcher, Consumer<? super T> visitor) {
+		if (intersects(mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node), x, y, width, height)) {
+			if (scan(node, mNodeHead.get(node), x, y, width, height, containedBy, matcher, visitor)) {
+				return true;
+			}
+			int children = mNodeChildren.get(node);
+			if (children != NONE) {
+				for (int child = children; child < children + 4; child++) {
+					if (search(child, x, y, width, height, containedBy, matcher, visitor)) {
+						return true;
 					}
 				}
-				if (!isLeaf()) {
-					mNorthWest.findIntersects(x, y, width, height, result, matcher);
-					mNorthEast.findIntersects(x, y, width, height, result, matcher);
-					mSouthWest.findIntersects(x, y, width, height, result, matcher);
-					mSouthEast.findIntersects(x, y, width, height, result, matcher);
-				}
 			}
 		}
+		return false;
+	}
 
-		final void findContainedBy(int x, int y, int width, int height, Set<T> result) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height)) {
-						result.add(one);
-					}
+	/**
+	 * Scans a list of entries for matching objects. When a visitor is present, it is called with
+	 * each match and <code>false</code> is returned; otherwise, <code>true</code> is returned as
+	 * soon as a match is found.
+	 */
+	private boolean scan(int node, int entry, int x, int y, int width, int height, boolean containedBy, Matcher<T> matcher, Consumer<? super T> visitor) {
+		for (; entry != NONE; entry = mEntryNext.get(entry)) {
+			int slot = mEntryObject.get(entry);
+			int ox = mObjectX.get(slot);
+			int oy = mObjectY.get(slot);
+			int ow = mObjectWidth.get(slot);
+			int oh = mObjectHeight.get(slot);
+			if (containedBy ? containsBounds(x, y, width, height, ox, oy, ow, oh) : intersects(ox, oy, ow, oh, x, y, width, height)) {
+				// An object that spans several nodes is only reported by the one containing the
+				// top-left corner of its overlap with the query.
+				if (visitor != null && node != NONE && !containsLocation(node, Math.max(ox, x), Math.max(oy, y))) {
+					continue;
 				}
-				if (!isLeaf()) {
-					mNorthWest.findContainedBy(x, y, width, height, result);
-					mNorthEast.findContainedBy(x, y, width, height, result);
-					mSouthWest.findContainedBy(x, y, width, height, result);
-					mSouthEast.findContainedBy(x, y, width, height, result);
+				T one = getObject(slot);
+				if (matcher == null || matcher.matches(one)) {
+					if (visitor == null) {
+						return true;
+					}
+					visitor.accept(one);
 				}
 			}
 		}
+		return false;
+	}
 
-		final void findContainedBy(int x, int y, int width, int height, Set<T> result, Matcher<T> matcher) {
-			if (intersectsBounds(x, y, width, height)) {
-				for (T one : mContents) {
-					if (one.containedBy(x, y, width, height) && matcher.matches(one)) {
-						result.add(one);
-					}
-				}
-				if (!isLeaf()) {
-					mNorthWest.findContainedBy(x, y, width, height, result, matcher);
-					mNorthEast.findContainedBy(x, y, width, height, result, matcher);
-					mSouthWest.findContainedBy(x, y, width, height, result, matcher);
-					mSouthEast.findContainedBy(x, y, width, height, result, matcher);
-				}
+	private boolean containsLocation(int node, int x, int y) {
+		int nx = mNodeX.get(node);
+		int ny = mNodeY.get(node);
+		return x >= nx && x < nx + mNodeWidth.get(node) && y >= ny && y < ny + mNodeHeight.get(node);
+	}
+
+	private boolean containsBounds(int node, int slot) {
+		return containsBounds(mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node), mObjectX.get(slot), mObjectY.get(slot), mObjectWidth.get(slot), mObjectHeight.get(slot));
+	}
+
+	private boolean intersects(int node, int slot) {
+		return intersects(mNodeX.get(node), mNodeY.get(node), mNodeWidth.get(node), mNodeHeight.get(node), mObjectX.get(slot), mObjectY.get(slot), mObjectWidth.get(slot), mObjectHeight.get(slot));
+	}
+
+	/** The same test as {@link Bounds#containsBounds(int, int, int, int)}. */
+	private static boolean containsBounds(int x, int y, int width, int height, int otherX, int otherY, int otherWidth, int otherHeight) {
+		if (width > 0 && height > 0 && x <= otherX && y <= otherY) {
+			int endX = x + width;
+			int endY = y + height;
+			if (otherX < endX && otherY < endY) {
+				int otherEndX = otherX + otherWidth;
+				int otherEndY = otherY + otherHeight;
+				return x < otherEndX && endX >= otherEndX && y < otherEndY && endY >= otherEndY;
 			}
 		}
+		return false;
+	}
 
-		@SuppressWarnings("nls")
-		@Override
-		public String toString() {
-			return mX + "," + mY + "," + mWidth + "," + mHeight;
-		}
+	/** The same test as {@link Bounds#intersectsBounds(int, int, int, int)}. */
+	private static boolean intersects(int x, int y, int width, int height, int otherX, int otherY, int otherWidth, int otherHeight) {
+		return otherWidth > 0 && otherHeight > 0 && width > 0 && height > 0 && Math.min(x + width, otherX + otherWidth) > Math.max(x, otherX) && Math.min(y + height, otherY + otherHeight) > Math.max(y, otherY);
 	}
 }
@@ -13,28 +13,60 @@ package com.trollworks.toolkit.io.conduit;
 
 import com.trollworks.toolkit.io.Log;
 
+import gnu.trove.map.hash.TLongLongHashMap;
+
 import java.awt.EventQueue;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
-/** Provides a conduit through which messages from external processes can be received. */
+/**
+ * Provides a conduit through which messages from external processes can be received. When all
+ * endpoints are on the loopback address, messages are exchanged through a memory-mapped ring
+ * buffer shared by all processes on the host. Otherwise, they are relayed through a TCP hub.
+ * <p>
+ * Older conduits always use the TCP hub. So that they can still be reached, a loopback conduit
+ * that finds a hub already listening on its port joins that hub instead of using the ring buffer.
+ * A hub started by an older conduit after this one has chosen the ring buffer is not noticed,
+ * though, and the two will not hear each other.
+ * <p>
+ * Each conduit stamps outgoing messages with its origin and a sequence number and keeps the most
+ * recent ones around, so that they can be replayed after a failover. Receivers use the sequence
+ * numbers to discard duplicates and to detect messages that were lost anyway. Replayed messages
+ * from origins a receiver hasn't heard from before are discarded as well, so that receivers
+ * started after the fact don't act on stale messages. Since nothing announces that a conduit has
+ * gone away, an origin that hasn't been heard from for a while is forgotten, just as if it had
+ * never been heard from.
+ */
 public class Conduit implements Runnable {
 	/** The default port used by the conduit. */
-	public static final int		DEFAULT_PORT	= 13321;
-	private InetSocketAddress	mSocketAddress;
-	private Server				mServer;
-	private Socket				mSocket;
-	private DataInputStream		mInput;
-	private DataOutputStream	mOutput;
-	private ConduitReceiver		mReceiver;
-	private boolean				mOnEventThread;
-	private Thread				mReceptionThread;
-	private String				mUserFilter;
-	private String				mIDFilter;
+	public static final int				DEFAULT_PORT				= 13321;
+	private static final int			REPLAY_LIMIT				= 64;
+	private static final long			MIN_BACKOFF_MILLIS			= 10;
+	private static final long			MAX_BACKOFF_MILLIS			= TimeUnit.SECONDS.toMillis(5);
+	private static final long			STALE_ORIGIN_MILLIS			= TimeUnit.MINUTES.toMillis(10);
+	private static final int			HUB_PROBE_TIMEOUT_MILLIS	= (int) TimeUnit.SECONDS.toMillis(1);
+	private static final Random			RANDOM						= new Random();
+	private InetSocketAddress			mSocketAddress;
+	private ConduitTransport			mTransport;
+	private volatile int				mGeneration;
+	private long						mOrigin;
+	private long						mSequence;
+	private ArrayDeque<ConduitMessage>	mReplay						= new ArrayDeque<>();
+	private TLongLongHashMap			mLastSequence				= new TLongLongHashMap();
+	private TLongLongHashMap			mLastHeard					= new TLongLongHashMap();
+	private long						mLastPrune;
+	private ConduitReceiver				mReceiver;
+	private boolean						mOnEventThread;
+	private Thread						mReceptionThread;
+	private String						mUserFilter;
+	private String						mIDFilter;
 
 	/**
 	 * Creates a new conduit with the default port on the loopback address.
@@ -86,7 +118,14 @@ public class Conduit implements Runnable {
 		mReceptionThread = new Thread(this, Conduit.class.getSimpleName() + '@' + mSocketAddress);
 		mUserFilter = mReceiver.getConduitMessageUserFilter();
 		mIDFilter = mReceiver.getConduitMessageIDFilter();
-		reconnect();
+		mTransport = createTransport(mSocketAddress);
+		synchronized (RANDOM) {
+			// An origin of 0 marks messages as unstamped, so avoid it.
+			do {
+				mOrigin = RANDOM.nextLong();
+			} while (mOrigin == 0);
+		}
+		reconnect(mGeneration);
 		mReceptionThread.setPriority(Thread.NORM_PRIORITY);
 		mReceptionThread.setDaemon(true);
 		mReceptionThread.start();
@@ -102,33 +141,62 @@ public class Conduit implements Runnable {
 		}
 	}
 
-	private void reconnect() {
-		shutdownSocket();
-		if (mServer != null) {
-			mServer.shutdown();
-			mServer = null;
+	private static ConduitTransport createTransport(InetSocketAddress socketAddress) {
+		if (socketAddress.getAddress() != null && socketAddress.getAddress().isLoopbackAddress() && !isHubRunning(socketAddress)) {
+			try {
+				return new MappedTransport(socketAddress.getPort());
+			} catch (IOException ioe) {
+				// The ring buffer isn't available, so fall back to using a socket.
+			}
+		}
+		return new SocketTransport(socketAddress);
+	}
+
+	/**
+	 * @param socketAddress The socket address to check.
+	 * @return <code>true</code> if a TCP hub, most likely started by an older conduit, is already
+	 *         listening on the address.
+	 */
+	private static boolean isHubRunning(InetSocketAddress socketAddress) {
+		try (Socket socket = new Socket()) {
+			socket.connect(socketAddress, HUB_PROBE_TIMEOUT_MILLIS);
+			return true;
+		} catch (IOException ioe) {
+			return false;
 		}
+	}
 
+	/**
+	 * Re-establishes the connection, backing off exponentially between failed attempts, and then
+	 * replays the recently sent messages.
+	 *
+	 * @param failedGeneration The generation of the connection that failed. If the connection has
+	 *            already been re-established since then, nothing is done.
+	 */
+	private synchronized void reconnect(int failedGeneration) {
+		if (failedGeneration != mGeneration) {
+			return;
+		}
+		long backoff = MIN_BACKOFF_MILLIS;
 		while (true) {
+			mTransport.close();
 			try {
-				mServer = new Server(mSocketAddress);
-				mServer.setDaemon(true);
-				mServer.start();
+				mTransport.connect();
+				for (ConduitMessage msg : mReplay) {
+					mTransport.send(msg.asReplay());
+				}
+				mGeneration++;
+				return;
 			} catch (Exception exception) {
-				// Someone else is already the server, just start a client.
+				// The server is no longer around or hasn't quite started up
+				// yet, so wait a bit and try again.
 			}
-
-			mSocket = new Socket();
 			try {
-				mSocket.connect(mSocketAddress);
-				mInput = new DataInputStream(mSocket.getInputStream());
-				mOutput = new DataOutputStream(mSocket.getOutputStream());
-				return;
-			} catch (Exception ex2) {
-				// The server is no longer around or hasn't quite started up
-				// yet, so loop and try again.
-				shutdownSocket();
+				Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+			} catch (InterruptedException exception) {
+				// Ignore.
 			}
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
 		}
 	}
 
@@ -137,23 +205,28 @@ public class Conduit implements Runnable {
 	 *
 	 * @param msg The message.
 	 */
-	public void send(ConduitMessage msg) {
-		while (true) {
-			try {
-				msg.send(mOutput);
-				return;
-			} catch (Exception exception) {
-				reconnect();
-			}
+	public synchronized void send(ConduitMessage msg) {
+		msg = new ConduitMessage(msg, mOrigin, ++mSequence);
+		if (mReplay.size() == REPLAY_LIMIT) {
+			mReplay.removeFirst();
+		}
+		mReplay.addLast(msg);
+		try {
+			mTransport.send(msg);
+		} catch (Exception exception) {
+			// Reconnecting replays the message along with any others that
+			// may have been lost.
+			reconnect(mGeneration);
 		}
 	}
 
 	@Override
 	public void run() {
 		while (true) {
+			int generation = mGeneration;
 			try {
-				ConduitMessage msg = new ConduitMessage(mInput);
-				if ((mUserFilter == null || mUserFilter.equals(msg.getUser())) && (mIDFilter == null || mIDFilter.equals(msg.getID()))) {
+				ConduitMessage msg = mTransport.receive();
+				if (isNew(msg) && (mUserFilter == null || mUserFilter.equals(msg.getUser())) && (mIDFilter == null || mIDFilter.equals(msg.getID()))) {
 					if (mOnEventThread) {
 						msg.setReceiver(mReceiver);
 						EventQueue.invokeLater(msg);
@@ -162,21 +235,66 @@ public class Conduit implements Runnable {
 					}
 				}
 			} catch (Exception exception) {
-				reconnect();
+				reconnect(generation);
 			}
 		}
 	}
 
-	private void shutdownSocket() {
-		if (mSocket != null) {
-			try {
-				mSocket.close();
-			} catch (Exception exception) {
-				// Ignore.
+	/**
+	 * @param msg The message to check.
+	 * @return <code>true</code> if the message has not been seen before. Messages that appear to
+	 *         have been skipped over are reported to the {@link ConduitReceiver}.
+	 */
+	private boolean isNew(ConduitMessage msg) {
+		if (!msg.isStamped()) {
+			// Sent by an older conduit, so there is nothing to go on.
+			return true;
+		}
+		long origin = msg.getOrigin();
+		long sequence = msg.getSequence();
+		long now = System.currentTimeMillis();
+		pruneStaleOrigins(now);
+		if (!mLastSequence.containsKey(origin)) {
+			// A replayed message from an origin we haven't heard from may predate our existence,
+			// so acting on it could repeat something that has already been dealt with.
+			if (msg.isReplayed()) {
+				return false;
+			}
+		} else {
+			long last = mLastSequence.get(origin);
+			if (sequence <= last) {
+				return false;
+			}
+			if (sequence > last + 1) {
+				long count = sequence - (last + 1);
+				if (mOnEventThread) {
+					EventQueue.invokeLater(() -> mReceiver.conduitMessagesLost(origin, count));
+				} else {
+					mReceiver.conduitMessagesLost(origin, count);
+				}
 			}
-			mSocket = null;
-			mInput = null;
-			mOutput = null;
+		}
+		mLastSequence.put(origin, sequence);
+		mLastHeard.put(origin, now);
+		return true;
+	}
+
+	/**
+	 * Forgets the origins that haven't been heard from recently, which are most likely conduits
+	 * that no longer exist.
+	 *
+	 * @param now The current time.
+	 */
+	private void pruneStaleOrigins(long now) {
+		if (now - mLastPrune >= STALE_ORIGIN_MILLIS) {
+			mLastPrune = now;
+			mLastHeard.retainEntries((origin, heard) -> {
+				if (now - heard < STALE_ORIGIN_MILLIS) {
+					return true;
+				}
+				mLastSequence.remove(origin);
+				return false;
+			});
 		}
 	}
 }
@@ -18,7 +18,17 @@ import java.io.IOException;
 /** The message sent between between processes using a conduit. */
 public class ConduitMessage implements Runnable {
 	// No repeating characters allowed!
-	private static final byte[]	ID	= { '#', 'W', 'i', 'l', 'k', 'e', 's', '!' };
+	private static final byte[]	ID					= { '#', 'W', 'i', 'l', 'k', 'e', 's' };
+	// Terminates the ID of the message body. This is the only frame older conduits understand.
+	private static final byte	BODY				= '!';
+	// Terminates the ID of the extension frame that precedes the body of stamped messages. Older
+	// conduits skip over it while looking for the body's ID.
+	private static final byte	EXTENSION			= '+';
+	private static final int	EXTENSION_VERSION	= 1;
+	private static final int	FLAG_REPLAYED		= 1;
+	private long				mOrigin;
+	private long				mSequence;
+	private boolean				mReplayed;
 	private String				mUser;
 	private String				mID;
 	private String				mMessage;
@@ -36,6 +46,28 @@ public class ConduitMessage implements Runnable {
 		mMessage = message;
 	}
 
+	/**
+	 * Creates a copy of a conduit message, stamped for sending.
+	 *
+	 * @param other The message to copy.
+	 * @param origin The origin of the {@link Conduit} sending the message.
+	 * @param sequence The sequence number of the message within its origin.
+	 */
+	ConduitMessage(ConduitMessage other, long origin, long sequence) {
+		mOrigin = origin;
+		mSequence = sequence;
+		mUser = other.mUser;
+		mID = other.mID;
+		mMessage = other.mMessage;
+	}
+
+	/** @return A copy of this message, marked as being replayed. */
+	ConduitMessage asReplay() {
+		ConduitMessage msg = new ConduitMessage(this, mOrigin, mSequence);
+		msg.mReplayed = true;
+		return msg;
+	}
+
 	/**
 	 * Creates a new conduit message by reading it in from the specified stream.
 	 *
@@ -43,10 +75,38 @@ public class ConduitMessage implements Runnable {
 	 * @throws IOException if the underlying data stream throws an exception.
 	 */
 	public ConduitMessage(DataInputStream stream) throws IOException {
+		while (sync(stream) == EXTENSION) {
+			// Extensions of a version we don't understand are skipped, leaving the message unstamped.
+			if (stream.readUnsignedByte() == EXTENSION_VERSION) {
+				mReplayed = (stream.readUnsignedByte() & FLAG_REPLAYED) != 0;
+				mOrigin = stream.readLong();
+				mSequence = stream.readLong();
+			} else {
+				mReplayed = false;
+				mOrigin = 0;
+				mSequence = 0;
+			}
+		}
+		mUser = stream.readUTF();
+		mID = stream.readUTF();
+		mMessage = stream.readUTF();
+	}
+
+	/**
+	 * Skips to the end of the next frame ID in the stream.
+	 *
+	 * @param stream The stream to read from.
+	 * @return The byte that terminated the ID, identifying the type of frame that follows.
+	 * @throws IOException if the underlying data stream throws an exception.
+	 */
+	private static byte sync(DataInputStream stream) throws IOException {
 		int i = 0;
-		while (i < ID.length) {
+		while (true) {
 			byte value = stream.readByte();
-			if (value == ID[i]) {
+			if (i == ID.length && (value == BODY || value == EXTENSION)) {
+				return value;
+			}
+			if (i < ID.length && value == ID[i]) {
 				i++;
 			} else if (value == ID[0]) {
 				i = 1;
@@ -54,9 +114,6 @@ public class ConduitMessage implements Runnable {
 				i = 0;
 			}
 		}
-		mUser = stream.readUTF();
-		mID = stream.readUTF();
-		mMessage = stream.readUTF();
 	}
 
 	/**
@@ -66,7 +123,16 @@ public class ConduitMessage implements Runnable {
 	 * @throws IOException if the stream throws an exception.
 	 */
 	void send(DataOutputStream stream) throws IOException {
+		if (isStamped()) {
+			stream.write(ID);
+			stream.writeByte(EXTENSION);
+			stream.writeByte(EXTENSION_VERSION);
+			stream.writeByte(mReplayed ? FLAG_REPLAYED : 0);
+			stream.writeLong(mOrigin);
+			stream.writeLong(mSequence);
+		}
 		stream.write(ID);
+		stream.writeByte(BODY);
 		stream.writeUTF(getUser());
 		stream.writeUTF(getID());
 		stream.writeUTF(getMessage());
@@ -83,6 +149,39 @@ public class ConduitMessage implements Runnable {
 		mReceiver.conduitMessageReceived(this);
 	}
 
+	/**
+	 * @return <code>true</code> if this message carries the origin and sequence number of the
+	 *         {@link Conduit} that sent it. Messages relayed by older conduits do not.
+	 */
+	public boolean isStamped() {
+		return mOrigin != 0;
+	}
+
+	/**
+	 * @return <code>true</code> if this message is being sent again after its {@link Conduit}
+	 *         reconnected, in case it was lost the first time around.
+	 */
+	public boolean isReplayed() {
+		return mReplayed;
+	}
+
+	/**
+	 * @return The origin of the {@link Conduit} that sent this message, or <code>0</code> if the
+	 *         message is not stamped.
+	 */
+	public long getOrigin() {
+		return mOrigin;
+	}
+
+	/**
+	 * @return The sequence number of this message within its origin. Sequence numbers start at 1
+	 *         and increase by 1 for each message sent. Messages that are not stamped have a
+	 *         sequence number of <code>0</code>.
+	 */
+	public long getSequence() {
+		return mSequence;
+	}
+
 	/** @return The user. */
 	public String getUser() {
 		return mUser;
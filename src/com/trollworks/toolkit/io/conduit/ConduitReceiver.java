@@ -20,6 +20,19 @@ public interface ConduitReceiver {
 	 */
 	public void conduitMessageReceived(ConduitMessage msg);
 
+	/**
+	 * Called when a gap in the sequence of messages from an origin is detected, indicating that
+	 * some messages were lost, typically during a failover. This is called before the message that
+	 * revealed the gap is delivered, on the same thread, and is not subject to any filtering. Does
+	 * nothing by default.
+	 *
+	 * @param origin The origin of the lost messages. See {@link ConduitMessage#getOrigin()}.
+	 * @param count The number of messages that were lost.
+	 */
+	default void conduitMessagesLost(long origin, long count) {
+		// Does nothing by default.
+	}
+
 	/**
 	 * Called to get the filter to apply to incoming message IDs, if any. This method is only called
 	 * once, when the {@link Conduit} is starting up.
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+package com.trollworks.toolkit.io.conduit;
+
+import java.io.IOException;
+
+/** The mechanism a {@link Conduit} uses to move messages between processes. */
+interface ConduitTransport {
+	/**
+	 * Establishes the connection, becoming the hub for other participants if necessary.
+	 *
+	 * @throws IOException if the connection cannot be established at this time.
+	 */
+	void connect() throws IOException;
+
+	/**
+	 * Sends a message to all participants, including this one.
+	 *
+	 * @param msg The message to send.
+	 * @throws IOException if the message could not be sent.
+	 */
+	void send(ConduitMessage msg) throws IOException;
+
+	/**
+	 * Blocks until the next message is available.
+	 *
+	 * @return The next message.
+	 * @throws IOException if the connection has failed.
+	 */
+	ConduitMessage receive() throws IOException;
+
+	/** Closes the connection, releasing any resources it holds. */
+	void close();
+
+}
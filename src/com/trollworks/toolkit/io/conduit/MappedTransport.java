@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+package com.trollworks.toolkit.io.conduit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ConduitTransport} for participants that all live on the same host. Rather than
+ * relaying messages through a hub, every participant maps the same file in the temporary directory
+ * and treats it as a broadcast ring buffer. The file is private to the user that created it.
+ * <p>
+ * Writers append records while holding a file lock. Each record is written before its header, and
+ * the header before the new tail is published. Since nothing orders these writes as seen from
+ * another process, readers validate a record's header and checksum again after copying it out,
+ * rather than trusting the tail. Readers each track their own position and, when there is nothing
+ * to read, block on a loopback datagram socket whose port they register in the file. Writers send
+ * an empty datagram to each registered port after publishing a record.
+ * <p>
+ * The file is mapped once, when the transport is created, and the mapping is kept for the life of
+ * the transport. Closing it only gives up the doorbell, so that reconnecting doesn't map the file
+ * yet again.
+ */
+class MappedTransport implements ConduitTransport {
+	private static final int						MAGIC				= 0x436F6E32;
+	private static final int						MAGIC_OFFSET		= 0;
+	private static final int						CAPACITY_OFFSET		= 4;
+	private static final int						TAIL_OFFSET			= 8;
+	private static final int						WAITERS_OFFSET		= 64;
+	private static final int						HEADER_SIZE			= 512;
+	private static final int						WAITER_COUNT		= (HEADER_SIZE - WAITERS_OFFSET) / 4;
+	// Each record starts with its length, the checksum of its data and its own position.
+	private static final int						RECORD_HEADER_SIZE	= 16;
+	private static final int						CAPACITY			= 256 * 1024;
+	private static final int						RETRY_LIMIT			= 1000;
+	// Doorbells are not guaranteed to arrive, so readers also check back this often.
+	private static final int						WAIT_TIMEOUT_MILLIS	= (int) TimeUnit.SECONDS.toMillis(1);
+	private static final Set<PosixFilePermission>	OWNER_ONLY			= PosixFilePermissions.fromString("rw-------"); //$NON-NLS-1$
+	// File locks are held on behalf of the whole JVM, so writers within this process must also
+	// exclude each other.
+	private static final Object						WRITE_LOCK			= new Object();
+	private Path									mPath;
+	private FileChannel								mChannel;
+	private MappedByteBuffer						mBuffer;
+	private DatagramSocket							mDoorbell;
+	private DatagramPacket							mDoorbellPacket		= new DatagramPacket(new byte[1], 1);
+	private int										mWaiterSlot			= -1;
+	private long									mReadPosition;
+	private volatile boolean						mClosed				= true;
+
+	/**
+	 * Creates a new mapped transport.
+	 *
+	 * @param port The port the {@link Conduit} was configured with. Used to keep conduits on
+	 *            different ports apart, just as they would be with sockets.
+	 * @throws IOException if the ring buffer file cannot be mapped.
+	 */
+	MappedTransport(int port) throws IOException {
+		String user = System.getProperty("user.name", "").replaceAll("[^A-Za-z0-9._-]", "_"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		mPath = Paths.get(System.getProperty("java.io.tmpdir"), "conduit-" + port + '-' + user + ".ring"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		FileChannel channel = openChannel();
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + CAPACITY);
+			synchronized (WRITE_LOCK) {
+				FileLock lock = channel.lock();
+				try {
+					if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+						for (int i = 0; i < HEADER_SIZE; i += 4) {
+							buffer.putInt(i, 0);
+						}
+						buffer.putInt(CAPACITY_OFFSET, CAPACITY);
+						buffer.putInt(MAGIC_OFFSET, MAGIC);
+					} else if (buffer.getInt(CAPACITY_OFFSET) != CAPACITY) {
+						throw new IOException("Incompatible ring buffer in " + mPath); //$NON-NLS-1$
+					}
+				} finally {
+					lock.release();
+				}
+			}
+			mChannel = channel;
+			mBuffer = buffer;
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+	}
+
+	private FileChannel openChannel() throws IOException {
+		Set<OpenOption> options = new HashSet<>();
+		options.add(StandardOpenOption.CREATE);
+		options.add(StandardOpenOption.READ);
+		options.add(StandardOpenOption.WRITE);
+		options.add(LinkOption.NOFOLLOW_LINKS);
+		if (!mPath.getFileSystem().supportedFileAttributeViews().contains("posix")) { //$NON-NLS-1$
+			return FileChannel.open(mPath, options);
+		}
+		FileChannel channel = FileChannel.open(mPath, options, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+		try {
+			// The file may already have existed. Only its owner may change its permissions, so this
+			// also guards against using a file some other user planted.
+			Files.getFileAttributeView(mPath, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).setPermissions(OWNER_ONLY);
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+		return channel;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		if (mClosed) {
+			mDoorbell = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			mDoorbell.setSoTimeout(WAIT_TIMEOUT_MILLIS);
+			mWaiterSlot = -1;
+			mClosed = false;
+		}
+		registerWaiter();
+		// Only messages sent from this point forward are of interest.
+		mReadPosition = mBuffer.getLong(TAIL_OFFSET);
+	}
+
+	/** Makes sure the port of our doorbell is registered, so that writers will ring it. */
+	private void registerWaiter() throws IOException {
+		int port = mDoorbell.getLocalPort();
+		synchronized (WRITE_LOCK) {
+			checkOpen();
+			FileLock lock = mChannel.lock();
+			try {
+				if (mWaiterSlot != -1 && mBuffer.getInt(waiterOffset(mWaiterSlot)) == port) {
+					return;
+				}
+				// Take a free slot if there is one. Slots left behind by processes that died
+				// without cleaning up are only reclaimed once the table is full.
+				int slot = port % WAITER_COUNT;
+				for (int i = 0; i < WAITER_COUNT; i++) {
+					if (mBuffer.getInt(waiterOffset(i)) == 0) {
+						slot = i;
+						break;
+					}
+				}
+				mBuffer.putInt(waiterOffset(slot), port);
+				mWaiterSlot = slot;
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	private static int waiterOffset(int slot) {
+		return WAITERS_OFFSET + slot * 4;
+	}
+
+	@Override
+	public void send(ConduitMessage msg) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream stream = new DataOutputStream(bytes)) {
+			msg.send(stream);
+		}
+		byte[] data = bytes.toByteArray();
+		int length = RECORD_HEADER_SIZE + data.length;
+		if (length > CAPACITY) {
+			throw new IOException("Message too large for ring buffer"); //$NON-NLS-1$
+		}
+		byte[] header = new byte[RECORD_HEADER_SIZE];
+		synchronized (WRITE_LOCK) {
+			checkOpen();
+			FileLock lock = mChannel.lock();
+			try {
+				long tail = mBuffer.getLong(TAIL_OFFSET);
+				put(tail + RECORD_HEADER_SIZE, data);
+				// The record's position is at the end of its header, so is written last.
+				ByteBuffer.wrap(header).putInt(data.length).putInt(checksum(data)).putLong(tail);
+				put(tail, header);
+				mBuffer.putLong(TAIL_OFFSET, tail + length);
+			} finally {
+				lock.release();
+			}
+		}
+		ringDoorbells();
+	}
+
+	private void ringDoorbells() {
+		InetAddress address = InetAddress.getLoopbackAddress();
+		DatagramPacket packet = new DatagramPacket(new byte[0], 0);
+		packet.setAddress(address);
+		for (int i = 0; i < WAITER_COUNT; i++) {
+			int port = mBuffer.getInt(waiterOffset(i));
+			if (port > 0 && port <= 0xFFFF) {
+				packet.setPort(port);
+				try {
+					mDoorbell.send(packet);
+				} catch (IOException ioe) {
+					// The waiter has gone away.
+				}
+			}
+		}
+	}
+
+	@Override
+	public ConduitMessage receive() throws IOException {
+		while (true) {
+			checkOpen();
+			ConduitMessage msg = poll();
+			if (msg != null) {
+				return msg;
+			}
+			try {
+				mDoorbell.receive(mDoorbellPacket);
+			} catch (SocketTimeoutException exception) {
+				// Our slot may have been taken over if the table filled up.
+				registerWaiter();
+			}
+		}
+	}
+
+	/** @return The next message, or <code>null</code> if there isn't one yet. */
+	private ConduitMessage poll() throws IOException {
+		int retries = 0;
+		while (true) {
+			long tail = mBuffer.getLong(TAIL_OFFSET);
+			if (tail == mReadPosition) {
+				return null;
+			}
+			if (tail < mReadPosition || tail - mReadPosition > CAPACITY) {
+				// Either we fell too far behind and the writers lapped us, or the ring was reset.
+				// Either way, pick up with whatever comes next.
+				mReadPosition = tail;
+				return null;
+			}
+			byte[] header = new byte[RECORD_HEADER_SIZE];
+			get(mReadPosition, header);
+			ByteBuffer fields = ByteBuffer.wrap(header);
+			int length = fields.getInt();
+			int checksum = fields.getInt();
+			byte[] data = null;
+			if (fields.getLong() == mReadPosition && length > 0 && length <= tail - mReadPosition - RECORD_HEADER_SIZE) {
+				data = new byte[length];
+				get(mReadPosition + RECORD_HEADER_SIZE, data);
+				get(mReadPosition, header);
+				fields.rewind();
+				if (fields.getInt() != length || fields.getInt() != checksum || fields.getLong() != mReadPosition || checksum(data) != checksum || mBuffer.getLong(TAIL_OFFSET) - mReadPosition > CAPACITY) {
+					data = null;
+				}
+			}
+			if (data != null) {
+				mReadPosition += RECORD_HEADER_SIZE + length;
+				return new ConduitMessage(new DataInputStream(new ByteArrayInputStream(data)));
+			}
+			// The record was either overwritten while we were copying it out or hasn't become
+			// fully visible to us yet. Give the writer a chance before giving up on it.
+			if (++retries > RETRY_LIMIT) {
+				mReadPosition = mBuffer.getLong(TAIL_OFFSET);
+				return null;
+			}
+			Thread.yield();
+		}
+	}
+
+	@Override
+	public void close() {
+		mClosed = true;
+		synchronized (WRITE_LOCK) {
+			try {
+				if (mWaiterSlot != -1) {
+					FileLock lock = mChannel.lock();
+					try {
+						int offset = waiterOffset(mWaiterSlot);
+						if (mBuffer.getInt(offset) == mDoorbell.getLocalPort()) {
+							mBuffer.putInt(offset, 0);
+						}
+					} finally {
+						lock.release();
+					}
+				}
+			} catch (Exception exception) {
+				// Ignore.
+			}
+			mWaiterSlot = -1;
+		}
+		if (mDoorbell != null) {
+			mDoorbell.close();
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (mClosed) {
+			throw new IOException("Transport closed"); //$NON-NLS-1$
+		}
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	private void put(long position, byte[] data) {
+		ByteBuffer buffer = mBuffer.duplicate();
+		int offset = (int) (position % CAPACITY);
+		int first = Math.min(data.length, CAPACITY - offset);
+		buffer.position(HEADER_SIZE + offset);
+		buffer.put(data, 0, first);
+		if (first < data.length) {
+			buffer.position(HEADER_SIZE);
+			buffer.put(data, first, data.length - first);
+		}
+	}
+
+	private void get(long position, byte[] data) {
+		ByteBuffer buffer = mBuffer.duplicate();
+		int offset = (int) (position % CAPACITY);
+		int first = Math.min(data.length, CAPACITY - offset);
+		buffer.position(HEADER_SIZE + offset);
+		buffer.get(data, 0, first);
+		if (first < data.length) {
+			buffer.position(HEADER_SIZE);
+			buffer.get(data, first, data.length - first);
+		}
+	}
+}
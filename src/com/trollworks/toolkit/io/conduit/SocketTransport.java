@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+package com.trollworks.toolkit.io.conduit;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/** A {@link ConduitTransport} that routes messages through a TCP hub {@link Server}. */
+class SocketTransport implements ConduitTransport {
+	private InetSocketAddress	mSocketAddress;
+	private Server				mServer;
+	private Socket				mSocket;
+	private DataInputStream		mInput;
+	private DataOutputStream	mOutput;
+
+	/** @param socketAddress The socket address to use. */
+	SocketTransport(InetSocketAddress socketAddress) {
+		mSocketAddress = socketAddress;
+	}
+
+	@Override
+	public void connect() throws IOException {
+		shutdownSocket();
+		if (mServer == null) {
+			try {
+				Server server = new Server(mSocketAddress);
+				server.setDaemon(true);
+				server.start();
+				mServer = server;
+			} catch (Exception exception) {
+				// Someone else is already the server, just start a client.
+			}
+		}
+
+		mSocket = new Socket();
+		try {
+			mSocket.connect(mSocketAddress);
+			mInput = new DataInputStream(mSocket.getInputStream());
+			mOutput = new DataOutputStream(mSocket.getOutputStream());
+		} catch (IOException ioe) {
+			// The server is no longer around or hasn't quite started up yet.
+			shutdownSocket();
+			throw ioe;
+		}
+	}
+
+	@Override
+	public void send(ConduitMessage msg) throws IOException {
+		DataOutputStream output = mOutput;
+		if (output == null) {
+			throw new IOException("Not connected"); //$NON-NLS-1$
+		}
+		msg.send(output);
+	}
+
+	@Override
+	public ConduitMessage receive() throws IOException {
+		DataInputStream input = mInput;
+		if (input == null) {
+			throw new IOException("Not connected"); //$NON-NLS-1$
+		}
+		return new ConduitMessage(input);
+	}
+
+	@Override
+	public void close() {
+		shutdownSocket();
+		if (mServer != null) {
+			mServer.shutdown();
+			mServer = null;
+		}
+	}
+
+	private void shutdownSocket() {
+		if (mSocket != null) {
+			try {
+				mSocket.close();
+			} catch (Exception exception) {
+				// Ignore.
+			}
+			mSocket = null;
+			mInput = null;
+			mOutput = null;
+		}
+	}
+}
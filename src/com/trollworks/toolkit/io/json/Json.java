@@ -11,7 +11,6 @@
 
 package com.trollworks.toolkit.io.json;
 
-import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.io.UrlUtils;
 import com.trollworks.toolkit.utility.Geometry;
 import com.trollworks.toolkit.utility.Text;
@@ -29,20 +28,52 @@ import java.util.Map;
 
 /** Json utilities. */
 public class Json {
-	private Reader	mReader;
-	private int		mIndex;
-	private int		mCharacter	= 1;
-	private int		mLine		= 1;
-	private char	mPrevious;
-	private boolean	mEOF;
-	private boolean	mUsePrevious;
-
 	/**
 	 * @param reader A {@link Reader} to load JSON data from.
 	 * @return The result of loading the data.
 	 */
 	public static final Object parse(Reader reader) throws IOException {
-		return new Json(reader).nextValue();
+		return parse(new JsonReader(reader));
+	}
+
+	/**
+	 * @param reader A {@link JsonReader} to load JSON data from.
+	 * @return The result of loading the next value from the reader.
+	 */
+	public static final Object parse(JsonReader reader) throws IOException {
+		switch (reader.peek()) {
+			case START_MAP:
+				JsonMap map = new JsonMap();
+				reader.startMap();
+				while (reader.hasNext()) {
+					String key = reader.nextName();
+					if (map.has(key)) {
+						throw new IOException("Duplicate key \"" + key + "\""); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					map.put(key, parse(reader));
+				}
+				reader.endMap();
+				return map;
+			case START_ARRAY:
+				JsonArray array = new JsonArray();
+				reader.startArray();
+				while (reader.hasNext()) {
+					array.put(parse(reader));
+				}
+				reader.endArray();
+				return array;
+			case STRING:
+				return reader.nextString();
+			case NUMBER:
+				return reader.nextNumber();
+			case BOOLEAN:
+				return Boolean.valueOf(reader.nextBoolean());
+			case NULL:
+				reader.nextNull();
+				return JsonNull.INSTANCE;
+			default:
+				throw new IOException("Missing value" + reader); //$NON-NLS-1$
+		}
 	}
 
 	/**
@@ -61,7 +92,7 @@ public class Json {
 	 * @return The result of loading the data.
 	 */
 	public static final Object parse(InputStream stream) throws IOException {
-		return parse(stream, Text.UTF8_ENCODING);
+		return parse(new JsonReader(stream));
 	}
 
 	/**
@@ -195,11 +226,11 @@ public class Json {
 			}
 			return str;
 		}
-		if (value instanceof Boolean || value instanceof JsonMap || value instanceof JsonArray) {
+		if (value instanceof Boolean) {
 			return value.toString();
 		}
-		if (value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
-			return wrap(value).toString();
+		if (value instanceof JsonCollection || value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+			return write(value);
 		}
 		if (value instanceof Point) {
 			return quote(Geometry.toString((Point) value));
@@ -210,6 +241,18 @@ public class Json {
 		return quote(value.toString());
 	}
 
+	private static final String write(Object value) {
+		StringBuilder buffer = new StringBuilder();
+		try {
+			JsonWriter writer = new JsonWriter(buffer);
+			writer.value(value);
+			writer.flush();
+		} catch (IOException exception) {
+			// Can't happen, as a StringBuilder is the destination.
+		}
+		return buffer.toString();
+	}
+
 	/**
 	 * @param object The object to wrap for storage inside a {@link JsonCollection}.
 	 * @return The wrapped version of the object, which may be the original object passed in.
@@ -253,12 +296,12 @@ public class Json {
 			} else if (object instanceof int[]) {
 				int[] values = (int[]) object;
 				for (int value : values) {
-					array.put(wrap(Integer.valueOf(value)));
+					array.put(value);
 				}
 			} else if (object instanceof long[]) {
 				long[] values = (long[]) object;
 				for (long value : values) {
-					array.put(wrap(Long.valueOf(value)));
+					array.put(value);
 				}
 			} else if (object instanceof float[]) {
 				float[] values = (float[]) object;
@@ -268,7 +311,7 @@ public class Json {
 			} else if (object instanceof double[]) {
 				double[] values = (double[]) object;
 				for (double value : values) {
-					array.put(wrap(Double.valueOf(value)));
+					array.put(value);
 				}
 			} else if (object instanceof boolean[]) {
 				boolean[] values = (boolean[]) object;
@@ -303,335 +346,8 @@ public class Json {
 		if (string == null || (len = string.length()) == 0) {
 			return "\"\""; //$NON-NLS-1$
 		}
-		StringBuffer buffer = new StringBuffer(len + 4);
-		buffer.append('"');
-		char ch = 0;
-		for (int i = 0; i < len; i++) {
-			char last = ch;
-			ch = string.charAt(i);
-			switch (ch) {
-				case '\\':
-				case '"':
-					buffer.append('\\');
-					buffer.append(ch);
-					break;
-				case '/':
-					if (last == '<') {
-						buffer.append('\\');
-					}
-					buffer.append(ch);
-					break;
-				case '\b':
-					buffer.append("\\b"); //$NON-NLS-1$
-					break;
-				case '\t':
-					buffer.append("\\t"); //$NON-NLS-1$
-					break;
-				case '\n':
-					buffer.append("\\n"); //$NON-NLS-1$
-					break;
-				case '\f':
-					buffer.append("\\f"); //$NON-NLS-1$
-					break;
-				case '\r':
-					buffer.append("\\r"); //$NON-NLS-1$
-					break;
-				default:
-					if (ch < ' ' || ch >= '\u0080' && ch < '\u00a0' || ch >= '\u2000' && ch < '\u2100') {
-						String hex = "000" + Integer.toHexString(ch); //$NON-NLS-1$
-						buffer.append("\\u" + hex.substring(hex.length() - 4)); //$NON-NLS-1$
-					} else {
-						buffer.append(ch);
-					}
-					break;
-			}
-		}
-		buffer.append('"');
+		StringBuilder buffer = new StringBuilder(len + 4);
+		JsonWriter.appendQuoted(buffer, string);
 		return buffer.toString();
 	}
-
-	private Json(Reader reader) {
-		mReader = reader;
-	}
-
-	private char next() throws IOException {
-		int c;
-		if (mUsePrevious) {
-			mUsePrevious = false;
-			c = mPrevious;
-		} else {
-			c = mReader.read();
-			if (c <= 0) { // End of stream
-				mEOF = true;
-				c = 0;
-			}
-		}
-		mIndex++;
-		if (mPrevious == '\r') {
-			mLine++;
-			mCharacter = c == '\n' ? 0 : 1;
-		} else if (c == '\n') {
-			mLine++;
-			mCharacter = 0;
-		} else {
-			mCharacter++;
-		}
-		mPrevious = (char) c;
-		return mPrevious;
-	}
-
-	private char nextSkippingWhitespace() throws IOException {
-		for (;;) {
-			char c = next();
-			if (c == 0 || c > ' ') {
-				return c;
-			}
-		}
-	}
-
-	private Object nextValue() throws IOException {
-		char c = nextSkippingWhitespace();
-		String s;
-
-		switch (c) {
-			case '"':
-			case '\'':
-				return nextString(c);
-			case '{':
-				back();
-				return nextMap();
-			case '[':
-			case '(':
-				back();
-				return nextArray();
-			default:
-				break;
-		}
-
-		StringBuffer sb = new StringBuffer();
-		while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) { //$NON-NLS-1$
-			sb.append(c);
-			c = next();
-		}
-		back();
-
-		s = sb.toString().trim();
-		if (s.equals("")) { //$NON-NLS-1$
-			throw syntaxError("Missing value"); //$NON-NLS-1$
-		}
-		if (s.equalsIgnoreCase("true")) { //$NON-NLS-1$
-			return Boolean.TRUE;
-		}
-		if (s.equalsIgnoreCase("false")) { //$NON-NLS-1$
-			return Boolean.FALSE;
-		}
-		if (s.equalsIgnoreCase("null")) { //$NON-NLS-1$
-			return JsonNull.INSTANCE;
-		}
-
-		char b = s.charAt(0);
-		if (b >= '0' && b <= '9' || b == '.' || b == '-' || b == '+') {
-			if (b == '0' && s.length() > 2 && (s.charAt(1) == 'x' || s.charAt(1) == 'X')) {
-				try {
-					return new Integer(Integer.parseInt(s.substring(2), 16));
-				} catch (Exception ignore) {
-					Log.error(ignore);
-				}
-			}
-			try {
-				if (s.indexOf('.') > -1 || s.indexOf('e') > -1 || s.indexOf('E') > -1) {
-					return Double.valueOf(s);
-				}
-				Long myLong = new Long(s);
-				if (myLong.longValue() == myLong.intValue()) {
-					return new Integer(myLong.intValue());
-				}
-				return myLong;
-			} catch (Exception ignore) {
-				Log.error(ignore);
-			}
-		}
-		return s;
-	}
-
-	private JsonArray nextArray() throws IOException {
-		char c = nextSkippingWhitespace();
-		char q;
-		if (c == '[') {
-			q = ']';
-		} else if (c == '(') {
-			q = ')';
-		} else {
-			throw syntaxError("A JSONArray text must start with '['"); //$NON-NLS-1$
-		}
-		JsonArray array = new JsonArray();
-		if (nextSkippingWhitespace() == ']') {
-			return array;
-		}
-		back();
-		for (;;) {
-			if (nextSkippingWhitespace() == ',') {
-				back();
-				array.put((Object) null);
-			} else {
-				back();
-				array.put(nextValue());
-			}
-			c = nextSkippingWhitespace();
-			switch (c) {
-				case ';':
-				case ',':
-					if (nextSkippingWhitespace() == ']') {
-						return array;
-					}
-					back();
-					break;
-				case ']':
-				case ')':
-					if (q != c) {
-						throw syntaxError("Expected a '" + new Character(q) + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-					}
-					return array;
-				default:
-					throw syntaxError("Expected a ',' or ']'"); //$NON-NLS-1$
-			}
-		}
-	}
-
-	private JsonMap nextMap() throws IOException {
-		char c;
-		String key;
-
-		if (nextSkippingWhitespace() != '{') {
-			throw syntaxError("A JSONObject text must begin with '{'"); //$NON-NLS-1$
-		}
-		JsonMap map = new JsonMap();
-		while (true) {
-			c = nextSkippingWhitespace();
-			switch (c) {
-				case 0:
-					throw syntaxError("A JSONObject text must end with '}'"); //$NON-NLS-1$
-				case '}':
-					return map;
-				default:
-					back();
-					key = nextValue().toString();
-			}
-
-			c = nextSkippingWhitespace();
-			if (c == '=') {
-				if (next() != '>') {
-					back();
-				}
-			} else if (c != ':') {
-				throw syntaxError("Expected a ':' after a key"); //$NON-NLS-1$
-			}
-			if (map.has(key)) {
-				throw new IOException("Duplicate key \"" + key + "\""); //$NON-NLS-1$ //$NON-NLS-2$
-			}
-			map.put(key, nextValue());
-
-			switch (nextSkippingWhitespace()) {
-				case ';':
-				case ',':
-					if (nextSkippingWhitespace() == '}') {
-						return map;
-					}
-					back();
-					break;
-				case '}':
-					return map;
-				default:
-					throw syntaxError("Expected a ',' or '}'"); //$NON-NLS-1$
-			}
-		}
-	}
-
-	private String nextString(char quote) throws IOException {
-		char c;
-		StringBuffer buffer = new StringBuffer();
-		for (;;) {
-			c = next();
-			switch (c) {
-				case 0:
-				case '\n':
-				case '\r':
-					throw syntaxError("Unterminated string"); //$NON-NLS-1$
-				case '\\':
-					c = next();
-					switch (c) {
-						case 'b':
-							buffer.append('\b');
-							break;
-						case 't':
-							buffer.append('\t');
-							break;
-						case 'n':
-							buffer.append('\n');
-							break;
-						case 'f':
-							buffer.append('\f');
-							break;
-						case 'r':
-							buffer.append('\r');
-							break;
-						case 'u':
-							buffer.append((char) Integer.parseInt(next(4), 16));
-							break;
-						case '"':
-						case '\'':
-						case '\\':
-						case '/':
-							buffer.append(c);
-							break;
-						default:
-							throw syntaxError("Illegal escape."); //$NON-NLS-1$
-					}
-					break;
-				default:
-					if (c == quote) {
-						return buffer.toString();
-					}
-					buffer.append(c);
-			}
-		}
-	}
-
-	private void back() {
-		if (mUsePrevious || mIndex <= 0) {
-			throw new IllegalStateException("Stepping back two steps is not supported"); //$NON-NLS-1$
-		}
-		mIndex--;
-		mCharacter--;
-		mUsePrevious = true;
-		mEOF = false;
-	}
-
-	private String next(int n) throws IOException {
-		if (n == 0) {
-			return ""; //$NON-NLS-1$
-		}
-
-		char[] buffer = new char[n];
-		int pos = 0;
-
-		while (pos < n) {
-			buffer[pos] = next();
-			if (mEOF && !mUsePrevious) {
-				throw syntaxError("Substring bounds error"); //$NON-NLS-1$
-			}
-			pos++;
-		}
-		return new String(buffer);
-	}
-
-	private IOException syntaxError(String message) {
-		return new IOException(message + toString());
-	}
-
-	@SuppressWarnings("nls")
-	@Override
-	public String toString() {
-		return " at " + mIndex + " [character " + mCharacter + " line " + mLine + "]";
-	}
 }
@@ -11,25 +11,47 @@
 
 package com.trollworks.toolkit.io.json;
 
-import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.utility.Geometry;
 
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-/** Represents an array in JSON. */
+/**
+ * Represents an array in JSON. Arrays whose elements are all {@link Integer}s, all {@link Long}s
+ * or all {@link Double}s are stored unboxed, switching to general object storage the first time a
+ * value of any other type is added.
+ */
 public class JsonArray extends JsonCollection {
-	private List<Object>	mList	= new ArrayList<>();
+	private List<Object>		mList;
+	private TIntArrayList		mInts;
+	private TLongArrayList		mLongs;
+	private TDoubleArrayList	mDoubles;
 
 	/**
 	 * @param index The index to retrieve.
 	 * @return The value associated with the index or <code>null</code> if no such index exists.
 	 */
 	public Object get(int index) {
-		return index < 0 || index >= size() ? null : mList.get(index);
+		if (index < 0 || index >= size()) {
+			return null;
+		}
+		if (mInts != null) {
+			return Integer.valueOf(mInts.getQuick(index));
+		}
+		if (mLongs != null) {
+			return Long.valueOf(mLongs.getQuick(index));
+		}
+		if (mDoubles != null) {
+			return Double.valueOf(mDoubles.getQuick(index));
+		}
+		return mList.get(index);
 	}
 
 	/**
@@ -60,6 +82,17 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to an integer.
 	 */
 	public int getInt(int index) {
+		if (index >= 0 && index < size()) {
+			if (mInts != null) {
+				return mInts.getQuick(index);
+			}
+			if (mLongs != null) {
+				return (int) mLongs.getQuick(index);
+			}
+			if (mDoubles != null) {
+				return (int) mDoubles.getQuick(index);
+			}
+		}
 		Object value = get(index);
 		try {
 			return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt((String) value);
@@ -74,6 +107,17 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a long.
 	 */
 	public long getLong(int index) {
+		if (index >= 0 && index < size()) {
+			if (mLongs != null) {
+				return mLongs.getQuick(index);
+			}
+			if (mInts != null) {
+				return mInts.getQuick(index);
+			}
+			if (mDoubles != null) {
+				return (long) mDoubles.getQuick(index);
+			}
+		}
 		Object value = get(index);
 		try {
 			return value instanceof Number ? ((Number) value).longValue() : Long.parseLong((String) value);
@@ -88,6 +132,17 @@ public class JsonArray extends JsonCollection {
 	 *         cannot be converted to a double.
 	 */
 	public double getDouble(int index) {
+		if (index >= 0 && index < size()) {
+			if (mDoubles != null) {
+				return mDoubles.getQuick(index);
+			}
+			if (mInts != null) {
+				return mInts.getQuick(index);
+			}
+			if (mLongs != null) {
+				return mLongs.getQuick(index);
+			}
+		}
 		Object value = get(index);
 		try {
 			return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf((String) value).doubleValue();
@@ -152,7 +207,16 @@ public class JsonArray extends JsonCollection {
 
 	/** @return The number of elements in the array. */
 	public int size() {
-		return mList.size();
+		if (mInts != null) {
+			return mInts.size();
+		}
+		if (mLongs != null) {
+			return mLongs.size();
+		}
+		if (mDoubles != null) {
+			return mDoubles.size();
+		}
+		return mList != null ? mList.size() : 0;
 	}
 
 	/**
@@ -161,7 +225,16 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(Object value) {
-		mList.add(Json.wrap(value));
+		value = Json.wrap(value);
+		if (value instanceof Integer) {
+			put(((Integer) value).intValue());
+		} else if (value instanceof Long) {
+			put(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			put(((Double) value).doubleValue());
+		} else {
+			objects().add(value);
+		}
 	}
 
 	/**
@@ -188,7 +261,15 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(int value) {
-		put(Integer.valueOf(value));
+		if (mInts == null && size() == 0) {
+			clearStorage();
+			mInts = new TIntArrayList();
+		}
+		if (mInts != null) {
+			mInts.add(value);
+		} else {
+			objects().add(Integer.valueOf(value));
+		}
 	}
 
 	/**
@@ -197,7 +278,15 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(long value) {
-		put(Long.valueOf(value));
+		if (mLongs == null && size() == 0) {
+			clearStorage();
+			mLongs = new TLongArrayList();
+		}
+		if (mLongs != null) {
+			mLongs.add(value);
+		} else {
+			objects().add(Long.valueOf(value));
+		}
 	}
 
 	/**
@@ -215,7 +304,15 @@ public class JsonArray extends JsonCollection {
 	 * @param value The value to store.
 	 */
 	public void put(double value) {
-		put(Double.valueOf(value));
+		if (mDoubles == null && size() == 0) {
+			clearStorage();
+			mDoubles = new TDoubleArrayList();
+		}
+		if (mDoubles != null) {
+			mDoubles.add(value);
+		} else {
+			objects().add(Double.valueOf(value));
+		}
 	}
 
 	/**
@@ -230,7 +327,15 @@ public class JsonArray extends JsonCollection {
 		if (index >= 0) {
 			value = Json.wrap(value);
 			if (index < size()) {
-				mList.set(index, value);
+				if (mInts != null && value instanceof Integer) {
+					mInts.setQuick(index, ((Integer) value).intValue());
+				} else if (mLongs != null && value instanceof Long) {
+					mLongs.setQuick(index, ((Long) value).longValue());
+				} else if (mDoubles != null && value instanceof Double) {
+					mDoubles.setQuick(index, ((Double) value).doubleValue());
+				} else {
+					objects().set(index, value);
+				}
 			} else {
 				while (index != size()) {
 					put(JsonNull.INSTANCE);
@@ -312,28 +417,48 @@ public class JsonArray extends JsonCollection {
 		put(index, Double.valueOf(value));
 	}
 
-	@Override
-	public void appendTo(Appendable out) {
-		try {
-			boolean needComma = false;
-			int len = size();
-			out.append('[');
-			for (int i = 0; i < len; i++) {
-				if (needComma) {
-					out.append(',');
-				} else {
-					needComma = true;
-				}
-				Object v = mList.get(i);
-				if (v instanceof JsonCollection) {
-					((JsonCollection) v).appendTo(out);
-				} else {
-					out.append(Json.toString(v));
-				}
+	private void clearStorage() {
+		mList = null;
+		mInts = null;
+		mLongs = null;
+		mDoubles = null;
+	}
+
+	/** @return The general object storage, converting any primitive storage into it first. */
+	private List<Object> objects() {
+		if (mList == null) {
+			int size = size();
+			List<Object> list = new ArrayList<>(Math.max(size, 10));
+			for (int i = 0; i < size; i++) {
+				list.add(get(i));
+			}
+			clearStorage();
+			mList = list;
+		}
+		return mList;
+	}
+
+	/** @param writer The {@link JsonWriter} to write each element to. */
+	void writeElements(JsonWriter writer) throws IOException {
+		if (mInts != null) {
+			int size = mInts.size();
+			for (int i = 0; i < size; i++) {
+				writer.value(mInts.getQuick(i));
+			}
+		} else if (mLongs != null) {
+			int size = mLongs.size();
+			for (int i = 0; i < size; i++) {
+				writer.value(mLongs.getQuick(i));
+			}
+		} else if (mDoubles != null) {
+			int size = mDoubles.size();
+			for (int i = 0; i < size; i++) {
+				writer.value(mDoubles.getQuick(i));
+			}
+		} else if (mList != null) {
+			for (Object value : mList) {
+				writer.value(value);
 			}
-			out.append(']');
-		} catch (IOException exception) {
-			Log.error(exception);
 		}
 	}
 }
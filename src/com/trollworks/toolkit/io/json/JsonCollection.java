@@ -11,6 +11,10 @@
 
 package com.trollworks.toolkit.io.json;
 
+import com.trollworks.toolkit.io.Log;
+
+import java.io.IOException;
+
 /** Common base class for JSON collections. */
 public abstract class JsonCollection {
 	@Override
@@ -21,5 +25,13 @@ public abstract class JsonCollection {
 	}
 
 	/** @param out The {@link Appendable} to store a text representation into. */
-	public abstract void appendTo(Appendable out);
+	public void appendTo(Appendable out) {
+		try {
+			JsonWriter writer = new JsonWriter(out);
+			writer.value(this);
+			writer.flush();
+		} catch (IOException exception) {
+			Log.error(exception);
+		}
+	}
 }
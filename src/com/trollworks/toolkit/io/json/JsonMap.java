@@ -11,33 +11,78 @@
 
 package com.trollworks.toolkit.io.json;
 
-import com.trollworks.toolkit.io.Log;
 import com.trollworks.toolkit.utility.Geometry;
 
+import gnu.trove.map.hash.TObjectIntHashMap;
+
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
-/** Represents a map in JSON. */
+/**
+ * Represents a map in JSON. Entries are kept in insertion order in flat key and value arrays, which
+ * are searched linearly until the map grows past {@link #HASH_THRESHOLD} entries, at which point a
+ * hashed index of the keys is built alongside them. Keys are drawn from a pool shared by all maps,
+ * so documents made of many small maps with the same keys hold only one copy of each key.
+ */
 public class JsonMap extends JsonCollection {
-	private Map<String, Object>	mMap	= new HashMap<>();
+	private static final int				HASH_THRESHOLD	= 8;
+	private static final int				MAX_KEY_LENGTH	= 32;
+	private static final String[]			KEYS			= new String[4096];
+	private static final String[]			NO_KEYS			= new String[0];
+	private static final Object[]			NO_VALUES		= new Object[0];
+	private String[]						mKeys			= NO_KEYS;
+	private Object[]						mValues			= NO_VALUES;
+	private int								mSize;
+	private int								mModCount;
+	private TObjectIntHashMap<String>		mIndex;
+
+	/**
+	 * Returns the pooled instance of a short key, adding it to the pool if it isn't already present.
+	 * The pool is a fixed-size, direct-mapped table, so a colliding key simply replaces the previous
+	 * occupant and memory use stays bounded no matter how many distinct keys pass through it.
+	 *
+	 * @param key The key to intern.
+	 * @return The pooled key.
+	 */
+	static String intern(String key) {
+		if (key.length() > MAX_KEY_LENGTH) {
+			return key;
+		}
+		int hash = key.hashCode();
+		int index = (hash ^ hash >>> 16) & KEYS.length - 1;
+		String pooled = KEYS[index];
+		if (key.equals(pooled)) {
+			return pooled;
+		}
+		KEYS[index] = key;
+		return key;
+	}
 
 	/**
 	 * @param key The key to check for.
 	 * @return <code>true</code> if the key is present in the map.
 	 */
 	public boolean has(String key) {
-		return mMap.containsKey(key);
+		return indexOf(key) != -1;
 	}
 
 	/**
-	 * @return The set of keys in this map.
+	 * @return The set of keys in this map, in the order they were first added.
 	 */
 	public Set<String> keySet() {
-		return mMap.keySet();
+		return new KeySet();
+	}
+
+	/** @return The number of entries in the map. */
+	public int size() {
+		return mSize;
 	}
 
 	/**
@@ -45,7 +90,8 @@ public class JsonMap extends JsonCollection {
 	 * @return The value associated with the key or <code>null</code> if no key matches.
 	 */
 	public Object get(String key) {
-		return key == null ? null : mMap.get(key);
+		int index = indexOf(key);
+		return index != -1 ? mValues[index] : null;
 	}
 
 	/**
@@ -171,7 +217,28 @@ public class JsonMap extends JsonCollection {
 	 */
 	public void put(String key, Object value) {
 		if (key != null) {
-			mMap.put(key, Json.wrap(value));
+			value = Json.wrap(value);
+			int index = indexOf(key);
+			if (index != -1) {
+				mValues[index] = value;
+			} else {
+				if (mSize == mKeys.length) {
+					int capacity = mSize < 4 ? 4 : mSize * 2;
+					mKeys = Arrays.copyOf(mKeys, capacity);
+					mValues = Arrays.copyOf(mValues, capacity);
+				}
+				key = intern(key);
+				mKeys[mSize] = key;
+				mValues[mSize] = value;
+				if (mIndex != null) {
+					mIndex.put(key, mSize);
+				}
+				mSize++;
+				mModCount++;
+				if (mIndex == null && mSize > HASH_THRESHOLD) {
+					buildIndex();
+				}
+			}
 		}
 	}
 
@@ -225,32 +292,135 @@ public class JsonMap extends JsonCollection {
 
 	/** @param key The key to remove from the map. */
 	public Object remove(String key) {
-		return mMap.remove(key);
+		int index = indexOf(key);
+		if (index == -1) {
+			return null;
+		}
+		Object value = mValues[index];
+		removeAt(index);
+		return value;
 	}
 
-	@Override
-	public void appendTo(Appendable out) {
-		try {
-			boolean needComma = false;
-			out.append('{');
-			for (Map.Entry<String, Object> entry : mMap.entrySet()) {
-				if (needComma) {
-					out.append(',');
-				} else {
-					needComma = true;
+	/** @param writer The {@link JsonWriter} to write each entry to. */
+	void writeEntries(JsonWriter writer) throws IOException {
+		for (int i = 0; i < mSize; i++) {
+			writer.name(mKeys[i]);
+			writer.value(mValues[i]);
+		}
+	}
+
+	private int indexOf(String key) {
+		if (key == null) {
+			return -1;
+		}
+		if (mIndex != null) {
+			return mIndex.get(key);
+		}
+		// Pooled keys usually match by identity, so try that across the whole map first.
+		for (int i = 0; i < mSize; i++) {
+			if (mKeys[i] == key) {
+				return i;
+			}
+		}
+		for (int i = 0; i < mSize; i++) {
+			if (mKeys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void buildIndex() {
+		mIndex = new TObjectIntHashMap<>(mKeys.length, 0.5f, -1);
+		for (int i = 0; i < mSize; i++) {
+			mIndex.put(mKeys[i], i);
+		}
+	}
+
+	private void removeAt(int index) {
+		if (mIndex != null) {
+			if (mSize - 1 <= HASH_THRESHOLD) {
+				mIndex = null;
+			} else {
+				// Only the entries after the removed one change position.
+				mIndex.remove(mKeys[index]);
+				for (int i = index + 1; i < mSize; i++) {
+					mIndex.adjustValue(mKeys[i], -1);
 				}
-				out.append(Json.quote(entry.getKey()));
-				out.append(':');
-				Object v = entry.getValue();
-				if (v instanceof JsonCollection) {
-					((JsonCollection) v).appendTo(out);
-				} else {
-					out.append(Json.toString(v));
+			}
+		}
+		int moved = mSize - index - 1;
+		if (moved > 0) {
+			System.arraycopy(mKeys, index + 1, mKeys, index, moved);
+			System.arraycopy(mValues, index + 1, mValues, index, moved);
+		}
+		mSize--;
+		mKeys[mSize] = null;
+		mValues[mSize] = null;
+		mModCount++;
+	}
+
+	private class KeySet extends AbstractSet<String> {
+		@Override
+		public int size() {
+			return mSize;
+		}
+
+		@Override
+		public boolean contains(Object key) {
+			return key instanceof String && has((String) key);
+		}
+
+		@Override
+		public boolean remove(Object key) {
+			if (key instanceof String) {
+				int index = indexOf((String) key);
+				if (index != -1) {
+					removeAt(index);
+					return true;
 				}
 			}
-			out.append('}');
-		} catch (IOException exception) {
-			Log.error(exception);
+			return false;
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int	mNext;
+				private int	mLast			= -1;
+				private int	mExpectedCount	= mModCount;
+
+				@Override
+				public boolean hasNext() {
+					return mNext < mSize;
+				}
+
+				@Override
+				public String next() {
+					if (mExpectedCount != mModCount) {
+						throw new ConcurrentModificationException();
+					}
+					if (mNext >= mSize) {
+						throw new NoSuchElementException();
+					}
+					mLast = mNext++;
+					return mKeys[mLast];
+				}
+
+				@Override
+				public void remove() {
+					if (mLast == -1) {
+						throw new IllegalStateException();
+					}
+					if (mExpectedCount != mModCount) {
+						throw new ConcurrentModificationException();
+					}
+					removeAt(mLast);
+					mNext = mLast;
+					mLast = -1;
+					mExpectedCount = mModCount;
+				}
+			};
 		}
 	}
 }
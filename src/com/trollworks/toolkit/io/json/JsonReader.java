@@ -0,0 +1,1040 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+package com.trollworks.toolkit.io.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A streaming pull parser for JSON data. Rather than building a tree of {@link JsonMap}s and
+ * {@link JsonArray}s, the document is presented one {@link JsonToken} at a time, with primitive
+ * accessors for the values, so that arbitrarily large documents can be processed in constant
+ * memory. The same relaxed syntax accepted by {@link Json} is accepted here.
+ */
+public class JsonReader implements AutoCloseable {
+	private static final int	PEEKED_NONE			= 0;
+	private static final int	PEEKED_START_MAP	= 1;
+	private static final int	PEEKED_END_MAP		= 2;
+	private static final int	PEEKED_START_ARRAY	= 3;
+	private static final int	PEEKED_END_ARRAY	= 4;
+	private static final int	PEEKED_QUOTED_NAME	= 5;
+	private static final int	PEEKED_BARE_NAME	= 6;
+	private static final int	PEEKED_QUOTED		= 7;
+	private static final int	PEEKED_BARE			= 8;
+	private static final int	PEEKED_TRUE			= 9;
+	private static final int	PEEKED_FALSE		= 10;
+	private static final int	PEEKED_NULL			= 11;
+	private static final int	PEEKED_LONG			= 12;
+	private static final int	PEEKED_DOUBLE		= 13;
+	private static final int	PEEKED_EOF			= 14;
+	private static final int	EMPTY_DOCUMENT		= 0;
+	private static final int	NONEMPTY_DOCUMENT	= 1;
+	private static final int	EMPTY_ARRAY			= 2;
+	private static final int	NONEMPTY_ARRAY		= 3;
+	private static final int	EMPTY_MAP			= 4;
+	private static final int	DANGLING_NAME		= 5;
+	private static final int	NONEMPTY_MAP		= 6;
+	private static final int	MAX_NAME_LENGTH		= 32;
+	private static final long[]	POWERS_OF_TEN		= { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L };
+	private static final double[]	EXACT_POWERS		= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private static final boolean[]	DELIMITERS			= new boolean[128];
+	private Reader				mReader;
+	private ByteBuffer			mBytes;
+	private CharsetDecoder		mDecoder;
+	private char[]				mBuffer				= new char[8192];
+	private int					mPos;
+	private int					mLimit;
+	private long				mBufferIndex;
+	private int					mLine				= 1;
+	private long				mLineStart;
+	private int[]				mStack				= new int[32];
+	private char[]				mClosers			= new char[32];
+	private int					mStackSize			= 1;
+	private int					mPeeked				= PEEKED_NONE;
+	private char				mPeekedQuote;
+	private long				mPeekedLong;
+	private double				mPeekedDouble;
+	private String				mPeekedString;
+	private int					mPeekedStart;
+	private int					mPeekedLength;
+	private String[]			mNames				= new String[512];
+
+	static {
+		for (int i = 0; i < ' '; i++) {
+			DELIMITERS[i] = true;
+		}
+		for (char ch : ",:]}/\\\"[{;=#".toCharArray()) { //$NON-NLS-1$
+			DELIMITERS[ch] = true;
+		}
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}.
+	 *
+	 * @param reader The underlying {@link Reader} to use.
+	 */
+	public JsonReader(Reader reader) {
+		mReader = reader;
+		mStack[0] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}. The data is assumed to be encoded as UTF-8.
+	 *
+	 * @param stream The underlying {@link InputStream} to use.
+	 */
+	public JsonReader(InputStream stream) {
+		this(new InputStreamReader(stream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a new {@link JsonReader}. The data is assumed to be encoded as UTF-8 and is decoded
+	 * incrementally as it is consumed, so the buffer may be a mapping of a very large file.
+	 *
+	 * @param buffer The {@link ByteBuffer} to read from, starting at its current position.
+	 */
+	public JsonReader(ByteBuffer buffer) {
+		mBytes = buffer;
+		mDecoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		mStack[0] = EMPTY_DOCUMENT;
+	}
+
+	/** Closes the underlying {@link Reader}, if any. */
+	@Override
+	public void close() throws IOException {
+		mPeeked = PEEKED_NONE;
+		mStack[0] = NONEMPTY_DOCUMENT;
+		mStackSize = 1;
+		if (mReader != null) {
+			mReader.close();
+		}
+	}
+
+	/** @return The type of the next token, without consuming it. */
+	public JsonToken peek() throws IOException {
+		switch (peeked()) {
+			case PEEKED_START_MAP:
+				return JsonToken.START_MAP;
+			case PEEKED_END_MAP:
+				return JsonToken.END_MAP;
+			case PEEKED_START_ARRAY:
+				return JsonToken.START_ARRAY;
+			case PEEKED_END_ARRAY:
+				return JsonToken.END_ARRAY;
+			case PEEKED_QUOTED_NAME:
+			case PEEKED_BARE_NAME:
+				return JsonToken.NAME;
+			case PEEKED_QUOTED:
+			case PEEKED_BARE:
+				return JsonToken.STRING;
+			case PEEKED_TRUE:
+			case PEEKED_FALSE:
+				return JsonToken.BOOLEAN;
+			case PEEKED_NULL:
+				return JsonToken.NULL;
+			case PEEKED_LONG:
+			case PEEKED_DOUBLE:
+				return JsonToken.NUMBER;
+			default:
+				return JsonToken.END_DOCUMENT;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the current array or map has another element, or the document
+	 *         has not yet been read.
+	 */
+	public boolean hasNext() throws IOException {
+		int peeked = peeked();
+		return peeked != PEEKED_END_MAP && peeked != PEEKED_END_ARRAY && peeked != PEEKED_EOF;
+	}
+
+	/** Consumes the start of an array. */
+	public void startArray() throws IOException {
+		if (peeked() != PEEKED_START_ARRAY) {
+			throw unexpected(JsonToken.START_ARRAY);
+		}
+		push(EMPTY_ARRAY, mPeekedQuote);
+		mPeeked = PEEKED_NONE;
+	}
+
+	/** Consumes the end of an array. */
+	public void endArray() throws IOException {
+		if (peeked() != PEEKED_END_ARRAY) {
+			throw unexpected(JsonToken.END_ARRAY);
+		}
+		mStackSize--;
+		mPeeked = PEEKED_NONE;
+	}
+
+	/** Consumes the start of a map. */
+	public void startMap() throws IOException {
+		if (peeked() != PEEKED_START_MAP) {
+			throw unexpected(JsonToken.START_MAP);
+		}
+		push(EMPTY_MAP, '}');
+		mPeeked = PEEKED_NONE;
+	}
+
+	/** Consumes the end of a map. */
+	public void endMap() throws IOException {
+		if (peeked() != PEEKED_END_MAP) {
+			throw unexpected(JsonToken.END_MAP);
+		}
+		mStackSize--;
+		mPeeked = PEEKED_NONE;
+	}
+
+	/**
+	 * @return The key of the next map entry. An unquoted key that reads as a keyword or number is
+	 *         returned in the form {@link Json} would write that value, so <code>TRUE</code> and
+	 *         <code>0x1F</code> become <code>true</code> and <code>31</code>.
+	 */
+	public String nextName() throws IOException {
+		String name;
+		switch (peeked()) {
+			case PEEKED_QUOTED_NAME:
+				name = readQuoted(mPeekedQuote, true);
+				break;
+			case PEEKED_BARE_NAME:
+				name = mPeekedString;
+				break;
+			default:
+				throw unexpected(JsonToken.NAME);
+		}
+		mPeeked = PEEKED_NONE;
+		return name;
+	}
+
+	/** @return The next value as a string. Numbers are returned as they appeared in the document. */
+	public String nextString() throws IOException {
+		String value;
+		switch (peeked()) {
+			case PEEKED_QUOTED:
+				value = readQuoted(mPeekedQuote, false);
+				break;
+			case PEEKED_BARE:
+			case PEEKED_LONG:
+			case PEEKED_DOUBLE:
+				value = peekedText();
+				break;
+			default:
+				throw unexpected(JsonToken.STRING);
+		}
+		mPeeked = PEEKED_NONE;
+		return value;
+	}
+
+	/** @return The next value as a boolean. */
+	public boolean nextBoolean() throws IOException {
+		boolean value;
+		switch (peeked()) {
+			case PEEKED_TRUE:
+				value = true;
+				break;
+			case PEEKED_FALSE:
+				value = false;
+				break;
+			default:
+				throw unexpected(JsonToken.BOOLEAN);
+		}
+		mPeeked = PEEKED_NONE;
+		return value;
+	}
+
+	/** Consumes the next value, which must be a null. */
+	public void nextNull() throws IOException {
+		if (peeked() != PEEKED_NULL) {
+			throw unexpected(JsonToken.NULL);
+		}
+		mPeeked = PEEKED_NONE;
+	}
+
+	/**
+	 * @return The next value as a long. Strings are parsed, if possible. Numbers that are not
+	 *         integral or that do not fit within a long are rejected.
+	 */
+	public long nextLong() throws IOException {
+		long value;
+		switch (peeked()) {
+			case PEEKED_LONG:
+				value = mPeekedLong;
+				break;
+			case PEEKED_DOUBLE:
+				value = (long) mPeekedDouble;
+				if (value != mPeekedDouble) {
+					throw syntaxError("Expected a long but was " + peekedText()); //$NON-NLS-1$
+				}
+				break;
+			case PEEKED_QUOTED:
+			case PEEKED_BARE:
+				String text = nextString();
+				try {
+					return Long.parseLong(text.trim());
+				} catch (NumberFormatException nfe) {
+					throw syntaxError("Expected a long but was " + text); //$NON-NLS-1$
+				}
+			default:
+				throw unexpected(JsonToken.NUMBER);
+		}
+		mPeeked = PEEKED_NONE;
+		return value;
+	}
+
+	/**
+	 * @return The next value as an integer. Strings are parsed, if possible. Numbers that are not
+	 *         integral or that do not fit within an integer are rejected.
+	 */
+	public int nextInt() throws IOException {
+		long value = nextLong();
+		if (value != (int) value) {
+			throw syntaxError("Expected an int but was " + value); //$NON-NLS-1$
+		}
+		return (int) value;
+	}
+
+	/** @return The next value as a double. Strings are parsed, if possible. */
+	public double nextDouble() throws IOException {
+		double value;
+		switch (peeked()) {
+			case PEEKED_LONG:
+				value = mPeekedLong;
+				break;
+			case PEEKED_DOUBLE:
+				value = mPeekedDouble;
+				break;
+			case PEEKED_QUOTED:
+			case PEEKED_BARE:
+				String text = nextString();
+				try {
+					return Double.parseDouble(text);
+				} catch (NumberFormatException nfe) {
+					throw syntaxError("Expected a double but was " + text); //$NON-NLS-1$
+				}
+			default:
+				throw unexpected(JsonToken.NUMBER);
+		}
+		mPeeked = PEEKED_NONE;
+		return value;
+	}
+
+	/**
+	 * @return The next value as the {@link Number} that would be stored for it by {@link Json}: an
+	 *         {@link Integer} or {@link Long} for integral values, depending on their magnitude, and
+	 *         a {@link Double} otherwise.
+	 */
+	public Number nextNumber() throws IOException {
+		Number value;
+		switch (peeked()) {
+			case PEEKED_LONG:
+				value = mPeekedLong == (int) mPeekedLong ? (Number) Integer.valueOf((int) mPeekedLong) : (Number) Long.valueOf(mPeekedLong);
+				break;
+			case PEEKED_DOUBLE:
+				value = Double.valueOf(mPeekedDouble);
+				break;
+			default:
+				throw unexpected(JsonToken.NUMBER);
+		}
+		mPeeked = PEEKED_NONE;
+		return value;
+	}
+
+	/**
+	 * Skips the next value. If the value is an array or map, its entire contents are skipped as
+	 * well, without creating any strings for them.
+	 */
+	public void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch (peeked()) {
+				case PEEKED_START_ARRAY:
+					push(EMPTY_ARRAY, mPeekedQuote);
+					depth++;
+					break;
+				case PEEKED_START_MAP:
+					push(EMPTY_MAP, '}');
+					depth++;
+					break;
+				case PEEKED_END_ARRAY:
+				case PEEKED_END_MAP:
+					if (depth == 0) {
+						throw syntaxError("Expected a value"); //$NON-NLS-1$
+					}
+					mStackSize--;
+					depth--;
+					break;
+				case PEEKED_QUOTED_NAME:
+				case PEEKED_QUOTED:
+					skipQuoted(mPeekedQuote);
+					break;
+				case PEEKED_EOF:
+					return;
+				default:
+					break;
+			}
+			mPeeked = PEEKED_NONE;
+		} while (depth > 0);
+	}
+
+	/** @return The current line number. */
+	public int getLineNumber() {
+		int line = mLine;
+		for (int i = 0; i < mPos; i++) {
+			if (mBuffer[i] == '\n') {
+				line++;
+			}
+		}
+		return line;
+	}
+
+	/** @return The current column number. */
+	public int getColumnNumber() {
+		long lineStart = mLineStart;
+		for (int i = 0; i < mPos; i++) {
+			if (mBuffer[i] == '\n') {
+				lineStart = mBufferIndex + i + 1;
+			}
+		}
+		return (int) (mBufferIndex + mPos - lineStart) + 1;
+	}
+
+	@SuppressWarnings("nls")
+	@Override
+	public String toString() {
+		return " at " + (mBufferIndex + mPos) + " [character " + getColumnNumber() + " line " + getLineNumber() + "]";
+	}
+
+	private int peeked() throws IOException {
+		return mPeeked != PEEKED_NONE ? mPeeked : doPeek();
+	}
+
+	private int doPeek() throws IOException {
+		int top = mStackSize - 1;
+		int c;
+		switch (mStack[top]) {
+			case EMPTY_ARRAY:
+				mStack[top] = NONEMPTY_ARRAY;
+				c = peekNonWhitespace();
+				if (c == ']' || c == ')' && mClosers[top] == ')') {
+					return peekEndArray(c, true);
+				}
+				if (c == ',') {
+					// An empty element is treated as a null.
+					return mPeeked = PEEKED_NULL;
+				}
+				return peekValue();
+			case NONEMPTY_ARRAY:
+				c = peekNonWhitespace();
+				if (c == ']' || c == ')' && mClosers[top] == ')') {
+					return peekEndArray(c, false);
+				}
+				if (c != ',' && c != ';') {
+					throw syntaxError("Expected a ',' or ']'"); //$NON-NLS-1$
+				}
+				mPos++;
+				c = peekNonWhitespace();
+				if (c == ']' || c == ')' && mClosers[top] == ')') {
+					return peekEndArray(c, true);
+				}
+				if (c == ',') {
+					return mPeeked = PEEKED_NULL;
+				}
+				return peekValue();
+			case EMPTY_MAP:
+			case NONEMPTY_MAP:
+				c = peekNonWhitespace();
+				if (mStack[top] == NONEMPTY_MAP) {
+					if (c == '}') {
+						mPos++;
+						return mPeeked = PEEKED_END_MAP;
+					}
+					if (c != ',' && c != ';') {
+						throw syntaxError("Expected a ',' or '}'"); //$NON-NLS-1$
+					}
+					mPos++;
+					c = peekNonWhitespace();
+				}
+				switch (c) {
+					case -1:
+						throw syntaxError("A JSONObject text must end with '}'"); //$NON-NLS-1$
+					case '}':
+						mPos++;
+						return mPeeked = PEEKED_END_MAP;
+					case '"':
+					case '\'':
+						mPos++;
+						mPeekedQuote = (char) c;
+						mStack[top] = DANGLING_NAME;
+						return mPeeked = PEEKED_QUOTED_NAME;
+					default:
+						mStack[top] = DANGLING_NAME;
+						return mPeeked = peekBare(true);
+				}
+			case DANGLING_NAME:
+				c = peekNonWhitespace();
+				if (c == ':') {
+					mPos++;
+				} else if (c == '=') {
+					mPos++;
+					if (fill(1) && mBuffer[mPos] == '>') {
+						mPos++;
+					}
+				} else {
+					throw syntaxError("Expected a ':' after a key"); //$NON-NLS-1$
+				}
+				mStack[top] = NONEMPTY_MAP;
+				return peekValue();
+			case EMPTY_DOCUMENT:
+				mStack[top] = NONEMPTY_DOCUMENT;
+				return peekValue();
+			default:
+				return mPeeked = PEEKED_EOF;
+		}
+	}
+
+	/**
+	 * @param c The closing character.
+	 * @param open Whether the array is open, i.e. at its start or just past a separator, where a
+	 *            ']' closes the array whichever character opened it.
+	 */
+	private int peekEndArray(int c, boolean open) throws IOException {
+		char closer = mClosers[mStackSize - 1];
+		if (c != closer && !open) {
+			throw syntaxError("Expected a '" + closer + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		mPos++;
+		return mPeeked = PEEKED_END_ARRAY;
+	}
+
+	private int peekValue() throws IOException {
+		int c = peekNonWhitespace();
+		switch (c) {
+			case '"':
+			case '\'':
+				mPos++;
+				mPeekedQuote = (char) c;
+				return mPeeked = PEEKED_QUOTED;
+			case '{':
+				mPos++;
+				return mPeeked = PEEKED_START_MAP;
+			case '[':
+				mPos++;
+				mPeekedQuote = ']';
+				return mPeeked = PEEKED_START_ARRAY;
+			case '(':
+				mPos++;
+				mPeekedQuote = ')';
+				return mPeeked = PEEKED_START_ARRAY;
+			default:
+				return mPeeked = peekBare(false);
+		}
+	}
+
+	private int peekBare(boolean name) throws IOException {
+		int length = scanBare();
+		int start = mPos;
+		int end = start + length;
+		mPos = end;
+		while (end > start && mBuffer[end - 1] <= ' ') {
+			end--;
+		}
+		length = end - start;
+		if (length == 0) {
+			throw syntaxError("Missing value"); //$NON-NLS-1$
+		}
+		mPeekedString = null;
+		mPeekedStart = start;
+		mPeekedLength = length;
+		int peeked = peekBareValue(start, end);
+		if (name) {
+			mPeekedString = peeked == PEEKED_BARE ? name(start, length) : bareName(peeked);
+			return PEEKED_BARE_NAME;
+		}
+		if (peeked == PEEKED_BARE) {
+			peekedText();
+		}
+		return peeked;
+	}
+
+	private int peekBareValue(int start, int end) {
+		switch (mBuffer[start]) {
+			case 't':
+			case 'T':
+				if (matches("true")) { //$NON-NLS-1$
+					return PEEKED_TRUE;
+				}
+				break;
+			case 'f':
+			case 'F':
+				if (matches("false")) { //$NON-NLS-1$
+					return PEEKED_FALSE;
+				}
+				break;
+			case 'n':
+			case 'N':
+				if (matches("null")) { //$NON-NLS-1$
+					return PEEKED_NULL;
+				}
+				break;
+			case '0':
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+			case '6':
+			case '7':
+			case '8':
+			case '9':
+			case '.':
+			case '-':
+			case '+':
+				int peeked = peekNumber(start, end);
+				if (peeked != PEEKED_NONE) {
+					return peeked;
+				}
+				break;
+			default:
+				break;
+		}
+		return PEEKED_BARE;
+	}
+
+	/**
+	 * @return The key for a bare name that reads as a keyword or number, which is the text of the
+	 *         value it reads as, just as if the value had been stored and then converted back.
+	 */
+	private String bareName(int peeked) {
+		switch (peeked) {
+			case PEEKED_TRUE:
+				return Boolean.TRUE.toString();
+			case PEEKED_FALSE:
+				return Boolean.FALSE.toString();
+			case PEEKED_NULL:
+				return JsonNull.INSTANCE.toString();
+			case PEEKED_LONG:
+				return Long.toString(mPeekedLong);
+			default:
+				return Double.toString(mPeekedDouble);
+		}
+	}
+
+	private boolean matches(String keyword) {
+		int length = keyword.length();
+		if (mPeekedLength != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if ((mBuffer[mPeekedStart + i] | 0x20) != keyword.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return The text of the peeked bare token, which is only turned into a string on demand. */
+	private String peekedText() {
+		if (mPeekedString == null) {
+			mPeekedString = new String(mBuffer, mPeekedStart, mPeekedLength);
+		}
+		return mPeekedString;
+	}
+
+	/**
+	 * Parses a number directly from the buffer. Integers and decimals with no more than 15
+	 * significant digits and a small exponent are converted exactly without creating any objects.
+	 * Anything else is handed off to {@link Double#parseDouble(String)}.
+	 */
+	private int peekNumber(int start, int end) {
+		char[] buffer = mBuffer;
+		int i = start;
+		if (end - i > 2 && buffer[i] == '0' && (buffer[i + 1] | 0x20) == 'x') {
+			return peekHex(i + 2, end);
+		}
+		boolean negative = buffer[i] == '-';
+		if (negative || buffer[i] == '+') {
+			i++;
+		}
+		// Accumulate as a negative value so that Long.MIN_VALUE can be represented.
+		long value = 0;
+		int digits = 0;
+		int mantissaStart = i;
+		boolean overflow = false;
+		while (i < end) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			if (value < Long.MIN_VALUE / 10 || value * 10 < Long.MIN_VALUE + digit) {
+				overflow = true;
+			} else {
+				value = value * 10 - digit;
+			}
+			if (value != 0) {
+				digits++;
+			}
+			i++;
+		}
+		boolean sawDigit = i > mantissaStart;
+		if (i == end) {
+			if (!sawDigit || overflow || !negative && value == Long.MIN_VALUE) {
+				return PEEKED_NONE;
+			}
+			mPeekedLong = negative ? value : -value;
+			return PEEKED_LONG;
+		}
+		int scale = 0;
+		if (buffer[i] == '.') {
+			i++;
+			while (i < end) {
+				int digit = buffer[i] - '0';
+				if (digit < 0 || digit > 9) {
+					break;
+				}
+				sawDigit = true;
+				if (digits < 18) {
+					value = value * 10 - digit;
+					scale++;
+					if (value != 0) {
+						digits++;
+					}
+				} else {
+					overflow = true;
+				}
+				i++;
+			}
+		}
+		if (i < end && (buffer[i] | 0x20) == 'e') {
+			int j = i + 1;
+			boolean negativeExponent = false;
+			if (j < end && (buffer[j] == '-' || buffer[j] == '+')) {
+				negativeExponent = buffer[j] == '-';
+				j++;
+			}
+			int exponent = 0;
+			int exponentStart = j;
+			while (j < end && buffer[j] >= '0' && buffer[j] <= '9' && exponent < 1000) {
+				exponent = exponent * 10 + buffer[j] - '0';
+				j++;
+			}
+			if (j == end && j != exponentStart) {
+				scale += negativeExponent ? exponent : -exponent;
+				i = j;
+			}
+		}
+		if (i == end && sawDigit && !overflow && digits <= 15 && scale >= -22 && scale <= 22) {
+			double result = -value;
+			result = scale < 0 ? result * EXACT_POWERS[-scale] : result / EXACT_POWERS[scale];
+			mPeekedDouble = negative ? -result : result;
+			return PEEKED_DOUBLE;
+		}
+		return peekDouble();
+	}
+
+	/** Parses the peeked bare token with {@link Double#parseDouble(String)}, if it looks like a decimal. */
+	private int peekDouble() {
+		String text = peekedText();
+		if (text.indexOf('.') == -1 && text.indexOf('e') == -1 && text.indexOf('E') == -1) {
+			return PEEKED_NONE;
+		}
+		try {
+			mPeekedDouble = Double.parseDouble(text);
+			return PEEKED_DOUBLE;
+		} catch (NumberFormatException nfe) {
+			return PEEKED_NONE;
+		}
+	}
+
+	/**
+	 * Parses a hexadecimal integer the way {@link Integer#parseInt(String, int)} would. Anything
+	 * that does not fit within an integer is left for {@link #peekDouble()}, and so usually ends
+	 * up as a string.
+	 */
+	private int peekHex(int start, int end) {
+		int i = start;
+		boolean negative = mBuffer[i] == '-';
+		if (negative || mBuffer[i] == '+') {
+			i++;
+		}
+		if (i == end) {
+			return peekDouble();
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(mBuffer[i], 16);
+			if (digit < 0 || value > Integer.MAX_VALUE) {
+				return peekDouble();
+			}
+			value = value << 4 | digit;
+		}
+		if (negative) {
+			value = -value;
+		}
+		if (value != (int) value) {
+			return peekDouble();
+		}
+		mPeekedLong = value;
+		return PEEKED_LONG;
+	}
+
+	/**
+	 * Returns a string for a short map key, sharing a single instance for repeated keys within the
+	 * document and drawing new ones from the {@link JsonMap} key pool. Longer keys are not worth the
+	 * lookup and are simply copied.
+	 */
+	private String name(int start, int length) {
+		if (length > MAX_NAME_LENGTH) {
+			return new String(mBuffer, start, length);
+		}
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + mBuffer[start + i];
+		}
+		int index = (hash ^ hash >>> 16) & mNames.length - 1;
+		String name = mNames[index];
+		if (name != null && name.length() == length) {
+			int i = 0;
+			while (i < length && name.charAt(i) == mBuffer[start + i]) {
+				i++;
+			}
+			if (i == length) {
+				return name;
+			}
+		}
+		name = JsonMap.intern(new String(mBuffer, start, length));
+		mNames[index] = name;
+		return name;
+	}
+
+	private void push(int state, char closer) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+			char[] closers = new char[mStackSize * 2];
+			System.arraycopy(mClosers, 0, closers, 0, mStackSize);
+			mClosers = closers;
+		}
+		mClosers[mStackSize] = closer;
+		mStack[mStackSize++] = state;
+	}
+
+	private int peekNonWhitespace() throws IOException {
+		while (true) {
+			if (mPos == mLimit && !fill(1)) {
+				return -1;
+			}
+			char c = mBuffer[mPos];
+			if (c > ' ') {
+				return c;
+			}
+			mPos++;
+		}
+	}
+
+	/**
+	 * Ensures the bare token at the current position is entirely within the buffer.
+	 *
+	 * @return The length of the token.
+	 */
+	private int scanBare() throws IOException {
+		// A ')' only ends a bare token within an array that was opened with a '('. Anywhere else,
+		// it is part of the token.
+		boolean parenthesized = mClosers[mStackSize - 1] == ')';
+		int length = 0;
+		while (true) {
+			int p = mPos + length;
+			while (p < mLimit) {
+				char c = mBuffer[p];
+				if (c < 128 && DELIMITERS[c] || c == ')' && parenthesized) {
+					return p - mPos;
+				}
+				p++;
+			}
+			length = p - mPos;
+			if (!fill(length + 1)) {
+				return length;
+			}
+		}
+	}
+
+	private String readQuoted(char quote, boolean name) throws IOException {
+		StringBuilder builder = null;
+		while (true) {
+			int p = mPos;
+			int start = p;
+			while (p < mLimit) {
+				char c = mBuffer[p++];
+				if (c == quote) {
+					mPos = p;
+					if (builder == null) {
+						return name ? name(start, p - start - 1) : new String(mBuffer, start, p - start - 1);
+					}
+					builder.append(mBuffer, start, p - start - 1);
+					return builder.toString();
+				}
+				if (c == '\\') {
+					if (builder == null) {
+						builder = new StringBuilder(Math.max((p - start) * 2, 16));
+					}
+					builder.append(mBuffer, start, p - start - 1);
+					mPos = p;
+					builder.append(readEscape());
+					p = mPos;
+					start = p;
+				} else if (c == '\n' || c == '\r') {
+					mPos = p - 1;
+					throw syntaxError("Unterminated string"); //$NON-NLS-1$
+				}
+			}
+			if (builder == null) {
+				builder = new StringBuilder(Math.max((p - start) * 2, 16));
+			}
+			builder.append(mBuffer, start, p - start);
+			mPos = p;
+			if (!fill(1)) {
+				throw syntaxError("Unterminated string"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private void skipQuoted(char quote) throws IOException {
+		while (true) {
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos++];
+				if (c == quote) {
+					return;
+				}
+				if (c == '\\') {
+					readEscape();
+				} else if (c == '\n' || c == '\r') {
+					mPos--;
+					throw syntaxError("Unterminated string"); //$NON-NLS-1$
+				}
+			}
+			if (!fill(1)) {
+				throw syntaxError("Unterminated string"); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private char readEscape() throws IOException {
+		if (!fill(1)) {
+			throw syntaxError("Unterminated string"); //$NON-NLS-1$
+		}
+		char c = mBuffer[mPos++];
+		switch (c) {
+			case 'b':
+				return '\b';
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'f':
+				return '\f';
+			case 'r':
+				return '\r';
+			case 'u':
+				if (!fill(4)) {
+					throw syntaxError("Substring bounds error"); //$NON-NLS-1$
+				}
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = Character.digit(mBuffer[mPos + i], 16);
+					if (digit < 0) {
+						throw syntaxError("Illegal escape."); //$NON-NLS-1$
+					}
+					value = value << 4 | digit;
+				}
+				mPos += 4;
+				return (char) value;
+			case '"':
+			case '\'':
+			case '\\':
+			case '/':
+				return c;
+			default:
+				throw syntaxError("Illegal escape."); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Ensures at least the specified number of characters are available in the buffer, starting
+	 * at the current position. Characters before the current position are discarded as needed.
+	 *
+	 * @param minimum The number of characters required.
+	 * @return <code>false</code> if the end of the data is reached first.
+	 */
+	private boolean fill(int minimum) throws IOException {
+		if (mLimit - mPos >= minimum) {
+			return true;
+		}
+		for (int i = 0; i < mPos; i++) {
+			if (mBuffer[i] == '\n') {
+				mLine++;
+				mLineStart = mBufferIndex + i + 1;
+			}
+		}
+		mBufferIndex += mPos;
+		mLimit -= mPos;
+		if (minimum > mBuffer.length) {
+			char[] buffer = new char[Math.max(minimum, mBuffer.length * 2)];
+			System.arraycopy(mBuffer, mPos, buffer, 0, mLimit);
+			mBuffer = buffer;
+		} else {
+			System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit);
+		}
+		mPos = 0;
+		while (mLimit < minimum) {
+			int count = read(mBuffer, mLimit, mBuffer.length - mLimit);
+			if (count < 0) {
+				return false;
+			}
+			mLimit += count;
+		}
+		return true;
+	}
+
+	private int read(char[] buffer, int offset, int length) throws IOException {
+		if (mReader != null) {
+			return mReader.read(buffer, offset, length);
+		}
+		if (mDecoder == null) {
+			return -1;
+		}
+		CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+		CoderResult result = mDecoder.decode(mBytes, out, true);
+		if (result.isUnderflow() && !mBytes.hasRemaining()) {
+			mDecoder.flush(out);
+			if (out.position() == offset) {
+				mDecoder = null;
+				return -1;
+			}
+		}
+		return out.position() - offset;
+	}
+
+	private IOException unexpected(JsonToken expected) throws IOException {
+		return syntaxError("Expected " + expected + " but was " + peek()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + toString());
+	}
+}
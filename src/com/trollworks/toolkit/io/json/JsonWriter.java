@@ -0,0 +1,625 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+package com.trollworks.toolkit.io.json;
+
+import com.trollworks.toolkit.utility.Geometry;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A streaming writer for JSON data. Output is accumulated in a reusable buffer and handed to the
+ * underlying {@link Appendable}, {@link OutputStream} or {@link WritableByteChannel} in chunks.
+ * When writing bytes, characters are encoded as UTF-8 directly into the buffer. Numbers, booleans
+ * and primitive arrays are written without creating intermediate objects. The output is formatted
+ * the same way as {@link JsonCollection#toString()}.
+ */
+public class JsonWriter implements AutoCloseable {
+	private static final int		EMPTY_DOCUMENT		= 0;
+	private static final int		NONEMPTY_DOCUMENT	= 1;
+	private static final int		EMPTY_ARRAY			= 2;
+	private static final int		NONEMPTY_ARRAY		= 3;
+	private static final int		EMPTY_MAP			= 4;
+	private static final int		DANGLING_NAME		= 5;
+	private static final int		NONEMPTY_MAP		= 6;
+	private static final char[]		HEX					= "0123456789abcdef".toCharArray();	//$NON-NLS-1$
+	private static final String[]	ESCAPES				= new String[128];
+	private Appendable				mAppendable;
+	private OutputStream			mStream;
+	private WritableByteChannel		mChannel;
+	private char[]					mBuffer				= new char[8192];
+	private int						mCount;
+	private byte[]					mBytes;
+	private ByteBuffer				mByteBuffer;
+	private char[]					mDigits				= new char[20];
+	private int[]					mStack				= new int[32];
+	private int						mStackSize			= 1;
+
+	static {
+		for (int i = 0; i < ' '; i++) {
+			ESCAPES[i] = "\\u00" + HEX[i >> 4] + HEX[i & 15]; //$NON-NLS-1$
+		}
+		ESCAPES['\\'] = "\\\\"; //$NON-NLS-1$
+		ESCAPES['"'] = "\\\""; //$NON-NLS-1$
+		ESCAPES['\b'] = "\\b"; //$NON-NLS-1$
+		ESCAPES['\t'] = "\\t"; //$NON-NLS-1$
+		ESCAPES['\n'] = "\\n"; //$NON-NLS-1$
+		ESCAPES['\f'] = "\\f"; //$NON-NLS-1$
+		ESCAPES['\r'] = "\\r"; //$NON-NLS-1$
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter}.
+	 *
+	 * @param appendable The {@link Appendable} to write to.
+	 */
+	public JsonWriter(Appendable appendable) {
+		mAppendable = appendable;
+		mStack[0] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter} that writes UTF-8.
+	 *
+	 * @param stream The {@link OutputStream} to write to.
+	 */
+	public JsonWriter(OutputStream stream) {
+		mStream = stream;
+		mBytes = new byte[mBuffer.length * 3];
+		mStack[0] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Creates a new {@link JsonWriter} that writes UTF-8.
+	 *
+	 * @param channel The {@link WritableByteChannel} to write to.
+	 */
+	public JsonWriter(WritableByteChannel channel) {
+		mChannel = channel;
+		mBytes = new byte[mBuffer.length * 3];
+		mByteBuffer = ByteBuffer.wrap(mBytes);
+		mStack[0] = EMPTY_DOCUMENT;
+	}
+
+	/** Starts an array. */
+	public JsonWriter startArray() throws IOException {
+		beforeValue();
+		push(EMPTY_ARRAY);
+		write('[');
+		return this;
+	}
+
+	/** Ends the current array. */
+	public JsonWriter endArray() throws IOException {
+		int state = mStack[mStackSize - 1];
+		if (state != EMPTY_ARRAY && state != NONEMPTY_ARRAY) {
+			throw new IllegalStateException("Not within an array"); //$NON-NLS-1$
+		}
+		mStackSize--;
+		write(']');
+		return this;
+	}
+
+	/** Starts a map. */
+	public JsonWriter startMap() throws IOException {
+		beforeValue();
+		push(EMPTY_MAP);
+		write('{');
+		return this;
+	}
+
+	/** Ends the current map. */
+	public JsonWriter endMap() throws IOException {
+		int state = mStack[mStackSize - 1];
+		if (state != EMPTY_MAP && state != NONEMPTY_MAP) {
+			throw new IllegalStateException("Not within a map or a value is missing"); //$NON-NLS-1$
+		}
+		mStackSize--;
+		write('}');
+		return this;
+	}
+
+	/**
+	 * Writes the key of the next map entry. Must be followed by a value.
+	 *
+	 * @param name The key.
+	 */
+	public JsonWriter name(String name) throws IOException {
+		int top = mStackSize - 1;
+		switch (mStack[top]) {
+			case NONEMPTY_MAP:
+				write(',');
+				break;
+			case EMPTY_MAP:
+				break;
+			default:
+				throw new IllegalStateException("Not within a map or a value is missing"); //$NON-NLS-1$
+		}
+		mStack[top] = DANGLING_NAME;
+		writeQuoted(name);
+		return this;
+	}
+
+	/** Writes a null value. */
+	public JsonWriter nullValue() throws IOException {
+		beforeValue();
+		write("null"); //$NON-NLS-1$
+		return this;
+	}
+
+	/** @param value The value to write. <code>null</code> is written as a null value. */
+	public JsonWriter value(String value) throws IOException {
+		if (value == null) {
+			return nullValue();
+		}
+		beforeValue();
+		writeQuoted(value);
+		return this;
+	}
+
+	/** @param value The value to write. */
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		write(value ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		return this;
+	}
+
+	/** @param value The value to write. */
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		writeLong(value);
+		return this;
+	}
+
+	/** @param value The value to write. */
+	public JsonWriter value(double value) throws IOException {
+		beforeValue();
+		writeDouble(value);
+		return this;
+	}
+
+	/**
+	 * Writes an arbitrary value. {@link JsonMap}s, {@link JsonArray}s, {@link Map}s,
+	 * {@link Collection}s and arrays are written recursively. Arrays of primitives are written
+	 * directly, without boxing their elements. Other objects are converted the same way
+	 * {@link Json#wrap(Object)} would convert them.
+	 *
+	 * @param value The value to write.
+	 */
+	public JsonWriter value(Object value) throws IOException {
+		if (value == null || value instanceof JsonNull) {
+			return nullValue();
+		}
+		if (value instanceof String) {
+			return value((String) value);
+		}
+		if (value instanceof Number) {
+			beforeValue();
+			writeNumber((Number) value);
+			return this;
+		}
+		if (value instanceof Boolean) {
+			return value(((Boolean) value).booleanValue());
+		}
+		if (value instanceof JsonMap) {
+			startMap();
+			((JsonMap) value).writeEntries(this);
+			return endMap();
+		}
+		if (value instanceof JsonArray) {
+			startArray();
+			((JsonArray) value).writeElements(this);
+			return endArray();
+		}
+		if (value instanceof Map) {
+			startMap();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				name(entry.getKey().toString());
+				value(entry.getValue());
+			}
+			return endMap();
+		}
+		if (value instanceof Collection) {
+			startArray();
+			for (Object one : (Collection<?>) value) {
+				value(one);
+			}
+			return endArray();
+		}
+		if (value.getClass().isArray()) {
+			writeArray(value);
+			return this;
+		}
+		if (value instanceof Point) {
+			return value(Geometry.toString((Point) value));
+		}
+		if (value instanceof Rectangle) {
+			return value(Geometry.toString((Rectangle) value));
+		}
+		return value(value.toString());
+	}
+
+	/** Writes any buffered data to the underlying destination and flushes it. */
+	public void flush() throws IOException {
+		flushBuffer(true);
+		if (mStream != null) {
+			mStream.flush();
+		} else if (mAppendable instanceof Writer) {
+			((Writer) mAppendable).flush();
+		}
+	}
+
+	/** Flushes any buffered data and closes the underlying destination. */
+	@Override
+	public void close() throws IOException {
+		flushBuffer(true);
+		if (mStream != null) {
+			mStream.close();
+		} else if (mChannel != null) {
+			mChannel.close();
+		} else if (mAppendable instanceof Closeable) {
+			((Closeable) mAppendable).close();
+		}
+	}
+
+	private void push(int state) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+		}
+		mStack[mStackSize++] = state;
+	}
+
+	private void beforeValue() throws IOException {
+		int top = mStackSize - 1;
+		switch (mStack[top]) {
+			case EMPTY_DOCUMENT:
+				mStack[top] = NONEMPTY_DOCUMENT;
+				break;
+			case EMPTY_ARRAY:
+				mStack[top] = NONEMPTY_ARRAY;
+				break;
+			case NONEMPTY_ARRAY:
+				write(',');
+				break;
+			case DANGLING_NAME:
+				write(':');
+				mStack[top] = NONEMPTY_MAP;
+				break;
+			case NONEMPTY_DOCUMENT:
+				throw new IllegalStateException("Only one top-level value may be written"); //$NON-NLS-1$
+			default:
+				throw new IllegalStateException("A name must be written before a value within a map"); //$NON-NLS-1$
+		}
+	}
+
+	private void writeArray(Object array) throws IOException {
+		beforeValue();
+		write('[');
+		if (array instanceof Object[]) {
+			push(EMPTY_ARRAY);
+			for (Object one : (Object[]) array) {
+				value(one);
+			}
+			mStackSize--;
+		} else if (array instanceof int[]) {
+			int[] values = (int[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeLong(values[i]);
+			}
+		} else if (array instanceof long[]) {
+			long[] values = (long[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeLong(values[i]);
+			}
+		} else if (array instanceof double[]) {
+			double[] values = (double[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeDouble(values[i]);
+			}
+		} else if (array instanceof float[]) {
+			float[] values = (float[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeFloat(values[i]);
+			}
+		} else if (array instanceof short[]) {
+			short[] values = (short[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeLong(values[i]);
+			}
+		} else if (array instanceof byte[]) {
+			byte[] values = (byte[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeLong(values[i]);
+			}
+		} else if (array instanceof boolean[]) {
+			boolean[] values = (boolean[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				write(values[i] ? "true" : "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} else if (array instanceof char[]) {
+			char[] values = (char[]) array;
+			for (int i = 0; i < values.length; i++) {
+				if (i != 0) {
+					write(',');
+				}
+				writeQuoted(String.valueOf(values[i]));
+			}
+		}
+		write(']');
+	}
+
+	private void writeNumber(Number value) throws IOException {
+		if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			writeLong(value.longValue());
+		} else if (value instanceof Double) {
+			writeDouble(value.doubleValue());
+		} else if (value instanceof Float) {
+			writeFloat(value.floatValue());
+		} else {
+			writeDecimal(value.toString());
+		}
+	}
+
+	private void writeLong(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			write(Long.toString(value));
+			return;
+		}
+		if (mBuffer.length - mCount < mDigits.length) {
+			flushBuffer(false);
+		}
+		if (value < 0) {
+			mBuffer[mCount++] = '-';
+			value = -value;
+		}
+		int pos = mDigits.length;
+		while (value >= 10) {
+			long quotient = value / 10;
+			mDigits[--pos] = (char) ('0' + (value - quotient * 10));
+			value = quotient;
+		}
+		mDigits[--pos] = (char) ('0' + value);
+		int length = mDigits.length - pos;
+		System.arraycopy(mDigits, pos, mBuffer, mCount, length);
+		mCount += length;
+	}
+
+	private void writeDouble(double value) throws IOException {
+		// Integral values in this range are what Double.toString() would write without an
+		// exponent, so they can be written directly.
+		long whole = (long) value;
+		if (whole == value && whole > -10000000 && whole < 10000000) {
+			if (whole == 0 && Double.doubleToRawLongBits(value) != 0) {
+				write('-');
+			}
+			writeLong(whole);
+		} else {
+			writeDecimal(Double.toString(value));
+		}
+	}
+
+	private void writeFloat(float value) throws IOException {
+		long whole = (long) value;
+		if (whole == value && whole > -10000000 && whole < 10000000) {
+			if (whole == 0 && Float.floatToRawIntBits(value) != 0) {
+				write('-');
+			}
+			writeLong(whole);
+		} else {
+			writeDecimal(Float.toString(value));
+		}
+	}
+
+	/** Writes a decimal number, dropping any trailing zeros after the decimal point. */
+	private void writeDecimal(String str) throws IOException {
+		int end = str.length();
+		if (str.indexOf('.') > 0 && str.indexOf('e') < 0 && str.indexOf('E') < 0) {
+			while (str.charAt(end - 1) == '0') {
+				end--;
+			}
+			if (str.charAt(end - 1) == '.') {
+				end--;
+			}
+		}
+		write(str, 0, end);
+	}
+
+	private void writeQuoted(String string) throws IOException {
+		write('"');
+		int length = string.length();
+		int run = 0;
+		char ch = 0;
+		for (int i = 0; i < length; i++) {
+			char last = ch;
+			ch = string.charAt(i);
+			String replacement = escape(ch, last);
+			if (replacement != null) {
+				if (run < i) {
+					write(string, run, i);
+				}
+				write(replacement);
+				run = i + 1;
+			}
+		}
+		if (run < length) {
+			write(string, run, length);
+		}
+		write('"');
+	}
+
+	/**
+	 * Appends a string to a buffer as a quoted JSON string, escaping as {@link #value(Object)}
+	 * would.
+	 *
+	 * @param buffer The buffer to append to.
+	 * @param string The string to quote.
+	 */
+	static void appendQuoted(StringBuilder buffer, String string) {
+		buffer.append('"');
+		int length = string.length();
+		int run = 0;
+		char ch = 0;
+		for (int i = 0; i < length; i++) {
+			char last = ch;
+			ch = string.charAt(i);
+			String replacement = escape(ch, last);
+			if (replacement != null) {
+				buffer.append(string, run, i);
+				buffer.append(replacement);
+				run = i + 1;
+			}
+		}
+		buffer.append(string, run, length);
+		buffer.append('"');
+	}
+
+	/**
+	 * @param ch The character to check.
+	 * @param last The character before it.
+	 * @return The escape sequence to use in place of the character, or <code>null</code> if it can
+	 *         be written as is.
+	 */
+	private static String escape(char ch, char last) {
+		if (ch < 128) {
+			String replacement = ESCAPES[ch];
+			if (replacement == null && ch == '/' && last == '<') {
+				replacement = "\\/"; //$NON-NLS-1$
+			}
+			return replacement;
+		}
+		if (ch < '\u00a0' || ch >= '\u2000' && ch < '\u2100') {
+			return new String(new char[] { '\\', 'u', HEX[ch >> 12], HEX[ch >> 8 & 15], HEX[ch >> 4 & 15], HEX[ch & 15] });
+		}
+		return null;
+	}
+
+	private void write(char ch) throws IOException {
+		if (mCount == mBuffer.length) {
+			flushBuffer(false);
+		}
+		mBuffer[mCount++] = ch;
+	}
+
+	private void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	private void write(String str, int start, int end) throws IOException {
+		while (start < end) {
+			if (mCount == mBuffer.length) {
+				flushBuffer(false);
+			}
+			int count = Math.min(end - start, mBuffer.length - mCount);
+			str.getChars(start, start + count, mBuffer, mCount);
+			mCount += count;
+			start += count;
+		}
+	}
+
+	/**
+	 * Hands the buffered characters off to the destination, encoding them as UTF-8 if the
+	 * destination takes bytes.
+	 *
+	 * @param all <code>false</code> to hold back a trailing high surrogate, since its partner has
+	 *            not been written yet.
+	 */
+	private void flushBuffer(boolean all) throws IOException {
+		if (mAppendable != null) {
+			if (mCount > 0) {
+				if (mAppendable instanceof Writer) {
+					((Writer) mAppendable).write(mBuffer, 0, mCount);
+				} else if (mAppendable instanceof StringBuilder) {
+					((StringBuilder) mAppendable).append(mBuffer, 0, mCount);
+				} else {
+					mAppendable.append(CharBuffer.wrap(mBuffer, 0, mCount));
+				}
+				mCount = 0;
+			}
+			return;
+		}
+		int end = mCount;
+		if (!all && end > 0 && Character.isHighSurrogate(mBuffer[end - 1])) {
+			end--;
+		}
+		byte[] bytes = mBytes;
+		int count = 0;
+		for (int i = 0; i < end; i++) {
+			char ch = mBuffer[i];
+			if (ch < 0x80) {
+				bytes[count++] = (byte) ch;
+			} else if (ch < 0x800) {
+				bytes[count++] = (byte) (0xC0 | ch >> 6);
+				bytes[count++] = (byte) (0x80 | ch & 0x3F);
+			} else if (Character.isSurrogate(ch)) {
+				if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(mBuffer[i + 1])) {
+					int codePoint = Character.toCodePoint(ch, mBuffer[++i]);
+					bytes[count++] = (byte) (0xF0 | codePoint >> 18);
+					bytes[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+					bytes[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+					bytes[count++] = (byte) (0x80 | codePoint & 0x3F);
+				} else {
+					bytes[count++] = '?';
+				}
+			} else {
+				bytes[count++] = (byte) (0xE0 | ch >> 12);
+				bytes[count++] = (byte) (0x80 | ch >> 6 & 0x3F);
+				bytes[count++] = (byte) (0x80 | ch & 0x3F);
+			}
+		}
+		if (count > 0) {
+			if (mStream != null) {
+				mStream.write(bytes, 0, count);
+			} else {
+				mByteBuffer.clear();
+				mByteBuffer.limit(count);
+				while (mByteBuffer.hasRemaining()) {
+					mChannel.write(mByteBuffer);
+				}
+			}
+		}
+		mCount -= end;
+		if (mCount > 0) {
+			mBuffer[0] = mBuffer[end];
+		}
+	}
+}
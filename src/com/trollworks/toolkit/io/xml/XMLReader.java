@@ -18,9 +18,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 
@@ -30,10 +36,30 @@ public class XMLReader implements AutoCloseable {
 	public static boolean			SHOW_SKIPPED_TAGS	= Numbers.getBoolean(System.getProperty("SHOW_SKIPPED_TAGS", "false")); //$NON-NLS-1$ //$NON-NLS-2$
 	private static final String		UNEXPECTED_EOF		= "Unexpected EOF";													//$NON-NLS-1$
 	private static final String		COLON				= ":";																	//$NON-NLS-1$
+	private static final String		REPLACEMENT			= "\uFFFD";															//$NON-NLS-1$
+	private static final double[]	DOUBLE_POWERS		= { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+	private static final float[]	FLOAT_POWERS		= { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
 	private HashMap<String, String>	mEntityMap			= new HashMap<>();
-	private HashMap<String, String>	mAttributeMap		= new HashMap<>();
+	private HashMap<String, String>	mAttributeMap;
+	private String[]				mSymbols			= new String[256];
+	private int						mSymbolCount;
+	private String[]				mAttributeNames		= new String[8];
+	private String[]				mAttributeValues	= new String[8];
+	private int[]					mAttributeStarts	= new int[8];
+	private int[]					mAttributeLengths	= new int[8];
+	private int						mAttributeCount;
+	private long					mMantissa;
+	private int						mScale;
+	private boolean					mNegative;
 	private ArrayList<String>		mStack				= new ArrayList<>();
-	private char[]					mBuffer				= new char[32768];
+	private char[]					mBuffer;
+	private InputStream				mStream;
+	private ByteBuffer				mSource;
+	private byte[]					mBytes;
+	private int						mBytePos;
+	private int						mByteCount;
+	private boolean					mStrict;
+	private int						mPendingLowSurrogate;
 	private char[]					mTextBuffer			= new char[128];
 	private XMLNodeType				mType				= XMLNodeType.START_DOCUMENT;
 	private int						mLine				= 1;
@@ -56,37 +82,76 @@ public class XMLReader implements AutoCloseable {
 	 * @param stream The underlying {@link InputStream} to use.
 	 */
 	public XMLReader(InputStream stream) throws IOException {
-		this(new InputStreamReader(stream));
+		this(stream, Charset.defaultCharset());
 	}
 
 	/**
-	 * Creates a new {@link XMLReader}.
+	 * Creates a new {@link XMLReader}. UTF-8 data is scanned directly from the bytes.
 	 *
 	 * @param stream The underlying {@link InputStream} to use.
 	 * @param charset The {@link Charset} to use.
 	 */
 	public XMLReader(InputStream stream, Charset charset) throws IOException {
-		this(new InputStreamReader(stream, charset));
+		if (StandardCharsets.UTF_8.equals(charset)) {
+			useBytes(stream, null, false);
+		} else {
+			useReader(new InputStreamReader(stream, charset));
+		}
+		initialize();
 	}
 
 	/**
-	 * Creates a new {@link XMLReader}.
+	 * Creates a new {@link XMLReader}. UTF-8 data is scanned directly from the bytes, unless the
+	 * decoder has been configured to ignore malformed input or to use a custom replacement.
 	 *
 	 * @param stream The underlying {@link InputStream} to use.
 	 * @param decoder The {@link CharsetDecoder} to use.
 	 */
 	public XMLReader(InputStream stream, CharsetDecoder decoder) throws IOException {
-		this(new InputStreamReader(stream, decoder));
+		CodingErrorAction action = decoder.malformedInputAction();
+		if (StandardCharsets.UTF_8.equals(decoder.charset()) && (action == CodingErrorAction.REPORT || action == CodingErrorAction.REPLACE && REPLACEMENT.equals(decoder.replacement()))) {
+			useBytes(stream, null, action == CodingErrorAction.REPORT);
+		} else {
+			useReader(new InputStreamReader(stream, decoder));
+		}
+		initialize();
 	}
 
 	/**
-	 * Creates a new {@link XMLReader}.
+	 * Creates a new {@link XMLReader}. UTF-8 data is scanned directly from the bytes.
 	 *
 	 * @param stream The underlying {@link InputStream} to use.
 	 * @param charsetName The name of the {@link Charset} to use.
 	 */
 	public XMLReader(InputStream stream, String charsetName) throws IOException {
-		this(new InputStreamReader(stream, charsetName));
+		if (isUTF8(charsetName)) {
+			useBytes(stream, null, false);
+		} else {
+			useReader(new InputStreamReader(stream, charsetName));
+		}
+		initialize();
+	}
+
+	/**
+	 * Creates a new {@link XMLReader} that scans UTF-8 data directly from a byte array.
+	 *
+	 * @param data The UTF-8 data to read. It is not copied, so must not be modified while being
+	 *            read.
+	 */
+	public XMLReader(byte[] data) throws IOException {
+		this(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Creates a new {@link XMLReader} that scans UTF-8 data directly from a {@link ByteBuffer},
+	 * such as a {@link MappedByteBuffer}.
+	 *
+	 * @param buffer The UTF-8 data to read, from its position to its limit. The buffer's own
+	 *            position is left untouched.
+	 */
+	public XMLReader(ByteBuffer buffer) throws IOException {
+		useBytes(null, buffer, false);
+		initialize();
 	}
 
 	/**
@@ -96,9 +161,43 @@ public class XMLReader implements AutoCloseable {
 	 *            created with a {@link Charset} appropriate for the data being read.
 	 */
 	public XMLReader(Reader reader) throws IOException {
+		useReader(reader);
+		initialize();
+	}
+
+	private static boolean isUTF8(String charsetName) {
+		try {
+			return StandardCharsets.UTF_8.equals(Charset.forName(charsetName));
+		} catch (Exception exception) {
+			// Let the InputStreamReader report the problem
+			return false;
+		}
+	}
+
+	private void useReader(Reader reader) {
 		mReader = reader;
-		mPeek0 = reader.read();
-		mPeek1 = reader.read();
+		mBuffer = new char[32768];
+	}
+
+	private void useBytes(InputStream stream, ByteBuffer buffer, boolean strict) {
+		mStream = stream;
+		mStrict = strict;
+		if (buffer != null && buffer.hasArray()) {
+			// Heap buffers are scanned in place.
+			mBytes = buffer.array();
+			mBytePos = buffer.arrayOffset() + buffer.position();
+			mByteCount = buffer.arrayOffset() + buffer.limit();
+		} else {
+			if (buffer != null) {
+				mSource = buffer.duplicate();
+			}
+			mBytes = new byte[32768];
+		}
+	}
+
+	private void initialize() throws IOException {
+		mPeek0 = nextChar();
+		mPeek1 = nextChar();
 		mEOF = mPeek0 == -1;
 		defineCharacterEntity("amp", "&"); //$NON-NLS-1$ //$NON-NLS-2$
 		defineCharacterEntity("apos", "'"); //$NON-NLS-1$ //$NON-NLS-2$
@@ -107,10 +206,14 @@ public class XMLReader implements AutoCloseable {
 		defineCharacterEntity("quot", "\""); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
-	/** Closes the underlying {@link Reader}. */
+	/** Closes the underlying {@link Reader} or {@link InputStream}. */
 	@Override
 	public void close() throws IOException {
-		mReader.close();
+		if (mReader != null) {
+			mReader.close();
+		} else if (mStream != null) {
+			mStream.close();
+		}
 	}
 
 	/** @return A marker for determining if you've come to the end of a specific tag. */
@@ -285,18 +388,124 @@ public class XMLReader implements AutoCloseable {
 			}
 		}
 		mColumn++;
+		mPeek1 = nextChar();
+		return result;
+	}
 
+	private final int nextChar() throws IOException {
+		if (mReader == null) {
+			return nextUTF8Char();
+		}
 		if (mPos >= mCount) {
 			mCount = mReader.read(mBuffer, 0, mBuffer.length);
 			if (mCount <= 0) {
-				mPeek1 = -1;
-				return result;
+				return -1;
 			}
 			mPos = 0;
 		}
+		return mBuffer[mPos++];
+	}
 
-		mPeek1 = mBuffer[mPos++];
-		return result;
+	private final int nextUTF8Char() throws IOException {
+		if (mPendingLowSurrogate != 0) {
+			int ch = mPendingLowSurrogate;
+			mPendingLowSurrogate = 0;
+			return ch;
+		}
+		if (mBytePos >= mByteCount && !fillBytes(1)) {
+			return -1;
+		}
+		int b = mBytes[mBytePos];
+		if (b >= 0) {
+			mBytePos++;
+			return b;
+		}
+
+		int length;
+		int min;
+		int max = 0xBF;
+		b &= 0xFF;
+		if (b >= 0xC2 && b <= 0xDF) {
+			length = 2;
+			min = 0x80;
+		} else if (b >= 0xE0 && b <= 0xEF) {
+			length = 3;
+			min = b == 0xE0 ? 0xA0 : 0x80;
+		} else if (b >= 0xF0 && b <= 0xF4) {
+			length = 4;
+			min = b == 0xF0 ? 0x90 : 0x80;
+			if (b == 0xF4) {
+				max = 0x8F;
+			}
+		} else {
+			return malformed(1);
+		}
+		if (mByteCount - mBytePos < length) {
+			fillBytes(length);
+		}
+		int available = Math.min(length, mByteCount - mBytePos);
+		int cp = b & 0xFF >> length + 1;
+		for (int i = 1; i < available; i++) {
+			int next = mBytes[mBytePos + i] & 0xFF;
+			if (next < (i == 1 ? min : 0x80) || next > (i == 1 ? max : 0xBF)) {
+				return malformed(i);
+			}
+			cp = cp << 6 | next & 0x3F;
+		}
+		if (available < length) {
+			return malformed(available);
+		}
+		if (length == 3 && Character.isSurrogate((char) cp)) {
+			// Encoded surrogates are rejected as a whole, as the JDK decoder does.
+			return malformed(3);
+		}
+		mBytePos += length;
+		if (length == 4) {
+			mPendingLowSurrogate = Character.lowSurrogate(cp);
+			return Character.highSurrogate(cp);
+		}
+		return cp;
+	}
+
+	private final int malformed(int length) throws IOException {
+		if (mStrict) {
+			throw new MalformedInputException(length);
+		}
+		mBytePos += length;
+		return REPLACEMENT.charAt(0);
+	}
+
+	/**
+	 * Moves any unconsumed bytes to the front of the byte buffer and reads more after them.
+	 *
+	 * @param minimum The number of unconsumed bytes needed.
+	 * @return Whether that many bytes are now available.
+	 */
+	private final boolean fillBytes(int minimum) throws IOException {
+		if (mStream == null && mSource == null) {
+			return mByteCount - mBytePos >= minimum;
+		}
+		mByteCount -= mBytePos;
+		System.arraycopy(mBytes, mBytePos, mBytes, 0, mByteCount);
+		mBytePos = 0;
+		while (mByteCount < minimum) {
+			int amount;
+			if (mStream != null) {
+				amount = mStream.read(mBytes, mByteCount, mBytes.length - mByteCount);
+			} else {
+				amount = Math.min(mSource.remaining(), mBytes.length - mByteCount);
+				if (amount == 0) {
+					amount = -1;
+				} else {
+					mSource.get(mBytes, mByteCount, amount);
+				}
+			}
+			if (amount < 0) {
+				return false;
+			}
+			mByteCount += amount;
+		}
+		return true;
 	}
 
 	private final void fail(String desc) throws IOException {
@@ -347,7 +556,58 @@ public class XMLReader implements AutoCloseable {
 			ch = mPeek0;
 		} while (ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_' || ch == '-' || ch == ':' || ch == '.');
 
-		return pop(pos);
+		return symbol(pos);
+	}
+
+	/**
+	 * Pops the text from the specified position, returning the single instance of it held in this
+	 * reader's symbol table. Used for names, which repeat far too often to be worth allocating each
+	 * time they are seen.
+	 */
+	private final String symbol(int pos) {
+		int length = mTextPos - pos;
+		int hash = 0;
+
+		for (int i = pos; i < mTextPos; i++) {
+			hash = 31 * hash + mTextBuffer[i];
+		}
+		mTextPos = pos;
+
+		int mask = mSymbols.length - 1;
+		int index = (hash ^ hash >>> 16) & mask;
+		String symbol;
+		while ((symbol = mSymbols[index]) != null) {
+			if (symbol.hashCode() == hash && symbol.length() == length) {
+				int i = 0;
+				while (i < length && symbol.charAt(i) == mTextBuffer[pos + i]) {
+					i++;
+				}
+				if (i == length) {
+					return symbol;
+				}
+			}
+			index = index + 1 & mask;
+		}
+
+		// String.hashCode() uses the same polynomial as above, so it needn't be recomputed on rehash.
+		symbol = new String(mTextBuffer, pos, length);
+		mSymbols[index] = symbol;
+		if (++mSymbolCount * 2 > mSymbols.length) {
+			String[] symbols = new String[mSymbols.length * 2];
+			mask = symbols.length - 1;
+			for (String one : mSymbols) {
+				if (one != null) {
+					hash = one.hashCode();
+					index = (hash ^ hash >>> 16) & mask;
+					while (symbols[index] != null) {
+						index = index + 1 & mask;
+					}
+					symbols[index] = one;
+				}
+			}
+			mSymbols = symbols;
+		}
+		return symbol;
 	}
 
 	private final void parseLegacy(boolean push) throws IOException {
@@ -511,7 +771,8 @@ public class XMLReader implements AutoCloseable {
 
 			pos = mTextPos;
 			pushText(ch);
-			mAttributeMap.put(attrName, pop(pos));
+			// The value is left in the text buffer and only turned into a String on request.
+			addAttribute(attrName, pos, mTextPos - pos);
 			if (ch != ' ') {
 				read(); // skip end quote
 			}
@@ -530,7 +791,7 @@ public class XMLReader implements AutoCloseable {
 			push(read());
 		}
 
-		code = pop(pos);
+		code = symbol(pos);
 		read();
 		if (code.length() > 0 && code.charAt(0) == '#') {
 			int c = code.charAt(1) == 'x' ? Integer.parseInt(code.substring(2), 16) : Integer.parseInt(code.substring(1));
@@ -649,12 +910,85 @@ public class XMLReader implements AutoCloseable {
 		return mIsEmptyElementTag;
 	}
 
+	private final void addAttribute(String name, int start, int length) {
+		if (mAttributeCount == mAttributeNames.length) {
+			int size = mAttributeCount * 2;
+			mAttributeNames = Arrays.copyOf(mAttributeNames, size);
+			mAttributeValues = Arrays.copyOf(mAttributeValues, size);
+			mAttributeStarts = Arrays.copyOf(mAttributeStarts, size);
+			mAttributeLengths = Arrays.copyOf(mAttributeLengths, size);
+		}
+		mAttributeNames[mAttributeCount] = name;
+		mAttributeValues[mAttributeCount] = null;
+		mAttributeStarts[mAttributeCount] = start;
+		mAttributeLengths[mAttributeCount++] = length;
+	}
+
+	private final int indexOfAttribute(String name) {
+		// Search from the end, so that the last of any duplicates wins, as it always has.
+		for (int i = mAttributeCount; --i >= 0;) {
+			if (mAttributeNames[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private final String getAttributeValue(int index) {
+		String value = mAttributeValues[index];
+		if (value == null) {
+			value = new String(mTextBuffer, mAttributeStarts[index], mAttributeLengths[index]);
+			mAttributeValues[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Scans an attribute value directly from the text buffer, accepting only the plain forms that
+	 * can be converted exactly without going through a {@link String}: an optional minus sign,
+	 * followed by up to 18 digits with an optional decimal point. On success, {@link #mMantissa},
+	 * {@link #mScale} (the number of digits after the decimal point, or -1 if there wasn't one) and
+	 * {@link #mNegative} are set.
+	 */
+	private final boolean scanDecimal(int index) {
+		int pos = mAttributeStarts[index];
+		int end = pos + mAttributeLengths[index];
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+
+		mNegative = pos < end && mTextBuffer[pos] == '-';
+		if (mNegative) {
+			pos++;
+		}
+		for (; pos < end; pos++) {
+			char ch = mTextBuffer[pos];
+			if (ch >= '0' && ch <= '9') {
+				if (++digits > 18) {
+					return false;
+				}
+				mantissa = mantissa * 10 + ch - '0';
+				if (scale != -1) {
+					scale++;
+				}
+			} else if (ch == '.' && scale == -1) {
+				scale = 0;
+			} else {
+				return false;
+			}
+		}
+		mMantissa = mantissa;
+		mScale = scale;
+		return digits > 0;
+	}
+
 	/**
 	 * @param name The name of the attribute to use.
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name) {
-		return mAttributeMap.get(name);
+		int index = indexOfAttribute(name);
+		return index != -1 ? getAttributeValue(index) : null;
 	}
 
 	/**
@@ -663,7 +997,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the attribute.
 	 */
 	public String getAttribute(String name, String defValue) {
-		String value = mAttributeMap.get(name);
+		String value = getAttribute(name);
 		return value != null ? value : defValue;
 	}
 
@@ -672,7 +1006,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present.
 	 */
 	public boolean hasAttribute(String name) {
-		return mAttributeMap.get(name) != null;
+		return indexOfAttribute(name) != -1;
 	}
 
 	/**
@@ -680,7 +1014,7 @@ public class XMLReader implements AutoCloseable {
 	 * @return Whether the attribute is present and set to a 'true' value.
 	 */
 	public boolean isAttributeSet(String name) {
-		return Numbers.getBoolean(mAttributeMap.get(name));
+		return Numbers.getBoolean(getAttribute(name));
 	}
 
 	/**
@@ -690,7 +1024,17 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public short getAttributeAsShort(String name, short defValue) {
-		return Numbers.getShort(mAttributeMap.get(name), defValue);
+		int index = indexOfAttribute(name);
+		if (index == -1) {
+			return defValue;
+		}
+		if (scanDecimal(index) && mScale == -1) {
+			long value = mNegative ? -mMantissa : mMantissa;
+			if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				return (short) value;
+			}
+		}
+		return Numbers.getShort(getAttributeValue(index), defValue);
 	}
 
 	/**
@@ -700,7 +1044,17 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public int getAttributeAsInteger(String name, int defValue) {
-		return Numbers.getInteger(mAttributeMap.get(name), defValue);
+		int index = indexOfAttribute(name);
+		if (index == -1) {
+			return defValue;
+		}
+		if (scanDecimal(index) && mScale == -1) {
+			long value = mNegative ? -mMantissa : mMantissa;
+			if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+				return (int) value;
+			}
+		}
+		return Numbers.getInteger(getAttributeValue(index), defValue);
 	}
 
 	/**
@@ -709,7 +1063,14 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public long getAttributeAsLong(String name, long defValue) {
-		return Numbers.getLong(mAttributeMap.get(name), defValue);
+		int index = indexOfAttribute(name);
+		if (index == -1) {
+			return defValue;
+		}
+		if (scanDecimal(index) && mScale == -1) {
+			return mNegative ? -mMantissa : mMantissa;
+		}
+		return Numbers.getLong(getAttributeValue(index), defValue);
 	}
 
 	/**
@@ -719,7 +1080,16 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public float getAttributeAsFloat(String name, float defValue) {
-		return Numbers.getFloat(mAttributeMap.get(name), defValue);
+		int index = indexOfAttribute(name);
+		if (index == -1) {
+			return defValue;
+		}
+		// Both operands are exact floats here, so the single division is correctly rounded.
+		if (scanDecimal(index) && mMantissa <= 1 << 24 && mScale < FLOAT_POWERS.length) {
+			float value = mScale > 0 ? mMantissa / FLOAT_POWERS[mScale] : mMantissa;
+			return mNegative ? -value : value;
+		}
+		return Numbers.getFloat(getAttributeValue(index), defValue);
 	}
 
 	/**
@@ -729,11 +1099,29 @@ public class XMLReader implements AutoCloseable {
 	 * @return The value of the tag.
 	 */
 	public double getAttributeAsDouble(String name, double defValue) {
-		return Numbers.getDouble(mAttributeMap.get(name), defValue);
+		int index = indexOfAttribute(name);
+		if (index == -1) {
+			return defValue;
+		}
+		// Both operands are exact doubles here, so the single division is correctly rounded.
+		if (scanDecimal(index) && mMantissa < 1L << 53 && mScale < DOUBLE_POWERS.length) {
+			double value = mScale > 0 ? mMantissa / DOUBLE_POWERS[mScale] : mMantissa;
+			return mNegative ? -value : value;
+		}
+		return Numbers.getDouble(getAttributeValue(index), defValue);
 	}
 
-	/** @return The map of attributes. */
+	/**
+	 * @return The map of attributes. The map is built on the first call for each tag and is not
+	 *         updated as the reader advances.
+	 */
 	public HashMap<String, String> getAttributes() {
+		if (mAttributeMap == null) {
+			mAttributeMap = new HashMap<>();
+			for (int i = 0; i < mAttributeCount; i++) {
+				mAttributeMap.put(mAttributeNames[i], getAttributeValue(i));
+			}
+		}
 		return mAttributeMap;
 	}
 
@@ -758,7 +1146,8 @@ public class XMLReader implements AutoCloseable {
 			mTextPos = 0;
 			mIsWhitespace = true;
 			do {
-				mAttributeMap.clear();
+				mAttributeCount = 0;
+				mAttributeMap = null;
 				mName = null;
 				mText = null;
 				mType = peekType();
@@ -13,12 +13,21 @@ package com.trollworks.toolkit.io.xml;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Date;
 
-/** A {@link PrintWriter} that has been extended to provide common XML writing helper methods. */
+/**
+ * A {@link PrintWriter} that has been extended to provide common XML writing helper methods. The
+ * helper methods bypass the synchronized {@link PrintWriter} layer and write straight into an
+ * unsynchronized buffer, which is encoded directly to the underlying stream or channel.
+ */
 public class XMLWriter extends PrintWriter {
 	private static final String	END_TAG				= "/>";		//$NON-NLS-1$
 	private static final String	ENTITY_CODE_PREFIX	= "&#";		//$NON-NLS-1$
@@ -40,22 +49,180 @@ public class XMLWriter extends PrintWriter {
 	public static final String	MINUTE				= "minute";	//$NON-NLS-1$
 	/** The 'second' attribute. */
 	public static final String	SECOND				= "second";	//$NON-NLS-1$
+	private static final String	LINE_SEPARATOR		= System.lineSeparator();
+	private static final String	NEWLINE				= "\n";		//$NON-NLS-1$
+	private static final String[]	DATA_ESCAPES		= new String[128];
+	private static final String[]	TEXT_ESCAPES		= new String[128];
+	private static final String[]	ATTRIBUTE_ESCAPES	= new String[128];
+	private Output				mOutput;
 	private int					mIndent;
 
+	static {
+		for (int ch = 0; ch < ' '; ch++) {
+			DATA_ESCAPES[ch] = ENTITY_CODE_PREFIX + ch + ';';
+		}
+		DATA_ESCAPES[127] = ENTITY_CODE_PREFIX + 127 + ';';
+		DATA_ESCAPES['<'] = LESS_THAN_ENTITY;
+		DATA_ESCAPES['>'] = GREATER_THAN_ENTITY;
+		DATA_ESCAPES['&'] = AMPERSAND_ENTITY;
+		System.arraycopy(DATA_ESCAPES, 0, TEXT_ESCAPES, 0, 128);
+		System.arraycopy(DATA_ESCAPES, 0, ATTRIBUTE_ESCAPES, 0, 128);
+		DATA_ESCAPES['\t'] = null;
+		DATA_ESCAPES['\r'] = NEWLINE;
+		DATA_ESCAPES['\n'] = NEWLINE;
+		ATTRIBUTE_ESCAPES['"'] = "&quot;"; //$NON-NLS-1$
+		ATTRIBUTE_ESCAPES['\''] = "&apos;"; //$NON-NLS-1$
+	}
+
 	/**
-	 * Creates a new XML writer.
+	 * Creates a new XML writer that produces {@link #ENCODING} output.
 	 *
 	 * @param stream The stream to write to.
 	 */
 	public XMLWriter(OutputStream stream) throws IOException {
-		super(new OutputStreamWriter(stream, ENCODING));
+		this(new Output(stream, null, false));
+	}
+
+	/**
+	 * Creates a new XML writer.
+	 *
+	 * @param stream The stream to write to.
+	 * @param charset The {@link Charset} to encode with. Must be either US-ASCII or UTF-8. With
+	 *            UTF-8, characters outside of the ASCII range are written as-is rather than as
+	 *            character references.
+	 */
+	public XMLWriter(OutputStream stream, Charset charset) throws IOException {
+		this(new Output(stream, null, isUTF8(charset)));
+	}
+
+	/**
+	 * Creates a new XML writer.
+	 *
+	 * @param channel The channel to write to.
+	 * @param charset The {@link Charset} to encode with. Must be either US-ASCII or UTF-8. With
+	 *            UTF-8, characters outside of the ASCII range are written as-is rather than as
+	 *            character references.
+	 */
+	public XMLWriter(WritableByteChannel channel, Charset charset) throws IOException {
+		this(new Output(null, channel, isUTF8(charset)));
+	}
+
+	private XMLWriter(Output output) {
+		super(output);
+		mOutput = output;
+	}
+
+	private static boolean isUTF8(Charset charset) throws UnsupportedEncodingException {
+		if (StandardCharsets.UTF_8.equals(charset)) {
+			return true;
+		}
+		if (StandardCharsets.US_ASCII.equals(charset)) {
+			return false;
+		}
+		throw new UnsupportedEncodingException(charset.name());
+	}
+
+	private void put(char ch) {
+		try {
+			mOutput.append(ch);
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void put(String text) {
+		try {
+			mOutput.write(text, 0, text.length());
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void putLine(String text) {
+		try {
+			mOutput.write(text, 0, text.length());
+			mOutput.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length());
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void put(long value) {
+		try {
+			mOutput.writeLong(value);
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void put(double value, boolean trimZero) {
+		try {
+			mOutput.writeDouble(value, trimZero);
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void put(float value) {
+		try {
+			mOutput.writeFloat(value);
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void putEscaped(String text, String[] escapes) {
+		try {
+			Output output = mOutput;
+			boolean raw = output.mUTF8;
+			int length = text.length();
+			int start = 0;
+			for (int i = 0; i < length; i++) {
+				char ch = text.charAt(i);
+				String escape;
+				if (ch < 128) {
+					escape = escapes[ch];
+					if (escape == null) {
+						continue;
+					}
+				} else if (raw) {
+					continue;
+				} else {
+					escape = null;
+				}
+				if (start < i) {
+					output.write(text, start, i - start);
+				}
+				if (escape == NEWLINE) {
+					output.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length());
+				} else if (escape != null) {
+					output.write(escape, 0, escape.length());
+				} else {
+					output.write(ENTITY_CODE_PREFIX, 0, ENTITY_CODE_PREFIX.length());
+					output.writeLong(ch);
+					output.append(';');
+				}
+				start = i + 1;
+			}
+			if (start < length) {
+				output.write(text, start, length - start);
+			}
+		} catch (IOException exception) {
+			setError();
+		}
+	}
+
+	private void putAttributeStart(String name) {
+		put(' ');
+		put(name);
+		put("=\""); //$NON-NLS-1$
 	}
 
 	/** Writes a standard XML header. */
 	public void writeHeader() {
-		print("<?xml version=\"1.0\" encoding=\""); //$NON-NLS-1$
-		print(ENCODING);
-		println("\" ?>"); //$NON-NLS-1$
+		put("<?xml version=\"1.0\" encoding=\""); //$NON-NLS-1$
+		put(mOutput.mUTF8 ? StandardCharsets.UTF_8.name() : ENCODING);
+		putLine("\" ?>"); //$NON-NLS-1$
 	}
 
 	/**
@@ -72,17 +239,17 @@ public class XMLWriter extends PrintWriter {
 
 	/** Starts an XML comment. */
 	public void startComment() {
-		print("<!-- "); //$NON-NLS-1$
+		put("<!-- "); //$NON-NLS-1$
 	}
 
 	/** Finishes an XML comment. */
 	public void finishComment() {
-		print(END_COMMENT);
+		put(END_COMMENT);
 	}
 
 	/** Finishes an XML comment and writes out a line feed. */
 	public void finishCommentEOL() {
-		println(END_COMMENT);
+		putLine(END_COMMENT);
 	}
 
 	/**
@@ -93,29 +260,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeEncodedData(String data) {
 		if (data != null) {
-			int length = data.length();
-
-			for (int i = 0; i < length; i++) {
-				char ch = data.charAt(i);
-
-				if (ch == '<') {
-					print(LESS_THAN_ENTITY);
-				} else if (ch == '>') {
-					print(GREATER_THAN_ENTITY);
-				} else if (ch == '&') {
-					print(AMPERSAND_ENTITY);
-				} else if (ch == '\r' || ch == '\n') {
-					println();
-				} else if (ch == '\t') {
-					print('\t');
-				} else if (ch >= ' ' && ch <= '~') {
-					print(ch);
-				} else {
-					print(ENTITY_CODE_PREFIX);
-					print((int) ch);
-					print(';');
-				}
-			}
+			putEscaped(data, DATA_ESCAPES);
 		}
 	}
 
@@ -126,29 +271,7 @@ public class XMLWriter extends PrintWriter {
 	 * @param attribute The attribute value to transform.
 	 */
 	public void writeEncodedAttribute(String attribute) {
-		int length = attribute.length();
-
-		for (int i = 0; i < length; i++) {
-			char ch = attribute.charAt(i);
-
-			if (ch == '<') {
-				print(LESS_THAN_ENTITY);
-			} else if (ch == '>') {
-				print(GREATER_THAN_ENTITY);
-			} else if (ch == '&') {
-				print(AMPERSAND_ENTITY);
-			} else if (ch == '"') {
-				print("&quot;"); //$NON-NLS-1$
-			} else if (ch == '\'') {
-				print("&apos;"); //$NON-NLS-1$
-			} else if (ch >= ' ' && ch <= '~') {
-				print(ch);
-			} else {
-				print(ENTITY_CODE_PREFIX);
-				print((int) ch);
-				print(';');
-			}
-		}
+		putEscaped(attribute, ATTRIBUTE_ESCAPES);
 	}
 
 	/**
@@ -168,7 +291,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, int value) {
-		writeAttribute(name, Integer.toString(value));
+		putAttributeStart(name);
+		put(value);
+		put('"');
 	}
 
 	/**
@@ -178,7 +303,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, long value) {
-		writeAttribute(name, Long.toString(value));
+		putAttributeStart(name);
+		put(value);
+		put('"');
 	}
 
 	/**
@@ -188,7 +315,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, float value) {
-		writeAttribute(name, Float.toString(value));
+		putAttributeStart(name);
+		put(value);
+		put('"');
 	}
 
 	/**
@@ -198,7 +327,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, double value) {
-		writeAttribute(name, Double.toString(value));
+		putAttributeStart(name);
+		put(value, false);
+		put('"');
 	}
 
 	/**
@@ -208,11 +339,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The value of the attribute.
 	 */
 	public void writeAttribute(String name, String value) {
-		print(' ');
-		print(name);
-		print("=\""); //$NON-NLS-1$
+		putAttributeStart(name);
 		writeEncodedAttribute(value);
-		print('"');
+		put('"');
 	}
 
 	/**
@@ -223,7 +352,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, int value) {
 		if (value != 0) {
-			writeAttribute(name, Integer.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -235,7 +364,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, long value) {
 		if (value != 0) {
-			writeAttribute(name, Long.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -247,7 +376,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, float value) {
 		if (value != 0) {
-			writeAttribute(name, Float.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -259,7 +388,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotZero(String name, double value) {
 		if (value != 0) {
-			writeAttribute(name, Double.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -271,7 +400,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotOne(String name, float value) {
 		if (value != 1) {
-			writeAttribute(name, Float.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -283,7 +412,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void writeAttributeNotOne(String name, double value) {
 		if (value != 1) {
-			writeAttribute(name, Double.toString(value));
+			writeAttribute(name, value);
 		}
 	}
 
@@ -331,7 +460,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Integer.toString(value));
+		put(value);
 		endTagEOL(name, false);
 	}
 
@@ -347,7 +476,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Long.toString(value));
+		put(value);
 		endTagEOL(name, false);
 	}
 
@@ -363,7 +492,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(toString(value));
+		put(value, true);
 		endTagEOL(name, false);
 	}
 
@@ -411,18 +540,10 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(toString(value));
+		put(value, true);
 		endTagEOL(name, false);
 	}
 
-	private static String toString(double value) {
-		String result = Double.toString(value);
-		if (result.endsWith(".0")) { //$NON-NLS-1$
-			result = result.substring(0, result.length() - 2);
-		}
-		return result;
-	}
-
 	/**
 	 * Write out an XML tag with a single attribute and no children, with a trailing line feed.
 	 *
@@ -435,7 +556,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Integer.toString(value));
+		put(value);
 		endTagEOL(name, false);
 	}
 
@@ -451,7 +572,7 @@ public class XMLWriter extends PrintWriter {
 		startTag(name);
 		writeAttribute(attribute, attributeValue);
 		finishTag();
-		writeEncodedData(Long.toString(value));
+		put(value);
 		endTagEOL(name, false);
 	}
 
@@ -472,7 +593,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The data to place between the tags.
 	 */
 	public void simpleTag(String name, int value) {
-		simpleTag(name, Integer.toString(value));
+		startSimpleTag(name);
+		put(value);
+		endTagEOL(name, false);
 	}
 
 	/**
@@ -483,7 +606,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void simpleTagNotZero(String name, int value) {
 		if (value != 0) {
-			simpleTag(name, Integer.toString(value));
+			simpleTag(name, value);
 		}
 	}
 
@@ -494,7 +617,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The data to place between the tags.
 	 */
 	public void simpleTag(String name, long value) {
-		simpleTag(name, Long.toString(value));
+		startSimpleTag(name);
+		put(value);
+		endTagEOL(name, false);
 	}
 
 	/**
@@ -505,7 +630,7 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void simpleTagNotZero(String name, long value) {
 		if (value != 0) {
-			simpleTag(name, Long.toString(value));
+			simpleTag(name, value);
 		}
 	}
 
@@ -516,7 +641,9 @@ public class XMLWriter extends PrintWriter {
 	 * @param value The data to place between the tags.
 	 */
 	public void simpleTag(String name, double value) {
-		simpleTag(name, toString(value));
+		startSimpleTag(name);
+		put(value, true);
+		endTagEOL(name, false);
 	}
 
 	/**
@@ -584,8 +711,8 @@ public class XMLWriter extends PrintWriter {
 	 */
 	public void startTag(String name) {
 		writeIndentation();
-		print('<');
-		print(name);
+		put('<');
+		put(name);
 		indent();
 	}
 
@@ -600,30 +727,30 @@ public class XMLWriter extends PrintWriter {
 		if (indent) {
 			writeIndentation();
 		}
-		print("</"); //$NON-NLS-1$
-		print(name);
+		put("</"); //$NON-NLS-1$
+		put(name);
 		finishTagEOL();
 	}
 
 	/** Finish writing out an XML tag with a trailing line feed. */
 	public void finishTagEOL() {
-		println('>');
+		putLine(">"); //$NON-NLS-1$
 	}
 
 	/** Finish writing out an XML tag. */
 	public void finishTag() {
-		print('>');
+		put('>');
 	}
 
 	/** Finish writing out an empty XML tag with a trailing line feed. */
 	public void finishEmptyTagEOL() {
-		println(END_TAG);
+		putLine(END_TAG);
 		outdent();
 	}
 
 	/** Finish writing out an empty XML tag. */
 	public void finishEmptyTag() {
-		print(END_TAG);
+		put(END_TAG);
 		outdent();
 	}
 
@@ -640,7 +767,7 @@ public class XMLWriter extends PrintWriter {
 	/** Writes the current indentation. */
 	public void writeIndentation() {
 		for (int i = 0; i < mIndent; i++) {
-			print('\t');
+			put('\t');
 		}
 	}
 
@@ -713,26 +840,238 @@ public class XMLWriter extends PrintWriter {
 	 * @return An XML-encoded string.
 	 */
 	public static String encodeData(String data) {
-		StringBuilder buffer = new StringBuilder();
+		StringBuilder buffer = null;
 		int length = data.length();
+		int start = 0;
 
 		for (int i = 0; i < length; i++) {
 			char ch = data.charAt(i);
+			String escape = ch < 128 ? TEXT_ESCAPES[ch] : null;
 
-			if (ch == '<') {
-				buffer.append(LESS_THAN_ENTITY);
-			} else if (ch == '>') {
-				buffer.append(GREATER_THAN_ENTITY);
-			} else if (ch == '&') {
-				buffer.append(AMPERSAND_ENTITY);
-			} else if (ch >= ' ' && ch <= '~') {
-				buffer.append(ch);
-			} else {
-				buffer.append(ENTITY_CODE_PREFIX);
-				buffer.append((int) ch);
-				buffer.append(';');
+			if (escape != null || ch >= 128) {
+				if (buffer == null) {
+					buffer = new StringBuilder(length + 16);
+				}
+				buffer.append(data, start, i);
+				if (escape != null) {
+					buffer.append(escape);
+				} else {
+					buffer.append(ENTITY_CODE_PREFIX);
+					buffer.append((int) ch);
+					buffer.append(';');
+				}
+				start = i + 1;
 			}
 		}
+		if (buffer == null) {
+			return data;
+		}
+		buffer.append(data, start, length);
 		return buffer.toString();
 	}
+
+	/**
+	 * An unsynchronized {@link Writer} that buffers characters and encodes them itself, as either
+	 * US-ASCII (with '?' for anything outside of it) or UTF-8.
+	 */
+	private static final class Output extends Writer {
+		private OutputStream		mStream;
+		private WritableByteChannel	mChannel;
+		private ByteBuffer			mByteBuffer;
+		/** Whether this writer encodes UTF-8 rather than US-ASCII. */
+		final boolean				mUTF8;
+		private char[]				mBuffer	= new char[8192];
+		private int					mCount;
+		private byte[]				mBytes;
+		private char[]				mDigits	= new char[20];
+		private boolean				mClosed;
+
+		Output(OutputStream stream, WritableByteChannel channel, boolean utf8) {
+			mStream = stream;
+			mChannel = channel;
+			mUTF8 = utf8;
+			mBytes = new byte[utf8 ? mBuffer.length * 3 : mBuffer.length];
+			if (channel != null) {
+				mByteBuffer = ByteBuffer.wrap(mBytes);
+			}
+		}
+
+		@Override
+		public Writer append(char ch) throws IOException {
+			if (mCount == mBuffer.length) {
+				flushBuffer(false);
+			}
+			mBuffer[mCount++] = ch;
+			return this;
+		}
+
+		@Override
+		public void write(int ch) throws IOException {
+			append((char) ch);
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (mCount == mBuffer.length) {
+					flushBuffer(false);
+				}
+				int amount = Math.min(length, mBuffer.length - mCount);
+				System.arraycopy(buffer, offset, mBuffer, mCount, amount);
+				mCount += amount;
+				offset += amount;
+				length -= amount;
+			}
+		}
+
+		@Override
+		public void write(String text, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (mCount == mBuffer.length) {
+					flushBuffer(false);
+				}
+				int amount = Math.min(length, mBuffer.length - mCount);
+				text.getChars(offset, offset + amount, mBuffer, mCount);
+				mCount += amount;
+				offset += amount;
+				length -= amount;
+			}
+		}
+
+		void writeLong(long value) throws IOException {
+			if (value == Long.MIN_VALUE) {
+				String text = Long.toString(value);
+				write(text, 0, text.length());
+				return;
+			}
+			if (value < 0) {
+				append('-');
+				value = -value;
+			}
+			int pos = mDigits.length;
+			do {
+				mDigits[--pos] = (char) ('0' + value % 10);
+				value /= 10;
+			} while (value != 0);
+			write(mDigits, pos, mDigits.length - pos);
+		}
+
+		/**
+		 * Writes the same text as {@link Double#toString(double)}, optionally dropping a trailing
+		 * ".0". Small integral values, by far the most common, are written without creating a
+		 * {@link String}.
+		 */
+		void writeDouble(double value, boolean trimZero) throws IOException {
+			if (value > -1e7 && value < 1e7 && value == (long) value) {
+				if (value == 0 && Double.doubleToRawLongBits(value) != 0) {
+					append('-');
+				}
+				writeLong((long) value);
+				if (!trimZero) {
+					append('.');
+					append('0');
+				}
+				return;
+			}
+			String text = Double.toString(value);
+			int length = text.length();
+			if (trimZero && text.endsWith(".0")) { //$NON-NLS-1$
+				length -= 2;
+			}
+			write(text, 0, length);
+		}
+
+		/** Writes the same text as {@link Float#toString(float)}. */
+		void writeFloat(float value) throws IOException {
+			if (value > -1e7f && value < 1e7f && value == (long) value) {
+				if (value == 0 && Float.floatToRawIntBits(value) != 0) {
+					append('-');
+				}
+				writeLong((long) value);
+				append('.');
+				append('0');
+				return;
+			}
+			String text = Float.toString(value);
+			write(text, 0, text.length());
+		}
+
+		private void flushBuffer(boolean all) throws IOException {
+			if (mClosed) {
+				throw new IOException("Stream closed"); //$NON-NLS-1$
+			}
+			int end = mCount;
+			if (!all && end > 0 && Character.isHighSurrogate(mBuffer[end - 1])) {
+				// Hold back the first half of a pair until the second half arrives.
+				end--;
+			}
+			byte[] bytes = mBytes;
+			int count = 0;
+			for (int i = 0; i < end; i++) {
+				char ch = mBuffer[i];
+				if (ch < 0x80) {
+					bytes[count++] = (byte) ch;
+				} else if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(mBuffer[i + 1])) {
+					if (mUTF8) {
+						int codePoint = Character.toCodePoint(ch, mBuffer[i + 1]);
+						bytes[count++] = (byte) (0xF0 | codePoint >> 18);
+						bytes[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+						bytes[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+						bytes[count++] = (byte) (0x80 | codePoint & 0x3F);
+					} else {
+						bytes[count++] = '?';
+					}
+					i++;
+				} else if (!mUTF8 || Character.isSurrogate(ch)) {
+					bytes[count++] = '?';
+				} else if (ch < 0x800) {
+					bytes[count++] = (byte) (0xC0 | ch >> 6);
+					bytes[count++] = (byte) (0x80 | ch & 0x3F);
+				} else {
+					bytes[count++] = (byte) (0xE0 | ch >> 12);
+					bytes[count++] = (byte) (0x80 | ch >> 6 & 0x3F);
+					bytes[count++] = (byte) (0x80 | ch & 0x3F);
+				}
+			}
+			if (count > 0) {
+				if (mStream != null) {
+					mStream.write(bytes, 0, count);
+				} else {
+					mByteBuffer.clear();
+					mByteBuffer.limit(count);
+					while (mByteBuffer.hasRemaining()) {
+						mChannel.write(mByteBuffer);
+					}
+				}
+			}
+			mCount -= end;
+			if (mCount > 0) {
+				mBuffer[0] = mBuffer[end];
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer(true);
+			if (mStream != null) {
+				mStream.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!mClosed) {
+				try {
+					flushBuffer(true);
+				} finally {
+					mClosed = true;
+					if (mStream != null) {
+						mStream.close();
+					} else {
+						mChannel.close();
+					}
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import com.trollworks.toolkit.annotation.XmlAttr;
+import com.trollworks.toolkit.annotation.XmlNoSort;
+import com.trollworks.toolkit.annotation.XmlTag;
+import com.trollworks.toolkit.annotation.XmlTagMinimumVersion;
+import com.trollworks.toolkit.annotation.XmlTagVersion;
+import com.trollworks.toolkit.utility.Introspection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The binding plan for a class that is loaded by {@link XmlParser} and emitted by
+ * {@link XmlGenerator}. The annotated fields of a class are introspected once, and {@link MethodHandle}s
+ * adapted to a uniform signature for each kind of field are kept, so that binding an element is a
+ * sequence of direct field loads and stores rather than reflective lookups and calls.
+ */
+final class XmlBinding {
+	static final int							BOOLEAN		= 0;
+	static final int							INT			= 1;
+	static final int							LONG		= 2;
+	static final int							DOUBLE		= 3;
+	static final int							CHAR		= 4;
+	static final int							OBJECT		= 5;
+	private static final MethodType				GET_BOOLEAN	= MethodType.methodType(boolean.class, Object.class);
+	private static final MethodType				GET_INT		= MethodType.methodType(int.class, Object.class);
+	private static final MethodType				GET_LONG	= MethodType.methodType(long.class, Object.class);
+	private static final MethodType				GET_DOUBLE	= MethodType.methodType(double.class, Object.class);
+	private static final MethodType				GET_OBJECT	= MethodType.methodType(Object.class, Object.class);
+	private static final MethodType				SET_BOOLEAN	= MethodType.methodType(void.class, Object.class, boolean.class);
+	private static final MethodType				SET_INT		= MethodType.methodType(void.class, Object.class, int.class);
+	private static final MethodType				SET_LONG	= MethodType.methodType(void.class, Object.class, long.class);
+	private static final MethodType				SET_DOUBLE	= MethodType.methodType(void.class, Object.class, double.class);
+	private static final MethodType				SET_CHAR	= MethodType.methodType(void.class, Object.class, char.class);
+	private static final MethodType				SET_STRING	= MethodType.methodType(void.class, Object.class, String.class);
+	private static final MethodType				SET_OBJECT	= MethodType.methodType(void.class, Object.class, Object.class);
+	private static final MethodType				CREATE		= MethodType.methodType(Object.class);
+	private static final ClassValue<XmlBinding>	BINDINGS	= new ClassValue<XmlBinding>() {
+																@Override
+																protected XmlBinding computeValue(Class<?> type) {
+																	try {
+																		return new XmlBinding(type);
+																	} catch (ReflectiveOperationException exception) {
+																		throw new IllegalStateException(exception);
+																	}
+																}
+															};
+	private int									mVersion;
+	private int									mMinimumVersion;
+	private String								mTag;
+	private Attribute[]							mAttributes;
+	private SubTag[]							mSubTags;
+	private Map<String, SubTag>					mSubTagMap;
+
+	/**
+	 * @param type The {@link Class} to retrieve the binding plan for.
+	 * @return The binding plan for the {@link Class}.
+	 */
+	static XmlBinding get(Class<?> type) throws XMLStreamException {
+		try {
+			return BINDINGS.get(type);
+		} catch (IllegalStateException exception) {
+			throw new XMLStreamException(exception.getCause() instanceof Exception ? (Exception) exception.getCause() : exception);
+		}
+	}
+
+	private XmlBinding(Class<?> type) throws ReflectiveOperationException {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		XmlTagVersion tagVersion = type.getAnnotation(XmlTagVersion.class);
+		mVersion = tagVersion != null ? tagVersion.value() : 0;
+		XmlTagMinimumVersion minimumVersion = type.getAnnotation(XmlTagMinimumVersion.class);
+		mMinimumVersion = minimumVersion != null ? minimumVersion.value() : 0;
+		XmlTag xmlTag = type.getAnnotation(XmlTag.class);
+		mTag = xmlTag != null ? xmlTag.value() : null;
+		Field[] fields = Introspection.getFieldsWithAnnotation(type, XmlAttr.class, true);
+		mAttributes = new Attribute[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			mAttributes[i] = new Attribute(lookup, fields[i]);
+		}
+		fields = Introspection.getFieldsWithAnnotation(type, XmlTag.class, true);
+		mSubTags = new SubTag[fields.length];
+		mSubTagMap = new HashMap<>();
+		for (int i = 0; i < fields.length; i++) {
+			mSubTags[i] = new SubTag(lookup, fields[i]);
+			mSubTagMap.put(mSubTags[i].mName, mSubTags[i]);
+		}
+	}
+
+	/** @return The version of the tag, or zero if it is unversioned. */
+	int getVersion() {
+		return mVersion;
+	}
+
+	/** @return The minimum version of the tag that can be loaded. */
+	int getMinimumVersion() {
+		return mMinimumVersion;
+	}
+
+	/** @return The name from the class's {@link XmlTag} annotation, or <code>null</code>. */
+	String getTag() {
+		return mTag;
+	}
+
+	/** @return The attributes, in field declaration order. */
+	Attribute[] getAttributes() {
+		return mAttributes;
+	}
+
+	/** @return The sub-tags, in field declaration order. */
+	SubTag[] getSubTags() {
+		return mSubTags;
+	}
+
+	/**
+	 * @param name The name of the sub-tag.
+	 * @return The sub-tag, or <code>null</code>.
+	 */
+	SubTag getSubTag(String name) {
+		return mSubTagMap.get(name);
+	}
+
+	private static XMLStreamException failure(Throwable throwable) {
+		if (throwable instanceof XMLStreamException) {
+			return (XMLStreamException) throwable;
+		}
+		if (throwable instanceof Exception) {
+			return new XMLStreamException((Exception) throwable);
+		}
+		throw (Error) throwable;
+	}
+
+	/** A field bound to an attribute. */
+	static final class Attribute {
+		/** The attribute name. */
+		final String						mName;
+		/** The kind of value, one of the constants in {@link XmlBinding}. */
+		final int							mKind;
+		private MethodHandle				mGetter;
+		private MethodHandle				mSetter;
+		private ReflectiveOperationException	mSetterFailure;
+
+		Attribute(MethodHandles.Lookup lookup, Field field) throws ReflectiveOperationException {
+			Introspection.makeFieldAccessible(field);
+			mName = field.getAnnotation(XmlAttr.class).value();
+			Class<?> type = field.getType();
+			MethodHandle getter = lookup.unreflectGetter(field);
+			MethodHandle setter = lookup.unreflectSetter(field);
+			if (type == boolean.class) {
+				mKind = BOOLEAN;
+				mGetter = getter.asType(GET_BOOLEAN);
+				mSetter = setter.asType(SET_BOOLEAN);
+			} else if (type == int.class || type == short.class) {
+				mKind = INT;
+				mGetter = getter.asType(GET_INT);
+				mSetter = MethodHandles.explicitCastArguments(setter, SET_INT);
+			} else if (type == long.class) {
+				mKind = LONG;
+				mGetter = getter.asType(GET_LONG);
+				mSetter = setter.asType(SET_LONG);
+			} else if (type == double.class || type == float.class) {
+				mKind = DOUBLE;
+				mGetter = getter.asType(GET_DOUBLE);
+				mSetter = MethodHandles.explicitCastArguments(setter, SET_DOUBLE);
+			} else if (type == char.class) {
+				mKind = CHAR;
+				mGetter = getter.asType(GET_OBJECT);
+				mSetter = setter.asType(SET_CHAR);
+			} else {
+				mKind = OBJECT;
+				mGetter = getter.asType(GET_OBJECT);
+				if (type == String.class) {
+					mSetter = setter.asType(SET_STRING);
+				} else {
+					try {
+						MethodHandle constructor = MethodHandles.publicLookup().unreflectConstructor(type.getConstructor(String.class));
+						mSetter = MethodHandles.filterArguments(setter, 1, constructor).asType(SET_STRING);
+					} catch (ReflectiveOperationException exception) {
+						// Types that can't be built from a string can still be emitted.
+						mSetterFailure = exception;
+					}
+				}
+			}
+		}
+
+		boolean getBoolean(Object obj) throws XMLStreamException {
+			try {
+				return (boolean) mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		int getInt(Object obj) throws XMLStreamException {
+			try {
+				return (int) mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		long getLong(Object obj) throws XMLStreamException {
+			try {
+				return (long) mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		double getDouble(Object obj) throws XMLStreamException {
+			try {
+				return (double) mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		Object get(Object obj) throws XMLStreamException {
+			try {
+				return mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void setBoolean(Object obj, boolean value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void setInt(Object obj, int value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void setLong(Object obj, long value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void setDouble(Object obj, double value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void setChar(Object obj, char value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		/**
+		 * Stores a {@link String} field directly, or constructs the field's type from the text for
+		 * any other object field.
+		 */
+		void setText(Object obj, String value) throws XMLStreamException {
+			if (mSetterFailure != null) {
+				throw new XMLStreamException(mSetterFailure);
+			}
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+	}
+
+	/** A field bound to a sub-tag. */
+	static final class SubTag {
+		/** The tag name. */
+		final String		mName;
+		/** The field's declared type. */
+		final Class<?>		mType;
+		/** Whether the field holds a {@link Collection}. */
+		final boolean		mCollection;
+		/** Whether the contents of a {@link Collection} field are emitted in their natural order. */
+		final boolean		mSorted;
+		private MethodHandle	mGetter;
+		private MethodHandle	mSetter;
+		private MethodHandle	mCreator;
+
+		SubTag(MethodHandles.Lookup lookup, Field field) throws ReflectiveOperationException {
+			Introspection.makeFieldAccessible(field);
+			mName = field.getAnnotation(XmlTag.class).value();
+			mType = field.getType();
+			mCollection = Collection.class.isAssignableFrom(mType);
+			mSorted = !field.isAnnotationPresent(XmlNoSort.class);
+			mGetter = lookup.unreflectGetter(field).asType(GET_OBJECT);
+			mSetter = lookup.unreflectSetter(field).asType(SET_OBJECT);
+			try {
+				mCreator = MethodHandles.publicLookup().findConstructor(mType, MethodType.methodType(void.class)).asType(CREATE);
+			} catch (ReflectiveOperationException exception) {
+				// Left to Class.newInstance() to report, should an instance actually be needed.
+			}
+		}
+
+		Object get(Object obj) throws XMLStreamException {
+			try {
+				return mGetter.invokeExact(obj);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		void set(Object obj, Object value) throws XMLStreamException {
+			try {
+				mSetter.invokeExact(obj, value);
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+
+		/** @return A new instance of the field's declared type. */
+		Object create() throws XMLStreamException {
+			try {
+				return mCreator != null ? mCreator.invokeExact() : mType.newInstance();
+			} catch (Throwable throwable) {
+				throw failure(throwable);
+			}
+		}
+	}
+}
@@ -12,17 +12,13 @@
 package com.trollworks.toolkit.io.xml;
 
 import com.trollworks.toolkit.annotation.Localize;
-import com.trollworks.toolkit.annotation.XmlAttr;
-import com.trollworks.toolkit.annotation.XmlNoSort;
 import com.trollworks.toolkit.annotation.XmlTag;
 import com.trollworks.toolkit.annotation.XmlTagMinimumVersion;
 import com.trollworks.toolkit.annotation.XmlTagVersion;
-import com.trollworks.toolkit.utility.Introspection;
 import com.trollworks.toolkit.utility.Localization;
 import com.trollworks.toolkit.utility.Text;
 
 import java.io.OutputStream;
-import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -291,108 +287,97 @@ public class XmlGenerator implements AutoCloseable {
 	 *            object must be annotated with {@link XmlTag}.
 	 */
 	public void add(String tag, Object obj) throws XMLStreamException {
-		Class<?> objClass = obj.getClass();
+		XmlBinding binding = XmlBinding.get(obj.getClass());
 		if (tag == null || tag.isEmpty()) {
-			XmlTag xmlTag = objClass.getAnnotation(XmlTag.class);
-			if (xmlTag == null) {
+			tag = binding.getTag();
+			if (tag == null) {
 				throw new XMLStreamException(String.format(NOT_TAGGED, obj.getClass().getName(), XmlTag.class.getSimpleName()));
 			}
-			tag = xmlTag.value();
 		}
-		if (hasSubTags(obj, objClass)) {
+		if (hasSubTags(obj, binding)) {
 			startTag(tag);
-			emitAttributes(obj, objClass);
-			emitSubTags(obj, objClass);
+			emitAttributes(obj, binding);
+			emitSubTags(obj, binding);
 			endTag();
 		} else {
 			startEmptyTag(tag);
-			emitAttributes(obj, objClass);
+			emitAttributes(obj, binding);
 		}
 	}
 
-	private static boolean hasSubTags(Object obj, Class<?> objClass) throws XMLStreamException {
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlTag.class, true)) {
-			try {
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
-				if (content != null) {
-					if (Collection.class.isAssignableFrom(field.getType())) {
-						if (!((Collection<?>) content).isEmpty()) {
-							return true;
-						}
-					} else {
+	private static boolean hasSubTags(Object obj, XmlBinding binding) throws XMLStreamException {
+		for (XmlBinding.SubTag subTag : binding.getSubTags()) {
+			Object content = subTag.get(obj);
+			if (content != null) {
+				if (subTag.mCollection) {
+					if (!((Collection<?>) content).isEmpty()) {
 						return true;
 					}
+				} else {
+					return true;
 				}
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
 			}
 		}
 		return false;
 	}
 
-	private void emitSubTags(Object obj, Class<?> objClass) throws XMLStreamException {
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlTag.class, true)) {
-			try {
-				Introspection.makeFieldAccessible(field);
-				Object content = field.get(obj);
-				if (content != null) {
-					XmlTag subTag = field.getAnnotation(XmlTag.class);
-					Class<?> type = field.getType();
-					if (Collection.class.isAssignableFrom(type)) {
-						Collection<?> collection = (Collection<?>) content;
-						if (!field.isAnnotationPresent(XmlNoSort.class)) {
-							Object[] data = collection.toArray();
+	private void emitSubTags(Object obj, XmlBinding binding) throws XMLStreamException {
+		for (XmlBinding.SubTag subTag : binding.getSubTags()) {
+			Object content = subTag.get(obj);
+			if (content != null) {
+				if (subTag.mCollection) {
+					Collection<?> collection = (Collection<?>) content;
+					if (subTag.mSorted) {
+						Object[] data = collection.toArray();
+						try {
 							Arrays.sort(data);
-							collection = Arrays.asList(data);
+						} catch (Exception exception) {
+							throw new XMLStreamException(exception);
+						}
+						collection = Arrays.asList(data);
+					}
+					if (!collection.isEmpty()) {
+						String wrapName = subTag.mName;
+						if (!wrapName.isEmpty()) {
+							startTag(wrapName);
 						}
-						if (!collection.isEmpty()) {
-							String wrapName = subTag.value();
-							if (!wrapName.isEmpty()) {
-								startTag(wrapName);
-							}
-							for (Object one : collection) {
-								add(one);
-							}
-							if (!wrapName.isEmpty()) {
-								endTag();
-							}
+						for (Object one : collection) {
+							add(one);
+						}
+						if (!wrapName.isEmpty()) {
+							endTag();
 						}
-					} else {
-						add(subTag.value(), content);
 					}
+				} else {
+					add(subTag.mName, content);
 				}
-			} catch (XMLStreamException exception) {
-				throw exception;
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
 			}
 		}
 	}
 
-	private void emitAttributes(Object obj, Class<?> objClass) throws XMLStreamException {
-		addAttributeNot(ATTR_VERSION, getVersionOfTag(objClass), 0);
-		for (Field field : Introspection.getFieldsWithAnnotation(objClass, XmlAttr.class, true)) {
-			String name = field.getAnnotation(XmlAttr.class).value();
-			try {
-				Introspection.makeFieldAccessible(field);
-				Class<?> type = field.getType();
-				if (type == boolean.class) {
-					addAttributeNot(name, field.getBoolean(obj), false);
-				} else if (type == int.class || type == short.class) {
-					addAttributeNot(name, field.getInt(obj), 0);
-				} else if (type == long.class) {
-					addAttributeNot(name, field.getLong(obj), 0);
-				} else if (type == double.class || type == float.class) {
-					addAttributeNot(name, field.getDouble(obj), 0.0);
-				} else {
-					Object content = field.get(obj);
+	private void emitAttributes(Object obj, XmlBinding binding) throws XMLStreamException {
+		addAttributeNot(ATTR_VERSION, binding.getVersion(), 0);
+		for (XmlBinding.Attribute attr : binding.getAttributes()) {
+			String name = attr.mName;
+			switch (attr.mKind) {
+				case XmlBinding.BOOLEAN:
+					addAttributeNot(name, attr.getBoolean(obj), false);
+					break;
+				case XmlBinding.INT:
+					addAttributeNot(name, attr.getInt(obj), 0);
+					break;
+				case XmlBinding.LONG:
+					addAttributeNot(name, attr.getLong(obj), 0);
+					break;
+				case XmlBinding.DOUBLE:
+					addAttributeNot(name, attr.getDouble(obj), 0.0);
+					break;
+				default:
+					Object content = attr.get(obj);
 					if (content != null) {
 						addAttributeNotEmpty(name, content.toString());
 					}
-				}
-			} catch (Exception exception) {
-				throw new XMLStreamException(exception);
+					break;
 			}
 		}
 	}
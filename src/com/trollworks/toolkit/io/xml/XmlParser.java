@@ -12,21 +12,14 @@
 package com.trollworks.toolkit.io.xml;
 
 import com.trollworks.toolkit.annotation.Localize;
-import com.trollworks.toolkit.annotation.XmlAttr;
-import com.trollworks.toolkit.annotation.XmlTag;
-import com.trollworks.toolkit.utility.Introspection;
 import com.trollworks.toolkit.utility.Localization;
 import com.trollworks.toolkit.utility.Numbers;
 
 import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import javax.xml.stream.Location;
@@ -86,12 +79,12 @@ public class XmlParser implements AutoCloseable {
 				context = new XmlParserContext(this);
 			}
 			String marker = getMarker();
-			Class<?> tagClass = obj.getClass();
+			XmlBinding binding = XmlBinding.get(obj.getClass());
 			int version = getIntegerAttribute(XmlGenerator.ATTR_VERSION, 0);
-			if (version > XmlGenerator.getVersionOfTag(tagClass)) {
+			if (version > binding.getVersion()) {
 				throw new XMLStreamException(String.format(TOO_NEW, getCurrentTag()), getLocation());
 			}
-			if (version < XmlGenerator.getMinimumLoadableVersionOfTag(tagClass)) {
+			if (version < binding.getMinimumVersion()) {
 				throw new XMLStreamException(String.format(TOO_OLD, getCurrentTag()), getLocation());
 			}
 			if (version != 0) {
@@ -102,58 +95,50 @@ public class XmlParser implements AutoCloseable {
 				unmatchedAttributes.add(getAttributeName(i));
 			}
 			unmatchedAttributes.remove(XmlGenerator.ATTR_VERSION);
-			for (Field field : Introspection.getFieldsWithAnnotation(tagClass, XmlAttr.class, true)) {
-				Introspection.makeFieldAccessible(field);
-				XmlAttr attr = field.getAnnotation(XmlAttr.class);
-				String name = attr.value();
+			for (XmlBinding.Attribute attr : binding.getAttributes()) {
+				String name = attr.mName;
 				unmatchedAttributes.remove(name);
-				Class<?> type = field.getType();
-				if (type == boolean.class) {
-					field.setBoolean(obj, isAttributeSet(name, false));
-				} else if (type == int.class) {
-					field.setInt(obj, getIntegerAttribute(name, 0));
-				} else if (type == long.class) {
-					field.setLong(obj, getLongAttribute(name, 0));
-				} else if (type == short.class) {
-					field.setShort(obj, (short) getIntegerAttribute(name, 0));
-				} else if (type == double.class) {
-					field.setDouble(obj, getDoubleAttribute(name, 0.0));
-				} else if (type == float.class) {
-					field.setFloat(obj, (float) getDoubleAttribute(name, 0.0));
-				} else if (type == char.class) {
-					String charStr = getAttribute(name);
-					field.setChar(obj, charStr == null || charStr.isEmpty() ? 0 : charStr.charAt(0));
-				} else if (type == String.class) {
-					field.set(obj, getAttribute(name, "")); //$NON-NLS-1$
-				} else {
-					Constructor<?> constructor = type.getConstructor(String.class);
-					field.set(obj, constructor.newInstance(getAttribute(name, ""))); //$NON-NLS-1$
+				switch (attr.mKind) {
+					case XmlBinding.BOOLEAN:
+						attr.setBoolean(obj, isAttributeSet(name, false));
+						break;
+					case XmlBinding.INT:
+						attr.setInt(obj, getIntegerAttribute(name, 0));
+						break;
+					case XmlBinding.LONG:
+						attr.setLong(obj, getLongAttribute(name, 0));
+						break;
+					case XmlBinding.DOUBLE:
+						attr.setDouble(obj, getDoubleAttribute(name, 0.0));
+						break;
+					case XmlBinding.CHAR:
+						String charStr = getAttribute(name);
+						attr.setChar(obj, charStr == null || charStr.isEmpty() ? 0 : charStr.charAt(0));
+						break;
+					default:
+						attr.setText(obj, getAttribute(name, "")); //$NON-NLS-1$
+						break;
 				}
 			}
 			if (obj instanceof XmlParserAssistant) {
 				((XmlParserAssistant) obj).xmlAttributesLoaded(context, unmatchedAttributes);
 			}
-			Map<String, Field> subTags = new HashMap<>();
-			for (Field field : Introspection.getFieldsWithAnnotation(tagClass, XmlTag.class, true)) {
-				subTags.put(field.getAnnotation(XmlTag.class).value(), field);
-			}
 			String tag;
 			while ((tag = nextTag(marker)) != null) {
-				Field field = subTags.get(tag);
-				if (field != null) {
-					Class<?> type = field.getType();
-					if (Collection.class.isAssignableFrom(type)) {
-						loadCollection(obj, context, field);
+				XmlBinding.SubTag subTag = binding.getSubTag(tag);
+				if (subTag != null) {
+					if (subTag.mCollection) {
+						loadCollection(obj, context, subTag);
 					} else {
 						Object fieldObj = null;
 						if (obj instanceof XmlParserAssistant) {
 							fieldObj = ((XmlParserAssistant) obj).createObjectForXmlTag(context, tag);
 						}
 						if (fieldObj == null) {
-							fieldObj = type.newInstance();
+							fieldObj = subTag.create();
 						}
 						loadTagIntoObject(fieldObj, context);
-						field.set(obj, fieldObj);
+						subTag.set(obj, fieldObj);
 					}
 				} else if (obj instanceof XmlParserAssistant) {
 					((XmlParserAssistant) obj).processUnmatchedXmlTag(context, tag);
@@ -175,7 +160,7 @@ public class XmlParser implements AutoCloseable {
 	}
 
 	@SuppressWarnings("unchecked")
-	private void loadCollection(Object obj, XmlParserContext context, Field field) throws XMLStreamException, IllegalArgumentException, IllegalAccessException, InstantiationException {
+	private void loadCollection(Object obj, XmlParserContext context, XmlBinding.SubTag subTag) throws XMLStreamException {
 		Object collection = null;
 		String marker = getMarker();
 		String tag;
@@ -189,17 +174,16 @@ public class XmlParser implements AutoCloseable {
 			}
 			loadTagIntoObject(fieldObj, context);
 			if (collection == null) {
-				collection = field.get(obj);
+				collection = subTag.get(obj);
 				if (collection == null) {
-					Class<?> type = field.getType();
-					if (type == List.class) {
+					if (subTag.mType == List.class) {
 						collection = new ArrayList<>();
-					} else if (type == Set.class) {
+					} else if (subTag.mType == Set.class) {
 						collection = new HashSet<>();
 					} else {
-						collection = type.newInstance();
+						collection = subTag.create();
 					}
-					field.set(obj, collection);
+					subTag.set(obj, collection);
 				}
 			}
 			if (collection instanceof Collection) {
@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.io.xml;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The top-level child tags (records) of an XML document, located by a quick pass over its bytes
+ * without full parsing. Each record can then be handed to its own {@link XmlParser}, possibly on
+ * another thread.
+ */
+public class XmlRecords {
+	private static final String	PARSE_ERROR_PREFIX	= "ParseError at [row,col]:[";	//$NON-NLS-1$
+	private static final String	MESSAGE_PREFIX		= "\nMessage: ";				//$NON-NLS-1$
+	private byte[]			mData;
+	private List<String>	mTags		= new ArrayList<>();
+	private TIntArrayList	mStarts		= new TIntArrayList();
+	private TIntArrayList	mLengths	= new TIntArrayList();
+
+	/**
+	 * Locates the records within an XML document. Only documents that can be safely split are
+	 * accepted: they must be encoded as UTF-8 (or US-ASCII), have no DOCTYPE (and therefore no
+	 * custom entities) and declare no namespaces on the root tag.
+	 *
+	 * @param data The document's bytes.
+	 * @return The {@link XmlRecords}, or <code>null</code> if the document cannot be split or is
+	 *         malformed. Only the parts of the document outside of the records are checked for
+	 *         well-formedness here, as the records themselves will be checked by their parsers. In that case, a normal {@link XmlParser} should be used, which will also
+	 *         report any errors properly.
+	 */
+	public static XmlRecords scan(byte[] data) {
+		XmlRecords records = new XmlRecords(data);
+		return records.scan() ? records : null;
+	}
+
+	private XmlRecords(byte[] data) {
+		mData = data;
+	}
+
+	/** @return The number of records. */
+	public int getCount() {
+		return mTags.size();
+	}
+
+	/**
+	 * @param index The index of the record.
+	 * @return The tag name of the record.
+	 */
+	public String getTag(int index) {
+		return mTags.get(index);
+	}
+
+	/**
+	 * @param index The index of the record.
+	 * @return An {@link InputStream} containing just the record, suitable for creating an
+	 *         {@link XmlParser} with.
+	 */
+	public InputStream getStream(int index) {
+		return new ByteArrayInputStream(mData, mStarts.get(index), mLengths.get(index));
+	}
+
+	/**
+	 * Translates an exception that occurred while parsing a record so that its location refers to
+	 * the whole document rather than just the record.
+	 *
+	 * @param index The index of the record.
+	 * @param exception The exception.
+	 * @return The translated exception, or the original one if it has no location.
+	 */
+	public XMLStreamException relocate(int index, XMLStreamException exception) {
+		Location location = exception.getLocation();
+		if (location == null) {
+			return exception;
+		}
+		int start = mStarts.get(index);
+		int pos = mData.length >= 3 && (mData[0] & 0xFF) == 0xEF && (mData[1] & 0xFF) == 0xBB && (mData[2] & 0xFF) == 0xBF ? 3 : 0;
+		int line = 1;
+		int column = 1;
+		int offset = 0;
+		for (; pos < start; pos++) {
+			int ch = mData[pos] & 0xFF;
+			if (ch == '\n' || ch == '\r' && (pos + 1 >= start || mData[pos + 1] != '\n')) {
+				line++;
+				column = 1;
+				offset++;
+			} else if (ch == '\r') {
+				// Part of a "\r\n" pair, which is read as a single line feed
+			} else if (ch < 0x80 || ch >= 0xC0) {
+				// Only the first byte of each UTF-8 sequence starts a character, and those of
+				// four bytes need a surrogate pair.
+				int size = ch >= 0xF0 ? 2 : 1;
+				column += size;
+				offset += size;
+			}
+		}
+		String message = exception.getMessage();
+		if (message != null && message.startsWith(PARSE_ERROR_PREFIX)) {
+			int messageStart = message.indexOf(MESSAGE_PREFIX);
+			if (messageStart >= 0) {
+				message = message.substring(messageStart + MESSAGE_PREFIX.length());
+			}
+		}
+		int recordLine = location.getLineNumber();
+		XMLStreamException relocated = new XMLStreamException(message, new DocumentLocation(location, line + recordLine - 1, recordLine == 1 ? column + location.getColumnNumber() - 1 : location.getColumnNumber(), offset + location.getCharacterOffset()), exception.getNestedException());
+		relocated.setStackTrace(exception.getStackTrace());
+		return relocated;
+	}
+
+	private boolean scan() {
+		int pos = 0;
+		int length = mData.length;
+		if (length >= 3 && (mData[0] & 0xFF) == 0xEF && (mData[1] & 0xFF) == 0xBB && (mData[2] & 0xFF) == 0xBF) {
+			pos = 3;
+		}
+		// Prolog
+		while (true) {
+			pos = skipWhitespace(pos);
+			if (pos >= length || mData[pos] != '<') {
+				return false;
+			}
+			if (startsWith(pos, "<?")) { //$NON-NLS-1$
+				int end = indexOf(pos + 2, "?>"); //$NON-NLS-1$
+				if (end < 0) {
+					return false;
+				}
+				if (startsWith(pos, "<?xml") && isWhitespace(pos + 5) && !hasCompatibleEncoding(pos + 5, end)) { //$NON-NLS-1$
+					return false;
+				}
+				pos = end + 2;
+			} else if (startsWith(pos, "<!--")) { //$NON-NLS-1$
+				pos = skipComment(pos);
+				if (pos < 0) {
+					return false;
+				}
+			} else if (pos + 1 < length && mData[pos + 1] == '!') {
+				// DOCTYPE, which may declare entities the records would need
+				return false;
+			} else {
+				break;
+			}
+		}
+		if (pos + 1 >= length || mData[pos + 1] == '!' || mData[pos + 1] == '/') {
+			return false;
+		}
+		// Root tag
+		int nameStart = pos + 1;
+		int nameEnd = getNameEnd(nameStart);
+		int end = skipStartTag(pos);
+		if (end < 0) {
+			return false;
+		}
+		if (indexOf(pos, end, "xmlns") >= 0) { //$NON-NLS-1$
+			return false;
+		}
+		if (mData[end - 2] == '/') {
+			return true;
+		}
+		pos = end;
+		// Records
+		while (true) {
+			pos = skipText(pos);
+			if (pos < 0 || pos + 1 >= length) {
+				return false;
+			}
+			switch (mData[pos + 1]) {
+				case '/':
+					return isEndTag(pos + 2, nameStart, nameEnd);
+				case '?':
+					end = indexOf(pos + 2, "?>"); //$NON-NLS-1$
+					pos = end < 0 ? -1 : end + 2;
+					break;
+				case '!':
+					pos = skipMarkup(pos);
+					break;
+				default:
+					end = skipElement(pos);
+					if (end < 0) {
+						return false;
+					}
+					mTags.add(getName(pos + 1));
+					mStarts.add(pos);
+					mLengths.add(end - pos);
+					pos = end;
+					break;
+			}
+			if (pos < 0) {
+				return false;
+			}
+		}
+	}
+
+	private int skipElement(int pos) {
+		int depth = 0;
+		int length = mData.length;
+		do {
+			while (pos < length && mData[pos] != '<') {
+				pos++;
+			}
+			if (pos + 1 >= length) {
+				return -1;
+			}
+			switch (mData[pos + 1]) {
+				case '/':
+					pos = indexOf(pos + 2, ">"); //$NON-NLS-1$
+					if (pos < 0) {
+						return -1;
+					}
+					pos++;
+					depth--;
+					break;
+				case '?':
+					pos = indexOf(pos + 2, "?>"); //$NON-NLS-1$
+					if (pos < 0) {
+						return -1;
+					}
+					pos += 2;
+					break;
+				case '!':
+					pos = skipMarkup(pos);
+					if (pos < 0) {
+						return -1;
+					}
+					break;
+				default:
+					pos = skipStartTag(pos);
+					if (pos < 0) {
+						return -1;
+					}
+					if (mData[pos - 2] != '/') {
+						depth++;
+					}
+					break;
+			}
+		} while (depth > 0);
+		return pos;
+	}
+
+	private int skipMarkup(int pos) {
+		if (startsWith(pos, "<!--")) { //$NON-NLS-1$
+			return skipComment(pos);
+		}
+		if (startsWith(pos, "<![CDATA[")) { //$NON-NLS-1$
+			int end = indexOf(pos + 9, "]]>"); //$NON-NLS-1$
+			return end < 0 ? -1 : end + 3;
+		}
+		return -1;
+	}
+
+	private int skipComment(int pos) {
+		int end = indexOf(pos + 4, "-->"); //$NON-NLS-1$
+		return end < 0 ? -1 : end + 3;
+	}
+
+	private int skipStartTag(int pos) {
+		int length = mData.length;
+		byte quote = 0;
+		for (pos++; pos < length; pos++) {
+			byte ch = mData[pos];
+			if (quote != 0) {
+				if (ch == quote) {
+					quote = 0;
+				}
+			} else if (ch == '"' || ch == '\'') {
+				quote = ch;
+			} else if (ch == '>') {
+				return pos + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Skips character data outside of any markup, checking it contains nothing a parser would
+	 * reject.
+	 *
+	 * @param pos The position to start at.
+	 * @return The position of the next '&lt;', or <code>-1</code> if the text is malformed or the
+	 *         data ends first.
+	 */
+	private int skipText(int pos) {
+		int length = mData.length;
+		while (pos < length) {
+			int ch = mData[pos] & 0xFF;
+			if (ch == '<') {
+				return pos;
+			}
+			if (ch == '&') {
+				pos = skipReference(pos);
+				if (pos < 0) {
+					return -1;
+				}
+			} else if (ch < 0x20 && ch != '\t' && ch != '\n' && ch != '\r' || ch == '>' && mData[pos - 1] == ']' && mData[pos - 2] == ']') {
+				return -1;
+			} else {
+				pos++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * As there is no DOCTYPE, only the predefined entities and character references are valid.
+	 *
+	 * @param pos The position of the '&amp;'.
+	 * @return The position after the reference, or <code>-1</code> if it is not valid.
+	 */
+	private int skipReference(int pos) {
+		int length = mData.length;
+		int end = pos + 1;
+		while (end < length && (Character.isLetterOrDigit(mData[end]) || mData[end] == '#')) {
+			end++;
+		}
+		if (end >= length || mData[end] != ';' || end == pos + 1) {
+			return -1;
+		}
+		String name = new String(mData, pos + 1, end - (pos + 1), StandardCharsets.US_ASCII);
+		if (name.charAt(0) == '#') {
+			boolean hex = name.length() > 1 && name.charAt(1) == 'x';
+			int value = 0;
+			int i = hex ? 2 : 1;
+			if (i == name.length()) {
+				return -1;
+			}
+			for (; i < name.length(); i++) {
+				int digit = Character.digit(name.charAt(i), hex ? 16 : 10);
+				if (digit < 0) {
+					return -1;
+				}
+				value = value * (hex ? 16 : 10) + digit;
+				if (value > Character.MAX_CODE_POINT) {
+					return -1;
+				}
+			}
+			if (!isValidCharacter(value)) {
+				return -1;
+			}
+		} else if (!"lt".equals(name) && !"gt".equals(name) && !"amp".equals(name) && !"quot".equals(name) && !"apos".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+			return -1;
+		}
+		return end + 1;
+	}
+
+	private static boolean isValidCharacter(int ch) {
+		return ch == '\t' || ch == '\n' || ch == '\r' || ch >= 0x20 && ch <= 0xD7FF || ch >= 0xE000 && ch <= 0xFFFD || ch >= 0x10000 && ch <= Character.MAX_CODE_POINT;
+	}
+
+	/**
+	 * @param pos The position just after the "&lt;/".
+	 * @param nameStart The position of the root tag's name.
+	 * @param nameEnd The position after the root tag's name.
+	 * @return Whether an end tag for the root tag is at the position.
+	 */
+	private boolean isEndTag(int pos, int nameStart, int nameEnd) {
+		int nameLength = nameEnd - nameStart;
+		if (pos + nameLength > mData.length) {
+			return false;
+		}
+		for (int i = 0; i < nameLength; i++) {
+			if (mData[pos + i] != mData[nameStart + i]) {
+				return false;
+			}
+		}
+		pos = skipWhitespace(pos + nameLength);
+		return pos < mData.length && mData[pos] == '>';
+	}
+
+	private int getNameEnd(int pos) {
+		while (pos < mData.length && !isWhitespace(pos) && mData[pos] != '/' && mData[pos] != '>') {
+			pos++;
+		}
+		return pos;
+	}
+
+	private String getName(int pos) {
+		int end = getNameEnd(pos);
+		int colon = indexOf(pos, end, ":"); //$NON-NLS-1$
+		if (colon >= 0) {
+			pos = colon + 1;
+		}
+		return new String(mData, pos, end - pos, StandardCharsets.UTF_8);
+	}
+
+	private boolean hasCompatibleEncoding(int pos, int end) {
+		int attr = indexOf(pos, end, "encoding"); //$NON-NLS-1$
+		if (attr < 0) {
+			return true;
+		}
+		pos = attr + 8;
+		while (pos < end && mData[pos] != '"' && mData[pos] != '\'') {
+			pos++;
+		}
+		int close = pos + 1;
+		while (close < end && mData[close] != mData[pos]) {
+			close++;
+		}
+		if (close >= end) {
+			return false;
+		}
+		String encoding = new String(mData, pos + 1, close - (pos + 1), StandardCharsets.US_ASCII);
+		return "UTF-8".equalsIgnoreCase(encoding) || "UTF8".equalsIgnoreCase(encoding) || "US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	private int skipWhitespace(int pos) {
+		while (pos < mData.length && isWhitespace(pos)) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private boolean isWhitespace(int pos) {
+		if (pos < mData.length) {
+			byte ch = mData[pos];
+			return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+		}
+		return false;
+	}
+
+	private boolean startsWith(int pos, String text) {
+		int length = text.length();
+		if (pos + length > mData.length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (mData[pos + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int indexOf(int pos, String text) {
+		return indexOf(pos, mData.length, text);
+	}
+
+	private int indexOf(int pos, int end, String text) {
+		end -= text.length();
+		for (; pos <= end; pos++) {
+			if (startsWith(pos, text)) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private static final class DocumentLocation implements Location {
+		private Location	mLocation;
+		private int			mLine;
+		private int			mColumn;
+		private int			mOffset;
+
+		DocumentLocation(Location location, int line, int column, int offset) {
+			mLocation = location;
+			mLine = line;
+			mColumn = column;
+			mOffset = offset;
+		}
+
+		@Override
+		public int getLineNumber() {
+			return mLine;
+		}
+
+		@Override
+		public int getColumnNumber() {
+			return mColumn;
+		}
+
+		@Override
+		public int getCharacterOffset() {
+			return mOffset;
+		}
+
+		@Override
+		public String getPublicId() {
+			return mLocation.getPublicId();
+		}
+
+		@Override
+		public String getSystemId() {
+			return mLocation.getSystemId();
+		}
+	}
+}
@@ -25,7 +25,7 @@ import java.util.StringTokenizer;
 
 import javax.swing.SwingConstants;
 
-/** General text drawing utilities. */
+/** General text drawing utilities. Measurement may be done from any thread. */
 public class TextDrawing {
 	private static HashMap<Font, TIntIntHashMap>	WIDTH_MAP	= new HashMap<>();
 	private static TObjectIntHashMap<Font>			HEIGHT_MAP	= new TObjectIntHashMap<>();
@@ -43,13 +43,18 @@ public class TextDrawing {
 	}
 
 	private static int getCharWidth(Font font, char ch, TIntIntHashMap map) {
-		int width = map.get(ch);
+		int width;
+		synchronized (map) {
+			width = map.get(ch);
+		}
 		if (width == 0) {
 			width = Fonts.getFontMetrics(font).charWidth(ch);
 			if (width == 0) {
 				width = 1;
 			}
-			map.put(ch, width);
+			synchronized (map) {
+				map.put(ch, width);
+			}
 		}
 		return width;
 	}
@@ -70,16 +75,18 @@ public class TextDrawing {
 	}
 
 	private static TIntIntHashMap getWidthMap(Font font) {
-		TIntIntHashMap map = WIDTH_MAP.get(font);
-		if (map == null) {
-			map = new TIntIntHashMap();
-			WIDTH_MAP.put(font, map);
-			FontMetrics fm = Fonts.getFontMetrics(font);
-			for (int i = 32; i < 127; i++) {
-				map.put(i, fm.charWidth((char) i));
+		synchronized (WIDTH_MAP) {
+			TIntIntHashMap map = WIDTH_MAP.get(font);
+			if (map == null) {
+				map = new TIntIntHashMap();
+				FontMetrics fm = Fonts.getFontMetrics(font);
+				for (int i = 32; i < 127; i++) {
+					map.put(i, fm.charWidth((char) i));
+				}
+				WIDTH_MAP.put(font, map);
 			}
+			return map;
 		}
-		return map;
 	}
 
 	/**
@@ -192,12 +199,17 @@ public class TextDrawing {
 	}
 
 	public static final int getFontHeight(Font font) {
-		int height = HEIGHT_MAP.get(font);
+		int height;
+		synchronized (HEIGHT_MAP) {
+			height = HEIGHT_MAP.get(font);
+		}
 		if (height == 0) {
 			FontMetrics fm = Fonts.getFontMetrics(font);
 			// Don't use fm.getHeight(), as the PC adds too much dead space
 			height = fm.getAscent() + fm.getDescent();
-			HEIGHT_MAP.put(font, height);
+			synchronized (HEIGHT_MAP) {
+				HEIGHT_MAP.put(font, height);
+			}
 		}
 		return height;
 	}
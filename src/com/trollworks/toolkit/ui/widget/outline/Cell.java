@@ -56,6 +56,20 @@ public interface Cell {
 	 */
 	public int compare(Column column, Row one, Row two);
 
+	/**
+	 * Extracts a key that orders rows the same way {@link #compare(Column, Row, Row)} does, so that
+	 * sorting need only consult the row once rather than on every comparison. Keys may be compared
+	 * on other threads, so must be immutable.
+	 *
+	 * @param column The column to extract the key for.
+	 * @param row The row to extract the key from.
+	 * @return The sort key, or <code>null</code> if {@link #compare(Column, Row, Row)} should be
+	 *         used instead.
+	 */
+	public default Comparable<?> getSortKey(Column column, Row row) {
+		return null;
+	}
+
 	/**
 	 * @param event The {@link MouseEvent} that caused the tooltip to be shown.
 	 * @param bounds The bounds of the cell.
@@ -79,6 +93,18 @@ public interface Cell {
 	 */
 	public boolean participatesInDynamicRowLayout();
 
+	/**
+	 * @return <code>true</code> if {@link #getPreferredHeight(Row, Column)} may be called from a
+	 *         background thread while the {@link Outline} remains usable. The row may be removed
+	 *         from the outline and the column resized while it is being measured. Cells that
+	 *         consult anything owned by the event dispatch thread, such as fonts, font metrics or
+	 *         the row's owner, must return <code>false</code>, the default. Those are measured on
+	 *         the event dispatch thread instead, a slice at a time.
+	 */
+	public default boolean canMeasureInBackground() {
+		return false;
+	}
+
 	/**
 	 * Called when a mouse click has occurred on the cell.
 	 *
@@ -238,12 +238,25 @@ public class Column implements Transferable {
 
 	/**
 	 * @param outline The outline using this column.
-	 * @return The preferred width of this column.
+	 * @return The preferred width of this column. While the rows are supplied by a
+	 *         {@link VirtualRowSource}, its hint is used if it has one, otherwise only the rows near
+	 *         those most recently displayed are measured.
 	 */
 	public int getPreferredWidth(Outline outline) {
 		int preferredWidth = getPreferredHeaderWidth();
 		OutlineModel model = outline.getModel();
-		for (Row row : model.getRows()) {
+		VirtualRowSource source = model.getRowSource();
+		if (source != null) {
+			int width = source.getPreferredWidth(this);
+			if (width >= 0) {
+				// Rows supplied by a source are all top-level
+				if (model.showIndent() && model.isFirstColumn(this)) {
+					width += model.getIndentWidth();
+				}
+				return Math.max(width, preferredWidth);
+			}
+		}
+		for (Row row : model.getMeasurableRows()) {
 			int width = getRowCell(row).getPreferredWidth(row, this) + model.getIndentWidth(row, this);
 			if (width > preferredWidth) {
 				preferredWidth = width;
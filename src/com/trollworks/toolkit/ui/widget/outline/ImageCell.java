@@ -11,8 +11,10 @@
 
 package com.trollworks.toolkit.ui.widget.outline;
 
+import com.trollworks.toolkit.collections.KeyedSorter;
 import com.trollworks.toolkit.ui.image.StdImage;
 import com.trollworks.toolkit.utility.NumericComparator;
+import com.trollworks.toolkit.utility.NumericSortKey;
 
 import java.awt.Cursor;
 import java.awt.Graphics;
@@ -23,8 +25,9 @@ import javax.swing.SwingConstants;
 
 /** Represents image cells in a {@link Outline}. */
 public class ImageCell implements Cell {
-	private int	mHAlignment;
-	private int	mVAlignment;
+	private static final ClassValue<Boolean>	BASE_COMPARE	= KeyedSorter.createInheritanceCheck(ImageCell.class, "compare", Column.class, Row.class, Row.class); //$NON-NLS-1$
+	private int									mHAlignment;
+	private int									mVAlignment;
 
 	/** Create a new image cell renderer. */
 	public ImageCell() {
@@ -50,6 +53,18 @@ public class ImageCell implements Cell {
 		return NumericComparator.caselessCompareStrings(oneText != null ? oneText : "", twoText != null ? twoText : ""); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	/**
+	 * Supplies a key only while {@link #compare(Column, Row, Row)} has not been overridden, so
+	 * sub-classes that change the ordering fall back to it unless they override this as well.
+	 */
+	@Override
+	public Comparable<?> getSortKey(Column column, Row row) {
+		if (!BASE_COMPARE.get(getClass()).booleanValue()) {
+			return null;
+		}
+		return new NumericSortKey(row.getDataAsText(column));
+	}
+
 	/**
 	 * @param row The row to use.
 	 * @param column The column to use.
@@ -27,6 +27,7 @@ import com.trollworks.toolkit.ui.widget.dock.Dock;
 import com.trollworks.toolkit.ui.widget.dock.DockableTransferable;
 import com.trollworks.toolkit.utility.Geometry;
 import com.trollworks.toolkit.utility.Localization;
+import com.trollworks.toolkit.utility.task.Tasks;
 import com.trollworks.toolkit.utility.text.Numbers;
 
 import java.awt.AlphaComposite;
@@ -34,6 +35,7 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
@@ -61,6 +63,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
@@ -101,6 +104,10 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	public static final String		CMD_TOGGLE_COLUMN_VISIBILITY		= "Outline.ToggleColumnVisibility";	//$NON-NLS-1$
 	private static final int		DIVIDER_HIT_SLOP					= 2;
 	private static final int		AUTO_SCROLL_MARGIN					= 10;
+	private static final int		BACKGROUND_ROW_HEIGHT_MINIMUM		= 1024;
+	private static final int		ROW_HEIGHT_CHUNK_SIZE				= 4096;
+	private static final int		ROW_HEIGHT_SLICE_SIZE				= 64;
+	private static final long		ROW_HEIGHT_SLICE_NANOS				= 8000000L;
 	private OutlineModel			mModel;
 	/** The header panel. */
 	protected OutlineHeader			mHeaderPanel;
@@ -140,6 +147,12 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	private boolean					mUserSortable;
 	private Deletable				mDeletableProxy;
 	private Dock					mAlternateDragDestination;
+	private RowHeightIndex			mRowHeightIndex;
+	private int						mRowHeightIndexVersion;
+	private boolean					mRowHeightIndexStale;
+	private RowHeightCache			mRowHeightCache;
+	private volatile int			mRowHeightGeneration;
+	private boolean					mRowHeightUpdatePending;
 
 	/** Creates a new outline. */
 	public Outline() {
@@ -193,6 +206,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		mRightTriangleRoll = StdImage.RIGHT_TRIANGLE_ROLL;
 		mDragChildInsertIndex = -1;
 		mLastRow = -1;
+		mRowHeightCache = new RowHeightCache();
 		mModel.setShowIndent(showIndent);
 		mModel.setIndentWidth(mDownTriangle.getWidth());
 
@@ -248,9 +262,13 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		mProxies.clear();
 	}
 
-	/** @return Whether rows will resize vertically when their content changes. */
+	/**
+	 * @return Whether rows will resize vertically when their content changes. Always
+	 *         <code>false</code> while the model's rows come from a {@link VirtualRowSource}, which
+	 *         supplies their heights.
+	 */
 	public boolean dynamicRowHeight() {
-		return mDynamicRowHeight;
+		return mDynamicRowHeight && !mModel.isVirtual();
 	}
 
 	/** @param dynamic Sets whether rows will resize vertically when their content changes. */
@@ -281,6 +299,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	/** @param draw Whether to draw the row dividers or not. */
 	public void setDrawRowDividers(boolean draw) {
 		mDrawRowDividers = draw;
+		mRowHeightIndexStale = true;
 	}
 
 	/** @return Whether to draw the column dividers or not. */
@@ -320,17 +339,28 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		}
 
 		boolean needHeightAdjust = false;
-		for (int i = getFirstRowToDisplay(); i <= getLastRowToDisplay(); i++) {
-			Row row = mModel.getRowAtIndex(i);
-			if (!mModel.isRowFiltered(row)) {
-				int height = row.getHeight();
-				if (height == -1) {
-					height = row.getPreferredHeight(columns);
-					row.setHeight(height);
-				}
-				size.height += height + (mDrawRowDividers ? 1 : 0);
+		if (mModel.isVirtual()) {
+			// Only the rows being displayed should be created, so rely on the supplied heights
+			int first = getFirstRowToDisplay();
+			int last = getLastRowToDisplay();
+			if (first <= last) {
+				RowHeightIndex heights = getRowHeightIndex();
+				size.height += heights.getOffset(last + 1) - heights.getOffset(first);
 				needHeightAdjust = true;
 			}
+		} else {
+			for (int i = getFirstRowToDisplay(); i <= getLastRowToDisplay(); i++) {
+				Row row = mModel.getRowAtIndex(i);
+				if (!mModel.isRowFiltered(row)) {
+					int height = row.getHeight();
+					if (height == -1) {
+						height = row.getPreferredHeight(columns);
+						row.setHeight(height);
+					}
+					size.height += height + (mDrawRowDividers ? 1 : 0);
+					needHeightAdjust = true;
+				}
+			}
 		}
 		if (mDrawRowDividers && needHeightAdjust) {
 			size.height--;
@@ -410,6 +440,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	@Override
 	protected void paintComponent(Graphics gc) {
 		super.paintComponent(GraphicsUtilities.prepare(gc));
+		prefetchRows(gc.getClipBounds());
 		drawBackground(gc);
 
 		Shape origClip = gc.getClip();
@@ -422,6 +453,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		boolean isPrinting = PrintUtilities.isPrinting(this);
 		boolean showIndent = showIndent();
 
+		first = findRowIndex(clip.y, true);
+		bounds.y = getRowIndexStart(first);
 		for (int rowIndex = first; rowIndex <= last; rowIndex++) {
 			Row row = mModel.getRowAtIndex(rowIndex);
 			if (!mModel.isRowFiltered(row)) {
@@ -500,6 +533,13 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		}
 	}
 
+	private void prefetchRows(Rectangle clip) {
+		if (mModel.isVirtual()) {
+			int last = getLastRowToDisplay();
+			mModel.prefetchRows(Math.min(findRowIndex(clip.y, true), last), Math.min(findRowIndex(clip.y + clip.height, true), last));
+		}
+	}
+
 	private void drawBackground(Graphics gc) {
 		super.paintComponent(gc);
 
@@ -513,6 +553,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		int last = getLastRowToDisplay();
 		boolean isPrinting = PrintUtilities.isPrinting(this);
 
+		first = findRowIndex(clip.y, true);
+		bounds.y = getRowIndexStart(first);
 		for (int rowIndex = first; rowIndex <= last; rowIndex++) {
 			Row row = mModel.getRowAtIndex(rowIndex);
 			if (!mModel.isRowFiltered(row)) {
@@ -648,24 +690,16 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		Insets insets = getInsets();
 		Rectangle bounds = new Rectangle(insets.left, insets.top, getWidth() - (insets.left + insets.right), getHeight() - (insets.top + insets.bottom));
 		int last = getLastRowToDisplay();
-		List<Column> columns = mModel.getColumns();
-		for (int i = getFirstRowToDisplay(); i <= last; i++) {
-			Row row = mModel.getRowAtIndex(i);
-			if (!mModel.isRowFiltered(row)) {
-				int height = row.getHeight();
-				if (height == -1) {
-					height = row.getPreferredHeight(columns);
-					row.setHeight(height);
-				}
-				if (mDrawRowDividers) {
-					height++;
-				}
-				if (mModel.isRowSelected(row)) {
-					bounds.height = height;
-					repaint(bounds);
-					area = Geometry.union(area, bounds);
-				}
-				bounds.y += height;
+		Selection selection = mModel.getSelection();
+		RowHeightIndex heights = getRowHeightIndex();
+		// Only visit the selected rows, locating each through the height index. Filtered rows
+		// occupy no space.
+		for (int i = selection.nextSelectedIndex(getFirstRowToDisplay()); i != -1 && i <= last; i = selection.nextSelectedIndex(i + 1)) {
+			bounds.height = heights.getSpace(i);
+			if (bounds.height > 0) {
+				bounds.y = getRowIndexStart(i);
+				repaint(bounds);
+				area = Geometry.union(area, bounds);
 			}
 		}
 		return area;
@@ -968,19 +1002,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @return The row, or <code>null</code> if none is found.
 	 */
 	public Row overRow(int y) {
-		List<Row> rows = mModel.getRows();
-		int pos = getInsets().top;
-		int last = getLastRowToDisplay();
-		for (int i = getFirstRowToDisplay(); i <= last; i++) {
-			Row row = rows.get(i);
-			if (!mModel.isRowFiltered(row)) {
-				pos += row.getHeight() + (mDrawRowDividers ? 1 : 0);
-				if (y < pos) {
-					return row;
-				}
-			}
-		}
-		return null;
+		int index = overRowIndex(y);
+		return index != -1 ? mModel.getRowAtIndex(index) : null;
 	}
 
 	/**
@@ -990,19 +1013,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @return The row index, or <code>-1</code> if none is found.
 	 */
 	public int overRowIndex(int y) {
-		List<Row> rows = mModel.getRows();
-		int pos = getInsets().top;
-		int last = getLastRowToDisplay();
-		for (int i = getFirstRowToDisplay(); i <= last; i++) {
-			Row row = rows.get(i);
-			if (!mModel.isRowFiltered(row)) {
-				pos += row.getHeight() + (mDrawRowDividers ? 1 : 0);
-				if (y < pos) {
-					return i;
-				}
-			}
-		}
-		return -1;
+		int index = findRowIndex(y, false);
+		return index <= getLastRowToDisplay() ? index : -1;
 	}
 
 	/**
@@ -1011,18 +1023,17 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 *         .
 	 */
 	public int getRowInsertionIndex(int y) {
-		List<Row> rows = mModel.getRows();
-		int pos = getInsets().top;
 		int last = getLastRowToDisplay();
-		for (int i = getFirstRowToDisplay(); i <= last; i++) {
-			Row row = rows.get(i);
-			if (!mModel.isRowFiltered(row)) {
-				int height = row.getHeight();
-				int tmp = pos + height / 2;
-				if (y <= tmp) {
-					return i;
-				}
-				pos += height + (mDrawRowDividers ? 1 : 0);
+		int index = findRowIndex(y, true);
+		if (index <= last) {
+			if (y <= getRowIndexStart(index) + mModel.getRowAtIndex(index).getHeight() / 2) {
+				return index;
+			}
+			// The next unfiltered row must start at or below y
+			RowHeightIndex heights = getRowHeightIndex();
+			index = heights.find(heights.getOffset(index + 1));
+			if (index <= last) {
+				return index;
 			}
 		}
 		return last;
@@ -1033,13 +1044,11 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @return The starting y-coordinate for the specified row index.
 	 */
 	public int getRowIndexStart(int index) {
-		List<Row> rows = mModel.getRows();
 		int pos = getInsets().top;
-		for (int i = getFirstRowToDisplay(); i < index; i++) {
-			Row row = rows.get(i);
-			if (!mModel.isRowFiltered(row)) {
-				pos += row.getHeight() + (mDrawRowDividers ? 1 : 0);
-			}
+		int first = getFirstRowToDisplay();
+		if (index > first) {
+			RowHeightIndex heights = getRowHeightIndex();
+			pos += heights.getOffset(index) - heights.getOffset(first);
 		}
 		return pos;
 	}
@@ -1049,19 +1058,44 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @return The starting y-coordinate for the specified row.
 	 */
 	public int getRowStart(Row row) {
-		List<Row> rows = mModel.getRows();
-		int pos = getInsets().top;
+		int index = mModel.getIndexOfRow(row);
 		int last = getLastRowToDisplay();
-		for (int i = getFirstRowToDisplay(); i <= last; i++) {
-			Row oneRow = rows.get(i);
-			if (row == oneRow) {
-				break;
-			}
-			if (!mModel.isRowFiltered(oneRow)) {
-				pos += oneRow.getHeight() + (mDrawRowDividers ? 1 : 0);
-			}
+		if (index < getFirstRowToDisplay() || index > last) {
+			index = last + 1;
 		}
-		return pos;
+		return getRowIndexStart(index);
+	}
+
+	/**
+	 * @param y The coordinate to check.
+	 * @param includeEnd Whether a row whose space (including its divider) ends exactly at the
+	 *            coordinate should be found.
+	 * @return The index of the first unfiltered row, starting from {@link #getFirstRowToDisplay()},
+	 *         whose space extends beyond the coordinate. May be past
+	 *         {@link #getLastRowToDisplay()} if there is none.
+	 */
+	private int findRowIndex(int y, boolean includeEnd) {
+		RowHeightIndex heights = getRowHeightIndex();
+		int base = heights.getOffset(getFirstRowToDisplay());
+		int offset = y - getInsets().top + base;
+		if (includeEnd) {
+			offset--;
+		}
+		return heights.find(Math.max(offset, base));
+	}
+
+	private RowHeightIndex getRowHeightIndex() {
+		int version = mModel.getLayoutVersion();
+		if (mRowHeightIndex == null) {
+			mRowHeightIndex = new RowHeightIndex();
+			mRowHeightIndexStale = true;
+		}
+		if (mRowHeightIndexStale || mRowHeightIndexVersion != version) {
+			mRowHeightIndex.rebuild(mModel, mDrawRowDividers ? 1 : 0);
+			mRowHeightIndexVersion = version;
+			mRowHeightIndexStale = false;
+		}
+		return mRowHeightIndex;
 	}
 
 	/**
@@ -1385,7 +1419,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 						method |= Selection.MOUSE_FLIP;
 					}
 					mSelectOnMouseUp = mModel.getSelection().selectByMouse(rowIndexHit, method);
-					reapplyRowFilter();
+					mModel.deselectFilteredRows();
 					if (event.isPopupTrigger()) {
 						mSelectOnMouseUp = -1;
 						showContextMenu(event);
@@ -1697,9 +1731,12 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		mAllowColumnDrag = allow;
 	}
 
-	/** @return <code>true</code> if row dragging is allowed. */
+	/**
+	 * @return <code>true</code> if row dragging is allowed. Always <code>false</code> while the
+	 *         model's rows come from a {@link VirtualRowSource}, as they cannot be moved.
+	 */
 	public boolean allowRowDrag() {
-		return mAllowRowDrag;
+		return mAllowRowDrag && !mModel.isVirtual();
 	}
 
 	/** @param allow Whether row dragging is on or off. */
@@ -1719,6 +1756,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 
 	/** Revalidates the view and header panel if it exists. */
 	public void revalidateView() {
+		mRowHeightIndexStale = true;
 		revalidate();
 		if (mHeaderPanel != null) {
 			mHeaderPanel.revalidate();
@@ -2057,7 +2095,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @return <code>true</code> if the contents of the drag can be dropped into this outline.
 	 */
 	protected boolean isRowDragAcceptable(DropTargetDragEvent dtde, Row[] rows) {
-		return rows.length > 0 && mModel.getRows().contains(rows[0]);
+		return rows.length > 0 && mModel.getIndexOfRow(rows[0]) != -1;
 	}
 
 	@Override
@@ -2182,7 +2220,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		int y = getInsets().top;
 		int last = getLastRowToDisplay();
 		Row[] dragRows = mModel.getDragRows();
-		boolean isFromSelf = dragRows != null && dragRows.length > 0 && mModel.getRows().contains(dragRows[0]);
+		boolean isFromSelf = dragRows != null && dragRows.length > 0 && mModel.getIndexOfRow(dragRows[0]) != -1;
 		Rectangle bounds;
 		int indent;
 		Row row;
@@ -2445,7 +2483,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		if (mDragChildInsertIndex != -1) {
 			StateEdit edit = new StateEdit(mModel, ROW_DROP_UNDO_TITLE);
 			Row[] dragRows = mModel.getDragRows();
-			boolean isFromSelf = dragRows != null && dragRows.length > 0 && mModel.getRows().contains(dragRows[0]);
+			boolean isFromSelf = dragRows != null && dragRows.length > 0 && mModel.getIndexOfRow(dragRows[0]) != -1;
 			int count = mModel.getRowCount();
 			ArrayList<Row> rows = new ArrayList<>(count);
 			ArrayList<Row> selection = new ArrayList<>(count);
@@ -2519,6 +2557,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 			modelRows = mModel.getRows();
 			modelRows.clear();
 			modelRows.addAll(rows);
+			mModel.rowLayoutChanged();
 			mModel.getSelection().setSize(modelRows.size());
 			setSize(getPreferredSize());
 			mModel.select(needSelected, false);
@@ -2588,7 +2627,11 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	}
 
 	/**
-	 * Causes all row heights to be recalculated, if necessary.
+	 * Causes all row heights to be recalculated, if necessary. Only the cells in the specified
+	 * columns are re-measured. For large outlines, the rows currently in view are updated right
+	 * away and the rest are updated a slice at a time, keeping their previous heights as an
+	 * estimate in the meantime. The slices are measured on a background thread if all the cells
+	 * allow it, otherwise on the event dispatch thread, between other events.
 	 *
 	 * @param columns The columns that had their width altered.
 	 */
@@ -2596,7 +2639,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		if (dynamicRowHeight()) {
 			for (Column column : columns) {
 				if (column.getRowCell(null).participatesInDynamicRowLayout()) {
-					updateRowHeights();
+					updateRowHeightsForWidths();
 					break;
 				}
 			}
@@ -2612,7 +2655,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 
 	/** Causes all row heights to be recalculated. */
 	public void updateRowHeights() {
-		updateRowHeights(mModel.getRows());
+		mRowHeightCache.clear();
+		updateRowHeights(mModel.getRows(), false);
 	}
 
 	/**
@@ -2621,12 +2665,26 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 	 * @param rows The rows to update.
 	 */
 	public void updateRowHeights(Collection<? extends Row> rows) {
+		updateRowHeights(rows, true);
+	}
+
+	private void updateRowHeights(Collection<? extends Row> rows, boolean forget) {
+		// Any measurements still being made in the background may predate the changes that
+		// prompted this update, so start them over once it is done.
+		boolean restart = mRowHeightUpdatePending;
+		mRowHeightGeneration++;
+		mRowHeightUpdatePending = false;
+
 		List<Column> columns = mModel.getColumns();
+		int[] widths = getColumnWidths(columns);
 		boolean needRevalidate = false;
 
 		for (Row row : rows) {
+			if (forget) {
+				mRowHeightCache.remove(row);
+			}
 			int height = row.getHeight();
-			int prefHeight = row.getPreferredHeight(columns);
+			int prefHeight = mRowHeightCache.getPreferredHeight(row, columns, widths);
 			if (height != prefHeight) {
 				row.setHeight(prefHeight);
 				needRevalidate = true;
@@ -2636,6 +2694,163 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 			contentSizeMayHaveChanged();
 			revalidateView();
 		}
+		if (restart) {
+			updateRowHeightsForWidths();
+		}
+	}
+
+	private static int[] getColumnWidths(List<Column> columns) {
+		int count = columns.size();
+		int[] widths = new int[count];
+		for (int i = 0; i < count; i++) {
+			widths[i] = columns.get(i).getWidth();
+		}
+		return widths;
+	}
+
+	private void updateRowHeightsForWidths() {
+		int generation = ++mRowHeightGeneration;
+		List<Column> columns = new ArrayList<>(mModel.getColumns());
+		int[] widths = getColumnWidths(columns);
+		List<Row> rows = new ArrayList<>(mModel.getRows());
+		int count = rows.size();
+		boolean background = true;
+		for (Column column : columns) {
+			if (!column.getRowCell(null).canMeasureInBackground()) {
+				background = false;
+				break;
+			}
+		}
+		mRowHeightUpdatePending = false;
+		if (count < BACKGROUND_ROW_HEIGHT_MINIMUM) {
+			applyRowHeights(generation, rows, 0, count, measureRowHeights(generation, rows, 0, count, columns, widths), columns, widths);
+			return;
+		}
+		Rectangle visible = getVisibleRect();
+		int first = Math.min(findRowIndex(visible.y, false), count);
+		int last = Math.min(findRowIndex(visible.y + visible.height, true) + 1, count);
+		applyRowHeights(generation, rows, first, last, measureRowHeights(generation, rows, first, last, columns, widths), columns, widths);
+		mRowHeightUpdatePending = true;
+		if (!background) {
+			EventQueue.invokeLater(() -> measureRowHeightSlice(generation, rows, 0, columns, widths));
+			return;
+		}
+		Tasks.callOnBackgroundThread(() -> {
+			for (int start = 0; start < count && generation == mRowHeightGeneration; start += ROW_HEIGHT_CHUNK_SIZE) {
+				int from = start;
+				int to = Math.min(from + ROW_HEIGHT_CHUNK_SIZE, count);
+				int[][] measured = measureRowHeights(generation, rows, from, to, columns, widths);
+				if (measured != null) {
+					EventQueue.invokeLater(() -> {
+						applyRowHeights(generation, rows, from, to, measured, columns, widths);
+						if (to == count && generation == mRowHeightGeneration) {
+							mRowHeightUpdatePending = false;
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Measures rows on the event dispatch thread, starting at the specified index and stopping once
+	 * the time allowed for a slice has been used up, then queues the next slice behind any other
+	 * pending events.
+	 */
+	private void measureRowHeightSlice(int generation, List<Row> rows, int start, List<Column> columns, int[] widths) {
+		if (generation != mRowHeightGeneration) {
+			return;
+		}
+		int count = rows.size();
+		long deadline = System.nanoTime() + ROW_HEIGHT_SLICE_NANOS;
+		int[][] measured = new int[ROW_HEIGHT_SLICE_SIZE][];
+		int to = start;
+		while (to < count && System.nanoTime() < deadline) {
+			int end = Math.min(to + ROW_HEIGHT_SLICE_SIZE, count);
+			int[][] chunk = measureRowHeights(generation, rows, to, end, columns, widths);
+			if (chunk == null) {
+				return;
+			}
+			if (end - start > measured.length) {
+				measured = Arrays.copyOf(measured, Math.max(measured.length * 2, end - start));
+			}
+			System.arraycopy(chunk, 0, measured, to - start, chunk.length);
+			to = end;
+		}
+		// Apply the whole slice at once, so listeners are only told of the size change once
+		applyRowHeights(generation, rows, start, to, measured, columns, widths);
+		if (to < count) {
+			int next = to;
+			EventQueue.invokeLater(() -> measureRowHeightSlice(generation, rows, next, columns, widths));
+		} else {
+			mRowHeightUpdatePending = false;
+		}
+	}
+
+	/**
+	 * @return For each row, its preferred height followed by the height of each cell that had to
+	 *         be measured (or <code>-1</code>), or <code>null</code> if the measurements became
+	 *         obsolete part way through.
+	 */
+	private int[][] measureRowHeights(int generation, List<Row> rows, int from, int to, List<Column> columns, int[] widths) {
+		int[][] measured = new int[to - from][];
+		for (int i = from; i < to; i++) {
+			if (generation != mRowHeightGeneration) {
+				return null;
+			}
+			Row row = rows.get(i);
+			if (row.getOwner() == mModel) {
+				int[] cells = new int[widths.length];
+				int height = mRowHeightCache.getPreferredHeight(row, columns, widths, cells);
+				int[] result = new int[cells.length + 1];
+				result[0] = height;
+				System.arraycopy(cells, 0, result, 1, cells.length);
+				measured[i - from] = result;
+			}
+		}
+		return measured;
+	}
+
+	private void applyRowHeights(int generation, List<Row> rows, int from, int to, int[][] measured, List<Column> columns, int[] widths) {
+		if (measured == null || generation != mRowHeightGeneration) {
+			return;
+		}
+		// Keep the height index up to date as we go, rather than have it rebuilt from scratch
+		int version = mModel.getLayoutVersion();
+		RowHeightIndex index = mRowHeightIndex != null && !mRowHeightIndexStale && mRowHeightIndexVersion == version ? mRowHeightIndex : null;
+		int divider = mDrawRowDividers ? 1 : 0;
+		int[] cells = new int[widths.length];
+		boolean changed = false;
+		for (int i = from; i < to; i++) {
+			Row row = rows.get(i);
+			int[] result = measured[i - from];
+			if (result != null && row.getOwner() == mModel) {
+				System.arraycopy(result, 1, cells, 0, cells.length);
+				mRowHeightCache.putMeasured(row, columns, widths, cells);
+				int height = result[0];
+				if (row.getHeight() != height) {
+					row.setHeight(height);
+					changed = true;
+					if (index != null) {
+						int rowIndex = mModel.getIndexOfRow(row);
+						if (mModel.getLayoutVersion() != ++version) {
+							// Something other than this height change altered the layout
+							index = null;
+						} else if (!mModel.isRowFiltered(row)) {
+							index.setSpace(rowIndex, Math.max(height + divider, 0));
+						}
+					}
+				}
+			}
+		}
+		if (changed) {
+			if (index != null) {
+				mRowHeightIndexVersion = version;
+			}
+			contentSizeMayHaveChanged();
+			revalidate();
+			repaint();
+		}
 	}
 
 	@Override
@@ -2689,8 +2904,8 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 		for (Row element : rows) {
 			if (element == mRollRow) {
 				mRollRow = null;
-				break;
 			}
+			mRowHeightCache.remove(element);
 		}
 		contentSizeMayHaveChanged();
 		revalidateView();
@@ -2698,6 +2913,7 @@ public class Outline extends ActionPanel implements OutlineModelListener, Compon
 
 	@Override
 	public void rowWasModified(OutlineModel model, Row row, Column column) {
+		mRowHeightCache.remove(row);
 		repaint();
 	}
 
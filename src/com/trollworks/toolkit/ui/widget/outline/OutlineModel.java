@@ -17,11 +17,16 @@ import com.trollworks.toolkit.utility.text.Numbers;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.undo.StateEditable;
 
@@ -32,9 +37,12 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	private static final String				UNDO_KEY_SORT_CONFIG	= "SortConfig"; //$NON-NLS-1$
 	/** The current config version. */
 	public static final int					CONFIG_VERSION			= 4;
+	private static final int				PARALLEL_FILTER_MINIMUM	= 4096;
+	private static final AtomicInteger		FILTER_GENERATION		= new AtomicInteger();
 	private ArrayList<OutlineModelListener>	mListeners;
 	private ArrayList<Column>				mColumns;
 	private ArrayList<Row>					mRows;
+	private VirtualRowList					mVirtualRows;
 	private Selection						mSelection;
 	private Column							mDragColumn;
 	private Row[]							mDragRows;
@@ -45,6 +53,13 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	private boolean							mShowIndent;
 	private int								mIndentWidth;
 	private RowFilter						mRowFilter;
+	private int								mFilterGeneration;
+	private int								mLayoutVersion;
+	private int								mIndexedCount;
+	private int								mBatchDepth;
+	private ArrayList<BatchOperation>		mBatchOperations;
+	private boolean							mBatchSortCleared;
+	private boolean							mBatchNeedsSort;
 
 	/** Creates a new model. */
 	public OutlineModel() {
@@ -126,6 +141,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @param column The {@link Column} that was modified.
 	 */
 	public void notifyOfRowModification(Row row, Column column) {
+		reapplyRowFilter(row);
 		for (OutlineModelListener listener : getCurrentListeners()) {
 			listener.rowWasModified(this, row, column);
 		}
@@ -270,6 +286,10 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @param includeChildren Whether children of open rows are added as well.
 	 */
 	public void addRow(int index, Row row, boolean includeChildren) {
+		checkRowsAreOwned();
+		if (mBatchDepth > 0 && (index < 0 || index > mRows.size())) {
+			throw new IndexOutOfBoundsException();
+		}
 		ArrayList<Row> list = new ArrayList<>();
 		if (includeChildren) {
 			collectRowsAndSetOwner(list, row, false);
@@ -277,8 +297,14 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 			list.add(row);
 			row.setOwner(this);
 		}
+		if (mBatchDepth > 0) {
+			mBatchOperations.add(new BatchOperation(BatchOperation.INSERT, index, null, list.toArray(new Row[list.size()])));
+			clearSort();
+			return;
+		}
 		preserveSelection();
 		mRows.addAll(index, list);
+		rowsMoved(index);
 		mSelection.setSize(mRows.size());
 		restoreSelection();
 		notifyOfRowAdditions(list.toArray(new Row[0]));
@@ -288,7 +314,9 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	private void addChildren(Row row) {
 		List<Row> list = collectRowsAndSetOwner(new ArrayList<Row>(), row, true);
 		preserveSelection();
-		mRows.addAll(getIndexOfRow(row) + 1, list);
+		int index = getIndexOfRow(row) + 1;
+		mRows.addAll(index, list);
+		rowsMoved(index);
 		mSelection.setSize(mRows.size());
 		restoreSelection();
 		notifyOfRowAdditions(list.toArray(new Row[0]));
@@ -340,6 +368,11 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @param rows The rows to remove.
 	 */
 	public void removeRows(Row[] rows) {
+		checkRowsAreOwned();
+		if (mBatchDepth > 0) {
+			mBatchOperations.add(new BatchOperation(BatchOperation.REMOVE, 0, null, rows.clone()));
+			return;
+		}
 		HashSet<Row> set = new HashSet<>();
 		int i;
 
@@ -364,10 +397,22 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @param indexes The row indexes to remove.
 	 */
 	public void removeRows(int[] indexes) {
+		checkRowsAreOwned();
 		HashSet<Row> set = new HashSet<>();
 		int max = mRows.size();
 		int i;
 
+		if (mBatchDepth > 0) {
+			ArrayList<Row> rows = new ArrayList<>(indexes.length);
+			for (int index : indexes) {
+				if (index > -1 && index < max) {
+					rows.add(getRowAtIndex(index));
+				}
+			}
+			removeRows(rows.toArray(new Row[rows.size()]));
+			return;
+		}
+
 		for (i = 0; i < indexes.length; i++) {
 			int index = indexes[i];
 
@@ -414,9 +459,23 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 
 		preserveSelection();
 		notifyOfRowsWillBeRemoved(rows);
-		for (i = indexes.length - 1; i >= 0; i--) {
-			mRows.remove(indexes[i]);
-			rows[i].setOwner(null);
+		if (indexes.length > 0) {
+			// Compact the remaining rows in a single pass
+			int size = mRows.size();
+			int next = 0;
+			int dest = indexes[0];
+			for (i = dest; i < size; i++) {
+				if (next < indexes.length && indexes[next] == i) {
+					next++;
+				} else {
+					mRows.set(dest++, mRows.get(i));
+				}
+			}
+			mRows.subList(dest, size).clear();
+			rowsMoved(indexes[0]);
+		}
+		for (Row row : rows) {
+			row.setOwner(null);
 		}
 		mSelection.setSize(mRows.size());
 		restoreSelection();
@@ -425,12 +484,18 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 
 	/** Removes all rows. */
 	public void removeAllRows() {
+		checkRowsAreOwned();
+		if (mBatchDepth > 0) {
+			mBatchOperations.add(new BatchOperation(BatchOperation.CLEAR, 0, null, null));
+			return;
+		}
 		Row[] rows = mRows.toArray(new Row[0]);
 
 		mSelection.deselect();
 		mSelection.setSize(0);
 		notifyOfRowsWillBeRemoved(rows);
 		mRows.clear();
+		rowsMoved(0);
 		for (Row element : rows) {
 			element.setOwner(null);
 		}
@@ -445,14 +510,123 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 		removeRows(indexes);
 	}
 
-	/** @return The rows contained by the model. */
+	/**
+	 * @return The rows contained by the model. If this list is modified directly,
+	 *         {@link #rowLayoutChanged()} must be called afterwards. While a
+	 *         {@link VirtualRowSource} is in use, the list is read-only and creates its rows as they
+	 *         are asked for.
+	 */
 	public List<Row> getRows() {
-		return mRows;
+		return mVirtualRows != null ? mVirtualRows : mRows;
+	}
+
+	private void checkRowsAreOwned() {
+		if (mVirtualRows != null) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Switches the model to obtaining its rows on demand from a {@link VirtualRowSource}, or back to
+	 * holding its own rows. Any rows the model held and its {@link RowFilter} are removed. While a
+	 * source is in use, only the rows near those being displayed exist as {@link Row} objects, and
+	 * they are created again as needed, so a row should be referred to by its index rather than
+	 * held onto. Rows cannot be added, removed, filtered or opened, and sorting is left to the
+	 * source.
+	 *
+	 * @param source The source of the rows, or <code>null</code>.
+	 */
+	public void setRowSource(VirtualRowSource source) {
+		if (mVirtualRows == null) {
+			removeAllRows();
+		}
+		mSelection.deselect();
+		mRowFilter = null;
+		mVirtualRows = source != null ? new VirtualRowList(this, source) : null;
+		mSelection.setSize(getRowCount());
+		rowsMoved(0);
+		notifyOfRowAdditions(new Row[0]);
+	}
+
+	/**
+	 * @return The rows to measure when sizing a column to fit. While a {@link VirtualRowSource} is
+	 *         in use, this is only the rows near those most recently displayed, rather than every
+	 *         row.
+	 */
+	List<Row> getMeasurableRows() {
+		return mVirtualRows != null ? mVirtualRows.getWindowRows() : mRows;
+	}
+
+	/** @return The {@link VirtualRowSource} in use, or <code>null</code>. */
+	public VirtualRowSource getRowSource() {
+		return mVirtualRows != null ? mVirtualRows.getSource() : null;
+	}
+
+	/** @return Whether the rows are being obtained from a {@link VirtualRowSource}. */
+	public boolean isVirtual() {
+		return mVirtualRows != null;
+	}
+
+	/**
+	 * Call when the number, order, heights or data of the rows supplied by the
+	 * {@link VirtualRowSource} have changed. Rows obtained from the model beforehand are no longer
+	 * part of it. The selection is kept by index. Listeners are notified as if rows had been added.
+	 */
+	public void rowSourceChanged() {
+		if (mVirtualRows != null) {
+			mVirtualRows.reset();
+			mSelection.setSize(mVirtualRows.size());
+			rowsMoved(0);
+			notifyOfRowAdditions(new Row[0]);
+		}
+	}
+
+	/**
+	 * Called by views before displaying a range of rows. While a {@link VirtualRowSource} is in
+	 * use, this keeps the rows in the range, plus a margin either side, from being discarded and
+	 * gives the source a chance to load them in bulk. Otherwise, does nothing.
+	 *
+	 * @param first The index of the first row being displayed.
+	 * @param last The index of the last row being displayed.
+	 */
+	public void prefetchRows(int first, int last) {
+		if (mVirtualRows != null) {
+			mVirtualRows.prefetch(first, last);
+		}
+	}
+
+	/**
+	 * @return A number that changes whenever rows are added, removed, reordered, resized or
+	 *         re-filtered, allowing views to cache layout information.
+	 */
+	public int getLayoutVersion() {
+		return mLayoutVersion;
+	}
+
+	/**
+	 * Call to notify the model that the number, order, heights or filtered state of its rows have
+	 * changed in a way it could not have observed itself.
+	 */
+	public void rowLayoutChanged() {
+		rowsMoved(0);
+	}
+
+	/** Called when the height of a row has changed. */
+	void rowHeightChanged() {
+		mLayoutVersion++;
+	}
+
+	/** @param index The first index whose row may have changed. */
+	private void rowsMoved(int index) {
+		mLayoutVersion++;
+		if (mIndexedCount > index) {
+			mIndexedCount = index;
+		}
 	}
 
 	/** @return The total number of rows present in the outline. */
 	public int getRowCount() {
-		return mRows.size();
+		return getRows().size();
 	}
 
 	/**
@@ -460,7 +634,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @return The row at the specified index.
 	 */
 	public Row getRowAtIndex(int index) {
-		return mRows.get(index);
+		return getRows().get(index);
 	}
 
 	/**
@@ -468,13 +642,36 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @return The row index of the specified row.
 	 */
 	public int getIndexOfRow(Row row) {
-		return mRows.indexOf(row);
+		if (row == null || row.getOwner() != this) {
+			return -1;
+		}
+		if (mVirtualRows != null) {
+			return mVirtualRows.indexOf(row);
+		}
+		int index = row.getIndex();
+		if (index >= mIndexedCount || index < 0 || mRows.get(index) != row) {
+			// Renumber the rows whose indexes may have changed since the last lookup
+			int count = mRows.size();
+			for (int i = mIndexedCount; i < count; i++) {
+				mRows.get(i).setIndex(i);
+			}
+			mIndexedCount = count;
+			index = row.getIndex();
+			if (index < 0 || index >= count || mRows.get(index) != row) {
+				// Either not present or the row list was altered without notice
+				index = mRows.indexOf(row);
+				if (index != -1) {
+					rowLayoutChanged();
+				}
+			}
+		}
+		return index;
 	}
 
 	/** @return The top-level rows (i.e. those with a <code>null</code> parent). */
 	public List<Row> getTopLevelRows() {
 		ArrayList<Row> list = new ArrayList<>();
-		for (Row row : mRows) {
+		for (Row row : getRows()) {
 			if (row.getParent() == null) {
 				list.add(row);
 			}
@@ -507,8 +704,19 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 		mDragRows = rows;
 	}
 
-	/** Clears the sort criteria on the columns. */
+	/**
+	 * Clears the sort criteria on the columns. During a batch, the criteria are still cleared
+	 * right away, so that criteria set later in the batch survive, but any sort requested earlier
+	 * in the batch is dropped and notification is deferred until the batch ends.
+	 */
 	public void clearSort() {
+		if (mBatchDepth > 0) {
+			if (clearSortInternal()) {
+				mBatchSortCleared = true;
+			}
+			mBatchNeedsSort = false;
+			return;
+		}
 		if (clearSortInternal()) {
 			notifyOfSortCleared();
 		}
@@ -539,9 +747,68 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 		sortInternal(false);
 	}
 
+	/**
+	 * Moves a single row, whose data has changed, to its sorted position. This is much cheaper than
+	 * a full {@link #sort()}, as all other rows are assumed to already be in order. A row that is
+	 * hidden beneath a closed parent is moved within its parent's children, so that it is in order
+	 * once the parent is opened.
+	 *
+	 * @param row The row to reposition.
+	 */
+	public void sort(Row row) {
+		if (mBatchDepth > 0) {
+			mBatchNeedsSort = true;
+			return;
+		}
+		if (mVirtualRows != null) {
+			sortInternal(false);
+			return;
+		}
+		int index = getIndexOfRow(row);
+		if (index != -1) {
+			preserveSelection();
+			int changed = RowSorter.sort(mColumns, mRows, index, true);
+			if (changed != -1) {
+				rowsMoved(changed);
+			}
+			restoreSelection();
+			if (changed != -1) {
+				notifyOfSort(false);
+			}
+		} else if (isBeneathRowInModel(row) && RowSorter.sort(mColumns, row)) {
+			notifyOfSort(false);
+		}
+	}
+
+	private boolean isBeneathRowInModel(Row row) {
+		Row parent = row.getParent();
+		while (parent != null) {
+			if (getIndexOfRow(parent) != -1) {
+				return true;
+			}
+			parent = parent.getParent();
+		}
+		return false;
+	}
+
 	private void sortInternal(boolean restoring) {
+		if (mBatchDepth > 0) {
+			mBatchNeedsSort = true;
+			return;
+		}
+		if (mVirtualRows != null) {
+			// Without the rows, the selection cannot follow them to their new positions
+			if (mVirtualRows.getSource().sort(mColumns)) {
+				deselect();
+				mVirtualRows.reset();
+				rowsMoved(0);
+				notifyOfSort(restoring);
+			}
+			return;
+		}
 		preserveSelection();
 		RowSorter.sort(mColumns, mRows, true);
+		rowsMoved(0);
 		restoreSelection();
 		notifyOfSort(restoring);
 	}
@@ -646,7 +913,16 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 * @param open The new open state.
 	 */
 	public void rowOpenStateChanged(Row row, boolean open) {
-		if (row.hasChildren() && mRows.contains(row)) {
+		if (mBatchDepth > 0) {
+			if (row.hasChildren()) {
+				// Capture the affected rows now, as the tree may change further before the batch
+				// is applied
+				List<Row> rows = open ? collectRowsAndSetOwner(new ArrayList<Row>(), row, true) : row.getChildren();
+				mBatchOperations.add(new BatchOperation(open ? BatchOperation.OPEN : BatchOperation.CLOSE, 0, row, rows.toArray(new Row[rows.size()])));
+			}
+			return;
+		}
+		if (row.hasChildren() && getIndexOfRow(row) != -1) {
 			if (open) {
 				addChildren(row);
 			} else {
@@ -677,7 +953,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 *         its parents being selected.
 	 */
 	public boolean isExtendedRowSelected(int index) {
-		if (index < 0 || index >= mRows.size()) {
+		if (index < 0 || index >= getRowCount()) {
 			return false;
 		}
 		return isExtendedRowSelected(getRowAtIndex(index));
@@ -775,7 +1051,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	/** Selects all rows in the outline. */
 	public void select() {
 		mSelection.select();
-		reapplyRowFilter();
+		deselectFilteredRows();
 	}
 
 	/**
@@ -787,7 +1063,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 */
 	public void select(int rowIndex, boolean add) {
 		mSelection.select(rowIndex, add);
-		reapplyRowFilter();
+		deselectFilteredRows();
 	}
 
 	/**
@@ -799,7 +1075,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 */
 	public void select(Row row, boolean add) {
 		mSelection.select(getIndexOfRow(row), add);
-		reapplyRowFilter();
+		deselectFilteredRows();
 	}
 
 	/**
@@ -818,7 +1094,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 			indexes[i++] = getIndexOfRow(row);
 		}
 		mSelection.select(indexes, add);
-		reapplyRowFilter();
+		deselectFilteredRows();
 	}
 
 	/**
@@ -831,7 +1107,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 	 */
 	public void select(int from, int to, boolean add) {
 		mSelection.select(from, to, add);
-		reapplyRowFilter();
+		deselectFilteredRows();
 	}
 
 	/** Deselects all rows in the outline. */
@@ -990,15 +1266,17 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 
 	@Override
 	public void storeState(Hashtable<Object, Object> state) {
-		List<Row> rows = getRows();
-		state.put(UNDO_KEY_ROWS, new ArrayList<>(rows));
 		state.put(UNDO_KEY_SELECTION, new Selection(getSelection()));
 		String sortConfig = getSortConfig();
 		if (sortConfig != null) {
 			state.put(UNDO_KEY_SORT_CONFIG, sortConfig);
 		}
-		for (Row row : RowSorter.collectContainerRows(rows, new HashSet<Row>())) {
-			state.put(row, new RowUndoSnapshot(row));
+		// The rows supplied by a VirtualRowSource are its own to keep track of
+		if (mVirtualRows == null) {
+			state.put(UNDO_KEY_ROWS, new ArrayList<>(mRows));
+			for (Row row : RowSorter.collectContainerRows(mRows, new HashSet<Row>())) {
+				state.put(row, new RowUndoSnapshot(row));
+			}
 		}
 	}
 
@@ -1017,6 +1295,7 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 		for (Row row : mRows) {
 			row.resetOwner(this);
 		}
+		rowsMoved(0);
 		for (Object key : state.keySet()) {
 			if (key instanceof Row) {
 				((Row) key).applyUndoSnapshot(this, (RowUndoSnapshot) state.get(key));
@@ -1053,28 +1332,98 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 
 	/** @param filter The {@link RowFilter} to use. */
 	public void setRowFilter(RowFilter filter) {
+		if (filter != null) {
+			checkRowsAreOwned();
+		}
 		mRowFilter = filter;
+		filterRows();
 	}
 
 	/**
 	 * @param row The {@link Row} to check.
-	 * @return Whether the {@link Row} should be filtered from view.
+	 * @return Whether the {@link Row} should be filtered from view. The result of the
+	 *         {@link RowFilter} is cached until it is re-applied.
 	 */
 	public boolean isRowFiltered(Row row) {
-		if (mRowFilter != null) {
-			return mRowFilter.isRowFiltered(row);
+		RowFilter filter = mRowFilter;
+		if (filter != null) {
+			if (row.getFilterGeneration() != mFilterGeneration) {
+				row.setFiltered(filter.isRowFiltered(row), mFilterGeneration);
+			}
+			return row.isFiltered();
 		}
 		return false;
 	}
 
-	/** Causes the {@link RowFilter} to be re-applied to the selection. */
+	/**
+	 * Causes the {@link RowFilter} to be re-applied to all rows, then removes any rows that are now
+	 * filtered from the selection.
+	 */
 	public void reapplyRowFilter() {
+		filterRows();
+		deselectFilteredRows();
+	}
+
+	/**
+	 * Causes the {@link RowFilter} to be re-applied to a single row, such as after its data has
+	 * changed.
+	 *
+	 * @param row The {@link Row} to re-apply the filter to.
+	 */
+	public void reapplyRowFilter(Row row) {
+		RowFilter filter = mRowFilter;
+		if (filter != null) {
+			boolean filtered = filter.isRowFiltered(row);
+			if (row.getFilterGeneration() != mFilterGeneration || row.isFiltered() != filtered) {
+				row.setFiltered(filtered, mFilterGeneration);
+				mLayoutVersion++;
+				if (filtered && isRowSelected(row)) {
+					deselect(row);
+				}
+			}
+		}
+	}
+
+	private void filterRows() {
+		mFilterGeneration = FILTER_GENERATION.incrementAndGet();
+		mLayoutVersion++;
+		RowFilter filter = mRowFilter;
+		if (filter != null) {
+			int generation = mFilterGeneration;
+			int count = mRows.size();
+			if (count >= PARALLEL_FILTER_MINIMUM && filter.canFilterInParallel()) {
+				ForkJoinPool pool = ForkJoinPool.commonPool();
+				int chunk = Math.max(count / (pool.getParallelism() * 4), PARALLEL_FILTER_MINIMUM / 4);
+				List<ForkJoinTask<?>> tasks = new ArrayList<>();
+				for (int start = 0; start < count; start += chunk) {
+					int from = start;
+					int to = Math.min(start + chunk, count);
+					tasks.add(pool.submit(() -> filterRows(filter, generation, from, to)));
+				}
+				for (ForkJoinTask<?> task : tasks) {
+					task.join();
+				}
+			} else {
+				filterRows(filter, generation, 0, count);
+			}
+		}
+	}
+
+	private void filterRows(RowFilter filter, int generation, int from, int to) {
+		for (int i = from; i < to; i++) {
+			Row row = mRows.get(i);
+			row.setFiltered(filter.isRowFiltered(row), generation);
+		}
+	}
+
+	/** Removes any rows that are filtered from the selection. */
+	void deselectFilteredRows() {
 		if (mRowFilter != null) {
 			ArrayList<Row> list = new ArrayList<>(mSelection.getCount());
 			int index = mSelection.firstSelectedIndex();
 			while (index != -1) {
 				Row row = getRowAtIndex(index);
-				if (mRowFilter.isRowFiltered(row)) {
+				if (isRowFiltered(row)) {
 					list.add(row);
 				}
 				index = mSelection.nextSelectedIndex(index + 1);
@@ -1086,4 +1435,249 @@ public class OutlineModel implements SelectionOwner, StateEditable {
 			}
 		}
 	}
+
+	/**
+	 * Performs a series of updates as a single batch.
+	 *
+	 * @param updates The updates to perform.
+	 * @see #startBatchUpdate()
+	 */
+	public void batchUpdate(Runnable updates) {
+		startBatchUpdate();
+		try {
+			updates.run();
+		} finally {
+			endBatchUpdate();
+		}
+	}
+
+	/**
+	 * Starts a batch of updates. Until the matching call to {@link #endBatchUpdate()}, row
+	 * additions, removals, open state changes and sorts are recorded rather than applied, so the
+	 * rows, their indexes and the selection seen through the model remain as they were when the
+	 * batch started. Row indexes passed to the model during the batch refer to those rows. When the
+	 * outermost batch ends, the recorded changes are applied in order in a single pass, and
+	 * listeners receive one notification of each kind. Batches may be nested.
+	 */
+	public void startBatchUpdate() {
+		if (mBatchDepth++ == 0) {
+			mBatchOperations = new ArrayList<>();
+		}
+	}
+
+	/** Ends a batch of updates. See {@link #startBatchUpdate()}. */
+	public void endBatchUpdate() {
+		if (mBatchDepth > 0 && --mBatchDepth == 0) {
+			ArrayList<BatchOperation> operations = mBatchOperations;
+			boolean sortCleared = mBatchSortCleared;
+			boolean needsSort = mBatchNeedsSort;
+			mBatchOperations = null;
+			mBatchSortCleared = false;
+			mBatchNeedsSort = false;
+			if (!operations.isEmpty()) {
+				applyBatch(operations);
+			}
+			if (sortCleared) {
+				notifyOfSortCleared();
+			}
+			if (needsSort) {
+				sortInternal(false);
+			}
+		}
+	}
+
+	/** @return Whether a batch of updates is in progress. */
+	public boolean isBatchUpdating() {
+		return mBatchDepth > 0;
+	}
+
+	private void applyBatch(List<BatchOperation> operations) {
+		int count = mRows.size();
+		BatchNode head = new BatchNode(null, false);
+		BatchNode[] original = new BatchNode[count];
+		for (int i = 0; i < count; i++) {
+			original[i] = new BatchNode(mRows.get(i), false);
+			original[i].insertBefore(head);
+		}
+		// Only rows added during the batch need to be mapped, as the rest can still be found by index
+		HashMap<Row, BatchNode> nodes = new HashMap<>();
+
+		// Replay the operations against a linked copy of the rows
+		ArrayList<Row> candidates = new ArrayList<>();
+		for (BatchOperation operation : operations) {
+			switch (operation.mType) {
+				case BatchOperation.INSERT:
+					BatchNode anchor = operation.mIndex < count ? original[operation.mIndex] : head;
+					for (Row row : operation.mRows) {
+						BatchNode node = new BatchNode(row, true);
+						node.insertBefore(anchor);
+						nodes.put(row, node);
+						candidates.add(row);
+					}
+					break;
+				case BatchOperation.OPEN:
+					BatchNode parent = getBatchNode(operation.mRow, original, nodes);
+					if (parent != null && !parent.mRemoved) {
+						anchor = parent.mNext;
+						for (Row row : operation.mRows) {
+							BatchNode node = new BatchNode(row, true);
+							node.insertBefore(anchor);
+							nodes.put(row, node);
+						}
+					}
+					// The rows were given this model as their owner when the operation was
+					// recorded, so make sure they lose it again if they aren't displayed
+					Collections.addAll(candidates, operation.mRows);
+					break;
+				case BatchOperation.CLOSE:
+					parent = getBatchNode(operation.mRow, original, nodes);
+					if (parent != null && !parent.mRemoved) {
+						removeBatchRows(head, original, nodes, Arrays.asList(operation.mRows));
+					}
+					break;
+				case BatchOperation.REMOVE:
+					removeBatchRows(head, original, nodes, Arrays.asList(operation.mRows));
+					break;
+				case BatchOperation.CLEAR:
+					for (BatchNode node = head.mNext; node != head; node = node.mNext) {
+						node.mRemoved = true;
+					}
+					break;
+				default:
+					break;
+			}
+		}
+
+		ArrayList<Row> result = new ArrayList<>(count + candidates.size());
+		ArrayList<Row> added = new ArrayList<>();
+		for (BatchNode node = head.mNext; node != head; node = node.mNext) {
+			if (!node.mRemoved) {
+				result.add(node.mRow);
+				if (node.mAdded) {
+					added.add(node.mRow);
+				}
+			}
+		}
+		ArrayList<Row> removed = new ArrayList<>();
+		for (BatchNode node : original) {
+			if (node.mRemoved) {
+				removed.add(node.mRow);
+				candidates.add(node.mRow);
+			}
+		}
+		if (removed.isEmpty() && added.isEmpty()) {
+			// Anything added during the batch was also removed
+			for (Row row : candidates) {
+				row.setOwner(null);
+			}
+			return;
+		}
+
+		preserveSelection();
+		if (!removed.isEmpty()) {
+			// As when applied one at a time, rows that were removed lose their selection, even if
+			// they were added back
+			HashSet<Row> set = new HashSet<>(removed);
+			mSavedSelection.removeAll(set);
+			if (set.contains(mSavedAnchorRow)) {
+				mSavedAnchorRow = null;
+			}
+		}
+		Row[] removedRows = removed.toArray(new Row[removed.size()]);
+		if (removedRows.length > 0) {
+			notifyOfRowsWillBeRemoved(removedRows);
+		}
+		mRows.clear();
+		mRows.addAll(result);
+		rowsMoved(0);
+		count = mRows.size();
+		for (int i = 0; i < count; i++) {
+			mRows.get(i).setIndex(i);
+		}
+		mIndexedCount = count;
+		for (Row row : candidates) {
+			int index = row.getIndex();
+			if (index < 0 || index >= count || mRows.get(index) != row) {
+				row.setOwner(null);
+			}
+		}
+		mSelection.setSize(count);
+		restoreSelection();
+		if (removedRows.length > 0) {
+			notifyOfRowsWereRemoved(removedRows);
+		}
+		if (!added.isEmpty()) {
+			notifyOfRowAdditions(added.toArray(new Row[added.size()]));
+		}
+	}
+
+	private BatchNode getBatchNode(Row row, BatchNode[] original, HashMap<Row, BatchNode> nodes) {
+		BatchNode node = nodes.get(row);
+		if (node == null) {
+			int index = getIndexOfRow(row);
+			if (index != -1) {
+				node = original[index];
+			}
+		}
+		return node;
+	}
+
+	private void removeBatchRows(BatchNode head, BatchNode[] original, HashMap<Row, BatchNode> nodes, List<Row> rows) {
+		for (Row row : rows) {
+			BatchNode node = getBatchNode(row, original, nodes);
+			if (node != null && !node.mRemoved) {
+				// Take the row's displayed descendants with it
+				node.mRemoved = true;
+				for (node = node.mNext; node != head; node = node.mNext) {
+					if (!node.mRemoved) {
+						if (!node.mRow.isDescendantOf(row)) {
+							break;
+						}
+						node.mRemoved = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static class BatchOperation {
+		static final int	INSERT	= 0;
+		static final int	REMOVE	= 1;
+		static final int	OPEN	= 2;
+		static final int	CLOSE	= 3;
+		static final int	CLEAR	= 4;
+		final int			mType;
+		final int			mIndex;
+		final Row			mRow;
+		final Row[]			mRows;
+
+		BatchOperation(int type, int index, Row row, Row[] rows) {
+			mType = type;
+			mIndex = index;
+			mRow = row;
+			mRows = rows;
+		}
+	}
+
+	private static class BatchNode {
+		final Row		mRow;
+		final boolean	mAdded;
+		boolean			mRemoved;
+		BatchNode		mPrevious;
+		BatchNode		mNext;
+
+		BatchNode(Row row, boolean added) {
+			mRow = row;
+			mAdded = added;
+			mPrevious = this;
+			mNext = this;
+		}
+
+		void insertBefore(BatchNode other) {
+			mPrevious = other.mPrevious;
+			mNext = other;
+			other.mPrevious.mNext = this;
+			other.mPrevious = this;
+		}
+	}
 }
@@ -20,6 +20,9 @@ import java.util.List;
 /** Represents a single row of data within an {@link OutlineModel}. */
 public abstract class Row {
 	private OutlineModel		mOwner;
+	private int					mIndex;
+	private int					mFilterGeneration;
+	private boolean				mFiltered;
 	private int					mHeight;
 	private boolean				mOpen;
 	private Row					mParent;
@@ -28,6 +31,7 @@ public abstract class Row {
 
 	/** Create a new outline row. */
 	public Row() {
+		mIndex = -1;
 		mHeight = -1;
 	}
 
@@ -104,7 +108,12 @@ public abstract class Row {
 	 * @param height The height to set.
 	 */
 	public void setHeight(int height) {
-		mHeight = height;
+		if (mHeight != height) {
+			mHeight = height;
+			if (mOwner != null) {
+				mOwner.rowHeightChanged();
+			}
+		}
 	}
 
 	/**
@@ -138,6 +147,38 @@ public abstract class Row {
 		mOwner = owner;
 	}
 
+	/**
+	 * @return The index this row had within its owning model when last numbered. May be stale; see
+	 *         {@link OutlineModel#getIndexOfRow(Row)}.
+	 */
+	int getIndex() {
+		return mIndex;
+	}
+
+	/** @param index The index of this row within its owning model. */
+	void setIndex(int index) {
+		mIndex = index;
+	}
+
+	/** @return The generation of the row filter whose result is cached in this row. */
+	int getFilterGeneration() {
+		return mFilterGeneration;
+	}
+
+	/** @return The cached result of the row filter. */
+	boolean isFiltered() {
+		return mFiltered;
+	}
+
+	/**
+	 * @param filtered The result of the row filter.
+	 * @param generation The generation of the row filter that produced the result.
+	 */
+	void setFiltered(boolean filtered, int generation) {
+		mFiltered = filtered;
+		mFilterGeneration = generation;
+	}
+
 	/** @return Whether this row can have children or not. */
 	public boolean canHaveChildren() {
 		return mChildren != null;
@@ -11,11 +11,22 @@
 
 package com.trollworks.toolkit.ui.widget.outline;
 
-/** The interface for row filters. */
+/**
+ * The interface for row filters. Results are cached by the {@link OutlineModel}, so whenever the
+ * criteria change, {@link OutlineModel#reapplyRowFilter()} must be called.
+ */
 public interface RowFilter {
 	/**
 	 * @param row The {@link Row} to check.
 	 * @return Whether the {@link Row} should be filtered from display or not.
 	 */
 	boolean isRowFiltered(Row row);
+
+	/**
+	 * @return <code>true</code> if {@link #isRowFiltered(Row)} may be called for different rows
+	 *         from several threads at once, allowing large models to be filtered in parallel.
+	 */
+	default boolean canFilterInParallel() {
+		return false;
+	}
 }
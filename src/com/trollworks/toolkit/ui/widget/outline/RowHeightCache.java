@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.ui.widget.outline;
+
+import gnu.trove.map.hash.TObjectLongHashMap;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The preferred heights of the cells within an {@link Outline}'s rows, each remembered along with
+ * the width of the column it was measured at. Only the most recent width is kept for each cell.
+ * Safe for use from multiple threads.
+ */
+final class RowHeightCache {
+	private static final long							NONE		= -1;
+	private HashMap<Column, TObjectLongHashMap<Row>>	mHeights	= new HashMap<>();
+
+	/**
+	 * @param row The row to measure.
+	 * @param columns The columns to measure.
+	 * @param widths The widths of the columns to measure at.
+	 * @return The preferred height of the row, measuring only those cells whose height for the
+	 *         specified width is not already known. Any new measurements are remembered.
+	 */
+	int getPreferredHeight(Row row, List<Column> columns, int[] widths) {
+		int[] measured = new int[widths.length];
+		int height = getPreferredHeight(row, columns, widths, measured);
+		putMeasured(row, columns, widths, measured);
+		return height;
+	}
+
+	/**
+	 * Measures a row without remembering the result, so that it may be discarded if it turns out
+	 * to be stale by the time it can be used.
+	 *
+	 * @param row The row to measure.
+	 * @param columns The columns to measure.
+	 * @param widths The widths of the columns to measure at.
+	 * @param measured Filled with the height of each cell that had to be measured, or
+	 *            <code>-1</code> for those whose height was already known.
+	 * @return The preferred height of the row.
+	 */
+	int getPreferredHeight(Row row, List<Column> columns, int[] widths, int[] measured) {
+		int preferredHeight = 0;
+		for (int i = 0; i < widths.length; i++) {
+			Column column = columns.get(i);
+			int height = get(row, column, widths[i]);
+			measured[i] = -1;
+			if (height == -1) {
+				height = column.getRowCell(row).getPreferredHeight(row, column);
+				// Don't remember the result if the column was resized while measuring
+				if (column.getWidth() == widths[i]) {
+					measured[i] = height;
+				}
+			}
+			if (height > preferredHeight) {
+				preferredHeight = height;
+			}
+		}
+		return preferredHeight;
+	}
+
+	/**
+	 * @param row The row that was measured.
+	 * @param columns The columns that were measured.
+	 * @param widths The widths of the columns that were measured at.
+	 * @param measured The height of each cell that was measured, or <code>-1</code>.
+	 */
+	synchronized void putMeasured(Row row, List<Column> columns, int[] widths, int[] measured) {
+		for (int i = 0; i < measured.length; i++) {
+			if (measured[i] != -1) {
+				put(row, columns.get(i), widths[i], measured[i]);
+			}
+		}
+	}
+
+	private synchronized int get(Row row, Column column, int width) {
+		TObjectLongHashMap<Row> heights = mHeights.get(column);
+		if (heights != null) {
+			long entry = heights.get(row);
+			if (entry != NONE && (int) (entry >>> 32) == width) {
+				return (int) entry;
+			}
+		}
+		return -1;
+	}
+
+	private synchronized void put(Row row, Column column, int width, int height) {
+		TObjectLongHashMap<Row> heights = mHeights.get(column);
+		if (heights == null) {
+			heights = new TObjectLongHashMap<>(16, 0.5f, NONE);
+			mHeights.put(column, heights);
+		}
+		heights.put(row, (long) width << 32 | height & 0xFFFFFFFFL);
+	}
+
+	/** @param row The row to forget the heights of. */
+	synchronized void remove(Row row) {
+		for (TObjectLongHashMap<Row> heights : mHeights.values()) {
+			heights.remove(row);
+		}
+	}
+
+	/** Forgets all heights. */
+	synchronized void clear() {
+		mHeights.clear();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.ui.widget.outline;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Fenwick tree over the vertical space each row of an {@link OutlineModel} occupies, allowing the
+ * offset of a row and the row at an offset to be found in logarithmic time. Filtered rows occupy no
+ * space.
+ */
+final class RowHeightIndex {
+	private int[]	mTree	= new int[1];
+	private int[]	mSpace	= new int[0];
+	private int		mCount;
+	private int		mHighBit;
+
+	/**
+	 * Rebuilds the index from scratch.
+	 *
+	 * @param model The model to index.
+	 * @param divider The space used by the divider below each row.
+	 */
+	void rebuild(OutlineModel model, int divider) {
+		List<Row> rows = model.getRows();
+		mCount = rows.size();
+		if (mTree.length <= mCount) {
+			mTree = new int[mCount + 1];
+			mSpace = new int[mCount];
+		} else {
+			Arrays.fill(mTree, 0);
+		}
+		// Rows supplied on demand needn't be created just to learn their heights
+		VirtualRowSource source = model.getRowSource();
+		for (int i = 0; i < mCount; i++) {
+			if (source != null) {
+				mSpace[i] = Math.max(source.getRowHeight(i) + divider, 0);
+			} else {
+				Row row = rows.get(i);
+				mSpace[i] = model.isRowFiltered(row) ? 0 : Math.max(row.getHeight() + divider, 0);
+			}
+			mTree[i + 1] += mSpace[i];
+			int parent = i + 1 + (i + 1 & -(i + 1));
+			if (parent <= mCount) {
+				mTree[parent] += mTree[i + 1];
+			}
+		}
+		mHighBit = mCount == 0 ? 0 : Integer.highestOneBit(mCount);
+	}
+
+	/** @return The number of rows in the index. */
+	int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @param index The index of the row.
+	 * @return The space the row occupies, including its divider.
+	 */
+	int getSpace(int index) {
+		return mSpace[index];
+	}
+
+	/**
+	 * @param index The index of the row.
+	 * @param space The space the row now occupies, including its divider.
+	 */
+	void setSpace(int index, int space) {
+		int delta = space - mSpace[index];
+		if (delta != 0) {
+			mSpace[index] = space;
+			for (int i = index + 1; i <= mCount; i += i & -i) {
+				mTree[i] += delta;
+			}
+		}
+	}
+
+	/**
+	 * @param index The index of the row.
+	 * @return The total space occupied by all rows before the specified index.
+	 */
+	int getOffset(int index) {
+		int offset = 0;
+		for (int i = Math.min(index, mCount); i > 0; i -= i & -i) {
+			offset += mTree[i];
+		}
+		return offset;
+	}
+
+	/**
+	 * @param offset The offset to look for.
+	 * @return The index of the first row whose space extends beyond the offset, or
+	 *         {@link #getCount()} if there is none.
+	 */
+	int find(int offset) {
+		int index = 0;
+		for (int bit = mHighBit; bit != 0; bit >>>= 1) {
+			int next = index + bit;
+			if (next <= mCount && mTree[next] <= offset) {
+				index = next;
+				offset -= mTree[next];
+			}
+		}
+		return index;
+	}
+}
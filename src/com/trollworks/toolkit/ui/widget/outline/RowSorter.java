@@ -11,15 +11,26 @@
 
 package com.trollworks.toolkit.ui.widget.outline;
 
+import com.trollworks.toolkit.collections.KeyedSorter;
+
+import gnu.trove.list.array.TIntArrayList;
+
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
-/** Sorts rows by the sort sequence specified in the associated columns. */
+/**
+ * Sorts rows by the sort sequence specified in the associated columns. Rows are sorted within
+ * their sibling groups, using the sort keys their cells provide where possible, and independent
+ * groups are sorted in parallel.
+ */
 public class RowSorter implements Comparator<Row> {
-	private Column[]	mSortingOrder;
+	private Column[]			mSortingOrder;
+	private int					mCriteriaCount;
+	private KeyedSorter<Row>	mKeyedSorter;
 
 	private RowSorter(ArrayList<Column> columns) {
 		int count = columns.size();
@@ -56,6 +67,42 @@ public class RowSorter implements Comparator<Row> {
 				}
 			}
 		}
+
+		while (mCriteriaCount < count && mSortingOrder[mCriteriaCount] != null) {
+			mCriteriaCount++;
+		}
+		mKeyedSorter = new KeyedSorter<Row>() {
+			@Override
+			protected int getCriteriaCount() {
+				return mCriteriaCount;
+			}
+
+			@Override
+			protected Comparable<?> getKey(int criterion, Row row) {
+				Column column = mSortingOrder[criterion];
+				return column.getRowCell(null).getSortKey(column, row);
+			}
+
+			@Override
+			protected int compare(int criterion, Row one, Row two) {
+				Column column = mSortingOrder[criterion];
+				return column.getRowCell(null).compare(column, one, two);
+			}
+
+			@Override
+			protected boolean isAscending(int criterion) {
+				return mSortingOrder[criterion].isSortAscending();
+			}
+		};
+	}
+
+	private static boolean hasSort(List<Column> columns) {
+		for (Column column : columns) {
+			if (column.getSortSequence() != -1) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -77,21 +124,164 @@ public class RowSorter implements Comparator<Row> {
 	 *            sorted.
 	 */
 	public static void sort(ArrayList<Column> columns, ArrayList<Row> rows, boolean internal) {
-		for (Column column : columns) {
-			if (column.getSortSequence() != -1) {
-				RowSorter rowSorter = new RowSorter(columns);
+		if (hasSort(columns)) {
+			new RowSorter(columns).sort(rows, internal);
+		}
+	}
 
-				Collections.sort(rows, rowSorter);
-				if (internal) {
-					for (Row row : collectContainerRows(rows, new HashSet<Row>())) {
-						if (row.hasChildren()) {
-							Collections.sort(row.getChildList(), rowSorter);
+	private void sort(ArrayList<Row> rows, boolean internal) {
+		HashSet<Row> members = new HashSet<>(rows);
+		HashMap<Row, ArrayList<Row>> groups = new HashMap<>();
+		for (Row row : rows) {
+			addToGroup(groups, members, row);
+		}
+		List<List<Row>> lists = new ArrayList<>();
+		if (internal) {
+			HashSet<Row> containers = collectContainerRows(rows, new HashSet<Row>());
+			for (Row row : containers) {
+				if (row.hasChildren()) {
+					lists.add(row.getChildList());
+				}
+			}
+			for (Map.Entry<Row, ArrayList<Row>> entry : groups.entrySet()) {
+				if (!containers.contains(entry.getKey())) {
+					lists.add(entry.getValue());
+				}
+			}
+			mKeyedSorter.sort(lists);
+			// Groups whose parent's child storage was sorted just need to follow it
+			for (Map.Entry<Row, ArrayList<Row>> entry : groups.entrySet()) {
+				Row parent = entry.getKey();
+				if (containers.contains(parent)) {
+					ArrayList<Row> group = entry.getValue();
+					group.clear();
+					for (Row child : parent.getChildList()) {
+						if (members.contains(child) || groups.containsKey(child)) {
+							group.add(child);
 						}
 					}
 				}
-				return;
+			}
+		} else {
+			lists.addAll(groups.values());
+			mKeyedSorter.sort(lists);
+		}
+		rows.clear();
+		appendGroup(groups, members, null, rows);
+	}
+
+	private static void addToGroup(HashMap<Row, ArrayList<Row>> groups, HashSet<Row> members, Row row) {
+		Row parent = row.getParent();
+		ArrayList<Row> group = groups.get(parent);
+		if (group == null) {
+			group = new ArrayList<>();
+			groups.put(parent, group);
+			if (parent != null && !members.contains(parent)) {
+				// The parent isn't being sorted itself, but its position still determines where
+				// its children end up.
+				addToGroup(groups, members, parent);
 			}
 		}
+		group.add(row);
+	}
+
+	private static void appendGroup(HashMap<Row, ArrayList<Row>> groups, HashSet<Row> members, Row parent, ArrayList<Row> rows) {
+		ArrayList<Row> group = groups.get(parent);
+		if (group != null) {
+			for (Row row : group) {
+				if (members.contains(row)) {
+					rows.add(row);
+				}
+				appendGroup(groups, members, row, rows);
+			}
+		}
+	}
+
+	/**
+	 * Moves a single row to its sorted position, along with any of its descendants that follow it.
+	 * All other rows are assumed to already be sorted, so this is much cheaper than a full sort
+	 * when only one row's data has changed.
+	 *
+	 * @param columns The columns in the {@link Outline}.
+	 * @param rows The rows in the {@link Outline}.
+	 * @param index The index of the row to move.
+	 * @param internal Pass in <code>true</code> if the actual row child storage should also be
+	 *            updated.
+	 * @return The lowest index that was affected, or <code>-1</code> if nothing moved.
+	 */
+	public static int sort(ArrayList<Column> columns, ArrayList<Row> rows, int index, boolean internal) {
+		if (!hasSort(columns)) {
+			return -1;
+		}
+		RowSorter sorter = new RowSorter(columns);
+		Row row = rows.get(index);
+		Row parent = row.getParent();
+		if (internal) {
+			sorter.sortWithinParent(row);
+		}
+		int count = rows.size();
+		int end = index + 1;
+		while (end < count && rows.get(end).isDescendantOf(row)) {
+			end++;
+		}
+		int blockStart = index;
+		while (blockStart > 0 && isInBlock(rows.get(blockStart - 1), parent)) {
+			blockStart--;
+		}
+		int blockEnd = end;
+		while (blockEnd < count && isInBlock(rows.get(blockEnd), parent)) {
+			blockEnd++;
+		}
+		List<Row> range = rows.subList(index, end);
+		ArrayList<Row> moving = new ArrayList<>(range);
+		range.clear();
+		blockEnd -= moving.size();
+		ArrayList<Row> siblings = new ArrayList<>();
+		TIntArrayList positions = new TIntArrayList();
+		for (int i = blockStart; i < blockEnd; i++) {
+			Row one = rows.get(i);
+			if (one.getParent() == parent) {
+				siblings.add(one);
+				positions.add(i);
+			}
+		}
+		int pos = sorter.mKeyedSorter.findInsertionIndex(siblings, row);
+		int insertAt = pos < siblings.size() ? positions.get(pos) : blockEnd;
+		rows.addAll(insertAt, moving);
+		return insertAt == index ? -1 : Math.min(index, insertAt);
+	}
+
+	/**
+	 * Moves a single row to its sorted position within its parent's child storage. This is all
+	 * that is needed for a row that isn't being displayed, such as one whose parent is closed.
+	 *
+	 * @param columns The columns in the {@link Outline}.
+	 * @param row The row to move.
+	 * @return Whether the row moved.
+	 */
+	public static boolean sort(ArrayList<Column> columns, Row row) {
+		return hasSort(columns) && new RowSorter(columns).sortWithinParent(row);
+	}
+
+	private boolean sortWithinParent(Row row) {
+		Row parent = row.getParent();
+		if (parent != null) {
+			ArrayList<Row> children = parent.getChildList();
+			if (children != null) {
+				int index = children.indexOf(row);
+				if (index != -1) {
+					children.remove(index);
+					int insertAt = mKeyedSorter.findInsertionIndex(children, row);
+					children.add(insertAt, row);
+					return insertAt != index;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isInBlock(Row row, Row parent) {
+		return parent == null || row.isDescendantOf(parent);
 	}
 
 	/**
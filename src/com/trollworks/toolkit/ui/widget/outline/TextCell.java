@@ -11,9 +11,11 @@
 
 package com.trollworks.toolkit.ui.widget.outline;
 
+import com.trollworks.toolkit.collections.KeyedSorter;
 import com.trollworks.toolkit.ui.TextDrawing;
 import com.trollworks.toolkit.ui.image.StdImage;
 import com.trollworks.toolkit.utility.NumericComparator;
+import com.trollworks.toolkit.utility.NumericSortKey;
 
 import java.awt.Color;
 import java.awt.Cursor;
@@ -29,11 +31,12 @@ import javax.swing.UIManager;
 /** Represents text cells in an {@link Outline}. */
 public class TextCell implements Cell {
 	/** The standard horizontal margin. */
-	public static final int	H_MARGIN		= 2;
+	public static final int						H_MARGIN		= 2;
 	/** The standard horizontal margin width. */
-	public static final int	H_MARGIN_WIDTH	= H_MARGIN * 2;
-	private int				mHAlignment;
-	private boolean			mWrapped;
+	public static final int						H_MARGIN_WIDTH	= H_MARGIN * 2;
+	private static final ClassValue<Boolean>	BASE_COMPARE	= KeyedSorter.createInheritanceCheck(TextCell.class, "compare", Column.class, Row.class, Row.class); //$NON-NLS-1$
+	private int									mHAlignment;
+	private boolean								mWrapped;
 
 	/** Create a new text cell. */
 	public TextCell() {
@@ -71,6 +74,18 @@ public class TextCell implements Cell {
 		return NumericComparator.caselessCompareStrings(one.getDataAsText(column), two.getDataAsText(column));
 	}
 
+	/**
+	 * Supplies a key only while {@link #compare(Column, Row, Row)} has not been overridden, so
+	 * sub-classes that change the ordering fall back to it unless they override this as well.
+	 */
+	@Override
+	public Comparable<?> getSortKey(Column column, Row row) {
+		if (!BASE_COMPARE.get(getClass()).booleanValue()) {
+			return null;
+		}
+		return new NumericSortKey(row.getData(column), row.getDataAsText(column));
+	}
+
 	/**
 	 * @param selected Whether or not the selected version of the color is needed.
 	 * @param active Whether or not the active version of the color is needed.
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.ui.widget.outline;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of the rows supplied by a {@link VirtualRowSource}. Rows are created when first
+ * asked for and kept only while they fall within a window around the rows most recently displayed,
+ * so the number of {@link Row} objects in existence is bounded by the size of the view rather
+ * than the number of rows.
+ */
+final class VirtualRowList extends AbstractList<Row> implements RandomAccess {
+	private static final int	PREFETCH_MARGIN	= 64;
+	private OutlineModel		mOwner;
+	private VirtualRowSource	mSource;
+	private int					mCount;
+	private int					mGeneration;
+	private VirtualRow[]		mWindow;
+	private int					mStart;
+	private int					mPrefetchFrom;
+	private int					mPrefetchTo;
+
+	/**
+	 * @param owner The owning model.
+	 * @param source The source of the rows.
+	 */
+	VirtualRowList(OutlineModel owner, VirtualRowSource source) {
+		mOwner = owner;
+		mSource = source;
+		mWindow = new VirtualRow[PREFETCH_MARGIN * 4];
+		reset();
+	}
+
+	/** @return The source of the rows. */
+	VirtualRowSource getSource() {
+		return mSource;
+	}
+
+	/**
+	 * Discards all rows created so far and picks up the current row count from the source. Rows
+	 * created before this call are no longer considered part of the list.
+	 */
+	void reset() {
+		mCount = Math.max(mSource.getRowCount(), 0);
+		mGeneration++;
+		mWindow = new VirtualRow[mWindow.length];
+		mPrefetchFrom = 0;
+		mPrefetchTo = 0;
+	}
+
+	/**
+	 * Ensures the rows in the specified range, plus a margin either side, are kept, growing the
+	 * window if needed. The source is asked to prefetch them if they extend beyond the range it
+	 * was last asked for.
+	 *
+	 * @param first The index of the first row being displayed.
+	 * @param last The index of the last row being displayed.
+	 */
+	void prefetch(int first, int last) {
+		int from = Math.max(first - PREFETCH_MARGIN, 0);
+		int to = Math.min(last + 1 + PREFETCH_MARGIN, mCount);
+		if (from < to) {
+			if (to - from > mWindow.length) {
+				moveWindow(from, to - from);
+			} else if (from < mStart || to > mStart + mWindow.length) {
+				moveWindow(from, mWindow.length);
+			}
+			if (from < mPrefetchFrom || to > mPrefetchTo) {
+				mPrefetchFrom = from;
+				mPrefetchTo = to;
+				mSource.prefetch(from, to);
+			}
+		}
+	}
+
+	/**
+	 * @return The rows within the window, which is those near the rows most recently displayed.
+	 *         Retrieving them does not move the window.
+	 */
+	List<Row> getWindowRows() {
+		return subList(Math.min(mStart, mCount), Math.min(mStart + mWindow.length, mCount));
+	}
+
+	private void moveWindow(int start, int capacity) {
+		start = Math.max(Math.min(start, mCount - capacity), 0);
+		VirtualRow[] window = new VirtualRow[capacity];
+		int from = Math.max(start, mStart);
+		int to = Math.min(start + capacity, mStart + mWindow.length);
+		if (from < to) {
+			System.arraycopy(mWindow, from - mStart, window, from - start, to - from);
+		}
+		mWindow = window;
+		mStart = start;
+	}
+
+	@Override
+	public int size() {
+		return mCount;
+	}
+
+	@Override
+	public Row get(int index) {
+		if (index < 0 || index >= mCount) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (index < mStart) {
+			// Slide the window backwards, keeping a margin beyond the requested row
+			moveWindow(index + 1 + PREFETCH_MARGIN - mWindow.length, mWindow.length);
+		} else if (index >= mStart + mWindow.length) {
+			moveWindow(index - PREFETCH_MARGIN, mWindow.length);
+		}
+		VirtualRow row = mWindow[index - mStart];
+		if (row == null) {
+			row = new VirtualRow(this, index);
+			mWindow[index - mStart] = row;
+		}
+		return row;
+	}
+
+	@Override
+	public int indexOf(Object obj) {
+		if (obj instanceof VirtualRow) {
+			VirtualRow row = (VirtualRow) obj;
+			if (row.mList == this && row.mGeneration == mGeneration) {
+				return row.getIndex();
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object obj) {
+		return indexOf(obj);
+	}
+
+	@Override
+	public boolean contains(Object obj) {
+		return indexOf(obj) != -1;
+	}
+
+	private static final class VirtualRow extends Row {
+		private VirtualRowList	mList;
+		private int				mGeneration;
+
+		VirtualRow(VirtualRowList list, int index) {
+			mList = list;
+			mGeneration = list.mGeneration;
+			setIndex(index);
+			setHeight(list.mSource.getRowHeight(index));
+			setOwner(list.mOwner);
+		}
+
+		@Override
+		public Object getData(Column column) {
+			return mList.mSource.getData(getIndex(), column);
+		}
+
+		@Override
+		public String getDataAsText(Column column) {
+			return mList.mSource.getDataAsText(getIndex(), column);
+		}
+
+		@Override
+		public void setData(Column column, Object data) {
+			mList.mSource.setData(getIndex(), column, data);
+		}
+	}
+}
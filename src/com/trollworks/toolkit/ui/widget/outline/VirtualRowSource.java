@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.ui.widget.outline;
+
+import java.util.List;
+
+/**
+ * Supplies the rows of an {@link OutlineModel} on demand, identifying each by its index, so that
+ * only the rows being displayed need to exist as {@link Row} objects. The rows supplied are all
+ * top-level rows without children.
+ *
+ * @see OutlineModel#setRowSource(VirtualRowSource)
+ */
+public interface VirtualRowSource {
+	/** @return The number of rows. */
+	int getRowCount();
+
+	/**
+	 * @param index The index of the row.
+	 * @return The height of the row.
+	 */
+	int getRowHeight(int index);
+
+	/**
+	 * @param index The index of the row.
+	 * @param column The column.
+	 * @return The data for the specified column.
+	 */
+	Object getData(int index, Column column);
+
+	/**
+	 * @param index The index of the row.
+	 * @param column The column.
+	 * @return The data for the specified column as text.
+	 */
+	String getDataAsText(int index, Column column);
+
+	/**
+	 * Sets the data for the specified column. By default, the rows are read-only.
+	 *
+	 * @param index The index of the row.
+	 * @param column The column.
+	 * @param data The data to set.
+	 */
+	default void setData(int index, Column column, Object data) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Called when a column is being sized to fit its contents, so that every row need not be
+	 * created and measured. By default, no hint is given and only the rows near those last
+	 * displayed are measured.
+	 *
+	 * @param column The column.
+	 * @return The preferred width of the widest of the column's cells, as
+	 *         {@link Cell#getPreferredWidth(Row, Column)} would report it, or <code>-1</code> if
+	 *         not known.
+	 */
+	default int getPreferredWidth(Column column) {
+		return -1;
+	}
+
+	/**
+	 * Called when a range of rows is about to be displayed, giving the source a chance to load
+	 * their data in bulk. Does nothing by default.
+	 *
+	 * @param from The index of the first row in the range.
+	 * @param to The index after the last row in the range.
+	 */
+	default void prefetch(int from, int to) {
+		// Does nothing.
+	}
+
+	/**
+	 * Called when the model is asked to sort its rows. Sources that can sort should reorder their
+	 * rows according to the sort criteria of the columns. Does nothing by default.
+	 *
+	 * @param columns The columns, in model order.
+	 * @return Whether the order of the rows changed.
+	 */
+	default boolean sort(List<Column> columns) {
+		return false;
+	}
+}
@@ -11,10 +11,12 @@
 
 package com.trollworks.toolkit.ui.widget.tree;
 
+import com.trollworks.toolkit.collections.KeyedSorter;
 import com.trollworks.toolkit.ui.Fonts;
 import com.trollworks.toolkit.ui.TextDrawing;
 import com.trollworks.toolkit.ui.image.StdImage;
 import com.trollworks.toolkit.utility.NumericComparator;
+import com.trollworks.toolkit.utility.NumericSortKey;
 
 import java.awt.Color;
 import java.awt.Font;
@@ -25,14 +27,15 @@ import javax.swing.SwingConstants;
 
 /** Displays text in a {@link TreeColumn}. */
 public class TextTreeColumn extends TreeColumn {
-	public static final int	ICON_GAP			= 2;
-	public static final int	HMARGIN				= 2;
-	public static final int	VMARGIN				= 1;
-	private FieldAccessor	mFieldAccessor;
-	private IconAccessor	mIconAccessor;
-	private int				mAlignment;
-	private int				mTruncationPolicy	= SwingConstants.CENTER;
-	private WrappingMode	mWrappingMode;
+	public static final int						ICON_GAP			= 2;
+	public static final int						HMARGIN				= 2;
+	public static final int						VMARGIN				= 1;
+	private static final ClassValue<Boolean>	BASE_COMPARE		= KeyedSorter.createInheritanceCheck(TextTreeColumn.class, "compare", TreeRow.class, TreeRow.class); //$NON-NLS-1$
+	private FieldAccessor						mFieldAccessor;
+	private IconAccessor						mIconAccessor;
+	private int									mAlignment;
+	private int									mTruncationPolicy	= SwingConstants.CENTER;
+	private WrappingMode						mWrappingMode;
 
 	public enum WrappingMode {
 		NORMAL,
@@ -244,4 +247,16 @@ public class TextTreeColumn extends TreeColumn {
 	public int compare(TreeRow r1, TreeRow r2) {
 		return NumericComparator.caselessCompareStrings(getText(r1), getText(r2));
 	}
+
+	/**
+	 * Supplies a key only while {@link #compare(TreeRow, TreeRow)} has not been overridden, so
+	 * sub-classes that change the ordering fall back to it unless they override this as well.
+	 */
+	@Override
+	public Comparable<?> getSortKey(TreeRow row) {
+		if (!BASE_COMPARE.get(getClass()).booleanValue()) {
+			return null;
+		}
+		return new NumericSortKey(getText(row));
+	}
 }
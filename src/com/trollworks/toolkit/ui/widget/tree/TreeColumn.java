@@ -64,6 +64,18 @@ public abstract class TreeColumn implements Comparator<TreeRow>, Transferable {
 	 */
 	public abstract int calculatePreferredHeight(TreeRow row, int width);
 
+	/**
+	 * @param row The {@link TreeRow} to extract the key from.
+	 * @return A key that orders {@link TreeRow}s the same way {@link #compare(Object, Object)}
+	 *         does, so that sorting need only consult each {@link TreeRow} once, or
+	 *         <code>null</code> if {@link #compare(Object, Object)} should be used instead. Keys may
+	 *         be compared on other threads, so must be immutable.
+	 */
+	@SuppressWarnings("static-method")
+	public Comparable<?> getSortKey(TreeRow row) {
+		return null;
+	}
+
 	/**
 	 * @param panel The owning {@link TreePanel}.
 	 * @return The preferred height of this {@link TreeColumn}'s header.
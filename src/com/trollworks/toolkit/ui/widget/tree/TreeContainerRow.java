@@ -197,18 +197,41 @@ public class TreeContainerRow extends TreeRow {
 			mChildren.get(start).setIndex(start);
 			start++;
 		}
+		TreeRoot root = getTreeRoot();
+		if (root != null) {
+			root.structureChanged();
+		}
 	}
 
 	/** @param sorter The {@link TreeSorter} to use. */
 	public void sort(TreeSorter sorter) {
 		if (!mChildren.isEmpty()) {
-			for (TreeRow child : mChildren) {
-				if (child instanceof TreeContainerRow) {
-					((TreeContainerRow) child).sort(sorter);
-				}
+			List<TreeContainerRow> containers = getRecursiveChildContainers(null);
+			containers.add(this);
+			List<List<TreeRow>> lists = new ArrayList<>(containers.size());
+			for (TreeContainerRow container : containers) {
+				lists.add(container.mChildren);
+			}
+			sorter.sort(lists);
+			for (TreeContainerRow container : containers) {
+				container.renumber(0);
 			}
-			Collections.sort(mChildren, sorter);
-			renumber(0);
+		}
+	}
+
+	/**
+	 * Moves a child to its sorted position, leaving the other children alone.
+	 *
+	 * @param child The child to reposition.
+	 * @param sorter The {@link TreeSorter} to use.
+	 */
+	void sort(TreeRow child, TreeSorter sorter) {
+		int index = child.getIndex();
+		if (index >= 0 && index < mChildren.size() && mChildren.get(index) == child) {
+			mChildren.remove(index);
+			int insertAt = sorter.findInsertionIndex(mChildren, child);
+			mChildren.add(insertAt, child);
+			renumber(Math.min(index, insertAt));
 		}
 	}
 
@@ -91,6 +91,9 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	private HashSet<TreeContainerRow>	mOpenRows					= new HashSet<>();
 	private HashSet<TreeRow>			mSelectedRows				= new HashSet<>();
 	private TObjectIntHashMap<TreeRow>	mRowHeightMap				= new TObjectIntHashMap<>();
+	private TreeRowLayout				mRowLayout;
+	private int							mRowLayoutVersion;
+	private boolean						mRowLayoutStale				= true;
 	private int							mRowHeight					= TextTreeColumn.VMARGIN + TextDrawing.getFontHeight(Fonts.getDefaultFont()) + TextTreeColumn.VMARGIN;
 	private int							mMouseOverColumnDivider		= -1;
 	private int							mDragColumnDivider			= -1;
@@ -125,6 +128,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	public TreePanel(TreeRoot root) {
 		mRoot = root;
 		mRoot.getNotifier().add(this, TreeNotificationKeys.ROW_REMOVED);
+		mRowLayout = new TreeRowLayout(this);
 		setUnitIncrement(mRowHeight + getRowDividerHeight());
 		setFocusable(true);
 		addFocusListener(this);
@@ -466,6 +470,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	public final void setRowHeight(int height) {
 		if (mRowHeight != height) {
 			mRowHeight = height;
+			mRowLayout.heightChanged(0);
 			invalidateAllRowHeights();
 		}
 	}
@@ -568,11 +573,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	@Override
 	public Dimension getPreferredContentSize() {
 		int width = 0;
-		int height = 0;
-		int dividerHeight = getRowDividerHeight();
-		for (TreeRow row : new TreeRowViewIterator(this, mRoot.getChildren())) {
-			height += getRowHeight(row) + dividerHeight;
-		}
+		int height = getRowLayout().getHeight();
 		for (TreeColumn column : mColumns) {
 			width += column.getWidth();
 		}
@@ -650,6 +651,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	public void invalidateRowHeight(TreeRow row) {
 		if (mRowHeight < 1) {
 			if (mRowHeightMap.remove(row) != 0) {
+				rowHeightChanged(row);
 				notify(TreeNotificationKeys.ROW_HEIGHT, new TreeRow[] { row });
 			}
 		}
@@ -660,10 +662,34 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 		if (mRowHeight < 1) {
 			TreeRow[] rows = mRowHeightMap.keys(new TreeRow[mRowHeightMap.size()]);
 			mRowHeightMap.clear();
+			mRowLayout.heightChanged(0);
 			notify(TreeNotificationKeys.ROW_HEIGHT, rows);
 		}
 	}
 
+	private void rowHeightChanged(TreeRow row) {
+		if (!mRowLayoutStale) {
+			int index = mRowLayout.getIndex(row);
+			if (index != -1) {
+				mRowLayout.heightChanged(index);
+			}
+		}
+	}
+
+	/**
+	 * @return The {@link TreeRow}s being displayed, in view order, along with their offsets. Only
+	 *         rebuilt when the structure of the tree or the open state of its rows changes.
+	 */
+	private TreeRowLayout getRowLayout() {
+		int version = mRoot.getStructureVersion();
+		if (mRowLayoutStale || mRowLayoutVersion != version) {
+			mRowLayout.rebuild(mRoot);
+			mRowLayoutVersion = version;
+			mRowLayoutStale = false;
+		}
+		return mRowLayout;
+	}
+
 	@Override
 	public void drawHeader(Graphics2D gc) {
 		super.drawHeader(gc);
@@ -723,31 +749,34 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 		if (mResizePending && mResizeRow != null) {
 			y = min - getRowBounds(mResizeRow).y;
 		}
-		int count = 0;
-		int dividerHeight = getRowDividerHeight();
 		Rectangle dragClip = getDragClip();
 		boolean drawingDragImage = isDrawingDragImage();
-		for (TreeRow row : new TreeRowViewIterator(this, mRoot.getChildren())) {
-			int height = getRowHeight(row) + dividerHeight;
-			if (y + height > min) {
-				if (drawingDragImage) {
-					if (mSelectedRows.contains(row)) {
-						if (dragClip == null) {
-							dragClip = new Rectangle(bounds.x, y, bounds.width, height);
-						} else {
-							dragClip.height = y + height - dragClip.y;
-						}
-						drawRow(gc, row, count, y, active);
+		TreeRowLayout layout = getRowLayout();
+		int rowCount = layout.getCount();
+		// Start with the first row that intersects the view
+		int rowIndex = layout.find(min - y);
+		if (rowIndex == -1) {
+			rowIndex = min - y < 0 ? 0 : rowCount;
+		}
+		for (; rowIndex < rowCount; rowIndex++) {
+			int top = y + layout.getOffset(rowIndex);
+			if (top >= max) {
+				break;
+			}
+			int height = layout.getOffset(rowIndex + 1) - layout.getOffset(rowIndex);
+			TreeRow row = layout.getRow(rowIndex);
+			if (drawingDragImage) {
+				if (mSelectedRows.contains(row)) {
+					if (dragClip == null) {
+						dragClip = new Rectangle(bounds.x, top, bounds.width, height);
+					} else {
+						dragClip.height = top + height - dragClip.y;
 					}
-				} else {
-					drawRow(gc, row, count, y, active);
+					drawRow(gc, row, rowIndex, top, active);
 				}
+			} else {
+				drawRow(gc, row, rowIndex, top, active);
 			}
-			y += height;
-			if (y >= max) {
-				break;
-			}
-			count++;
 		}
 		drawColumnDividers(gc);
 		if (drawingDragImage) {
@@ -999,23 +1028,16 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 		int max = bounds.y + bounds.height;
 		int x = bounds.x;
 		int width = bounds.width;
-		int y = 0;
-		int dividerHeight = getRowDividerHeight();
-		for (TreeRow row : new TreeRowViewIterator(this, mRoot.getChildren())) {
-			int height = getRowHeight(row) + dividerHeight;
-			if (y + height > min) {
-				if (set.contains(row)) {
+		TreeRowLayout layout = getRowLayout();
+		for (TreeRow row : set) {
+			int index = layout.getIndex(row);
+			if (index != -1) {
+				int y = layout.getOffset(index);
+				int height = layout.getOffset(index + 1) - y;
+				if (y + height > min && y < max) {
 					repaintContentView(x, y, width, height);
-					set.remove(row);
-					if (set.isEmpty()) {
-						break;
-					}
 				}
 			}
-			y += height;
-			if (y >= max) {
-				break;
-			}
 		}
 	}
 
@@ -1025,16 +1047,13 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	 *         viewable.
 	 */
 	public Rectangle getRowBounds(TreeRow row) {
-		int y = 0;
-		int dividerHeight = getRowDividerHeight();
-		for (TreeRow one : new TreeRowViewIterator(this, mRoot.getChildren())) {
-			int height = getRowHeight(one) + dividerHeight;
-			if (one == row) {
-				return new Rectangle(0, y, getContentSize().width, height);
-			}
-			y += height;
+		TreeRowLayout layout = getRowLayout();
+		int index = layout.getIndex(row);
+		if (index == -1) {
+			return null;
 		}
-		return null;
+		int y = layout.getOffset(index);
+		return new Rectangle(0, y, getContentSize().width, layout.getOffset(index + 1) - y);
 	}
 
 	/**
@@ -1067,17 +1086,9 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	 * @return The {@link TreeRow} at the specified y-coordinate, or <code>null</code>.
 	 */
 	public TreeRow overRow(int y) {
-		if (y < 0) {
-			return null;
-		}
-		int dividerHeight = getRowDividerHeight();
-		for (TreeRow row : new TreeRowViewIterator(this, mRoot.getChildren())) {
-			y -= getRowHeight(row) + dividerHeight;
-			if (y < 0) {
-				return row;
-			}
-		}
-		return null;
+		TreeRowLayout layout = getRowLayout();
+		int index = layout.find(y);
+		return index != -1 ? layout.getRow(index) : null;
 	}
 
 	public boolean showHeader() {
@@ -1109,6 +1120,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 	public void setShowRowDivider(boolean visible) {
 		if (visible != mShowRowDivider) {
 			mShowRowDivider = visible;
+			mRowLayout.heightChanged(0);
 			notify(TreeNotificationKeys.ROW_DIVIDER, Boolean.valueOf(mShowRowDivider));
 		}
 	}
@@ -1262,6 +1274,7 @@ public class TreePanel extends DirectScrollPanel implements Runnable, Openable,
 				}
 				mOpenRows.removeAll(modified);
 			}
+			mRowLayoutStale = true;
 			notify(open ? TreeNotificationKeys.ROW_OPENED : TreeNotificationKeys.ROW_CLOSED, data);
 			if (!selectionRemoved.isEmpty()) {
 				TreeRow[] oldSelection = mSelectedRows.toArray(new TreeRow[mSelectedRows.size()]);
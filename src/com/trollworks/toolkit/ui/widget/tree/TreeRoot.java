@@ -16,6 +16,7 @@ import com.trollworks.toolkit.utility.notification.Notifier;
 /** Provides the root of a tree of {@link TreeRow}s. */
 public class TreeRoot extends TreeContainerRow {
 	private Notifier	mNotifier;
+	private int			mStructureVersion;
 
 	/**
 	 * Creates a new {@link TreeRoot}.
@@ -30,4 +31,20 @@ public class TreeRoot extends TreeContainerRow {
 	public Notifier getNotifier() {
 		return mNotifier;
 	}
+
+	/**
+	 * @return A number that changes whenever {@link TreeRow}s are added to, removed from or
+	 *         reordered within this tree, allowing views to cache layout information.
+	 */
+	public int getStructureVersion() {
+		return mStructureVersion;
+	}
+
+	/**
+	 * Called when {@link TreeRow}s have been added to, removed from or reordered within this
+	 * tree.
+	 */
+	void structureChanged() {
+		mStructureVersion++;
+	}
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.ui.widget.tree;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * The {@link TreeRow}s a {@link TreePanel} displays, flattened into view order, along with the
+ * vertical offset of each. Offsets are only calculated as far as they have been asked for, so rows
+ * below those being looked at need not have their heights determined.
+ */
+final class TreeRowLayout {
+	private TreePanel					mPanel;
+	private TreeRow[]					mRows		= new TreeRow[0];
+	private int[]						mOffsets	= new int[1];
+	private TObjectIntHashMap<TreeRow>	mIndexes	= new TObjectIntHashMap<>(16, 0.5f, -1);
+	private int							mCount;
+	private int							mValidCount;
+
+	/** @param panel The {@link TreePanel} being laid out. */
+	TreeRowLayout(TreePanel panel) {
+		mPanel = panel;
+	}
+
+	/**
+	 * Rebuilds the layout from scratch.
+	 *
+	 * @param root The {@link TreeRoot} being displayed.
+	 */
+	void rebuild(TreeRoot root) {
+		mIndexes.clear();
+		mCount = 0;
+		for (TreeRow row : new TreeRowViewIterator(mPanel, root.getChildren())) {
+			if (mCount == mRows.length) {
+				mRows = Arrays.copyOf(mRows, Math.max(mCount * 2, 16));
+			}
+			mIndexes.put(row, mCount);
+			mRows[mCount++] = row;
+		}
+		Arrays.fill(mRows, mCount, mRows.length, null);
+		if (mOffsets.length <= mCount) {
+			mOffsets = new int[mRows.length + 1];
+		}
+		mValidCount = 0;
+	}
+
+	/**
+	 * Forgets the offsets of the rows after the specified one, as its height has changed.
+	 *
+	 * @param index The index of the row.
+	 */
+	void heightChanged(int index) {
+		if (mValidCount > index) {
+			mValidCount = index;
+		}
+	}
+
+	/** @return The number of rows. */
+	int getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @param index The index of the row.
+	 * @return The row at the specified index.
+	 */
+	TreeRow getRow(int index) {
+		return mRows[index];
+	}
+
+	/**
+	 * @param row The row.
+	 * @return The index of the row, or <code>-1</code> if it is not being displayed.
+	 */
+	int getIndex(TreeRow row) {
+		return mIndexes.get(row);
+	}
+
+	/**
+	 * @param index The index of the row, from <code>0</code> to {@link #getCount()}.
+	 * @return The offset of the top of the row, which is also the bottom of the row before it,
+	 *         including its divider.
+	 */
+	int getOffset(int index) {
+		if (index > mValidCount) {
+			int divider = mPanel.getRowDividerHeight();
+			int offset = mOffsets[mValidCount];
+			while (mValidCount < index) {
+				offset += mPanel.getRowHeight(mRows[mValidCount]) + divider;
+				mOffsets[++mValidCount] = offset;
+			}
+		}
+		return mOffsets[index];
+	}
+
+	/** @return The total height of the rows, including their dividers. */
+	int getHeight() {
+		return getOffset(mCount);
+	}
+
+	/**
+	 * @param y The offset to look for.
+	 * @return The index of the row whose space, including its divider, contains the offset, or
+	 *         <code>-1</code> if there is none.
+	 */
+	int find(int y) {
+		if (y < 0) {
+			return -1;
+		}
+		// Only calculate as many offsets as are needed to reach the one being looked for
+		while (mValidCount < mCount && mOffsets[mValidCount] <= y) {
+			getOffset(Math.min(mValidCount * 2 + 1, mCount));
+		}
+		if (y >= mOffsets[mValidCount]) {
+			return -1;
+		}
+		int low = 0;
+		int high = mValidCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (mOffsets[middle + 1] <= y) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -11,12 +11,41 @@
 
 package com.trollworks.toolkit.ui.widget.tree;
 
+import com.trollworks.toolkit.collections.KeyedSorter;
+
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
-/** Provides sorting of tree data. */
+/**
+ * Provides sorting of tree data. Sort keys are extracted from each {@link TreeRow} once per sort
+ * where the {@link TreeColumn}s support it, and the children of independent containers are sorted
+ * in parallel.
+ */
 public class TreeSorter implements Comparator<TreeRow> {
-	private ArrayList<SortData>	mSortData	= new ArrayList<>();
+	private ArrayList<SortData>		mSortData		= new ArrayList<>();
+	private KeyedSorter<TreeRow>	mKeyedSorter	= new KeyedSorter<TreeRow>() {
+		@Override
+		protected int getCriteriaCount() {
+			return mSortData.size();
+		}
+
+		@Override
+		protected Comparable<?> getKey(int criterion, TreeRow row) {
+			return mSortData.get(criterion).mColumn.getSortKey(row);
+		}
+
+		@Override
+		protected int compare(int criterion, TreeRow one, TreeRow two) {
+			return mSortData.get(criterion).mColumn.compare(one, two);
+		}
+
+		@Override
+		protected boolean isAscending(int criterion) {
+			return mSortData.get(criterion).mAscending;
+		}
+	};
 
 	/** @return Whether or not multiple sort criteria exists. */
 	public boolean hasMultipleCriteria() {
@@ -115,6 +144,34 @@ public class TreeSorter implements Comparator<TreeRow> {
 		}
 	}
 
+	/**
+	 * Moves a single {@link TreeRow}, whose data has changed, to its sorted position within its
+	 * parent. This is much cheaper than a full sort, as all other {@link TreeRow}s are assumed to
+	 * already be in order.
+	 *
+	 * @param row The {@link TreeRow} to reposition.
+	 */
+	public void sort(TreeRow row) {
+		TreeContainerRow parent = row.getParent();
+		if (!mSortData.isEmpty() && parent != null) {
+			parent.sort(row, this);
+		}
+	}
+
+	/** @param lists The independent lists of {@link TreeRow}s to sort. */
+	void sort(Collection<? extends List<TreeRow>> lists) {
+		mKeyedSorter.sort(lists);
+	}
+
+	/**
+	 * @param rows The sorted {@link TreeRow}s.
+	 * @param row The {@link TreeRow} to locate the position for.
+	 * @return The index the {@link TreeRow} should be inserted at.
+	 */
+	int findInsertionIndex(List<TreeRow> rows, TreeRow row) {
+		return mKeyedSorter.findInsertionIndex(rows, row);
+	}
+
 	@Override
 	public int compare(TreeRow r1, TreeRow r2) {
 		for (SortData sortData : mSortData) {
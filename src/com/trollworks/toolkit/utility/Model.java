@@ -14,10 +14,17 @@ package com.trollworks.toolkit.utility;
 import com.trollworks.toolkit.annotation.Localize;
 import com.trollworks.toolkit.io.xml.XmlGenerator;
 import com.trollworks.toolkit.io.xml.XmlParser;
+import com.trollworks.toolkit.io.xml.XmlRecords;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -73,6 +80,43 @@ public abstract class Model implements Cloneable {
 		}
 	}
 
+	/**
+	 * Load the model's content from the specified bytes, using the common {@link ForkJoinPool} to
+	 * load independent top-level child tags in parallel.
+	 *
+	 * @param data The bytes to load from.
+	 * @param context The {@link ModelContext} to use.
+	 * @see #loadInParallel(byte[], ModelContext, ForkJoinPool)
+	 */
+	public final void loadInParallel(byte[] data, ModelContext context) throws XMLStreamException {
+		loadInParallel(data, context, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Load the model's content from the specified bytes. A quick pass is made over the data to
+	 * locate the top-level child tags. Those for which {@link #isIndependentChildTag(String)}
+	 * returns <code>true</code> are parsed by tasks in the {@link ForkJoinPool} and handed to
+	 * {@link #addIndependentChild(String, Object, ModelContext)} in document order. All other
+	 * child tags are passed to {@link #loadChildTag(String, XmlParser, ModelContext)} as usual. If
+	 * the data cannot be split safely, it is loaded sequentially instead.
+	 *
+	 * @param data The bytes to load from.
+	 * @param context The {@link ModelContext} to use.
+	 * @param pool The {@link ForkJoinPool} to use.
+	 */
+	public final void loadInParallel(byte[] data, ModelContext context, ForkJoinPool pool) throws XMLStreamException {
+		XmlRecords records = XmlRecords.scan(data);
+		if (records == null) {
+			load(new ByteArrayInputStream(data), context);
+		} else {
+			try (XmlParser parser = new XmlParser(new ByteArrayInputStream(data))) {
+				if (getRootTag().equals(parser.nextTag())) {
+					load(parser, context, records, pool);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Load the model's content from the specified {@link XmlParser}.
 	 *
@@ -80,6 +124,10 @@ public abstract class Model implements Cloneable {
 	 * @param context The {@link ModelContext} to use.
 	 */
 	public final void load(XmlParser parser, ModelContext context) throws XMLStreamException {
+		load(parser, context, null, null);
+	}
+
+	private void load(XmlParser parser, ModelContext context, XmlRecords records, ForkJoinPool pool) throws XMLStreamException {
 		String tag = parser.getCurrentTag();
 		if (getRootTag().equals(tag)) {
 			modelWillLoad(context);
@@ -94,8 +142,12 @@ public abstract class Model implements Cloneable {
 			context.mVersionStack.push(Integer.valueOf(version));
 			loadAttributes(parser, context);
 			if (!loadContents(parser, context)) {
-				while ((tag = parser.nextTag(marker)) != null) {
-					loadChildTag(tag, parser, context);
+				if (records != null) {
+					loadRecords(records, context, pool);
+				} else {
+					while ((tag = parser.nextTag(marker)) != null) {
+						loadChildTag(tag, parser, context);
+					}
 				}
 			}
 			modelDidLoad(context);
@@ -105,6 +157,67 @@ public abstract class Model implements Cloneable {
 		}
 	}
 
+	private void loadRecords(XmlRecords records, ModelContext context, ForkJoinPool pool) throws XMLStreamException {
+		int count = records.getCount();
+		List<ForkJoinTask<Object>> tasks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String tag = records.getTag(i);
+			if (isIndependentChildTag(tag)) {
+				InputStream stream = records.getStream(i);
+				ModelContext taskContext = context.fork();
+				tasks.add(pool.submit(() -> {
+					try (XmlParser parser = new XmlParser(stream)) {
+						parser.nextTag();
+						return loadIndependentChildTag(tag, parser, taskContext);
+					}
+				}));
+			} else {
+				tasks.add(null);
+			}
+		}
+		int i = 0;
+		try {
+			for (; i < count; i++) {
+				String tag = records.getTag(i);
+				ForkJoinTask<Object> task = tasks.get(i);
+				if (task != null) {
+					Object child;
+					try {
+						child = task.get();
+					} catch (ExecutionException exception) {
+						// The pool wraps checked exceptions thrown by the task, possibly more
+						// than once, so look for the original.
+						Throwable cause = exception.getCause();
+						for (Throwable one = cause; one != null; one = one.getCause()) {
+							if (one instanceof XMLStreamException) {
+								throw records.relocate(i, (XMLStreamException) one);
+							}
+						}
+						throw new XMLStreamException(cause);
+					}
+					addIndependentChild(tag, child, context);
+				} else {
+					try (XmlParser parser = new XmlParser(records.getStream(i))) {
+						parser.nextTag();
+						loadChildTag(tag, parser, context);
+					} catch (XMLStreamException exception) {
+						throw records.relocate(i, exception);
+					}
+				}
+			}
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new XMLStreamException(exception);
+		} finally {
+			for (; i < count; i++) {
+				ForkJoinTask<Object> task = tasks.get(i);
+				if (task != null) {
+					task.cancel(false);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Called to allow the loading of the text contents of the tag, rather than sub-tags.
 	 *
@@ -160,6 +273,51 @@ public abstract class Model implements Cloneable {
 		parser.skip();
 	}
 
+	/**
+	 * Called by {@link #loadInParallel(byte[], ModelContext, ForkJoinPool)} to determine whether a
+	 * top-level child tag can be loaded on another thread, without reference to the model's state
+	 * or to the other child tags. The default implementation returns <code>false</code>.
+	 *
+	 * @param tag The top-level child tag.
+	 * @return Whether the tag can be loaded by
+	 *         {@link #loadIndependentChildTag(String, XmlParser, ModelContext)}.
+	 */
+	@SuppressWarnings({ "unused", "static-method" })
+	protected boolean isIndependentChildTag(String tag) {
+		return false;
+	}
+
+	/**
+	 * Called on a {@link ForkJoinPool} thread for each top-level child tag for which
+	 * {@link #isIndependentChildTag(String)} returned <code>true</code>. Implementations must not
+	 * modify the model. The default implementation skips the tag.
+	 *
+	 * @param tag The current tag to load.
+	 * @param parser The {@link XmlParser}, which contains only this tag.
+	 * @param context A copy of the {@link ModelContext}, private to this call.
+	 * @return The object loaded from the tag, which will be passed to
+	 *         {@link #addIndependentChild(String, Object, ModelContext)}.
+	 */
+	@SuppressWarnings({ "unused", "static-method" })
+	protected Object loadIndependentChildTag(String tag, XmlParser parser, ModelContext context) throws XMLStreamException {
+		parser.skip();
+		return null;
+	}
+
+	/**
+	 * Called on the loading thread, in document order, with each object returned from
+	 * {@link #loadIndependentChildTag(String, XmlParser, ModelContext)}. The default implementation
+	 * does nothing.
+	 *
+	 * @param tag The tag the object was loaded from.
+	 * @param child The object that was loaded.
+	 * @param context The {@link ModelContext}.
+	 */
+	@SuppressWarnings("unused")
+	protected void addIndependentChild(String tag, Object child, ModelContext context) throws XMLStreamException {
+		// Does nothing by default.
+	}
+
 	/**
 	 * Saves the model's content to the specified {@link OutputStream}.
 	 *
@@ -19,4 +19,15 @@ import java.util.HashMap;
 public class ModelContext extends HashMap<String, Object> {
 	/** The stack for the versions of the data being loaded. */
 	public Stack<Integer>	mVersionStack	= new Stack<>();
+
+	/**
+	 * @return A new {@link ModelContext} with the same contents and version stack as this one,
+	 *         suitable for use by a task loading part of a model on another thread.
+	 */
+	public ModelContext fork() {
+		ModelContext context = new ModelContext();
+		context.putAll(this);
+		context.mVersionStack.addAll(mVersionStack);
+		return context;
+	}
 }
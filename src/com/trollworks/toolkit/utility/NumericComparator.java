@@ -60,8 +60,37 @@ public class NumericComparator implements Comparator<String> {
 		if (right == null) {
 			right = ""; //$NON-NLS-1$
 		}
-		char[] chars0 = left.toCharArray();
-		char[] chars1 = right.toCharArray();
+		return compare(left.toCharArray(), right.toCharArray(), mCaseless);
+	}
+
+	/**
+	 * @param text The text to prepare.
+	 * @return The characters of the text, case-folded so that a case-sensitive comparison of them
+	 *         gives the same result as a caseless comparison of the original text.
+	 */
+	static char[] getCaselessChars(String text) {
+		char[] chars = text != null ? text.toCharArray() : new char[0];
+		for (int i = 0; i < chars.length; i++) {
+			char ch = chars[i];
+			if (ch < 128) {
+				if (ch >= 'a' && ch <= 'z') {
+					chars[i] = (char) (ch - ('a' - 'A'));
+				}
+			} else if (Character.isLowerCase(ch)) {
+				chars[i] = Character.toUpperCase(ch);
+			}
+		}
+		return chars;
+	}
+
+	/**
+	 * @param chars0 The first characters.
+	 * @param chars1 The second characters.
+	 * @param caseless Whether the comparison should ignore case.
+	 * @return A negative integer, zero, or a positive integer if the first argument is less than,
+	 *         equal to, or greater than the second.
+	 */
+	static int compare(char[] chars0, char[] chars1, boolean caseless) {
 		int pos0 = 0;
 		int pos1 = 0;
 		int len0 = chars0.length;
@@ -102,8 +131,8 @@ public class NumericComparator implements Comparator<String> {
 				}
 
 				try {
-					long val0 = Long.parseLong(left.substring(pos0 - count0, pos0));
-					long val1 = Long.parseLong(right.substring(pos1 - count1, pos1));
+					long val0 = parseDigits(chars0, pos0 - count0, pos0);
+					long val1 = parseDigits(chars1, pos1 - count1, pos1);
 					normalCompare = false;
 					if (val0 > val1) {
 						result = 1;
@@ -124,7 +153,7 @@ public class NumericComparator implements Comparator<String> {
 			}
 
 			if (normalCompare) {
-				if (mCaseless) {
+				if (caseless) {
 					int c0Val = Character.isLowerCase(c0) ? Character.toUpperCase(c0) : c0;
 					int c1Val = Character.isLowerCase(c1) ? Character.toUpperCase(c1) : c1;
 					result = c0Val - c1Val;
@@ -153,6 +182,18 @@ public class NumericComparator implements Comparator<String> {
 		return result;
 	}
 
+	private static long parseDigits(char[] chars, int start, int end) {
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = chars[i] - '0';
+			if (value > (Long.MAX_VALUE - digit) / 10) {
+				throw new NumberFormatException();
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
 	private static final boolean isDigit(char ch) {
 		return ch >= '0' && ch <= '9';
 	}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 1998-2015 by Richard A. Wilkes. All rights reserved.
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * version 2.0. If a copy of the MPL was not distributed with this file, You
+ * can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * This Source Code Form is "Incompatible With Secondary Licenses", as defined
+ * by the Mozilla Public License, version 2.0.
+ */
+
+package com.trollworks.toolkit.utility;
+
+/**
+ * A precomputed key that orders text the same way
+ * {@link NumericComparator#caselessCompareStrings(String, String)} does, without having to prepare
+ * the text again on each comparison. A key may also carry a value, which takes precedence when
+ * both keys being compared carry values of the same class.
+ */
+public final class NumericSortKey implements Comparable<NumericSortKey> {
+	private Comparable<Object>	mValue;
+	private char[]				mText;
+
+	/** @param text The text to create a key for. */
+	public NumericSortKey(String text) {
+		this(null, text);
+	}
+
+	/**
+	 * @param value The value to create a key for. It will only be used if it is a
+	 *            {@link Comparable} other than a {@link String}.
+	 * @param text The text to create a key for, used when the values cannot be compared.
+	 */
+	@SuppressWarnings("unchecked")
+	public NumericSortKey(Object value, String text) {
+		if (value instanceof Comparable<?> && !(value instanceof String)) {
+			mValue = (Comparable<Object>) value;
+		}
+		mText = NumericComparator.getCaselessChars(text);
+	}
+
+	@Override
+	public int compareTo(NumericSortKey other) {
+		if (mValue != null && other.mValue != null && mValue.getClass() == other.mValue.getClass()) {
+			return mValue.compareTo(other.mValue);
+		}
+		return NumericComparator.compare(mText, other.mText, false);
+	}
+}